@@ -0,0 +1,261 @@
+/*
+ * PROJECT: NyARToolkit for Android SDK
+ * --------------------------------------------------------------------------------
+ * This work is based on the original ARToolKit developed by
+ *   Hirokazu Kato
+ *   Mark Billinghurst
+ *   HITLab, University of Washington, Seattle
+ * http://www.hitl.washington.edu/artoolkit/
+ *
+ * NyARToolkit for Android SDK
+ *   Copyright (C)2010 NyARToolkit for Android team
+ *   Copyright (C)2010 R.Iizuka(nyatla)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For further information please contact.
+ *  http://sourceforge.jp/projects/nyartoolkit-and/
+ *
+ * This work is based on the NyARToolKit developed by
+ *  R.Iizuka (nyatla)
+ *    http://nyatla.jp/nyatoolkit/
+ *
+ * contributor(s)
+ *  Atsuo Igarashi
+ */
+
+package jp.androidgroup.nyartoolkit;
+
+import java.util.Arrays;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.param.NyARParam;
+import jp.nyatla.nyartoolkit.core.raster.rgb.NyARRgbRaster_NV21;
+import jp.nyatla.nyartoolkit.core.types.matrix.NyARDoubleMatrix44;
+import jp.nyatla.nyartoolkit.jogl.utils.NyARGLUtil;
+
+/**
+ * ARToolkitDrawerが1フレームの処理に使う作業バッファをまとめたクラス
+ *  プレビューサイズ毎に一度だけ確保し、サイズが変わった時だけ作り直す。
+ *  検出結果の配列はダブルバッファになっていて、{@link #swap}で表/裏を切り替える。
+ *  Rendererに渡した直前のフレームの結果を、次のフレームの処理中に上書きしないため。
+ */
+public class ARFrameContext
+{
+	/**
+	 * 一回の処理で扱う最大のマーカー数
+	 */
+	private final int mMarkerMax;
+
+	private int mWidth = 0;
+	private int mHeight = 0;
+
+	/**
+	 * プレビュー画像(NV21)を外部参照するラスタ
+	 *  RGBに変換せず、カメラから受け取ったbyte[]をそのまま参照する。
+	 */
+	private NyARRgbRaster_NV21 mRaster = null;
+
+	/**
+	 * マーカー毎のmodel view行列(ダブルバッファ)
+	 */
+	private final float[][][] mResultf;
+
+	/**
+	 * マーカー毎のARCodeインデクス(ダブルバッファ)
+	 */
+	private final int[][] mCodeIndex;
+
+	/**
+	 * 射影行列(ダブルバッファ)
+	 */
+	private final float[][] mProjection = new float[2][16];
+
+	/**
+	 * NyARGLUtilの出力を受け取る作業領域
+	 */
+	private final double[] mScratch = new double[16];
+
+	/**
+	 * 視錐台を受け取る作業領域
+	 */
+	private final NyARDoubleMatrix44 mFrustum = new NyARDoubleMatrix44();
+
+	/**
+	 * 現在のフレームが使う面
+	 */
+	private int mFront = 0;
+
+	/**
+	 * 射影行列を計算済みならtrue。サイズが変わるとfalseに戻る。
+	 */
+	private boolean mHasProjection = false;
+
+	/**
+	 * {@link #prepare}を呼び出した回数
+	 */
+	private long mFrameCount = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param i_marker_max
+	 * 一回の処理で扱う最大のマーカー数
+	 */
+	public ARFrameContext(int i_marker_max)
+	{
+		this.mMarkerMax = i_marker_max;
+		this.mResultf = new float[2][i_marker_max][16];
+		this.mCodeIndex = new int[2][i_marker_max];
+	}
+
+	/**
+	 * フレームの処理を始める前に呼び出す。
+	 *  プレビューサイズが前回と異なる場合だけラスタを作り直し、プレビュー画像をラスタに割り当てる。
+	 *
+	 * @param i_yuv420sp プレビュー画像(NV21)
+	 * @param i_width プレビューサイズ(width)
+	 * @param i_height プレビューサイズ(height)
+	 * @return ラスタを作り直した場合はtrue
+	 * @throws NyARException
+	 */
+	public boolean prepare(byte[] i_yuv420sp, int i_width, int i_height) throws NyARException
+	{
+		this.mFrameCount++;
+		boolean realloc = false;
+		if (this.mWidth != i_width || this.mHeight != i_height || this.mRaster == null) {
+			this.mRaster = new NyARRgbRaster_NV21(i_width, i_height, false);
+			this.mWidth = i_width;
+			this.mHeight = i_height;
+			this.mHasProjection = false;
+			realloc = true;
+		}
+		this.mRaster.wrapBuffer(i_yuv420sp);
+		// 信頼度が低くて飛ばしたスロットに2フレーム前の結果が残らないよう、表面を0で埋める。
+		// 毎フレーム配列を確保していた時と同じく、使わないスロットはID 0、行列は全て0になる。
+		final float[][] resultf = this.mResultf[this.mFront];
+		final int[] code_index = this.mCodeIndex[this.mFront];
+		for (int i = 0; i < this.mMarkerMax; i++) {
+			Arrays.fill(resultf[i], 0f);
+			code_index[i] = 0;
+		}
+		return realloc;
+	}
+
+	/**
+	 * 表と裏のバッファを入れ替える。
+	 *  Rendererに結果を渡した後に呼び出す。
+	 */
+	public void swap()
+	{
+		this.mFront ^= 1;
+	}
+
+	public int width()
+	{
+		return this.mWidth;
+	}
+
+	public int height()
+	{
+		return this.mHeight;
+	}
+
+	public int markerMax()
+	{
+		return this.mMarkerMax;
+	}
+
+	public NyARRgbRaster_NV21 raster()
+	{
+		return this.mRaster;
+	}
+
+	public float[][] results()
+	{
+		return this.mResultf[this.mFront];
+	}
+
+	public int[] codeIndexes()
+	{
+		return this.mCodeIndex[this.mFront];
+	}
+
+	public float[] projection()
+	{
+		return this.mProjection[this.mFront];
+	}
+
+	/**
+	 * 射影行列はプレビューサイズが同じ間は変わらないので、計算済みかどうかを返す。
+	 */
+	public boolean hasProjection()
+	{
+		return this.mHasProjection;
+	}
+
+	/**
+	 * 射影行列を計算して両面に書き込み、計算済みにする。計算済みなら何もしない。
+	 *  ARToolkitDrawer.toCameraFrustumRHf()と同じ値(near=10, far=10000)を、作業領域だけで求める。
+	 *
+	 * @param i_param カメラパラメータ(スクリーンサイズはプレビューサイズに合わせておくこと)
+	 */
+	public void computeProjection(NyARParam i_param)
+	{
+		if (this.mHasProjection) {
+			return;
+		}
+		final double scale = NyARGLUtil.SCALE_FACTOR_toCameraFrustumRH_NYAR2;
+		i_param.makeCameraFrustumRH(10 * scale, 10000 * scale, this.mFrustum);
+		this.mFrustum.getValueT(this.mScratch);
+		for (int i = 0; i < 16; i++) {
+			this.mProjection[0][i] = this.mProjection[1][i] = (float) this.mScratch[i];
+		}
+		this.mHasProjection = true;
+	}
+
+	/**
+	 * 表面のスロットにマーカーの検出結果を書き込む。
+	 *  ARToolkitDrawer.toCameraViewRHf()と同じくmodel view行列に変換する。
+	 *
+	 * @param i_index スロット番号
+	 * @param i_code ARCodeインデクス
+	 * @param i_transmat 変換行列
+	 */
+	public void setResult(int i_index, int i_code, NyARDoubleMatrix44 i_transmat)
+	{
+		final float[] result = this.mResultf[this.mFront][i_index];
+		NyARGLUtil.toCameraViewRH(i_transmat, NyARGLUtil.SCALE_FACTOR_toCameraViewRH_NYAR2, this.mScratch);
+		for (int i = 0; i < 16; i++) {
+			result[i] = (float) this.mScratch[i];
+		}
+		this.mCodeIndex[this.mFront][i_index] = i_code;
+	}
+
+	/**
+	 * NyARGLUtilの出力を受け取る作業領域
+	 */
+	public double[] scratch()
+	{
+		return this.mScratch;
+	}
+
+	/**
+	 * {@link #prepare}を呼び出した回数
+	 */
+	public long frameCount()
+	{
+		return this.mFrameCount;
+	}
+}
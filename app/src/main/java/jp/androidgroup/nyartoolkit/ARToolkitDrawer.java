@@ -39,7 +39,6 @@ package jp.androidgroup.nyartoolkit;
 
 import android.hardware.Camera;
 import android.media.MediaPlayer;
-import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -52,10 +51,13 @@ import min3d.core.Renderer;
 
 import jp.nyatla.nyartoolkit.NyARException;
 import jp.nyatla.nyartoolkit.core.NyARCode;
+import jp.nyatla.nyartoolkit.core.analyzer.histogram.NyARHistogramAnalyzer_SlidePTile;
+import jp.nyatla.nyartoolkit.core.param.NyARCameraDistortionFactor;
+import jp.nyatla.nyartoolkit.core.param.NyARObserv2IdealMap;
 import jp.nyatla.nyartoolkit.core.param.NyARParam;
-import jp.nyatla.nyartoolkit.core.raster.rgb.NyARRgbRaster_RGB;
 import jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult;
 import jp.nyatla.nyartoolkit.core.types.NyARBufferType;
+import jp.nyatla.nyartoolkit.core.types.NyARIntSize;
 import jp.nyatla.nyartoolkit.core.types.matrix.NyARDoubleMatrix44;
 import jp.nyatla.nyartoolkit.detector.NyARDetectMarker;
 import jp.nyatla.nyartoolkit.jogl.utils.NyARGLUtil;
@@ -77,15 +79,53 @@ public class ARToolkitDrawer
 	 */
 	private static final int MARKER_MAX = 4;
 
+	/**
+	 * 自動敷居値の設定。SlidePTileで明暗両側から取り除く画素の割合(%)
+	 */
+	private static final int AUTO_THRESHOLD_PTILE = 15;
+
+	/**
+	 * 自動敷居値の設定。ヒストグラムを取る画素の間隔
+	 */
+	private static final int AUTO_THRESHOLD_INTERVAL = 4;
+
+	/**
+	 * 自動敷居値の設定。前のフレームの敷居値の重み
+	 */
+	private static final double AUTO_THRESHOLD_SMOOTHING = 0.5;
+
+	/**
+	 * 追跡モードの設定。全画面を探索する間隔(フレーム数)
+	 */
+	private static final int TRACKING_FULL_SEARCH_INTERVAL = 10;
+
+	/**
+	 * 追跡モードの設定。前のフレームのマーカの外接矩形に加える余白(長辺に対する割合)
+	 */
+	private static final double TRACKING_MARGIN = 0.25;
+
+	/**
+	 * 追跡モードの設定。追跡するマーカの最小の一致度。描画に使う一致度と同じにする。
+	 */
+	private static final double TRACKING_MIN_CONFIDENCE = 0.60;
+
 	/**
 	 * @see jp.nyatla.nyartoolkit.detector.NyARDetectMarker
 	 */
 	private NyARDetectMarker nya = null;
 
 	/**
-	 * @see jp.nyatla.nyartoolkit.core.raster.rgb.NyARRgbRaster_RGB
+	 * フレーム毎の作業バッファ。プレビューサイズが変わった時だけ確保し直す。
+	 * @see ARFrameContext
 	 */
-	private NyARRgbRaster_RGB raster = null;
+	private final ARFrameContext mFrame = new ARFrameContext(MARKER_MAX);
+
+	/**
+	 * プレビューサイズを取得したカメラ
+	 */
+	private Camera mPreviewCamera = null;
+	private int mPreviewWidth;
+	private int mPreviewHeight;
 
 	/**
 	 * カメラパラメータを保持するクラス
@@ -105,7 +145,8 @@ public class ARToolkitDrawer
 	private double marker_width[];
 
 	/**
-	 * 検出したマーカーの座標変換行列
+	 * 検出したマーカーの座標変換行列の受け取り用。
+	 * continueモードの初期値はNyARDetectMarkerがマーカ毎に持つので、全マーカで共有してよい。
 	 * @see jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult
 	 */
 	private NyARTransMatResult ar_transmat_result = new NyARTransMatResult();
@@ -169,6 +210,25 @@ public class ARToolkitDrawer
 		}
 	}
 
+	/**
+	 * 歪み補正テーブルをバックグラウンドで用意する。
+	 *  プレビューサイズが分かった時点で呼び出すと、最初のフレームでテーブルを作らずに済む。
+	 *  検出スレッドが動き出す前に呼び出すこと。
+	 *
+	 * @param w スクリーンサイズ(width)
+	 * @param h スクリーンサイズ(height)
+	 */
+	public void prepare(int w, int h) {
+		if (ar_param == null || nya != null) {
+			return;
+		}
+		// ar_paramはcreateNyARTool()でスケールを変えるので、コピーにスケールを適用する
+		NyARCameraDistortionFactor dist = new NyARCameraDistortionFactor();
+		dist.copyFrom(ar_param.getDistortionFactor());
+		dist.changeScale((double) w / (double) ar_param.getScreenSize().w);
+		NyARObserv2IdealMap.prepare(dist, new NyARIntSize(w, h));
+	}
+
 	/**
 	 * NyARToolKitの初期化
 	 *  カメラパラメータの読み込み
@@ -187,8 +247,12 @@ public class ARToolkitDrawer
 				// マーカーの枠線幅を変えることは可能。
 				// NyARDetectMarker 内にコメントを追加したのでその部分を参照のこと
 				//ar_param: カメラのパラメータ持ってる　スケールとか。サイズとか。
-				nya = new NyARDetectMarker(ar_param, ar_code, marker_width, mNumPatt, NyARBufferType.BYTE1D_B8G8R8_24);
+				nya = new NyARDetectMarker(ar_param, ar_code, marker_width, mNumPatt, NyARBufferType.BYTE1D_YUV420SP_NV21);
 				nya.setContinueMode(true);
+				// 照明の変化に追従するため、敷居値はフレーム毎にヒストグラムから決める。
+				nya.setAutoThreshold(new NyARHistogramAnalyzer_SlidePTile(AUTO_THRESHOLD_PTILE), AUTO_THRESHOLD_INTERVAL, AUTO_THRESHOLD_SMOOTHING);
+				// 前のフレームのマーカの周辺だけを探索して、検出の負荷を減らす。
+				nya.setTrackingMode(TRACKING_FULL_SEARCH_INTERVAL, TRACKING_MARGIN, TRACKING_MIN_CONFIDENCE);
 			}
 			Log.d("nyar", "resources have been loaded");
 		} catch (Exception e) {
@@ -215,7 +279,18 @@ public class ARToolkitDrawer
 	 */
 	public static void toCameraFrustumRHf(NyARParam i_arparam, float[] o_gl_projection)
 	{
-		double[] mf = new double[16];
+		toCameraFrustumRHf(i_arparam, o_gl_projection, new double[16]);
+	}
+
+	/**
+	 * NyARGLUtil.toCameraFrustumRH()の出力double[]をfloat[]に変換する
+	 * @param i_arparam
+	 * @param o_gl_projection
+	 * @param i_scratch 作業領域(16要素)
+	 */
+	public static void toCameraFrustumRHf(NyARParam i_arparam, float[] o_gl_projection, double[] i_scratch)
+	{
+		double[] mf = i_scratch;
 		NyARGLUtil.toCameraFrustumRH(i_arparam, NyARGLUtil.SCALE_FACTOR_toCameraFrustumRH_NYAR2, 10, 10000, mf);
 
 		for (int i = 0; i < mf.length; i++) {
@@ -230,7 +305,18 @@ public class ARToolkitDrawer
 	 */
 	public static void toCameraViewRHf(NyARDoubleMatrix44 i_ny_result, float[] o_gl_result)
 	{
-		double[] mf = new double[16];
+		toCameraViewRHf(i_ny_result, o_gl_result, new double[16]);
+	}
+
+	/**
+	 * NyARGLUtil.toCameraViewRH()の出力double[]をfloat[]に変換する
+	 * @param i_ny_result
+	 * @param o_gl_result
+	 * @param i_scratch 作業領域(16要素)
+	 */
+	public static void toCameraViewRHf(NyARDoubleMatrix44 i_ny_result, float[] o_gl_result, double[] i_scratch)
+	{
+		double[] mf = i_scratch;
 
 		NyARGLUtil.toCameraViewRH(i_ny_result, NyARGLUtil.SCALE_FACTOR_toCameraViewRH_NYAR2, mf);
 
@@ -245,8 +331,29 @@ public class ARToolkitDrawer
 	 * @param data
 	 */
 	public void draw(byte[] data, Camera camera) {
+		// getParameters()は呼ぶたびにパラメータ文字列を解析するので、カメラ毎に一度だけ取得する
+		if (camera != mPreviewCamera) {
+			Camera.Size size = camera.getParameters().getPreviewSize();
+			mPreviewWidth = size.width;
+			mPreviewHeight = size.height;
+			mPreviewCamera = camera;
+			Log.d("AR draw", "data.length: " + data.length + "\n" +
+								"width:" + mPreviewWidth + "\n" +
+								"height:" + mPreviewHeight);
+		}
+		draw(data, mPreviewWidth, mPreviewHeight);
+	}
+
+	/**
+	 * 描画処理部分
+	 *  プレビューサイズが分かっている場合。{@link FrameSource}の検出スレッドから呼び出す。
+	 * @param data プレビュー画像(NV21)
+	 * @param width プレビューサイズ(width)
+	 * @param height プレビューサイズ(height)
+	 */
+	public void draw(byte[] data, int width, int height) {
 		try {
-			drawprivate(data, camera);
+			drawprivate(data, width, height);
 		} catch (Exception ex){
 			Log.d("AnkDebug", "drawError Type:" + ex.getClass().getCanonicalName());
 			Log.d("AnkDebug", "drawError Message:" + ex.getMessage());
@@ -262,43 +369,29 @@ public class ARToolkitDrawer
 		return sw.toString();
 	}
 
-	private void drawprivate(byte[] data, Camera camera){
-		int width = camera.getParameters().getPreviewSize().width;
-		int height = camera.getParameters().getPreviewSize().height;
-
-		Log.d("AR draw", "data.length: " + data.length + "\n" +
-							"width:" + width + "\n" +
-							"height:" + height);
-
-		// start coordinates calculation.
-		int[] buf = new int[width * height * 3];
+	private void drawprivate(byte[] data, int width, int height){
+		createNyARTool(width, height);
 
 		// assume YUV420SP
-		long time1 = SystemClock.uptimeMillis();
-		// convert YUV420SP to RGB24
-		decodeYUV420SP(buf, data, width, height, 1);
-		long time2 = SystemClock.uptimeMillis();
-		Log.d("ARToolkitDrawer", "RGB decode time: " + (time2 - time1) + "ms");
+		// プレビュー画像(NV21)をRGBに変換せず、そのままラスタに割り当てる。
+		// 2値化はY面だけを読むので、1フレームあたりの変換はY面の1パスだけになる。
+		try {
+			if (mFrame.prepare(data, width, height)) {
+				Log.d("ARToolkitDrawer", "frame raster created: " + width + "x" + height);
+			}
+		} catch (NyARException e) {
+			Log.e("AnkDebug", "frame buffer allocation failed", e);
+			return;
+		}
 
-		float[][] resultfArray = new float[MARKER_MAX][16];
+		float[][] resultfArray = mFrame.results();
 
 		int found_markers;
-		int ar_code_index[] = new int[MARKER_MAX];
-
-		createNyARTool(width, height);
-
-		// cast int to byte
-		byte[] bytebuf = new byte[width * height * 3];
-		for(int i = 0; i < buf.length; i++){
-			bytebuf[i] = (byte)buf[i];
-		}
+		int ar_code_index[] = mFrame.codeIndexes();
 
 		// Marker detection
 		try {
-			Log.d("AR draw", "Marker detection.");
-			raster = new NyARRgbRaster_RGB(width, height);
-			raster.wrapBuffer(bytebuf);
-			found_markers = nya.detectMarkerLite(raster, 100);
+			found_markers = nya.detectMarkerLite(mFrame.raster());
 		} catch (NyARException e) {
 			Log.e("AnkDebug", "marker detection failed", e);
 			return;
@@ -308,42 +401,33 @@ public class ARToolkitDrawer
 
 		// An OpenGL object will be drawn if matched.
 		if (found_markers > 0) {
-			Log.d("AR draw", "!!!!!!!!!!!exist marker." + found_markers + "!!!!!!!!!!!");
 			// Projection transformation.
-			float[] cameraRHf = new float[16];
-			toCameraFrustumRHf(ar_param, cameraRHf);
+			// 射影行列はプレビューサイズが変わらない限り同じ値なので、一度だけ計算する
+			mFrame.computeProjection(ar_param);
+			float[] cameraRHf = mFrame.projection();
 
 			if (found_markers > MARKER_MAX)
 				found_markers = MARKER_MAX;
 
-			String logStr = "mark count:" + found_markers + "\n";
-
 			for (int i = 0; i < found_markers; i++) {
 
-				Log.d("AR draw", "marker confidence num:" + i +
-						"val:" + nya.getConfidence(i) + "!!!!!!!!!!!");
-
-				logStr += "num:" + i + " confidence:" + nya.getConfidence(i);
-
 				//60%以上一致していれば描画を行う。
-				if (nya.getConfidence(i) < 0.60f) {
-					logStr += "invisible\n";
+				// 飛ばしたスロットはmFrame.prepare()でID 0、行列0に初期化済み
+				if (nya.getConfidence(i) < TRACKING_MIN_CONFIDENCE) {
 					continue;
 				}
 
-				logStr += "visible\n";
-
 				try {
-					ar_code_index[i] = nya.getARCodeIndex(i);
 					NyARTransMatResult transmat_result = ar_transmat_result;
+					// 前回の姿勢はマーカのID毎に検出器が保持しているので、他のマーカの姿勢が混ざらない
 					nya.getTransmationMatrix(i, transmat_result);
 					//model view行列を取得
-					toCameraViewRHf(transmat_result, resultfArray[i]);
+					mFrame.setResult(i, nya.getARCodeIndex(i), transmat_result);
 					// todo:全成分ログ出力
 //					logALL(resultfArray[i]);
 
 					// todo:x y z 成分のみログ出力
-					logXYZ(i, resultfArray[i]);
+//					logXYZ(i, resultfArray[i]);
 
 					isDetect = true;
 				} catch (NyARException e) {
@@ -353,9 +437,9 @@ public class ARToolkitDrawer
 			}
 
 			mRenderer.objectPointChanged(found_markers, ar_code_index, resultfArray, cameraRHf);
+			// 渡した結果は次のフレームで上書きしないよう、裏面に切り替える
+			mFrame.swap();
 		} else {
-			Log.d("AR draw", "not exist marker.");
-
 			mRenderer.objectClear();
 		}
 
@@ -372,6 +456,14 @@ public class ARToolkitDrawer
 		}
 	}
 
+	/**
+	 * フレーム毎の作業バッファ
+	 * @see ARFrameContext
+	 */
+	public ARFrameContext getFrameContext() {
+		return mFrame;
+	}
+
 	private void logXYZ(int num, float[] transArray){
 		//x y z の順？
 		Log.d("transArray", num + ":" + "12[" + transArray[12] + "]13[" + transArray[13] + "]14[" + transArray[14] + "]");
@@ -0,0 +1,138 @@
+/*
+ * PROJECT: NyARToolkit for Android SDK
+ * --------------------------------------------------------------------------------
+ * This work is based on the original ARToolKit developed by
+ *   Hirokazu Kato
+ *   Mark Billinghurst
+ *   HITLab, University of Washington, Seattle
+ * http://www.hitl.washington.edu/artoolkit/
+ *
+ * NyARToolkit for Android SDK
+ *   Copyright (C)2010 NyARToolkit for Android team
+ *   Copyright (C)2010 R.Iizuka(nyatla)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For further information please contact.
+ *  http://sourceforge.jp/projects/nyartoolkit-and/
+ *
+ * This work is based on the NyARToolKit developed by
+ *  R.Iizuka (nyatla)
+ *    http://nyatla.jp/nyatoolkit/
+ *
+ * contributor(s)
+ *  Atsuo Igarashi
+ */
+
+package jp.androidgroup.nyartoolkit;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+
+/**
+ * カメラのプレビューを供給元にする{@link FrameSource}
+ *  決まった数のバッファをsetPreviewCallbackWithBufferでカメラに渡し、使い終わったバッファをaddCallbackBufferで返す。
+ *  プレビューは一度startPreviewすれば連続して届くので、フレーム毎にプレビューを再開する必要はない。
+ *  検出スレッドが全てのバッファを使っている間に届いたフレームは、カメラが捨てる。
+ */
+public class CameraFrameSource extends FrameSource implements Camera.PreviewCallback
+{
+	/**
+	 * バッファ数の初期値
+	 *  カメラが書き込み中、スロットで待機中、検出中の3枚
+	 */
+	public static final int DEFAULT_BUFFER_COUNT = 3;
+
+	private final Camera mCamera;
+	private final int mWidth;
+	private final int mHeight;
+	private final byte[][] mBuffers;
+
+	/**
+	 * カメラにバッファを返してよい間はtrue
+	 */
+	private boolean mActive = false;
+
+	/**
+	 * Constructor
+	 *  カメラのプレビューサイズと画素形式から、バッファを確保する。
+	 *
+	 * @param i_camera プレビュー中、またはこれからプレビューするカメラ
+	 * @param i_buffer_count バッファ数。2以上
+	 */
+	public CameraFrameSource(Camera i_camera, int i_buffer_count)
+	{
+		Camera.Parameters params = i_camera.getParameters();
+		Camera.Size size = params.getPreviewSize();
+		this.mCamera = i_camera;
+		this.mWidth = size.width;
+		this.mHeight = size.height;
+		int bits = ImageFormat.getBitsPerPixel(params.getPreviewFormat());
+		int length = this.mWidth * this.mHeight * bits / 8;
+		this.mBuffers = new byte[i_buffer_count][length];
+	}
+
+	@Override
+	public int getWidth()
+	{
+		return this.mWidth;
+	}
+
+	@Override
+	public int getHeight()
+	{
+		return this.mHeight;
+	}
+
+	@Override
+	protected void onStart()
+	{
+		synchronized (this) {
+			this.mActive = true;
+			for (int i = 0; i < this.mBuffers.length; i++) {
+				this.mCamera.addCallbackBuffer(this.mBuffers[i]);
+			}
+			this.mCamera.setPreviewCallbackWithBuffer(this);
+		}
+	}
+
+	@Override
+	protected void onStop()
+	{
+		synchronized (this) {
+			this.mActive = false;
+			// バッファのキューも破棄される
+			this.mCamera.setPreviewCallbackWithBuffer(null);
+		}
+	}
+
+	@Override
+	protected void recycle(byte[] i_buffer)
+	{
+		synchronized (this) {
+			if (this.mActive) {
+				this.mCamera.addCallbackBuffer(i_buffer);
+			}
+		}
+	}
+
+	@Override
+	public void onPreviewFrame(byte[] data, Camera camera)
+	{
+		if (data == null) {
+			return;
+		}
+		this.deliver(data);
+	}
+}
@@ -0,0 +1,275 @@
+/*
+ * PROJECT: NyARToolkit for Android SDK
+ * --------------------------------------------------------------------------------
+ * This work is based on the original ARToolKit developed by
+ *   Hirokazu Kato
+ *   Mark Billinghurst
+ *   HITLab, University of Washington, Seattle
+ * http://www.hitl.washington.edu/artoolkit/
+ *
+ * NyARToolkit for Android SDK
+ *   Copyright (C)2010 NyARToolkit for Android team
+ *   Copyright (C)2010 R.Iizuka(nyatla)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For further information please contact.
+ *  http://sourceforge.jp/projects/nyartoolkit-and/
+ *
+ * This work is based on the NyARToolKit developed by
+ *  R.Iizuka (nyatla)
+ *    http://nyatla.jp/nyatoolkit/
+ *
+ * contributor(s)
+ *  Atsuo Igarashi
+ */
+
+package jp.androidgroup.nyartoolkit;
+
+import android.util.Log;
+
+/**
+ * プレビュー画像(NV21)の供給元
+ *  サブクラスは、決まった数のバッファを使い回してフレームを作り、{@link #deliver}で渡す。
+ *  渡されたフレームは、検出スレッドが1枚ずつ{@link FrameListener#onFrame}で処理する。
+ *  検出スレッドとの受け渡しは、最新の1枚だけを保持するスロットで行う。
+ *  検出が終わっていないうちに次のフレームが来たら、古いフレームは捨てて(バッファは返却して)新しい方を残す。
+ *  そのため、フレームの供給側が検出を待つことはない。
+ *  処理が終わったバッファは、{@link #recycle}でサブクラスに返す。
+ */
+public abstract class FrameSource
+{
+	/**
+	 * 検出スレッドでフレームを受け取るインタフェイス
+	 */
+	public interface FrameListener
+	{
+		/**
+		 * 検出スレッドから呼び出される。
+		 *  i_dataは、この関数から戻った後にバッファとして再利用されるので、参照を保持してはいけない。
+		 *
+		 * @param i_data プレビュー画像(NV21)
+		 * @param i_width 画像の幅
+		 * @param i_height 画像の高さ
+		 * @param i_timestamp フレームを受け取った時刻(System.nanoTime)
+		 */
+		void onFrame(byte[] i_data, int i_width, int i_height, long i_timestamp);
+	}
+
+	private static final String TAG = "FrameSource";
+
+	private final Object mLock = new Object();
+
+	/**
+	 * 検出スレッドが次に処理するフレーム。無ければnull
+	 */
+	private byte[] mPending = null;
+	private long mPendingTimestamp = 0;
+
+	private Thread mThread = null;
+	private volatile boolean mRunning = false;
+	private FrameListener mListener = null;
+
+	/**
+	 * 供給したフレーム数
+	 */
+	private long mDelivered = 0;
+
+	/**
+	 * 処理されずに次のフレームで上書きしたフレーム数
+	 */
+	private long mDropped = 0;
+
+	/**
+	 * 検出スレッドが処理したフレーム数
+	 */
+	private long mProcessed = 0;
+
+	/**
+	 * プレビュー画像の幅
+	 */
+	public abstract int getWidth();
+
+	/**
+	 * プレビュー画像の高さ
+	 */
+	public abstract int getHeight();
+
+	/**
+	 * フレームの供給を始める。{@link #start}から、検出スレッドを起動した後に呼び出される。
+	 */
+	protected abstract void onStart();
+
+	/**
+	 * フレームの供給を止める。{@link #stop}から、検出スレッドを止める前に呼び出される。
+	 */
+	protected abstract void onStop();
+
+	/**
+	 * 使い終わったバッファを返却する。
+	 *  捨てたフレームと、処理が終わったフレームのバッファが返ってくる。どのスレッドからも呼び出される。
+	 *
+	 * @param i_buffer 返却するバッファ
+	 */
+	protected abstract void recycle(byte[] i_buffer);
+
+	/**
+	 * 検出スレッドを起動して、フレームの供給を始める。
+	 *
+	 * @param i_listener フレームを処理するリスナ
+	 */
+	public final void start(FrameListener i_listener)
+	{
+		synchronized (this.mLock) {
+			if (this.mThread != null) {
+				return;
+			}
+			this.mListener = i_listener;
+			this.mRunning = true;
+			this.mThread = new Thread(new Runnable() {
+				public void run() {
+					FrameSource.this.detectionLoop();
+				}
+			}, "FrameSource");
+			this.mThread.start();
+		}
+		this.onStart();
+	}
+
+	/**
+	 * フレームの供給を止めて、検出スレッドが終わるまで待つ。
+	 *  処理中のフレームがあれば、その処理が終わるまで待つ。
+	 */
+	public final void stop()
+	{
+		Thread thread;
+		synchronized (this.mLock) {
+			if (this.mThread == null) {
+				return;
+			}
+			thread = this.mThread;
+		}
+		this.onStop();
+		byte[] pending;
+		synchronized (this.mLock) {
+			this.mRunning = false;
+			pending = this.mPending;
+			this.mPending = null;
+			this.mLock.notifyAll();
+		}
+		if (pending != null) {
+			this.recycle(pending);
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this.mLock) {
+			this.mThread = null;
+		}
+	}
+
+	/**
+	 * サブクラスがフレームを渡す。
+	 *  検出スレッドがまだ前のフレームを受け取っていなければ、前のフレームを捨てて置き換える。
+	 *  この関数は検出の完了を待たない。
+	 *
+	 * @param i_buffer フレームのバッファ。処理が終わると{@link #recycle}で返ってくる。
+	 */
+	protected final void deliver(byte[] i_buffer)
+	{
+		byte[] dropped;
+		synchronized (this.mLock) {
+			if (!this.mRunning) {
+				dropped = i_buffer;
+			} else {
+				dropped = this.mPending;
+				this.mPending = i_buffer;
+				this.mPendingTimestamp = System.nanoTime();
+				this.mDelivered++;
+				if (dropped != null) {
+					this.mDropped++;
+				}
+				this.mLock.notify();
+			}
+		}
+		if (dropped != null) {
+			this.recycle(dropped);
+		}
+	}
+
+	private void detectionLoop()
+	{
+		for (;;) {
+			byte[] frame;
+			long timestamp;
+			synchronized (this.mLock) {
+				while (this.mRunning && this.mPending == null) {
+					try {
+						this.mLock.wait();
+					} catch (InterruptedException e) {
+						this.mRunning = false;
+					}
+				}
+				if (!this.mRunning) {
+					return;
+				}
+				frame = this.mPending;
+				timestamp = this.mPendingTimestamp;
+				this.mPending = null;
+			}
+			try {
+				this.mListener.onFrame(frame, this.getWidth(), this.getHeight(), timestamp);
+			} catch (RuntimeException e) {
+				Log.e(TAG, "frame processing failed", e);
+			} finally {
+				this.recycle(frame);
+			}
+			synchronized (this.mLock) {
+				this.mProcessed++;
+			}
+		}
+	}
+
+	/**
+	 * 供給したフレーム数
+	 */
+	public long deliveredFrames()
+	{
+		synchronized (this.mLock) {
+			return this.mDelivered;
+		}
+	}
+
+	/**
+	 * 検出スレッドが処理する前に、新しいフレームで置き換えたフレーム数
+	 */
+	public long droppedFrames()
+	{
+		synchronized (this.mLock) {
+			return this.mDropped;
+		}
+	}
+
+	/**
+	 * 検出スレッドが処理したフレーム数
+	 */
+	public long processedFrames()
+	{
+		synchronized (this.mLock) {
+			return this.mProcessed;
+		}
+	}
+}
@@ -55,12 +55,17 @@ import com.google.android.gms.appindexing.Action;
 import com.google.android.gms.appindexing.AppIndex;
 import com.google.android.gms.common.api.GoogleApiClient;
 
+import jp.nyatla.nyartoolkit.core.param.NyARObserv2IdealMap;
+
 import min3d.Shared;
 import min3d.animation.AnimationObject3d;
+import min3d.core.Object3d;
 import min3d.core.Renderer;
 import min3d.core.Scene;
+import min3d.core.TextureCache;
 import min3d.interfaces.ISceneController;
-import min3d.parser.IParser;
+import min3d.parser.ModelCache;
+import min3d.parser.ModelLoader;
 import min3d.parser.Parser;
 import min3d.vos.Light;
 import min3d.vos.TextureVo;
@@ -80,7 +85,6 @@ import android.graphics.PixelFormat;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
 import android.hardware.Camera;
-import android.hardware.Camera.PreviewCallback;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.media.MediaPlayer;
@@ -150,7 +154,12 @@ public class NyARToolkitAndroidActivity extends Activity
 
 	private Handler mHandler = new MainHandler();
 
-	private PreviewCallback mPreviewCallback = new PreviewCallback();
+	private DetectionListener mDetectionListener = new DetectionListener();
+
+	/**
+	 * プレビュー画像の供給元。プレビュー中だけ存在する。
+	 */
+	private CameraFrameSource mFrameSource = null;
 
 	private ARToolkitDrawer arToolkitDrawer = null;
 
@@ -305,21 +314,14 @@ public class NyARToolkitAndroidActivity extends Activity
 
 	private int saveCount = 0;
 	/**
-	 * Callback interface used to deliver copies of preview frames as they are displayed.
+	 * {@link FrameSource}の検出スレッドで、プレビュー画像を受け取る。
+	 *  カメラは検出を待たずに次のフレームを取り込むので、プレビューを再開する必要はない。
 	 */
-	private final class PreviewCallback
-			implements Camera.PreviewCallback {
+	private final class DetectionListener
+			implements FrameSource.FrameListener {
 
 		@Override
-		public void onPreviewFrame(byte[] data, Camera camera) {
-			Log.d(TAG, "PreviewCallback.onPreviewFrame");
-
-			//null check
-			if(data == null) {
-				Log.d("AR draw", "data= null");
-				return;
-			}
-
+		public void onFrame(byte[] data, int width, int height, long timestamp) {
 			if (mPausing) {
 				return;
 			}
@@ -328,12 +330,9 @@ public class NyARToolkitAndroidActivity extends Activity
 //			saveBitmapImage(data, camera);
 
 			//描画を行う
-			if (data != null) {
-				Log.d(TAG, "data exist");
-				if (arToolkitDrawer != null)
-					arToolkitDrawer.draw(data, camera);
-			}
-			restartPreview();
+			ARToolkitDrawer drawer = arToolkitDrawer;
+			if (drawer != null)
+				drawer.draw(data, width, height);
 		}
 	}
 
@@ -389,6 +388,13 @@ public class NyARToolkitAndroidActivity extends Activity
 	public void onCreate(Bundle icicle) {
 		super.onCreate(icicle);
 
+		// 歪み補正テーブルを保存して、次回以降の起動では読み込むだけにする
+		NyARObserv2IdealMap.setCacheDirectory(getCacheDir());
+		// 解析済みのモデルも保存して、次回以降の起動ではファイルをマップするだけにする
+		ModelCache.setCacheDirectory(getCacheDir());
+		// テクスチャもETC1に圧縮して保存し、次回以降の起動では圧縮したまま転送する
+		TextureCache.setCacheDirectory(getCacheDir());
+
 		// Renderer for metasequoia model
 //		String[] modelName = new String[2];
 //		modelName[0] = "droid.mqo";
@@ -495,6 +501,10 @@ public class NyARToolkitAndroidActivity extends Activity
 
 	@Override
 	protected void onDestroy() {
+		if (mModelLoader != null) {
+			mModelLoader.shutdown();
+			mModelLoader = null;
+		}
 		super.onDestroy();
 	}
 
@@ -707,6 +717,7 @@ public class NyARToolkitAndroidActivity extends Activity
 	}
 
 	private void closeCamera() {
+		stopFrameSource();
 		if (mCameraDevice != null) {
 			CameraHolder.instance().release();
 			mCameraDevice = null;
@@ -760,8 +771,6 @@ public class NyARToolkitAndroidActivity extends Activity
 		if (!mPreviewing)
 			setCameraParameters();
 
-		mCameraDevice.setOneShotPreviewCallback(mPreviewCallback);
-
 		try {
 			Log.v(TAG, "startPreview");
 			mCameraDevice.startPreview();
@@ -769,14 +778,33 @@ public class NyARToolkitAndroidActivity extends Activity
 			closeCamera();
 			throw new RuntimeException("startPreview failed", ex);
 		}
+		// プレビュー画像は、使い回すバッファで検出スレッドへ連続して渡す
+		if (mFrameSource == null) {
+			if (arToolkitDrawer != null) {
+				Camera.Size size = mCameraDevice.getParameters().getPreviewSize();
+				arToolkitDrawer.prepare(size.width, size.height);
+			}
+			mFrameSource = new CameraFrameSource(mCameraDevice, CameraFrameSource.DEFAULT_BUFFER_COUNT);
+			mFrameSource.start(mDetectionListener);
+		}
 		mPreviewing = true;
 		mStatus = IDLE;
 	}
 
+	private void stopFrameSource() {
+		if (mFrameSource != null) {
+			mFrameSource.stop();
+			Log.d(TAG, "frames delivered:" + mFrameSource.deliveredFrames()
+					+ " processed:" + mFrameSource.processedFrames()
+					+ " dropped:" + mFrameSource.droppedFrames());
+			mFrameSource = null;
+		}
+	}
+
 	private void stopPreview() {
+		stopFrameSource();
 		if (mCameraDevice != null && mPreviewing) {
 			Log.v(TAG, "stopPreview");
-			mCameraDevice.setOneShotPreviewCallback(null);
 			mCameraDevice.stopPreview();
 		}
 		mPreviewing = false;
@@ -805,6 +833,8 @@ public class NyARToolkitAndroidActivity extends Activity
 	//----------------------- for min3d ------------------------
 	public Scene scene;
 
+	private ModelLoader mModelLoader;
+
 	protected Handler _initSceneHander;
 	protected Handler _updateSceneHander;
 
@@ -835,28 +865,33 @@ public class NyARToolkitAndroidActivity extends Activity
 		scene.camera().frustum.zFar(10000.0f);
 		//scene.camera().frustum.shortSideLength(0.77f);
 
-		IParser parser;
-		AnimationObject3d animationObject3d = null;
-
-		parser = Parser.createParser(Parser.Type.MD2,
-				getResources(), "jp.androidgroup.nyartoolkit:raw/droid", false);
-		parser.parse();
+		// Both models are parsed on loader threads; the first frames are drawn
+		// without waiting for them. They are added to the scene in this order,
+		// so marker 0 still gets droid and marker 1 droidr.
+		if (mModelLoader == null)
+			mModelLoader = new ModelLoader(scene);
+		mModelLoader.load(Parser.Type.MD2,
+				getResources(), "jp.androidgroup.nyartoolkit:raw/droid", false, new DroidSetup(30));
+		mModelLoader.load(Parser.Type.MD2,
+				getResources(), "jp.androidgroup.nyartoolkit:raw/droidr", false, new DroidSetup(90));
+	}
 
-		animationObject3d = parser.getParsedAnimationObject();
-		animationObject3d.rotation().z = -90.0f;
-		animationObject3d.scale().x = animationObject3d.scale().y = animationObject3d.scale().z = 1.0f;
-		scene.addChild(animationObject3d);
-		animationObject3d.setFps(30);
+	/**
+	 * Sets up a loaded droid model before it is added to the scene (GL thread)
+	 */
+	private static class DroidSetup implements ModelLoader.Callback {
+		private final float mFps;
 
-		parser = Parser.createParser(Parser.Type.MD2,
-				getResources(), "jp.androidgroup.nyartoolkit:raw/droidr", false);
-		parser.parse();
+		DroidSetup(float fps) {
+			mFps = fps;
+		}
 
-		animationObject3d = parser.getParsedAnimationObject();
-		animationObject3d.rotation().z = -90.0f;
-		animationObject3d.scale().x = animationObject3d.scale().y = animationObject3d.scale().z = 1.0f;
-		scene.addChild(animationObject3d);
-		animationObject3d.setFps(90);
+		public void onLoaded(Object3d o) {
+			AnimationObject3d animationObject3d = (AnimationObject3d) o;
+			animationObject3d.rotation().z = -90.0f;
+			animationObject3d.scale().x = animationObject3d.scale().y = animationObject3d.scale().z = 1.0f;
+			animationObject3d.setFps(mFps);
+		}
 	}
 
 	/**
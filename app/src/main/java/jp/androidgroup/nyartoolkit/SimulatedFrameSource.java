@@ -0,0 +1,200 @@
+/*
+ * PROJECT: NyARToolkit for Android SDK
+ * --------------------------------------------------------------------------------
+ * This work is based on the original ARToolKit developed by
+ *   Hirokazu Kato
+ *   Mark Billinghurst
+ *   HITLab, University of Washington, Seattle
+ * http://www.hitl.washington.edu/artoolkit/
+ *
+ * NyARToolkit for Android SDK
+ *   Copyright (C)2010 NyARToolkit for Android team
+ *   Copyright (C)2010 R.Iizuka(nyatla)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For further information please contact.
+ *  http://sourceforge.jp/projects/nyartoolkit-and/
+ *
+ * This work is based on the NyARToolKit developed by
+ *  R.Iizuka (nyatla)
+ *    http://nyatla.jp/nyatoolkit/
+ *
+ * contributor(s)
+ *  Atsuo Igarashi
+ */
+
+package jp.androidgroup.nyartoolkit;
+
+import java.util.ArrayList;
+
+/**
+ * 合成したフレームを決まった間隔で供給する{@link FrameSource}
+ *  カメラの無い環境で、検出スレッドのスループットと捨てたフレーム数を測るために使う。
+ *  カメラと同じように、空いているバッファが無い時に来たフレームは捨てる。
+ */
+public class SimulatedFrameSource extends FrameSource
+{
+	/**
+	 * フレームの内容を作るインタフェイス
+	 */
+	public interface FrameGenerator
+	{
+		/**
+		 * o_bufferに、i_index番目のフレーム(NV21)を書き込む。
+		 */
+		void generate(long i_index, byte[] o_buffer, int i_width, int i_height);
+	}
+
+	private final int mWidth;
+	private final int mHeight;
+	private final long mIntervalNanos;
+	private final FrameGenerator mGenerator;
+
+	/**
+	 * 空いているバッファ
+	 */
+	private final ArrayList<byte[]> mFree = new ArrayList<byte[]>();
+
+	private Thread mThread = null;
+	private volatile boolean mRunning = false;
+
+	/**
+	 * 生成しようとしたフレーム数
+	 */
+	private long mGenerated = 0;
+
+	/**
+	 * 空いているバッファが無くて捨てたフレーム数
+	 */
+	private long mStarved = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param i_width 画像の幅
+	 * @param i_height 画像の高さ
+	 * @param i_fps 1秒あたりのフレーム数
+	 * @param i_buffer_count バッファ数。2以上
+	 * @param i_generator フレームの内容を作るオブジェクト
+	 */
+	public SimulatedFrameSource(int i_width, int i_height, double i_fps, int i_buffer_count, FrameGenerator i_generator)
+	{
+		this.mWidth = i_width;
+		this.mHeight = i_height;
+		this.mIntervalNanos = (long) (1000000000L / i_fps);
+		this.mGenerator = i_generator;
+		for (int i = 0; i < i_buffer_count; i++) {
+			this.mFree.add(new byte[i_width * i_height * 3 / 2]);
+		}
+	}
+
+	@Override
+	public int getWidth()
+	{
+		return this.mWidth;
+	}
+
+	@Override
+	public int getHeight()
+	{
+		return this.mHeight;
+	}
+
+	@Override
+	protected void onStart()
+	{
+		this.mRunning = true;
+		this.mThread = new Thread(new Runnable() {
+			public void run() {
+				SimulatedFrameSource.this.captureLoop();
+			}
+		}, "SimulatedFrameSource");
+		this.mThread.start();
+	}
+
+	@Override
+	protected void onStop()
+	{
+		this.mRunning = false;
+		try {
+			this.mThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.mThread = null;
+	}
+
+	@Override
+	protected void recycle(byte[] i_buffer)
+	{
+		synchronized (this.mFree) {
+			this.mFree.add(i_buffer);
+		}
+	}
+
+	private void captureLoop()
+	{
+		long next = System.nanoTime();
+		long index = 0;
+		while (this.mRunning) {
+			// 次のフレームの時刻まで待つ
+			long wait = next - System.nanoTime();
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			next += this.mIntervalNanos;
+			byte[] buffer = null;
+			synchronized (this.mFree) {
+				this.mGenerated++;
+				int n = this.mFree.size();
+				if (n > 0) {
+					buffer = this.mFree.remove(n - 1);
+				} else {
+					this.mStarved++;
+				}
+			}
+			if (buffer == null) {
+				continue;
+			}
+			this.mGenerator.generate(index++, buffer, this.mWidth, this.mHeight);
+			this.deliver(buffer);
+		}
+	}
+
+	/**
+	 * 生成しようとしたフレーム数
+	 */
+	public long generatedFrames()
+	{
+		synchronized (this.mFree) {
+			return this.mGenerated;
+		}
+	}
+
+	/**
+	 * 空いているバッファが無くて捨てたフレーム数
+	 *  カメラで言えば、バッファ不足でカメラが捨てたフレームに当たる。
+	 */
+	public long starvedFrames()
+	{
+		synchronized (this.mFree) {
+			return this.mStarved;
+		}
+	}
+}
@@ -36,6 +36,9 @@ public class KGLExtensionCheck {
 			supported = supported.substring(p,supported.length());
 			s = supported.split(" ",2) ;
 			if( s[0].trim().equals(targetExtension) ) return true ;
+			//前方一致しただけの別の拡張なら、その次から探す
+			if( s.length < 2 ) break ;
+			supported = s[1] ;
 		}
 		
 		return ret ;
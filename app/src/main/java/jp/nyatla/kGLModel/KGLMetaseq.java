@@ -23,10 +23,8 @@ package jp.nyatla.kGLModel;
 import java.io.*;
 import java.util.*;
 import java.nio.*;
-import java.lang.reflect.*;
 
 import java.io.InputStream;
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
 
 import javax.microedition.khronos.opengles.*;
@@ -41,856 +39,689 @@ import android.util.Log;
  * インスタンス化も親クラスのKGLModelData::createGLModelを使用する<br>
  * メタセコファイルフォーマットは<br>
  * <a href="http://www.metaseq.net/">http://www.metaseq.net/</a><br>
- * 参照。
- * 
+ * 参照。<br>
+ * <br>
+ * ファイルはKGLMetaseqReaderで１回だけ読み進め、頂点・面はfloat[]/int[]に直接格納する。
+ *
  * @author kei
- * 
+ *
  */
 public class KGLMetaseq extends KGLModelData
 {
-    /**
-     * 「"」で囲まれた文字を取り出す
-     * 
-     * @param st
-     *                操作対象文字列
-     * @return 前後の「"」を抜いた文字列
-     */
-    protected String getDoubleQuoatString(String st) {
-	String ret;
-	ret = st.trim();
-	if (ret.charAt(0) != '\"') {
-	    return ret;
-	}
-	int p;
-	p = ret.indexOf("\"", 1);
-	return ret.substring(1, p);
-    }
-
     /**
      * 法線を求める
-     * 
+     *
      * @param V
-     *                頂点配列
+     *                頂点配列（x,y,z の並び）
      * @param A
      *                頂点の位置
      * @param B
      *                頂点の位置
      * @param C
      *                頂点の位置
-     * @return 法線ベクトル
+     * @param ret
+     *                法線ベクトルの格納先
+     * @param o
+     *                格納位置
      */
-    protected KGLPoint calcNormal(KGLPoint[] V, int A, int B, int C) {
-	KGLPoint ret = null;
-	KGLPoint BA = null;
-	KGLPoint BC = null;
+    protected void calcNormal(float[] V, int A, int B, int C, float[] ret, int o) {
+	A *= 3;
+	B *= 3;
+	C *= 3;
 	// ベクトルB->A
-	BA = KGLPoint.vector(V[B], V[A]);
+	float bax = V[A] - V[B];
+	float bay = V[A + 1] - V[B + 1];
+	float baz = V[A + 2] - V[B + 2];
 	// ベクトルB->C
-	BC = KGLPoint.vector(V[B], V[C]);
+	float bcx = V[C] - V[B];
+	float bcy = V[C + 1] - V[B + 1];
+	float bcz = V[C + 2] - V[B + 2];
 	// 法線の計算
-	ret = KGLPoint.createXYZ(BA.Y() * BC.Z() - BA.Z() * BC.Y(), BA.Z()
-		* BC.X() - BA.X() * BC.Z(), BA.X() * BC.Y() - BA.Y() * BC.X());
-	ret.normalize();// 正規化
-	return ret;
+	ret[o] = bay * bcz - baz * bcy;
+	ret[o + 1] = baz * bcx - bax * bcz;
+	ret[o + 2] = bax * bcy - bay * bcx;
+	normalize(ret, o);// 正規化
     }
 
     /**
-     * 頂点法線を求める
-     * 
+     * ベクトルを正規化する（KGLPoint.normalize()と同じ計算）
+     *
+     * @param v
+     *                ベクトル配列
+     * @param o
+     *                ベクトルの位置
+     */
+    private static void normalize(float[] v, int o) {
+	double add = 0;
+	for (int i = o; i < o + 3; i++) {
+	    add += v[i] * v[i];
+	}
+	double len = Math.sqrt(add);
+	if (len == 0)
+	    return;
+	for (int i = o; i < o + 3; i++) {
+	    v[i] /= len;
+	}
+    }
+
+    /**
+     * 面法線と頂点法線を求める
+     *
      * @param mqoObj
      *                読み込んだMQOデータ
-     * @return 頂点法線
+     * @param fn
+     *                面法線の格納先（面数＊３）
+     * @return 頂点法線（頂点数＊３）
      */
-    protected KGLPoint[] vNormal(objects mqoObj) {
-	KGLPoint[] ret = null;
-	KGLPoint sn = null;
+    protected float[] vNormal(objects mqoObj, float[] fn) {
+	float[] ret = new float[mqoObj.vertex.length];
+	int[] V = mqoObj.faceV;
 	// 頂点に接している面の法線を頂点法線に足し込んでいく
-	ret = new KGLPoint[mqoObj.vertex.length];
-	for (int f = 0; f < mqoObj.face.length; f++) {
-	    sn = calcNormal(mqoObj.vertex, mqoObj.face[f].V[0],
-		    mqoObj.face[f].V[1], mqoObj.face[f].V[2]);
-	    if (sn == null)
-		continue;
+	for (int f = 0; f < mqoObj.faceNum; f++) {
+	    calcNormal(mqoObj.vertex, V[f * 3], V[f * 3 + 1], V[f * 3 + 2], fn, f * 3);
 	    for (int i = 0; i < 3; i++) {
-		if (ret[mqoObj.face[f].V[i]] == null) {
-		    ret[mqoObj.face[f].V[i]] = KGLPoint.createXYZ(0, 0, 0);
-		}
-		ret[mqoObj.face[f].V[i]].add(sn);
+		int v = V[f * 3 + i] * 3;
+		ret[v] += fn[f * 3];
+		ret[v + 1] += fn[f * 3 + 1];
+		ret[v + 2] += fn[f * 3 + 2];
 	    }
 	}
 	// 正規化（長さを求めて、ソレで割って０～１の値にする！）
-	for (int v = 0; v < ret.length; v++)
-	{
-	    if (ret[v] == null)
-		continue;
-	    ret[v].normalize();
+	for (int v = 0; v < ret.length; v += 3) {
+	    normalize(ret, v);
 	}
 	return ret;
     }
 
-    /**
-     * オブジェクトのフィールドにデータを設定する<br>
-     * Integer、Float、Float[]、Stringにしか対応していない
-     * 
-     * @param obj
-     *                設定対象オブジェクト
-     * @param fl
-     *                設定対象フィールド
-     * @param ty
-     *                設定対象フィールドの型
-     * @param data
-     *                設定データ
-     * @throws IllegalArgumentException
-     * @throws IllegalAccessException
-     */
-    protected void dataSetter(Object obj, Field fl, Class ty, String data)
-    throws IllegalArgumentException, IllegalAccessException {
-	// Integer型のデータを設定
-	if (ty.toString().equals("class java.lang.Integer")) {
-	    fl.set(obj, Integer.parseInt(data));
-	}
-	// Float型のデータを設定
-	if (ty.toString().equals("class java.lang.Float")) {
-	    fl.set(obj, Float.parseFloat(data));
-	}
-	// String型のデータを設定（""の内側）
-	if (ty.toString().equals("class java.lang.String")) {
-	    fl.set(obj, getDoubleQuoatString(data));
-	}
-	// Float[]型のデータを設定
-	if (ty.toString().equals("class [Ljava.lang.Float;")) {
-	    String[] s;
-	    s = data.split(" ");
-	    Float[] f = new Float[s.length];
-	    for (int i = 0; i < s.length; i++) {
-		f[i] = Float.parseFloat(s[i]);
-	    }
-	    fl.set(obj, f);
-	}
-
-    }
-
     /**
      * MQOファイルのMaterial情報読み込み＆データ保持クラス
-     * 
+     *
      */
     private class material {
 	/**
 	 * マテリアル名
 	 */
 	String name = null;
+	int shader = -1;
+	float[] col = null;
+	// 指定の無い値はNaN
+	float dif = Float.NaN;
+	float amb = Float.NaN;
+	float emi = Float.NaN;
+	float spc = Float.NaN;
+	float pow = Float.NaN;
+	String tex = null;
+	String aplane = null;
 
-	class material_data {
-	    Integer shader = null;
-
-	    Float[] col = null;
-
-	    Float dif = null;
-
-	    Float amb = null;
-
-	    Float emi = null;
-
-	    Float spc = null;
-
-	    Float pow = null;
-
-	    String tex = null;
-
-	    String aplane = null;
-	}
-
-	material_data data = null;
-
-	String[] fls_names = null;
-
-	Field[] fls = null;
-
-	Class[] tys = null;
-
-	public material() {
-	    // データフィールドをとりだす
-	    data = new material_data();
-	    fls = data.getClass().getDeclaredFields();
-	    int len;
-	    len = fls.length;
-	    fls_names = new String[len];
-	    tys = new Class[len];
-	    for (int i = 0; i < len; i++) {
-		// フィールド名とフィールド型を取り出す
-		fls_names[i] = fls[i].getName();
-		tys[i] = fls[i].getType();
+	/**
+	 * Materialチャンクの１行を読み込む
+	 *
+	 * @param r
+	 *                読み込みストリーム
+	 * @throws Exception
+	 */
+	public void set(KGLMetaseqReader r) throws Exception {
+	    name = r.readString();
+	    while (!r.isLineEnd()) {
+		if (r.readWord() == 0 && r.current() != '(') {
+		    r.next();
+		    continue;
+		}
+		if (!r.skip('('))
+		    continue;// 「(」の無い単語は読み飛ばす
+		if (r.isWord("shader")) {
+		    shader = r.readInt();
+		} else if (r.isWord("col")) {
+		    col = readFloats(r);
+		} else if (r.isWord("dif")) {
+		    dif = r.readFloat();
+		} else if (r.isWord("amb")) {
+		    amb = r.readFloat();
+		} else if (r.isWord("emi")) {
+		    emi = r.readFloat();
+		} else if (r.isWord("spc")) {
+		    spc = r.readFloat();
+		} else if (r.isWord("pow")) {
+		    // 実際のファイルは「power」だが、従来どおり「pow」だけを読む
+		    pow = r.readFloat();
+		} else if (r.isWord("tex")) {
+		    tex = r.readString();
+		} else if (r.isWord("aplane")) {
+		    aplane = r.readString();
+		}
+		r.skipParenthesis();
 	    }
+	    r.skipLine();
 	}
 
-	public void set(String line) throws Exception {
-	    name = getDoubleQuoatString(line);
-	    int p;
-	    int pe;
-
-	    for (int fn = 0; fn < fls_names.length; fn++) {
-		p = line.indexOf(fls_names[fn] + "(");
-		if (p == -1)
-		    continue;
-		pe = line.indexOf(")", p);
-		dataSetter(data, fls[fn], tys[fn], line.substring(p
-			+ fls_names[fn].length() + 1, pe));
+	/**
+	 * 「)」までの実数を読み込む
+	 */
+	private float[] readFloats(KGLMetaseqReader r) throws IOException {
+	    float[] w = new float[4];
+	    int n = 0;
+	    while (!r.isLineEnd() && r.current() != ')') {
+		if (n == w.length)
+		    w = Arrays.copyOf(w, n * 2);
+		w[n++] = r.readFloat();
 	    }
-	    //data.texとdata.alphaにファイル識別子を書き出している？
-	    //これはファイルプロバイダの機能にまかせる。
-//	    File wf;
-//	    if (data.tex != null){
-//		wf = new File(data.tex);
-//		if (!wf.isAbsolute()) {// 相対パス
-//		    if (targetMQO.getParent() != null) {
-//			data.tex = targetMQO.getParent() + File.separator
-//			+ data.tex;
-//		    }
-//		}
-//	    }
-//	    if (data.aplane != null) {
-//		wf = new File(data.aplane);
-//		if (!wf.isAbsolute()) {// 相対パス
-//		    if (targetMQO.getParent() != null) {
-//			data.aplane = targetMQO.getParent() + File.separator
-//			+ data.aplane;
-//		    }
-//		}
-//	    }
+	    return n == w.length ? w : Arrays.copyOf(w, n);
 	}
 
 	public String toString() {
 	    String ret;
 	    ret = name;
-	    if (data.shader != null)
-		ret += " shader(" + data.shader + ")";
-	    if (data.col != null) {
+	    if (shader >= 0)
+		ret += " shader(" + shader + ")";
+	    if (col != null) {
 		ret += " col(";
-		for (int i = 0; i < data.col.length; i++) {
+		for (int i = 0; i < col.length; i++) {
 		    if (i != 0)
 			ret += ", ";
-		    ret += data.col[i];
+		    ret += col[i];
 		}
 		ret += ")";
 	    }
-	    if (data.dif != null)
-		ret += " dif(" + data.dif + ")";
-	    if (data.amb != null)
-		ret += " amb(" + data.amb + ")";
-	    if (data.emi != null)
-		ret += " emi(" + data.emi + ")";
-	    if (data.spc != null)
-		ret += " spc(" + data.spc + ")";
-	    if (data.pow != null)
-		ret += " pow(" + data.pow + ")";
-	    if (data.tex != null)
-		ret += " tex(" + data.tex + ")";
-	    if (data.aplane != null)
-		ret += " aplane(" + data.aplane + ")";
+	    if (!Float.isNaN(dif))
+		ret += " dif(" + dif + ")";
+	    if (!Float.isNaN(amb))
+		ret += " amb(" + amb + ")";
+	    if (!Float.isNaN(emi))
+		ret += " emi(" + emi + ")";
+	    if (!Float.isNaN(spc))
+		ret += " spc(" + spc + ")";
+	    if (!Float.isNaN(pow))
+		ret += " pow(" + pow + ")";
+	    if (tex != null)
+		ret += " tex(" + tex + ")";
+	    if (aplane != null)
+		ret += " aplane(" + aplane + ")";
 	    return ret;
 	}
     }
-
     /**
-     * MQOファイルのObject情報読み込みクラス
-     * 
+     * MQOファイルのObject情報読み込みクラス<br>
+     * 面はすべて三角形にして、面ごとの値を配列に並べて持つ
+     *
      */
     private class objects {
 	String name = null;
-
-	class objects_data {
-	    Integer depth = null;
-
-	    Integer folding = null;
-
-	    Float[] scale = null;
-
-	    Float[] rotation = null;
-
-	    Float[] translation = null;
-
-	    Integer patch = null;
-
-	    Integer segment = null;
-
-	    Integer visible = null;
-
-	    Integer locking = null;
-
-	    Integer shading = null;
-
-	    Float facet = null;
-
-	    Float[] color = null;
-
-	    Integer mirror = null;
-
-	    Integer color_type = null;
-
-	    Integer mirror_axis = null;
-
-	    Float mirror_dis = null;
-	}
-
-	objects_data data = null;;
-
-	String[] fls_names = null;
-
-	Field[] fls = null;
-
-	Class[] tys = null;
-
-	KGLPoint[] vertex = null;
-
-	class Face {
-	    Integer[] V = null;
-
-	    Integer M = null;
-
-	    Float[] UV = null;
-
-	    Float[] COL = null;
-	}
-
-	Face[] face;
-
-	public objects() {
-	    // データフィールドをとりだす
-	    data = new objects_data();
-	    fls = data.getClass().getDeclaredFields();
-	    int len;
-	    len = fls.length;
-	    fls_names = new String[len];
-	    tys = new Class[len];
-	    // フィールド名とフィールド型を取り出す
-	    for (int i = 0; i < len; i++) {
-		fls_names[i] = fls[i].getName();
-		tys[i] = fls[i].getType();
-	    }
-	}
+	int visible = 15;
+	int shading = 1;
+	float facet = 59.5f;
+	float[] color = null;
+	/**
+	 * 頂点（x,y,z の並び）
+	 */
+	float[] vertex = null;
+	/**
+	 * 面（三角形）の数
+	 */
+	int faceNum = 0;
+	/**
+	 * 面の頂点番号（面＊３）
+	 */
+	int[] faceV = null;
+	/**
+	 * 面のマテリアル番号（指定なしは-1）
+	 */
+	int[] faceM = null;
+	/**
+	 * 面のUV（面＊６）、faceUVに値があるか
+	 */
+	float[] faceUV = null;
+	boolean[] hasUV = null;
+	/**
+	 * 面の頂点カラー（面＊１２）、faceCOLに値があるか
+	 */
+	float[] faceCOL = null;
+	boolean[] hasCOL = null;
 
 	/**
 	 * vertexチャンクの読み込み
-	 * 
+	 *
 	 * @param num
 	 *                チャンクにあるデータ数
-	 * @param br
+	 * @param r
 	 *                読み込みストリーム
 	 * @param scale
 	 *                モデルの倍率
 	 * @return 頂点配列
 	 * @throws Exception
 	 */
-	private KGLPoint[] readVertex(int num, multiInput br, float scale) throws Exception
+	private float[] readVertex(int num, KGLMetaseqReader r, float scale) throws Exception
 	{
-	    KGLPoint[] ret = null;
-	    String line = null;
-	    String[] s;
-	    int cnt;
-	    ret = new KGLPoint[num];
-	    cnt = 0;
+	    float[] ret = new float[num * 3];
+	    int cnt = 0;
 	    try {
-		while ((line = br.readLine()) != null) {
-		    if (line.length() <= 0)
+		while (!r.isEnd()) {
+		    if (r.isLineEnd()) {
+			r.skipLine();
 			continue;
-		    line = line.trim();
-		    if (line.equals("}"))
+		    }
+		    if (r.current() == '}') {
+			r.skipLine();
 			break;
-		    s = line.split(" ", 3);
-		    ret[cnt] = KGLPoint.createXYZ(Float.parseFloat(s[0])
-			    * scale, Float.parseFloat(s[1]) * scale, Float
-			    .parseFloat(s[2])
-			    * scale);
+		    }
+		    ret[cnt * 3] = r.readFloat() * scale;
+		    ret[cnt * 3 + 1] = r.readFloat() * scale;
+		    ret[cnt * 3 + 2] = r.readFloat() * scale;
+		    r.skipLine();
 		    cnt++;
 		}
 	    } catch (Exception e) {
-		Log.e("KGLMetaseq", "MQOファイル　フォーマットエラー（Object>vertex）[" + line+ "]");
+		Log.e("KGLMetaseq", "MQOファイル　フォーマットエラー（Object>vertex）[" + cnt + "]");
 		throw e;
 	    }
-
 	    if (cnt != num)
-		return null;
+		throw new Exception("頂点の数が不正");
 	    return ret;
 	}
-
 	/**
 	 * BVertexチャンクの読み込み
-	 * 
-	 * @param br
+	 *
+	 * @param r
 	 *                読み込みストリーム
 	 * @return 頂点配列
 	 * @param scale
 	 *                モデルの倍率
 	 * @throws Exception
 	 */
-	private KGLPoint[] readBvertex(multiInput br, float scale)
+	private float[] readBvertex(KGLMetaseqReader r, float scale)
 	throws Exception {
-	    KGLPoint[] ret = null;
-	    String line = null;
-	    String[] s;
-	    int p;
-	    int pe;
 	    int datasize = 0;
 	    try {
-		while ((line = br.readLine().trim()) != null) {
-		    if (line.length() <= 0)
-			continue;
-		    s = line.split(" ");
-		    if (s[0].equals("Vector")) {
-			if (s.length != 3) {
-			    line = null;
-			    break;
-			}
-			p = s[2].indexOf("[");
-			pe = s[2].indexOf("]");
-			datasize = Integer.parseInt(s[2].substring(p + 1, pe));
+		while (!r.isEnd()) {
+		    r.readWord();
+		    if (r.isWord("Vector")) {
+			r.readInt();
+			if (!r.skip('['))
+			    return null;
+			datasize = r.readInt();
+			r.skipLine();
 			break;
 		    }
+		    r.skipLine();
 		}
 	    } catch (Exception e) {
-		Log.e("KGLMetaseq", "MQOファイル　フォーマットエラー（Object>Bvertex）[" + line+ "]");
+		Log.e("KGLMetaseq", "MQOファイル　フォーマットエラー（Object>Bvertex）");
 		throw new KGLException(e);
 	    }
-	    if (line == null){
-                return null;
-	    }
 	    if (datasize == 0)
 		return null;
 	    byte[] bbuf = new byte[datasize];
-	    if (datasize != br.read(bbuf))
+	    if (datasize != r.read(bbuf, datasize))
 		return null;
 	    ByteBuffer bb;
 	    bb = ByteBuffer.wrap(bbuf);
 	    bb.order(ByteOrder.LITTLE_ENDIAN);// MQOファイルのエンディアンはIntel形式
 	    FloatBuffer fb = bb.asFloatBuffer();
-	    ret = new KGLPoint[fb.limit() / 3];
-	    fb.position(0);
-	    float[] wf = new float[3];
+	    float[] ret = new float[fb.limit() / 3 * 3];
+	    fb.get(ret);
 	    for (int i = 0; i < ret.length; i++) {
-		fb.get(wf);
-		ret[i] = KGLPoint.create(wf).scale(scale);
-	    }
-	    while ((line = br.readLine().trim()) != null) {
-		if (line.equals("}"))
-		    break;
+		ret[i] *= scale;
 	    }
+	    r.skipLine();
+	    r.skipChunk();
 	    return ret;
 	}
-
 	/**
-	 * faceチャンクの読み込み
-	 * 
-	 * @param br
+	 * 面の配列を確保（拡張）する
+	 *
+	 * @param num
+	 *                必要な面（三角形）の数
+	 */
+	private void reserveFace(int num) {
+	    if (faceV != null && num <= faceM.length)
+		return;
+	    int size = Math.max(num, faceM == null ? 0 : faceM.length * 2);
+	    faceV = faceV == null ? new int[size * 3] : Arrays.copyOf(faceV, size * 3);
+	    faceM = faceM == null ? new int[size] : Arrays.copyOf(faceM, size);
+	    if (faceUV != null) {
+		faceUV = Arrays.copyOf(faceUV, size * 6);
+		hasUV = Arrays.copyOf(hasUV, size);
+	    }
+	    if (faceCOL != null) {
+		faceCOL = Arrays.copyOf(faceCOL, size * 12);
+		hasCOL = Arrays.copyOf(hasCOL, size);
+	    }
+	}
+	/**
+	 * faceチャンクの読み込み<br>
+	 * 四角形は三角形ｘ２に分割する
+	 *
+	 * @param num
+	 *                チャンクにある面の数
+	 * @param r
 	 *                読み込みストリーム
-	 * @return 面配列
 	 * @throws Exception
 	 */
-	private Face[] readFace(multiInput br) throws Exception
+	private void readFace(int num, KGLMetaseqReader r) throws Exception
 	{
-	    ArrayList<Face> qf;
-	    String line = null;
-	    String[] s;
-	    Integer Mn;
-	    Face[] wface = null;
-	    int p;
-	    int pe;
-	    qf = new ArrayList<Face>();
+	    int[] v = new int[4];
+	    float[] uv = new float[2 * 4];
+	    long[] col = new long[4];
+	    // 頂点配列はすべて三角にするので、四角は三角ｘ２に分割
+	    // 0 3 0 0 3
+	    // □ → △ ▽
+	    // 1 2 1 2 2
+	    final int[][] corners = { { 0, 1, 2 }, { 0, 2, 3 } };
+	    faceNum = 0;
+	    reserveFace(num * 2);
 	    try {
-		while ((line = br.readLine()) != null) {
-		    if (line.length() <= 0)
+		while (!r.isEnd()) {
+		    if (r.isLineEnd()) {
+			r.skipLine();
 			continue;
-		    line = line.trim();
-		    if (line.equals("}"))
+		    }
+		    if (r.current() == '}') {
+			r.skipLine();
 			break;
-		    wface = null;
-		    Mn = null;
-		    p = line.indexOf("M(");
-		    if (p != -1) {
-			pe = line.indexOf(")", p);
-			Mn = Integer.parseInt(line.substring(p + 2, pe));
 		    }
-		    p = line.indexOf("V(");
-		    if (p == -1)
-			continue;
-		    pe = line.indexOf(")", p);
-		    s = line.substring(p + 2, pe).split(" ");
-		    if (s.length == 3) {
-			wface = new Face[1];
-			wface[0] = new Face();
-			wface[0].V = new Integer[3];
-			wface[0].V[0] = Integer.parseInt(s[0]);
-			wface[0].V[1] = Integer.parseInt(s[1]);
-			wface[0].V[2] = Integer.parseInt(s[2]);
-			wface[0].M = Mn;
-			p = line.indexOf("UV(");
-			if (p != -1) {
-			    pe = line.indexOf(")", p);
-			    s = line.substring(p + 3, pe).split(" ");
-			    if (s.length != 2 * 3)
-				throw new Exception("UVの数が不正");
-			    wface[0].UV = new Float[2 * 3];
-			    for (int i = 0; i < s.length; i++) {
-				wface[0].UV[i] = Float.parseFloat(s[i]);
-			    }
+		    int mn = -1;
+		    int vn = 0;
+		    int uvn = -1;
+		    int coln = -1;
+		    // 先頭の頂点数は使わない（V()の数で判断する）
+		    if (r.current() >= '0' && r.current() <= '9')
+			r.readInt();
+		    while (!r.isLineEnd()) {
+			if (r.readWord() == 0 && r.current() != '(') {
+			    r.next();
+			    continue;
 			}
-			p = line.indexOf("COL(");
-			if (p != -1) {
-			    pe = line.indexOf(")", p);
-			    s = line.substring(p + 4, pe).split(" ");
-			    if (s.length != 3)
-				throw new Exception("COLの数が不正");
-			    wface[0].COL = new Float[4 * 3];
-			    long wl;
-			    float wf;
-			    for (int i = 0; i < s.length; i++) {
-				wl = Long.parseLong(s[i]);
-				wf = (wl >>> 0) & 0x000000ff;
-				wface[0].COL[i * 4 + 0] = wf / 255f;
-				wf = (wl >>> 8) & 0x000000ff;
-				wface[0].COL[i * 4 + 1] = wf / 255f;
-				wf = (wl >>> 16) & 0x000000ff;
-				wface[0].COL[i * 4 + 2] = wf / 255f;
-				wf = (wl >>> 24) & 0x000000ff;
-				wface[0].COL[i * 4 + 3] = wf / 255f;
+			if (!r.skip('('))
+			    continue;
+			if (r.isWord("V")) {
+			    while (!r.isLineEnd() && r.current() != ')') {
+				int w = r.readInt();
+				if (vn < v.length)
+				    v[vn] = w;
+				vn++;
 			    }
-			}
-		    }
-		    // 頂点配列はすべて三角にするので、四角は三角ｘ２に分割
-		    // 0 3 0 0 3
-		    // □ → △ ▽
-		    // 1 2 1 2 2
-		    if (s.length == 4) {
-			wface = new Face[2];
-			wface[0] = new Face();
-			wface[1] = new Face();
-			wface[0].V = new Integer[3];
-			wface[0].V[0] = Integer.parseInt(s[0]);
-			wface[0].V[1] = Integer.parseInt(s[1]);
-			wface[0].V[2] = Integer.parseInt(s[2]);
-			wface[0].M = Mn;
-			wface[1].V = new Integer[3];
-			wface[1].V[0] = Integer.parseInt(s[0]);
-			wface[1].V[1] = Integer.parseInt(s[2]);
-			wface[1].V[2] = Integer.parseInt(s[3]);
-			wface[1].M = Mn;
-			p = line.indexOf("UV(");
-			if (p != -1) {
-			    int uv_p;
-			    pe = line.indexOf(")", p);
-			    s = line.substring(p + 3, pe).split(" ");
-			    if (s.length != 2 * 4)
-				throw new Exception("UVの数が不正");
-			    wface[0].UV = new Float[2 * 3];
-			    wface[1].UV = new Float[2 * 3];
-			    for (int i = 0; i < 2; i++) {
-				uv_p = 0;
-				for (int j = 0; j < 4; j++) {
-				    if (i == 0 && j == 3)
-					continue;
-				    if (i == 1 && j == 1)
-					continue;
-				    wface[i].UV[uv_p++] = Float
-				    .parseFloat(s[j * 2 + 0]);
-				    wface[i].UV[uv_p++] = Float
-				    .parseFloat(s[j * 2 + 1]);
-				}
+			} else if (r.isWord("M")) {
+			    mn = r.readInt();
+			} else if (r.isWord("UV")) {
+			    uvn = 0;
+			    while (!r.isLineEnd() && r.current() != ')') {
+				float w = r.readFloat();
+				if (uvn < uv.length)
+				    uv[uvn] = w;
+				uvn++;
 			    }
-			}
-			p = line.indexOf("COL(");
-			if (p != -1) {
-			    pe = line.indexOf(")", p);
-			    s = line.substring(p + 4, pe).split(" ");
-			    if (s.length != 4)
-				throw new Exception("COLの数が不正");
-			    wface[0].COL = new Float[4 * 3];
-			    wface[1].COL = new Float[4 * 3];
-			    long wl;
-			    float wf;
-			    int col_p;
-			    for (int i = 0; i < 2; i++) {
-				col_p = 0;
-				for (int j = 0; j < s.length; j++) {
-				    if (i == 0 && j == 3)
-					continue;
-				    if (i == 1 && j == 1)
-					continue;
-				    wl = Long.parseLong(s[j]);
-				    wf = (wl >>> 0) & 0x000000ff;
-				    wface[i].COL[col_p * 4 + 0] = wf / 255f;
-				    wf = (wl >>> 8) & 0x000000ff;
-				    wface[i].COL[col_p * 4 + 1] = wf / 255f;
-				    wf = (wl >>> 16) & 0x000000ff;
-				    wface[i].COL[col_p * 4 + 2] = wf / 255f;
-				    wf = (wl >>> 24) & 0x000000ff;
-				    wface[i].COL[col_p * 4 + 3] = wf / 255f;
-				    col_p++;
-				}
+			} else if (r.isWord("COL")) {
+			    coln = 0;
+			    while (!r.isLineEnd() && r.current() != ')') {
+				long w = r.readLong();
+				if (coln < col.length)
+				    col[coln] = w;
+				coln++;
 			    }
 			}
-
+			r.skipParenthesis();
+		    }
+		    r.skipLine();
+		    if (vn != 3 && vn != 4)
+			continue;
+		    if (uvn >= 0 && uvn != 2 * vn)
+			throw new Exception("UVの数が不正");
+		    if (coln >= 0 && coln != vn)
+			throw new Exception("COLの数が不正");
+		    int tris = vn - 2;
+		    reserveFace(faceNum + tris);
+		    if (uvn >= 0 && faceUV == null) {
+			faceUV = new float[faceM.length * 6];
+			hasUV = new boolean[faceM.length];
+		    }
+		    if (coln >= 0 && faceCOL == null) {
+			faceCOL = new float[faceM.length * 12];
+			hasCOL = new boolean[faceM.length];
 		    }
-		    if (wface != null) {
-			for (int i = 0; i < wface.length; i++) {
-			    qf.add(wface[i]);
+		    for (int t = 0; t < tris; t++) {
+			int f = faceNum++;
+			faceM[f] = mn;
+			for (int i = 0; i < 3; i++) {
+			    int j = corners[t][i];
+			    faceV[f * 3 + i] = v[j];
+			    if (uvn >= 0) {
+				faceUV[f * 6 + i * 2] = uv[j * 2];
+				faceUV[f * 6 + i * 2 + 1] = uv[j * 2 + 1];
+			    }
+			    if (coln >= 0) {
+				long wl = col[j];
+				faceCOL[f * 12 + i * 4] = ((wl >>> 0) & 0x000000ff) / 255f;
+				faceCOL[f * 12 + i * 4 + 1] = ((wl >>> 8) & 0x000000ff) / 255f;
+				faceCOL[f * 12 + i * 4 + 2] = ((wl >>> 16) & 0x000000ff) / 255f;
+				faceCOL[f * 12 + i * 4 + 3] = ((wl >>> 24) & 0x000000ff) / 255f;
+			    }
 			}
+			if (hasUV != null)
+			    hasUV[f] = uvn >= 0;
+			if (hasCOL != null)
+			    hasCOL[f] = coln >= 0;
 		    }
 		}
 	    } catch (Exception e) {
-		Log.e("KGLMetaseq", "MQOファイル　フォーマットエラー（Object>face）"+ e.getMessage() + "[" + line + "]");
+		Log.e("KGLMetaseq", "MQOファイル　フォーマットエラー（Object>face）"+ e.getMessage() + "[" + faceNum + "]");
 		throw e;
 	    }
-	    if (qf.size() == 0)
-		return null;
-	    return qf.toArray(new Face[0]);
 	}
-
-	private void set(String in_name, multiInput br, float scale)throws Exception
+	/**
+	 * Objectチャンクの読み込み（「Object "名前" {」の次の行から「}」の行まで）
+	 *
+	 * @param in_name
+	 *                オブジェクト名
+	 * @param r
+	 *                読み込みストリーム
+	 * @param scale
+	 *                モデルの倍率
+	 * @throws Exception
+	 */
+	private void set(String in_name, KGLMetaseqReader r, float scale)throws Exception
 	{
-	    String line[];
-	    name = getDoubleQuoatString(in_name);
-	    while ((line = Chank(br, true)) != null) {
-		if (line[0].equals("}"))
+	    name = in_name;
+	    while (!r.isEnd()) {
+		r.readWord();
+		if (r.isWord("}")) {
+		    r.skipLine();
 		    break;
-		if (line[line.length - 1].equals("{")) { // 内部チャンク
-		    if (line[0].equals("vertex")) {
-			vertex = readVertex(Integer.parseInt(line[1]), br,
-				scale);
-			continue;
-		    }
-		    if (line[0].equals("BVertex")) {
-			vertex = readBvertex(br, scale);
-			continue;
-		    }
-		    if (line[0].equals("face")) {
-			face = readFace(br);
-			continue;
-		    }
-		    String single = null;
-		    while ((single = br.readLine()) != null) {
-			if (single.trim().equals("}"))
-			    break;
-		    }
+		}
+		if (r.isWord("vertex")) {
+		    int num = r.readInt();
+		    if (r.skipLine())
+			vertex = readVertex(num, r, scale);
+		    continue;
+		}
+		if (r.isWord("BVertex")) {
+		    if (r.skipLine())
+			vertex = readBvertex(r, scale);
 		    continue;
 		}
-		for (int i = 0; i < fls_names.length; i++) {
-		    if (fls_names[i].equals(line[0])) {
-			dataSetter(data, fls[i], tys[i], line[1]);
+		if (r.isWord("face")) {
+		    int num = r.readInt();
+		    if (r.skipLine())
+			readFace(num, r);
+		    continue;
+		}
+		if (r.isWord("visible")) {
+		    visible = r.readInt();
+		} else if (r.isWord("shading")) {
+		    shading = r.readInt();
+		} else if (r.isWord("facet")) {
+		    facet = r.readFloat();
+		} else if (r.isWord("color")) {
+		    float[] w = new float[3];
+		    for (int i = 0; i < w.length; i++) {
+			w[i] = r.readFloat();
 		    }
+		    color = w;
 		}
-
+		// その他の内部チャンクは読み飛ばす
+		if (r.skipLine())
+		    r.skipChunk();
 	    }
 	}
-
 	public String toString() {
 	    String ret;
 	    ret = name;
-	    if (data.visible != null)
-		ret += " visible(" + data.visible + ")";
-	    if (data.color != null) {
+	    ret += " visible(" + visible + ")";
+	    if (color != null) {
 		ret += " color(";
-		for (int i = 0; i < data.color.length; i++) {
+		for (int i = 0; i < color.length; i++) {
 		    if (i != 0)
 			ret += ", ";
-		    ret += data.color[i];
+		    ret += color[i];
 		}
 		ret += ")";
 	    }
-	    if (data.facet != null)
-		ret += " facet(" + data.facet + ")";
+	    ret += " facet(" + facet + ")";
 	    return ret;
-
 	}
     }
-
     /**
      * 描画用マテリアル情報をMQOデータから作成
-     * 
+     *
      * @param mqomat
      *                MQOファイルから読み込んだマテリアル情報
-     * @param i_mqomat
-     *                MQOファイルのマテリアル番号
      * @param mqoObjs
      *                MQOファイルのオブジェクト情報
      * @param vn
      *                頂点法線配列
+     * @param fn
+     *                面法線配列
+     * @param faces
+     *                このマテリアルの面番号（マテリアル順に並べたもの）
+     * @param start
+     *                facesの開始位置
+     * @param num
+     *                このマテリアルの面の数
      * @return 描画用マテリアル情報
      */
-    private GLMaterial makeMats(GL10 gl, material mqomat, int i_mqomat, objects mqoObjs,KGLPoint[] vn) {
+    private GLMaterial makeMats(GL10 gl, material mqomat, objects mqoObjs, float[] vn, float[] fn,
+	    int[] faces, int start, int num) {
 	GLMaterial ret = new GLMaterial();
-	ArrayList<KGLPoint> apv = new ArrayList<KGLPoint>();
-	ArrayList<KGLPoint> apn = new ArrayList<KGLPoint>();
-	ArrayList<KGLPoint> apuv = new ArrayList<KGLPoint>();
-	ArrayList<KGLPoint> apc = new ArrayList<KGLPoint>();
-	KGLPoint wpoint = null;
-	boolean uvValid = false;
-	boolean colValid = false;
-	KGLPoint fn;
-	float s;
-	for (int f = 0; f < mqoObjs.face.length; f++) {
-	    if(mqoObjs.face[f].M==null){
-		continue;
-	    }
-	    if (mqoObjs.face[f].M != i_mqomat)
-		continue;
-
-	    fn = calcNormal(mqoObjs.vertex, mqoObjs.face[f].V[0],
-		    mqoObjs.face[f].V[1], mqoObjs.face[f].V[2]);
-	    for (int v = 0; v < 3; v++) {
-		apv.add(mqoObjs.vertex[mqoObjs.face[f].V[v]]);
-		// apv.add(new KGLPoint(mqoObjs.vertex[mqoObjs.face[f].V[v]])) ;
-		s = (float) Math.acos(fn.X() * vn[mqoObjs.face[f].V[v]].X()
-			+ fn.Y() * vn[mqoObjs.face[f].V[v]].Y() + fn.Z()
-			* vn[mqoObjs.face[f].V[v]].Z());
-		if (mqoObjs.data.facet < s) {
-		    apn.add(fn);
-		} else {
-		    apn.add(vn[mqoObjs.face[f].V[v]]);
-		}
-		wpoint = new KGLPoint(2);
-		if (mqoObjs.face[f].UV == null) {
-		    wpoint.set_UV(0, 0);
-		} else {
-		    wpoint.set_UV(mqoObjs.face[f].UV[v * 2 + 0],
-			    mqoObjs.face[f].UV[v * 2 + 1]);
-		    uvValid = true;
-		}
-		apuv.add(wpoint);
-		wpoint = new KGLPoint(4);
-		if (mqoObjs.face[f].COL == null) {
-		    if (mqomat.data.col == null) {
-			wpoint.set_COLOR(1.0f, 1.0f, 1.0f, 1.0f);
-		    } else {
-			wpoint.set_COLOR(mqomat.data.col[0],
-				mqomat.data.col[1], mqomat.data.col[2],
-				mqomat.data.col[3]);
-		    }
-		} else {
-		    wpoint.set_COLOR(mqoObjs.face[f].COL[v * 4 + 0],
-			    mqoObjs.face[f].COL[v * 4 + 1],
-			    mqoObjs.face[f].COL[v * 4 + 2],
-			    mqoObjs.face[f].COL[v * 4 + 3]);
-		    colValid = true;
-		}
-		apc.add(wpoint);
-	    }
-	}
-	ret.texID = texPool.getGLTexture(gl, mqomat.data.tex, mqomat.data.aplane,
+	ret.texID = texPool.getGLTexture(gl, mqomat.tex, mqomat.aplane,
 		false);
+	ret.alphaTexID = texPool.getGLAlphaTexture(mqomat.tex, mqomat.aplane);
 	// @@@ reload 用
 	if (ret.texID != 0) {
-		ret.texName = mqomat.data.tex;
-		ret.alphaTexName = mqomat.data.aplane;
+		ret.texName = mqomat.tex;
+		ret.alphaTexName = mqomat.aplane;
 	} else {
 		ret.texName = null;
 		ret.alphaTexName = null;
 	}
-
-	if (apv.size() == 0)
+	if (num == 0)
 	    return null;
+	boolean uvValid = false;
+	boolean colValid = false;
+	for (int i = start; i < start + num; i++) {
+	    uvValid |= mqoObjs.hasUV != null && mqoObjs.hasUV[faces[i]];
+	    colValid |= mqoObjs.hasCOL != null && mqoObjs.hasCOL[faces[i]];
+	}
 	uvValid &= (ret.texID != 0);
 	ret.name = mqomat.name;
-	// uvValid = false ;
-	KGLPoint[] wfv = null;
-	KGLPoint[] wfn = null;
-	KGLPoint[] wft = null;
-	KGLPoint[] wfc = null;
-	wfv = apv.toArray(new KGLPoint[0]);
-	wfn = apn.toArray(new KGLPoint[0]);
-	wft = apuv.toArray(new KGLPoint[0]);
-	wfc = apc.toArray(new KGLPoint[0]);
-	ret.vertex_num = wfv.length;
-
+	ret.vertex_num = num * 3;
 	// @@@ interleaveFormat は無いので分ける
 	ret.uvValid = uvValid;
 	ret.colValid = colValid;
-	
-	ret.vertexBuffer = ByteBuffer.allocateDirect(ret.vertex_num * 3 * 4);
-	ret.vertexBuffer.order(ByteOrder.nativeOrder());
-	ret.vertexBuffer.position(0);
-	
-	ret.normalBuffer = ByteBuffer.allocateDirect(ret.vertex_num * 3 * 4);
-	ret.normalBuffer.order(ByteOrder.nativeOrder());
-	ret.normalBuffer.position(0);
-	
-	if (uvValid) {
-		ret.uvBuffer = ByteBuffer.allocateDirect(ret.vertex_num * 2 * 4);
-		ret.uvBuffer.order(ByteOrder.nativeOrder());
-		ret.uvBuffer.position(0);
-	}
-	if (colValid) {
-		ret.colBuffer = ByteBuffer.allocateDirect(ret.vertex_num * 4 * 4);
-		ret.colBuffer.order(ByteOrder.nativeOrder());
-		ret.colBuffer.position(0);
-	}
-	
-	// Log.i("KGLMetaseq", "vertex_num: "+ ret.vertex_num);
 
-	for (int v = 0; v < ret.vertex_num; v++) {
-		ret.vertexBuffer.putFloat(wfv[v].X());
- 		ret.vertexBuffer.putFloat(wfv[v].Y());
- 		ret.vertexBuffer.putFloat(wfv[v].Z());
-			
-		ret.normalBuffer.putFloat(wfn[v].X());
-		ret.normalBuffer.putFloat(wfn[v].Y());
-		ret.normalBuffer.putFloat(wfn[v].Z());
-			
-	    if (uvValid) {
-		ret.uvBuffer.putFloat(wft[v].U());
-		ret.uvBuffer.putFloat(wft[v].V());
-	    }
-	    if (colValid) {
-		ret.colBuffer.putFloat(wfc[v].R());
-		ret.colBuffer.putFloat(wfc[v].G());
-		ret.colBuffer.putFloat(wfc[v].B());
-		ret.colBuffer.putFloat(wfc[v].A());
-	    }
-	}
-	if (mqomat.data.col != null) {
-	    ret.color = new float[mqomat.data.col.length];
-	    for (int c = 0; c < mqomat.data.col.length; c++) {
-		ret.color[c] = mqomat.data.col[c];
-	    }
-	    if (mqomat.data.dif != null) {
-		ret.dif = new float[mqomat.data.col.length];
-		for (int c = 0; c < mqomat.data.col.length; c++) {
-		    ret.dif[c] = mqomat.data.dif * mqomat.data.col[c];
+	// 最終的なサイズで配列を作り、まとめてバッファに転送する
+	float[] wv = new float[ret.vertex_num * 3];
+	float[] wn = new float[ret.vertex_num * 3];
+	float[] wt = uvValid ? new float[ret.vertex_num * 2] : null;
+	float[] wc = colValid ? new float[ret.vertex_num * 4] : null;
+	float[] V = mqoObjs.vertex;
+	for (int i = 0; i < num; i++) {
+	    int f = faces[start + i];
+	    float fx = fn[f * 3];
+	    float fy = fn[f * 3 + 1];
+	    float fz = fn[f * 3 + 2];
+	    for (int v = 0; v < 3; v++) {
+		int p = mqoObjs.faceV[f * 3 + v] * 3;
+		int o = (i * 3 + v);
+		wv[o * 3] = V[p];
+		wv[o * 3 + 1] = V[p + 1];
+		wv[o * 3 + 2] = V[p + 2];
+		float s = (float) Math.acos(fx * vn[p] + fy * vn[p + 1] + fz * vn[p + 2]);
+		if (mqoObjs.facet < s) {
+		    wn[o * 3] = fx;
+		    wn[o * 3 + 1] = fy;
+		    wn[o * 3 + 2] = fz;
+		} else {
+		    wn[o * 3] = vn[p];
+		    wn[o * 3 + 1] = vn[p + 1];
+		    wn[o * 3 + 2] = vn[p + 2];
 		}
-		// KEICHECK difでアルファ値を１未満にすると透明度が変化する？
-		ret.dif[3] = mqomat.data.col[3];
-	    }
-	    if (mqomat.data.amb != null) {
-		ret.amb = new float[mqomat.data.col.length];
-		for (int c = 0; c < mqomat.data.col.length; c++) {
-		    ret.amb[c] = mqomat.data.amb * mqomat.data.col[c];
+		if (uvValid && mqoObjs.hasUV[f]) {
+		    wt[o * 2] = mqoObjs.faceUV[f * 6 + v * 2];
+		    wt[o * 2 + 1] = mqoObjs.faceUV[f * 6 + v * 2 + 1];
 		}
-	    }
-	    if (mqomat.data.emi != null) {
-		ret.emi = new float[mqomat.data.col.length];
-		for (int c = 0; c < mqomat.data.col.length; c++) {
-		    ret.emi[c] = mqomat.data.emi * mqomat.data.col[c];
+		if (colValid) {
+		    if (mqoObjs.hasCOL[f]) {
+			System.arraycopy(mqoObjs.faceCOL, f * 12 + v * 4, wc, o * 4, 4);
+		    } else if (mqomat.col == null) {
+			wc[o * 4] = wc[o * 4 + 1] = wc[o * 4 + 2] = wc[o * 4 + 3] = 1.0f;
+		    } else {
+			System.arraycopy(mqomat.col, 0, wc, o * 4, 4);
+		    }
 		}
 	    }
-	    if (mqomat.data.spc != null) {
-		ret.spc = new float[mqomat.data.col.length];
-		for (int c = 0; c < mqomat.data.col.length; c++) {
-		    ret.spc[c] = mqomat.data.spc * mqomat.data.col[c];
-		}
+	}
+	ret.vertexBuffer = makeBuffer(wv);
+	ret.normalBuffer = makeBuffer(wn);
+	if (uvValid) {
+		ret.uvBuffer = makeBuffer(wt);
+	}
+	if (colValid) {
+		ret.colBuffer = makeBuffer(wc);
+	}
+	if (mqomat.col != null) {
+	    float[] col = mqomat.col;
+	    ret.color = col.clone();
+	    if (!Float.isNaN(mqomat.dif)) {
+		ret.dif = scaleColor(mqomat.dif, col);
+		// KEICHECK difでアルファ値を１未満にすると透明度が変化する？
+		ret.dif[3] = col[3];
 	    }
+	    if (!Float.isNaN(mqomat.amb))
+		ret.amb = scaleColor(mqomat.amb, col);
+	    if (!Float.isNaN(mqomat.emi))
+		ret.emi = scaleColor(mqomat.emi, col);
+	    if (!Float.isNaN(mqomat.spc))
+		ret.spc = scaleColor(mqomat.spc, col);
 	}
-	if (mqomat.data.pow != null) {
+	if (!Float.isNaN(mqomat.pow)) {
 	    ret.power = new float[1];
-	    ret.power[0] = mqomat.data.pow;
+	    ret.power[0] = mqomat.pow;
 	}
 	ret.shadeMode_IsSmooth = true;// defaultはtrue
-	if (mqoObjs.data.shading == 0)
+	if (mqoObjs.shading == 0)
 	    ret.shadeMode_IsSmooth = false;
-
 	return ret;
     }
-
+    /**
+     * 色の各要素をs倍した配列を作る
+     */
+    private static float[] scaleColor(float s, float[] col) {
+	float[] ret = new float[col.length];
+	for (int c = 0; c < col.length; c++) {
+	    ret[c] = s * col[c];
+	}
+	return ret;
+    }
+    /**
+     * 配列と同じ大きさのダイレクトバッファを作る
+     */
+    private static ByteBuffer makeBuffer(float[] data) {
+	ByteBuffer ret = ByteBuffer.allocateDirect(data.length * 4);
+	ret.order(ByteOrder.nativeOrder());
+	ret.asFloatBuffer().put(data);
+	return ret;
+    }
     /**
      * 描画用オブジェクト情報を作成する
-     * 
+     *
      * @param mqoMats
      *                MQOファイルから読み込んだマテリアル情報配列
      * @param mqoObjs
@@ -902,10 +733,27 @@ public class KGLMetaseq extends KGLModelData
 	GLObject ret = null;
 	ArrayList<GLMaterial> mats = new ArrayList<GLMaterial>();
 	GLMaterial mr;
-	KGLPoint[] vn = null;
-	vn = vNormal(mqoObjs);
+	float[] fn = new float[mqoObjs.faceNum * 3];
+	float[] vn = vNormal(mqoObjs, fn);
+	// 面をマテリアル順に並べる（元の順序は保つ）
+	int[] start = new int[mqoMats.length + 1];
+	for (int f = 0; f < mqoObjs.faceNum; f++) {
+	    int m = mqoObjs.faceM[f];
+	    if (m >= 0 && m < mqoMats.length)
+		start[m + 1]++;
+	}
+	for (int m = 0; m < mqoMats.length; m++) {
+	    start[m + 1] += start[m];
+	}
+	int[] faces = new int[start[mqoMats.length]];
+	int[] fill = start.clone();
+	for (int f = 0; f < mqoObjs.faceNum; f++) {
+	    int m = mqoObjs.faceM[f];
+	    if (m >= 0 && m < mqoMats.length)
+		faces[fill[m]++] = f;
+	}
 	for (int m = 0; m < mqoMats.length; m++) {
-	    mr = makeMats(gl, mqoMats[m], m, mqoObjs, vn);
+	    mr = makeMats(gl, mqoMats[m], mqoObjs, vn, fn, faces, start[m], start[m + 1] - start[m]);
 	    if (mr != null) {
 		mats.add(mr);
 	    }
@@ -915,18 +763,18 @@ public class KGLMetaseq extends KGLModelData
 	ret = new GLObject();
 	ret.name = mqoObjs.name;
 	ret.mat = mats.toArray(new GLMaterial[0]);
-	ret.isVisible = (mqoObjs.data.visible != 0);
+	ret.isVisible = (mqoObjs.visible != 0);
 
 	return ret;
     }
 //	後で復帰させる
 //    protected KGLMetaseq(GL in_gl, KGLTextures in_texPool, File mqoFile,float scale, boolean isUseVBO)
 //    {
-//	
+//
 //    }
     /**
      * コンストラクタ ここでファイルからデータを読み込んでいる
-     * 
+     *
      * @param in_gl
      * OpenGLコマンド群をカプセル化したクラス
      * @param in_texPool
@@ -944,115 +792,76 @@ public class KGLMetaseq extends KGLModelData
     {
 	super(in_texPool, am, scale);
 //	targetMQO = in_moq;
-	material mats[] = null;
+	material mats[] = new material[0];
 	InputStream fis = null;
-	// InputStreamReader isr = null ;
-	// BufferedReader br = null;
-	multiInput br = null;
-	String chankName[] = null;
 	GLObject glo = null;
 	ArrayList<GLObject> globjs = new ArrayList<GLObject>();
 	try {
 	    fis = am.open(msqname);
-	    // isr = new InputStreamReader(fis) ;
-	    // br = new BufferedReader(isr);
-	    br = new multiInput(fis);
-	    while ((chankName = Chank(br, false)) != null) {
-		/*
-		 * for( int i = 0 ; i < chankName.length ; i++ ) {
-		 * System.out.print(chankName[i]+" ") ; } System.out.println() ;
-		 */
-		if (chankName[0].trim().toUpperCase().equals("MATERIAL")) {
+	    KGLMetaseqReader r = new KGLMetaseqReader(fis);
+	    while (!r.isEnd()) {
+		// 一番外のチャンク（「{」で終わる行）だけを見る
+		r.readWord();
+		if (r.isWordIgnoreCase("Material")) {
+		    int num;
 		    try {
-			mats = new material[Integer.parseInt(chankName[1])];
+			num = r.readInt();
+		    } catch (NumberFormatException e) {
+			r.skipLine();
+			continue;
+		    }
+		    if (!r.skipLine())
+			continue;
+		    try {
+			mats = new material[num];
 			for (int m = 0; m < mats.length; m++) {
 			    mats[m] = new material();
-			    mats[m].set(br.readLine().trim());
+			    mats[m].set(r);
 			    // Log.i("KGLMetaseq", "Material(" + m+") :" + mats[m].toString());
 			}
 		    } catch (Exception mat_e) {
 			Log.e("KGLMetaseq", "MQOファイル　Materialチャンク読み込み例外発生 "+ mat_e.getMessage());
 			throw new KGLException(mat_e);
 		    }
+		    continue;
 		}
-		try {
-		    if (chankName[0].trim().toUpperCase().equals("OBJECT")) {
+		if (r.isWordIgnoreCase("Object")) {
+		    String name = r.readString();
+		    if (!r.skipLine())
+			continue;
+		    try {
 			objects object = new objects();
-			object.set(chankName[1], br, scale);
+			object.set(name, r, scale);
 
 			// System.out.println(object.toString()) ;
-			if (object.face == null){
+			if (object.faceNum == 0){
 			    continue;// 面情報のないオブジェクトは飛ばす
 			}
+			if (object.vertex == null)
+			    throw new Exception("頂点がない");
 			glo = makeObjs(gl, mats, object);
 			if (glo != null){
 			    globjs.add(glo);
 			}
+		    }catch (Exception obj_e) {
+			Log.e("KGLMetaseq", "MQOファイル　Object[" + name+ "]チャンク読み込み例外発生 " + obj_e.toString());
+			throw new KGLException(obj_e);
 		    }
-		}catch (Exception obj_e) {
-		    Log.e("KGLMetaseq", "MQOファイル　Object[" + chankName[1]+ "]チャンク読み込み例外発生 " + obj_e.toString());
-		    throw new KGLException(obj_e);
+		    continue;
 		}
+		r.skipLine();
 	    }
-	    br.close();// 読み込み終了
-	    br = null;
 	    glObj = globjs.toArray(new GLObject[0]);
 	} catch (Exception e) {
 	    e.printStackTrace();
 	} finally {
 	    try {
-		if (br != null)
-		    br.close();
+		if (fis != null)
+		    fis.close();
 	    } catch (IOException e) {
 		e.printStackTrace();
 	    }
 	}
 
     }
-
-    /**
-     * チャンクサーチ
-     * 
-     * @param br
-     *                読み込みストリーム
-     * @param isInner
-     *                true:チャンク内部のチャンクサーチ false:一番外のチャンクサーチ
-     * @return チャンク文字列
-     * @throws IOException
-     */
-    private String[] Chank(multiInput br, boolean isInner) throws IOException {
-	String ret[] = null;
-	String ws[] = null;
-	String read = null;
-	char c;
-	while ((read = br.readLine()) != null) {
-	    if (read.length() <= 0)
-		continue;
-	    c = read.charAt(read.length() - 1);
-	    if (c == '{') {
-		ws = read.split(" ");
-		if (ws.length == 2) {
-		    ret = new String[2];
-		    ret[0] = ws[0].trim();
-		    ret[1] = "{";
-		    break;
-		}
-		ret = new String[3];
-		ret[0] = ws[0].trim();
-		ret[1] = read.substring(ws[0].length(), read.length() - 2)
-		.trim();
-		ret[2] = "{";
-		break;
-	    }
-	    if (isInner) {
-		ws = read.split(" ", 2);
-		ret = new String[ws.length];
-		for (int i = 0; i < ws.length; i++)
-		    ret[i] = ws[i].trim();
-		break;
-	    }
-	}
-
-	return ret;
-    }
 }
@@ -0,0 +1,381 @@
+/*
+ * PROJECT: NyARMqoView
+ * --------------------------------------------------------------------------------
+ * これはMetaseqファイル（.MQO）ファイルをｊａｖａに読み込み＆描画するクラスです。
+ * Copyright (C)2008 kei
+ *
+ *
+ * オリジナルファイルの著作権はkeiさんにあります。
+ * オリジナルのファイルは以下のURLから入手できます。
+ * http://www.sainet.or.jp/~kkoni/OpenGL/reader.html
+ *
+ * このファイルは、http://www.sainet.or.jp/~kkoni/OpenGL/20080408.zipにあるファイルを
+ * ベースに、NyARMqoView用にカスタマイズしたものです。
+ *
+ * For further information please contact.
+ *	A虎＠nyatla.jp
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp>
+ *
+ */
+package jp.nyatla.kGLModel;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * MQOファイルの字句読み込みクラス<br>
+ * バイト単位で１回だけ読み進め、行を文字列にせずに単語・数値・文字列を取り出す。<br>
+ * BVertexチャンクのバイナリも同じバッファから読み込む。<br>
+ *
+ */
+class KGLMetaseqReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * floatで正確に表せる１０の累乗
+     */
+    private static final float[] POW10 = {
+	1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+    /**
+     * floatで正確に表せる仮数の上限（２の２４乗）
+     */
+    private static final long MAX_MANTISSA = 1 << 24;
+
+    private InputStream is;
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private int len = 0;
+    /**
+     * 現在の文字（０～２５５、終端なら-1）
+     */
+    private int ch;
+    /**
+     * readWord()で読んだ単語
+     */
+    private byte[] word = new byte[64];
+    private int wordLength = 0;
+    private byte[] string = new byte[256];
+
+    /**
+     * コンストラクタ
+     *
+     * @param is	入力ストリーム
+     * @throws IOException
+     */
+    KGLMetaseqReader(InputStream is) throws IOException {
+	this.is = is;
+	next();
+    }
+
+    /**
+     * 終端に達したか
+     */
+    boolean isEnd() {
+	return ch == -1;
+    }
+
+    /**
+     * 現在の文字
+     */
+    int current() {
+	return ch;
+    }
+
+    /**
+     * 次の文字に進む
+     *
+     * @throws IOException
+     */
+    void next() throws IOException {
+	if (pos == len) {
+	    len = is.read(buf, 0, buf.length);
+	    pos = 0;
+	    if (len <= 0) {
+		len = 0;
+		ch = -1;
+		return;
+	    }
+	}
+	ch = buf[pos++] & 0xff;
+    }
+
+    /**
+     * 空白（改行以外）を読み飛ばす
+     *
+     * @throws IOException
+     */
+    void skipBlanks() throws IOException {
+	while (ch == ' ' || ch == '\t' || ch == '\r')
+	    next();
+    }
+
+    /**
+     * 行末か
+     */
+    boolean isLineEnd() throws IOException {
+	skipBlanks();
+	return ch == '\n' || ch == -1;
+    }
+
+    /**
+     * 行の残りを読み飛ばし、次の行の先頭に進む
+     *
+     * @return 行の最後の文字（空白以外）が「{」ならtrue（チャンクの開始）
+     * @throws IOException
+     */
+    boolean skipLine() throws IOException {
+	int last = 0;
+	while (ch != -1 && ch != '\n') {
+	    if (ch > ' ')
+		last = ch;
+	    next();
+	}
+	next();
+	return last == '{';
+    }
+
+    /**
+     * 単語を読み込む<br>
+     * 空白、改行、「(」、「)」までを単語とする。
+     *
+     * @return 単語の長さ（行末なら０）
+     * @throws IOException
+     */
+    int readWord() throws IOException {
+	skipBlanks();
+	wordLength = 0;
+	while (ch > ' ' && ch != '(' && ch != ')') {
+	    if (wordLength < word.length)
+		word[wordLength++] = (byte) ch;
+	    next();
+	}
+	return wordLength;
+    }
+
+    /**
+     * readWord()で読んだ単語がsと同じか
+     */
+    boolean isWord(String s) {
+	if (wordLength != s.length())
+	    return false;
+	for (int i = 0; i < wordLength; i++) {
+	    if (word[i] != s.charAt(i))
+		return false;
+	}
+	return true;
+    }
+
+    /**
+     * readWord()で読んだ単語が大文字小文字を区別せずにsと同じか
+     */
+    boolean isWordIgnoreCase(String s) {
+	if (wordLength != s.length())
+	    return false;
+	for (int i = 0; i < wordLength; i++) {
+	    if (Character.toUpperCase((char) word[i]) != Character.toUpperCase(s.charAt(i)))
+		return false;
+	}
+	return true;
+    }
+
+    /**
+     * 文字列を読み込む<br>
+     * 「"」で始まっていれば次の「"」まで（前後の「"」は除く）、そうでなければ単語
+     *
+     * @return 文字列
+     * @throws IOException
+     */
+    String readString() throws IOException {
+	skipBlanks();
+	int n = 0;
+	boolean quoted = ch == '\"';
+	if (quoted)
+	    next();
+	while (ch != -1 && ch != '\n' && (quoted ? ch != '\"' : (ch > ' ' && ch != ')'))) {
+	    if (n == string.length) {
+		byte[] w = new byte[n * 2];
+		System.arraycopy(string, 0, w, 0, n);
+		string = w;
+	    }
+	    string[n++] = (byte) ch;
+	    next();
+	}
+	if (quoted && ch == '\"')
+	    next();
+	// InputStreamReaderで読んでいたときと同じく、既定の文字コードとする
+	return new String(string, 0, n);
+    }
+
+    /**
+     * 整数を読み込む
+     *
+     * @return 値
+     * @throws IOException
+     * @throws NumberFormatException	数字が無い
+     */
+    int readInt() throws IOException {
+	return (int) readLong();
+    }
+
+    /**
+     * 整数を読み込む
+     *
+     * @return 値
+     * @throws IOException
+     * @throws NumberFormatException	数字が無い
+     */
+    long readLong() throws IOException {
+	skipBlanks();
+	boolean negative = false;
+	if (ch == '-') {
+	    negative = true;
+	    next();
+	} else if (ch == '+') {
+	    next();
+	}
+	if (ch < '0' || ch > '9')
+	    throw new NumberFormatException("数値がない");
+	long value = 0;
+	while (ch >= '0' && ch <= '9') {
+	    value = value * 10 + (ch - '0');
+	    next();
+	}
+	return negative ? -value : value;
+    }
+
+    /**
+     * 実数を読み込む<br>
+     * 仮数が２の２４乗以下で小数点以下が１０桁以内なら、float同士の１回の乗除算で求める
+     * （どちらも正確に表せるので、Float.parseFloat()と同じ値になる）。<br>
+     * それ以外（指数表記など）はFloat.parseFloat()で変換する。
+     *
+     * @return 値
+     * @throws IOException
+     * @throws NumberFormatException	数字が無い
+     */
+    float readFloat() throws IOException {
+	skipBlanks();
+	int n = 0;
+	boolean negative = false;
+	if (ch == '-' || ch == '+') {
+	    negative = ch == '-';
+	    string[n++] = (byte) ch;
+	    next();
+	}
+
+	long mantissa = 0;
+	int scale = 0;
+	boolean any = false;
+	boolean fraction = false;
+	boolean exponent = false;
+	while (n < string.length) {
+	    if (ch >= '0' && ch <= '9') {
+		any = true;
+		if (mantissa <= MAX_MANTISSA)
+		    mantissa = mantissa * 10 + (ch - '0');
+		if (fraction)
+		    scale++;
+	    } else if (ch == '.' && !fraction) {
+		fraction = true;
+	    } else if (ch == 'e' || ch == 'E') {
+		exponent = true;
+	    } else if (!((ch == '-' || ch == '+') && (string[n - 1] == 'e' || string[n - 1] == 'E'))) {
+		break;
+	    }
+	    string[n++] = (byte) ch;
+	    next();
+	}
+	if (!any)
+	    throw new NumberFormatException("数値がない");
+
+	float f;
+	if (!exponent && mantissa <= MAX_MANTISSA && scale < POW10.length && n < string.length) {
+	    f = scale == 0 ? (float) mantissa : (float) mantissa / POW10[scale];
+	    if (negative)
+		f = -f;
+	} else {
+	    f = Float.parseFloat(new String(string, 0, n, "ISO-8859-1"));
+	}
+	return f;
+    }
+
+    /**
+     * 空白を読み飛ばし、現在の文字がcならその次に進む
+     *
+     * @return 現在の文字がcだったか
+     * @throws IOException
+     */
+    boolean skip(char c) throws IOException {
+	skipBlanks();
+	if (ch != c)
+	    return false;
+	next();
+	return true;
+    }
+
+    /**
+     * 「)」の次まで読み飛ばす（「"」で囲まれた部分は見ない）
+     *
+     * @throws IOException
+     */
+    void skipParenthesis() throws IOException {
+	boolean quoted = false;
+	while (ch != -1 && ch != '\n') {
+	    if (ch == '\"')
+		quoted = !quoted;
+	    else if (ch == ')' && !quoted)
+		break;
+	    next();
+	}
+	if (ch == ')')
+	    next();
+    }
+
+    /**
+     * チャンクの終わり（「}」だけの行）の次の行まで読み飛ばす<br>
+     * 内部のチャンクは考慮しない
+     *
+     * @throws IOException
+     */
+    void skipChunk() throws IOException {
+	while (ch != -1) {
+	    readWord();
+	    boolean end = isWord("}") && isLineEnd();
+	    skipLine();
+	    if (end)
+		break;
+	}
+    }
+
+    /**
+     * バイナリデータを読み込む<br>
+     * 現在の文字から読み込み、読み込んだデータの次の文字に進む
+     *
+     * @param b	読み込みバッファ
+     * @param n	読み込むサイズ
+     * @return	読み込んだサイズ
+     * @throws IOException
+     */
+    int read(byte[] b, int n) throws IOException {
+	if (ch == -1 || n <= 0)
+	    return 0;
+	int got = 0;
+	b[got++] = (byte) ch;
+	while (got < n) {
+	    if (pos == len) {
+		len = is.read(buf, 0, buf.length);
+		pos = 0;
+		if (len <= 0) {
+		    len = 0;
+		    break;
+		}
+	    }
+	    int k = Math.min(n - got, len - pos);
+	    System.arraycopy(buf, pos, b, got, k);
+	    pos += k;
+	    got += k;
+	}
+	next();
+	return got;
+    }
+}
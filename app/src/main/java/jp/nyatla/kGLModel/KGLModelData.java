@@ -104,6 +104,11 @@ public class KGLModelData {
 	 * テクスチャＩＤ（未使用の場合０）<br>
 	 */
 	int	texID = 0 ;
+	/**
+	 * ETC1テクスチャのアルファプレーンのＩＤ（無い場合０）<br>
+	 * ２番目のテクスチャユニットで掛け合わせる<br>
+	 */
+	int	alphaTexID = 0 ;
 	// reload 用
 	String texName = null;
 	String alphaTexName = null;
@@ -371,6 +376,15 @@ public class KGLModelData {
 		if( mat.texID != 0 ) {
 		    gl.glBindTexture(GL10.GL_TEXTURE_2D,mat.texID) ;
 		}
+		if( mat.alphaTexID != 0 ) {//ALPHAテクスチャのGL_MODULATEは色をそのままにアルファだけ掛ける
+		    gl.glActiveTexture(GL10.GL_TEXTURE1) ;
+		    gl.glEnable(GL10.GL_TEXTURE_2D) ;
+		    gl.glBindTexture(GL10.GL_TEXTURE_2D,mat.alphaTexID) ;
+		    gl.glTexParameterx(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S, GL10.GL_CLAMP_TO_EDGE);
+		    gl.glTexParameterx(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T, GL10.GL_CLAMP_TO_EDGE);
+		    gl.glTexEnvx(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE, GL10.GL_MODULATE) ;
+		    gl.glActiveTexture(GL10.GL_TEXTURE0) ;
+		}
 
 		if (useAlpha) {
 			gl.glEnable(GL10.GL_BLEND) ;
@@ -386,6 +400,12 @@ public class KGLModelData {
 			mat.uvBuffer.position(0);
 			gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, mat.uvBuffer);
 			gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+			if (mat.alphaTexID != 0) {
+				gl.glClientActiveTexture(GL10.GL_TEXTURE1);
+				gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, mat.uvBuffer);
+				gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+				gl.glClientActiveTexture(GL10.GL_TEXTURE0);
+			}
 		} else {
 			gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
 		}
@@ -414,6 +434,15 @@ public class KGLModelData {
 		if( mat.texID != 0 ) {
 		    gl.glBindTexture(GL10.GL_TEXTURE_2D,0) ;
 		}
+		if( mat.alphaTexID != 0 ) {
+		    gl.glActiveTexture(GL10.GL_TEXTURE1) ;
+		    gl.glBindTexture(GL10.GL_TEXTURE_2D,0) ;
+		    gl.glDisable(GL10.GL_TEXTURE_2D) ;
+		    gl.glActiveTexture(GL10.GL_TEXTURE0) ;
+		    gl.glClientActiveTexture(GL10.GL_TEXTURE1) ;
+		    gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY) ;
+		    gl.glClientActiveTexture(GL10.GL_TEXTURE0) ;
+		}
 //		gl.glDisable(GL.GL_BLEND) ;
 //		if( mat.texID != 0 ) {
 //		gl.glDisable(GL.GL_TEXTURE_2D) ;
@@ -430,60 +459,6 @@ public class KGLModelData {
 	gl.glPopMatrix() ;
     }
 
-    /**
-     * 文字列＆バイナリデータ混合読み込みクラス
-     * 
-     */
-    protected class multiInput {
-	/**
-	 * 読み込みストリーム
-	 */
-	private BufferedInputStream bis = null ;
-	private BufferedReader br = null ;
-	/**
-	 * コンストラクタ<br>
-	 * @param is	入力ストリーム
-	 */
-	public multiInput(InputStream is) {
-	    bis = new BufferedInputStream(is) ;
-		br = new BufferedReader(new InputStreamReader(is), 8*1024) ;
-	}
-	/**
-	 * データ読み込み<br>
-	 * ストリームからb.lengthサイズのデータを読み込もうとする<br>
-	 * 実際に読み込んだサイズはreturn値を参照<br>
-	 * @param b	読み込みバッファ
-	 * @return	読み込みサイズ
-	 * @throws IOException
-	 */
-	public int read(byte[] b) throws IOException {
-	    return bis.read(b) ;
-	}
-	/**
-	 * ストリームをクローズする
-	 * @throws IOException
-	 */
-	public void close()throws IOException {
-	    bis.close() ;
-	}
-	/**
-	 * １行（文字列）読み込み<br>
-	 * 1 行の終端は、改行 (「\n」) か、復帰 (「\r」)、または復帰とそれに続く改行<br>
-	 * この関数のあと、読み込み位置は改行文字の次に進む<br>
-	 * @return	１行のデータ
-	 */
-	public String readLine() {
-	    String ret = null ;
-	    try {
-		ret = br.readLine() ;
-	    }
-	    catch(Exception e) {
-		e.printStackTrace() ;
-	    }
-
-	    return ret ;
-	}
-    }
     /**
      * 読み込んだオブジェクト／マテリアル名称を文字列にする
      */
@@ -516,6 +491,8 @@ public class KGLModelData {
 				if (mat.texName != null) {
 					mat.texID = texPool.getGLTexture(gl, mat.texName,
 													 mat.alphaTexName, true);
+					mat.alphaTexID = texPool.getGLAlphaTexture(mat.texName,
+													 mat.alphaTexName);
 				}
 			}
 		}
@@ -36,11 +36,15 @@ import android.graphics.*;
 //import android.opengl.GLU;
 import android.opengl.GLUtils;
 
+import min3d.core.TextureCache;
+
 /**
  * テクスチャの生成と管理<br>
  * 一度読み込んだテクスチャは再利用する。<br>
  * 使用後はClear()を呼んでください<br>
  * ＯｐｅｎＧＬへ登録したリソースの解放をします。<br>
+ * TextureCacheのディレクトリが設定されていて、ETC1に対応している場合は<br>
+ * ETC1に圧縮したテクスチャを登録します（アルファは別のテクスチャ、getGLAlphaTexture()）。<br>
  * 
  * @author kei
  *
@@ -53,6 +57,11 @@ public class KGLTextures {
      * をキーにOpenGLのtexture name（int）を保存しているコンテナ<br>
      */
     private HashMap<String,Integer> texPool  = null ;
+    /**
+     * ETC1テクスチャのアルファプレーンのtexture nameの保存コンテナ<br>
+     * キーはtexPoolと同じ<br>
+     */
+    private HashMap<String,Integer> alphaPool  = null ;
     /**
      * コンストラクタ
      * 
@@ -61,6 +70,7 @@ public class KGLTextures {
     {
 	this.am = am;
 	texPool = new HashMap<String,Integer>() ;
+	alphaPool = new HashMap<String,Integer>() ;
     }
     /**
      * ＯｐｅｎＧＬへ登録したリソースを解放する
@@ -68,7 +78,8 @@ public class KGLTextures {
      */
     public void Clear(GL10 gl)
     {
-	Collection<Integer> collection = texPool.values() ;
+	Collection<Integer> collection = new ArrayList<Integer>(texPool.values()) ;
+	collection.addAll(alphaPool.values()) ;
 	Integer[] ciarray = collection.toArray(new Integer[0]) ;
 	if( ciarray.length == 0 ) return ;
 	int[] iarray = new int[ciarray.length] ;
@@ -77,6 +88,7 @@ public class KGLTextures {
 	}
 	gl.glDeleteTextures(iarray.length,iarray,0) ;
 	texPool.clear() ;
+	alphaPool.clear() ;
     }
     /**
      * テクスチャの登録<br>
@@ -101,6 +113,8 @@ public class KGLTextures {
 		texPool.remove(texname+alpname) ;
 		ret = 0 ;
 	    }
+	    Integer alp = alphaPool.remove(texname+alpname) ;
+	    if( alp != null ) glDeleteTexture(gl, alp) ;
 	}
 	/*コレだと上下反転している画像の対応とか透明度を別ファイルで指定している場合とかがメンドイ
 		if( alpname == null ) {
@@ -118,21 +132,48 @@ public class KGLTextures {
 			if( ret != 0 ) return ret ;
 		}
 	 */
+	//ETC1が使えればキャッシュから（初回はエンコードして）圧縮テクスチャを登録する
+	TextureCache.Etc1Texture etc = loadCompressedTexture(gl,texname,alpname) ;
+	if( etc != null ) {
+	    ret = glGenTexture(gl) ;
+	    if( ret == 0 ) return 0 ;
+	    glBindNewTexture(gl, ret) ;
+	    etc.upload(gl) ;
+	    if( etc.hasAlpha() ) {
+		int alp = glGenTexture(gl) ;
+		glBindNewTexture(gl, alp) ;
+		etc.uploadAlpha(gl) ;
+		alphaPool.put(texname+alpname,alp) ;
+	    }
+	    gl.glBindTexture(GL10.GL_TEXTURE_2D,0) ;
+	    texPool.put(texname+alpname,ret) ;
+	    return ret ;
+	}
 	Bitmap bitmap;
 	bitmap = loadTexture(texname,alpname) ;
 	if (bitmap == null)	return 0 ;
 	ret = glGenTexture(gl) ;
 	if( ret == 0 ) return 0 ;
-	gl.glPixelStorei(GL10.GL_UNPACK_ALIGNMENT,1) ;
-	gl.glPixelStorei(GL10.GL_PACK_ALIGNMENT,1) ;
-	gl.glBindTexture(GL10.GL_TEXTURE_2D,ret) ;
-	gl.glTexParameterx(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR);
-	gl.glTexParameterx(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_LINEAR);
+	glBindNewTexture(gl, ret) ;
 	GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, bitmap, 0);
 	gl.glBindTexture(GL10.GL_TEXTURE_2D,0) ;
 	texPool.put(texname+alpname,ret) ;
 	return ret ;
     }
+    /**
+     * ETC1テクスチャのアルファプレーンを取得<br>
+     * getGLTexture()で登録したテクスチャがETC1で、透明な部分がある場合のみある。<br>
+     * ２番目のテクスチャユニットにGL_MODULATEで重ねて使う<br>
+     * 
+     * @param texname	テクスチャファイル名
+     * @param alpname	アルファファイル名
+     * @return			OpenGLのtexture name（int）、無い場合０
+     */
+    public int getGLAlphaTexture(String texname,String alpname)
+    {
+	Integer ret = alphaPool.get(texname+alpname) ;
+	return ret != null ? ret : 0 ;
+    }
 
     /**
      * OpenGLにテクスチャを登録する（１個）
@@ -144,6 +185,18 @@ public class KGLTextures {
 	gl.glGenTextures(1,texs,0) ;
 	return texs[0] ;
     }
+    /**
+     * 登録したテクスチャをバインドし、フィルタを設定する
+     * 
+     * @param tex	登録済みtexture name(int)
+     */
+    private void glBindNewTexture(GL10 gl, int tex) {
+	gl.glPixelStorei(GL10.GL_UNPACK_ALIGNMENT,1) ;
+	gl.glPixelStorei(GL10.GL_PACK_ALIGNMENT,1) ;
+	gl.glBindTexture(GL10.GL_TEXTURE_2D,tex) ;
+	gl.glTexParameterx(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR);
+	gl.glTexParameterx(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_LINEAR);
+    }
     /**
      * 登録されたテクスチャを削除する（１個）
      * 
@@ -156,21 +209,98 @@ public class KGLTextures {
 	return  ;
     }
     /**
-     * イメージファイルからデータ列を読み込む
+     * イメージファイルからデータ列を読み込む<br>
+     * アルファファイルがあれば、その明るさをアルファ値にする
      * 
      * @param texname	テクスチャファイル名
      * @param alpname	アルファファイル名
      * @return	読み込んだデータ列
      */
     protected Bitmap loadTexture(String texname, String alpname)
+    {
+	Bitmap tex = decodeAsset(texname) ;
+	if( tex == null ) return null ;
+	Bitmap alp = alpname != null ? decodeAsset(alpname) : null ;
+	if( alp == null ) return tex ;
+
+	int w = tex.getWidth() ;
+	int h = tex.getHeight() ;
+	int aw = alp.getWidth() ;
+	int ah = alp.getHeight() ;
+	int[] pixels = new int[w * h] ;
+	int[] alpha = new int[aw * ah] ;
+	tex.getPixels(pixels, 0, w, 0, 0, w, h) ;
+	alp.getPixels(alpha, 0, aw, 0, 0, aw, ah) ;
+	tex.recycle() ;
+	alp.recycle() ;
+	//大きさが違う場合は最近傍の画素を使う
+	for( int y = 0 ; y < h ; y++ ) {
+	    for( int x = 0 ; x < w ; x++ ) {
+		int a = alpha[(y * ah / h) * aw + x * aw / w] ;
+		int l = (((a >> 16) & 0xff) + ((a >> 8) & 0xff) + (a & 0xff)) / 3 ;
+		pixels[y * w + x] = (pixels[y * w + x] & 0xffffff) | (l << 24) ;
+	    }
+	}
+	return Bitmap.createBitmap(pixels, w, h, Bitmap.Config.ARGB_8888) ;
+    }
+    /**
+     * ETC1に圧縮したテクスチャを取得する<br>
+     * TextureCacheのディレクトリが設定されていて、ETC1に対応している場合のみ。<br>
+     * キャッシュはテクスチャとアルファファイルの内容で引き、無ければ読み込んでエンコードする。<br>
+     * 透明な画素があれば、アルファを別のプレーンに持つ。
+     * 
+     * @param texname	テクスチャファイル名
+     * @param alpname	アルファファイル名
+     * @return	圧縮テクスチャ（使えない場合null）
+     */
+    protected TextureCache.Etc1Texture loadCompressedTexture(GL10 gl, String texname, String alpname)
+    {
+	if( TextureCache.getCacheDirectory() == null ) return null ;
+	if( !(gl instanceof GL11) || !KGLExtensionCheck.IsExtensionSupported((GL11)gl, "GL_OES_compressed_ETC1_RGB8_texture") ) return null ;
+	long key = hashAsset(texname) ;
+	if( key == -1 ) return null ;
+	if( alpname != null ) key = key * 31 + hashAsset(alpname) ;
+	TextureCache.Etc1Texture ret = TextureCache.get(key, false) ;
+	if( ret != null ) return ret ;
+
+	Bitmap bitmap = loadTexture(texname, alpname) ;
+	if( bitmap == null ) return null ;
+	int w = bitmap.getWidth() ;
+	int h = bitmap.getHeight() ;
+	int[] pixels = new int[w * h] ;
+	bitmap.getPixels(pixels, 0, w, 0, 0, w, h) ;
+	bitmap.recycle() ;
+	return TextureCache.put(key, pixels, w, h, false, !TextureCache.isOpaque(pixels, pixels.length)) ;
+    }
+    private Bitmap decodeAsset(String name)
     {
 		try {
-			InputStream is = am.open(texname);
-			return BitmapFactory.decodeStream(is);
+			InputStream is = am.open(name);
+			try {
+				return BitmapFactory.decodeStream(is);
+			} finally {
+				is.close();
+			}
 		} catch (Throwable e) {
 		}
 		return null;
     }
+    /**
+     * ファイルの内容のハッシュ（読めない場合-1）
+     */
+    private long hashAsset(String name)
+    {
+		try {
+			InputStream is = am.open(name);
+			try {
+				return TextureCache.hash(is);
+			} finally {
+				is.close();
+			}
+		} catch (Throwable e) {
+		}
+		return -1;
+    }
 
 	//
 	public void reset(GL10 gl, String texname, String alpname) {
@@ -183,5 +313,9 @@ public class KGLTextures {
 			}
 			texPool.remove(texname + alpname);
 		}
+		ret = alphaPool.remove(texname + alpname);
+		if (ret != null && gl != null) {
+			glDeleteTexture(gl, ret);
+		}
 	}
 }
@@ -0,0 +1,316 @@
+/* 
+ * PROJECT: NyARToolkit
+ * --------------------------------------------------------------------------------
+ * This work is based on the original ARToolKit developed by
+ *   Hirokazu Kato
+ *   Mark Billinghurst
+ *   HITLab, University of Washington, Seattle
+ * http://www.hitl.washington.edu/artoolkit/
+ *
+ * The NyARToolkit is Java edition ARToolKit class library.
+ * Copyright (C)2008-2009 Ryo Iizuka
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp> or <nyatla(at)nyatla.jp>
+ * 
+ */
+package jp.nyatla.nyartoolkit.core;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import jp.nyatla.nyartoolkit.*;
+import jp.nyatla.nyartoolkit.core.match.*;
+
+/**
+ * このクラスは、複数のマーカパターンを1個のバイナリファイルにまとめた、マーカパターンライブラリです。
+ * ファイルには、全てのパターンの4方位分の差分画像({@link NyARMatchPattDeviationColorData},{@link NyARMatchPattDeviationBlackWhiteData})
+ * と、その強度値を計算済みの状態で格納します。
+ * <p>
+ * ARToolKit形式のパターンファイルは、{@link NyARCode#loadARPatt}でテキストを1トークンずつ読んで、差分画像を計算します。
+ * このクラスは、{@link #compile}で予め変換したファイルを、メモリマップした{@link ByteBuffer}から一括で読み込むので、
+ * パターンの数が多い場合でも、起動時間が短くなります。
+ * </p>
+ * <p>使い方 - 
+ * {@link #compileARPattFiles}か{@link #compile}でファイルを作り、{@link #loadFromFile}で読み込みます。
+ * 読み込んだライブラリは、{@link jp.nyatla.nyartoolkit.detector.NyARDetectMarker}や、
+ * {@link jp.nyatla.nyartoolkit.processor.SingleARMarkerProcesser}にそのまま渡せます。
+ * </p>
+ * <p>ファイル形式 - 
+ * リトルエンディアンで、ヘッダ(32バイト)、強度値のテーブル(double,パターン毎に色4方位+白黒4方位)、
+ * 差分画像(int,パターン毎に色4方位+白黒4方位)の順に並びます。
+ * </p>
+ */
+public class NyARCodeLibrary
+{
+	/** ファイルの識別子("NYCL")*/
+	private static final int FILE_MAGIC=0x4C43594E;
+	private static final int FILE_VERSION=1;
+	private static final int HEADER_SIZE=32;
+	private final NyARCode[] _codes;
+	private final int _width;
+	private final int _height;
+	/**
+	 * コンストラクタです。
+	 * バッファから、マーカパターンライブラリを読み込みます。
+	 * @param i_buf
+	 * {@link #compile}で作ったファイルの内容を格納したバッファ。現在位置から読み出します。
+	 * @throws NyARException
+	 */
+	public NyARCodeLibrary(ByteBuffer i_buf) throws NyARException
+	{
+		final ByteBuffer bb=i_buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if(bb.remaining()<HEADER_SIZE || bb.getInt(0)!=FILE_MAGIC || bb.getInt(4)!=FILE_VERSION){
+			throw new NyARException("Not a marker library.");
+		}
+		final int number_of_code=bb.getInt(8);
+		this._width=bb.getInt(12);
+		this._height=bb.getInt(16);
+		final int pixels=this._width*this._height;
+		final long size=HEADER_SIZE+(long)number_of_code*(8*8+(pixels*3+pixels)*4*4);
+		if(number_of_code<1 || pixels<1 || bb.remaining()!=size){
+			throw new NyARException("Broken marker library.");
+		}
+		bb.position(HEADER_SIZE);
+		final DoubleBuffer pow=bb.asDoubleBuffer();
+		bb.position(HEADER_SIZE+number_of_code*8*8);
+		final IntBuffer data=bb.asIntBuffer();
+		this._codes=new NyARCode[number_of_code];
+		for(int i=0;i<number_of_code;i++){
+			final NyARCode code=new NyARCode(this._width,this._height);
+			for(int i2=0;i2<4;i2++){
+				code.getColorData(i2).setDeviation(data,pow.get());
+			}
+			for(int i2=0;i2<4;i2++){
+				code.getBlackWhiteData(i2).setDeviation(data,pow.get());
+			}
+			this._codes[i]=code;
+		}
+		return;
+	}
+	/**
+	 * この関数は、ファイルをメモリマップして、マーカパターンライブラリを読み込みます。
+	 * @param i_filename
+	 * {@link #compile}で作ったファイルのパス名
+	 * @return
+	 * 読み込んだライブラリ
+	 * @throws NyARException
+	 */
+	public static NyARCodeLibrary loadFromFile(String i_filename) throws NyARException
+	{
+		RandomAccessFile raf=null;
+		try{
+			raf=new RandomAccessFile(i_filename,"r");
+			final FileChannel ch=raf.getChannel();
+			return new NyARCodeLibrary(ch.map(FileChannel.MapMode.READ_ONLY,0,ch.size()));
+		}catch(IOException e){
+			throw new NyARException(e);
+		}finally{
+			if(raf!=null){
+				try{
+					raf.close();
+				}catch(IOException e){
+				}
+			}
+		}
+	}
+	/**
+	 * この関数は、ストリームからマーカパターンライブラリを読み込みます。
+	 * メモリマップできない入力(圧縮されたリソース等)に使います。
+	 * @param i_stream
+	 * 読出し元のストリーム
+	 * @return
+	 * 読み込んだライブラリ
+	 * @throws NyARException
+	 */
+	public static NyARCodeLibrary loadFromStream(InputStream i_stream) throws NyARException
+	{
+		try{
+			byte[] buf=new byte[64*1024];
+			int len=0;
+			for(;;){
+				if(len==buf.length){
+					byte[] n=new byte[buf.length*2];
+					System.arraycopy(buf,0,n,0,len);
+					buf=n;
+				}
+				final int r=i_stream.read(buf,len,buf.length-len);
+				if(r<0){
+					break;
+				}
+				len+=r;
+			}
+			return new NyARCodeLibrary(ByteBuffer.wrap(buf,0,len));
+		}catch(IOException e){
+			throw new NyARException(e);
+		}
+	}
+	/**
+	 * この関数は、マーカパターンをライブラリのファイル形式で書き出します。
+	 * @param i_codes
+	 * 書き出すマーカパターンの配列。全て同じ解像度である必要があります。
+	 * 配列の先頭から、0から始まるID番号を割り当てます。
+	 * @param i_number_of_code
+	 * i_codesの有効な個数
+	 * @param o_stream
+	 * 出力先のストリーム
+	 * @throws NyARException
+	 */
+	public static void compile(NyARCode[] i_codes,int i_number_of_code,OutputStream o_stream) throws NyARException
+	{
+		final int width=i_codes[0].getWidth();
+		final int height=i_codes[0].getHeight();
+		final int pixels=width*height;
+		final ByteBuffer bb=ByteBuffer.allocate(HEADER_SIZE+i_number_of_code*(8*8+(pixels*3+pixels)*4*4)).order(ByteOrder.LITTLE_ENDIAN);
+		bb.putInt(FILE_MAGIC);
+		bb.putInt(FILE_VERSION);
+		bb.putInt(i_number_of_code);
+		bb.putInt(width);
+		bb.putInt(height);
+		bb.position(HEADER_SIZE);
+		for(int i=0;i<i_number_of_code;i++){
+			final NyARCode code=i_codes[i];
+			if(code.getWidth()!=width || code.getHeight()!=height){
+				throw new NyARException("All codes must have the same resolution.");
+			}
+			for(int i2=0;i2<4;i2++){
+				bb.putDouble(code.getColorData(i2).getPow());
+			}
+			for(int i2=0;i2<4;i2++){
+				bb.putDouble(code.getBlackWhiteData(i2).getPow());
+			}
+		}
+		for(int i=0;i<i_number_of_code;i++){
+			final NyARCode code=i_codes[i];
+			for(int i2=0;i2<4;i2++){
+				final int[] d=code.getColorData(i2).refData();
+				for(int i3=0;i3<d.length;i3++){
+					bb.putInt(d[i3]);
+				}
+			}
+			for(int i2=0;i2<4;i2++){
+				final int[] d=code.getBlackWhiteData(i2).refData();
+				for(int i3=0;i3<d.length;i3++){
+					bb.putInt(d[i3]);
+				}
+			}
+		}
+		try{
+			o_stream.write(bb.array());
+			o_stream.flush();
+		}catch(IOException e){
+			throw new NyARException(e);
+		}
+		return;
+	}
+	/**
+	 * この関数は、ARToolKit形式のパターンファイルを、ライブラリのファイルに変換します。
+	 * @param i_patt_files
+	 * ARToolKit形式のパターンファイルのパス名の配列。配列の先頭から、0から始まるID番号を割り当てます。
+	 * @param i_width
+	 * パターンの横解像度
+	 * @param i_height
+	 * パターンの縦解像度
+	 * @param i_out_file
+	 * 出力するファイルのパス名
+	 * @throws NyARException
+	 */
+	public static void compileARPattFiles(String[] i_patt_files,int i_width,int i_height,String i_out_file) throws NyARException
+	{
+		final NyARCode[] codes=new NyARCode[i_patt_files.length];
+		for(int i=0;i<codes.length;i++){
+			codes[i]=new NyARCode(i_width,i_height);
+			try{
+				final InputStream is=new FileInputStream(i_patt_files[i]);
+				try{
+					codes[i].loadARPatt(is);
+				}finally{
+					is.close();
+				}
+			}catch(IOException e){
+				throw new NyARException(e);
+			}
+		}
+		try{
+			final OutputStream os=new FileOutputStream(i_out_file);
+			try{
+				compile(codes,codes.length,os);
+			}finally{
+				os.close();
+			}
+		}catch(IOException e){
+			throw new NyARException(e);
+		}
+		return;
+	}
+	/**
+	 * ライブラリにあるマーカパターンの数を返します。
+	 * @return
+	 * パターンの数
+	 */
+	public int getNumberOfCode()
+	{
+		return this._codes.length;
+	}
+	/**
+	 * マーカパターンの横解像度を返します。
+	 * @return
+	 * 解像度値
+	 */
+	public int getWidth()
+	{
+		return this._width;
+	}
+	/**
+	 * マーカパターンの縦解像度を返します。
+	 * @return
+	 * 解像度値
+	 */
+	public int getHeight()
+	{
+		return this._height;
+	}
+	/**
+	 * 指定したID番号のマーカパターンを返します。
+	 * @param i_index
+	 * ID番号
+	 * @return
+	 * マーカパターン。変更してはいけません。
+	 */
+	public NyARCode getCode(int i_index)
+	{
+		return this._codes[i_index];
+	}
+	/**
+	 * 全てのマーカパターンを、ID番号の順に格納した配列を返します。
+	 * @return
+	 * 内部配列の参照値。変更してはいけません。
+	 */
+	public NyARCode[] refCodes()
+	{
+		return this._codes;
+	}
+}
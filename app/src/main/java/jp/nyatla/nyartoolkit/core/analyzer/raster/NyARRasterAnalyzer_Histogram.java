@@ -41,6 +41,11 @@ public class NyARRasterAnalyzer_Histogram
 	 * <p> memo:継承クラスはこのライン数づつ、スキップしながらヒストグラム計算を行うこと。</p>
 	 */
 	protected int _vertical_skip;
+	/**
+	 * ヒストグラム解析の横方向スキップ数。
+	 * <p> memo:現在は{@link NyARBufferType#BYTE1D_YUV420SP_NV21}の解析だけが使います。</p>
+	 */
+	protected int _horizontal_skip=1;
 	
 	/**
 	 * コンストラクタです。
@@ -91,6 +96,9 @@ public class NyARRasterAnalyzer_Histogram
 		case  NyARBufferType.INT1D_X8R8G8B8_32:
 			this._histImpl = new NyARRasterThresholdAnalyzer_Histogram_INT1D_X8R8G8B8_32();
 			break;
+		case  NyARBufferType.BYTE1D_YUV420SP_NV21:
+			this._histImpl = new NyARRasterThresholdAnalyzer_Histogram_BYTE1D_YUV420SP_NV21();
+			break;
 		default:
 			return false;
 		}
@@ -105,10 +113,23 @@ public class NyARRasterAnalyzer_Histogram
 	 */
 	public void setVerticalInterval(int i_step)
 	{
-		assert(this._vertical_skip>0);
+		assert(i_step>0);
 		this._vertical_skip=i_step;
 		return;
 	}
+	/**
+	 * 画素スキャン時の、X軸方向のスキップ数を指定します。
+	 * {@link #setVerticalInterval}と組み合わせると、格子状に間引いた画素からヒストグラムを計算します。
+	 * 現在は、{@link NyARBufferType#BYTE1D_YUV420SP_NV21}以外の画素形式では無視します。
+	 * @param i_step
+	 * 新しい列スキップ数
+	 */
+	public void setHorizontalInterval(int i_step)
+	{
+		assert(i_step>0);
+		this._horizontal_skip=i_step;
+		return;
+	}
 
 	/**
 	 * ラスタから、ヒストグラムを計算します。
@@ -131,8 +152,9 @@ public class NyARRasterAnalyzer_Histogram
 		for (int i = o_histogram.length-1; i >=0; i--){
 			h[i] = 0;
 		}
-		o_histogram.total_of_data=size.w*size.h/this._vertical_skip;
 		this._histImpl.createHistogram(i_input,0,0,size.w,size.h,o_histogram.data,this._vertical_skip);
+		//間引いた画素数と一致させるため、数え直す。
+		o_histogram.total_of_data=o_histogram.getTotal(0,o_histogram.length-1);
 		return;
 	}
 	/**
@@ -158,8 +180,9 @@ public class NyARRasterAnalyzer_Histogram
 		for (int i = o_histogram.length-1; i >=0; i--){
 			h[i] = 0;
 		}
-		o_histogram.total_of_data=i_area.w*i_area.h/this._vertical_skip;
 		this._histImpl.createHistogram(i_input,i_area.x,i_area.y,i_area.w,i_area.h,o_histogram.data,this._vertical_skip);
+		//間引いた画素数と一致させるため、数え直す。
+		o_histogram.total_of_data=o_histogram.getTotal(0,o_histogram.length-1);
 		return;
 	}
 	
@@ -414,6 +437,29 @@ public class NyARRasterAnalyzer_Histogram
 			return;	
 	    }
 	}
+	class NyARRasterThresholdAnalyzer_Histogram_BYTE1D_YUV420SP_NV21 implements ICreateHistogramImpl
+	{
+		public void createHistogram(INyARRaster i_raster,int i_l,int i_t,int i_w,int i_h, int[] o_histogram,int i_skip)
+		{
+			assert(i_raster.isEqualBufferType(NyARBufferType.BYTE1D_YUV420SP_NV21));
+			//Y面だけを、格子状に間引いて読む
+			final byte[] input=(byte[])i_raster.getBuffer();
+			final int x_skip=NyARRasterAnalyzer_Histogram.this._horizontal_skip;
+			NyARIntSize s=i_raster.getSize();
+			final int row_skip=i_skip*s.w;
+			//左上から1行づつ走査していく
+			int row=(i_t*s.w+i_l);
+			for (int y = i_h-1; y >=0 ; y-=i_skip){
+				final int right=row+i_w;
+				for (int pt=row;pt<right;pt+=x_skip){
+					o_histogram[input[pt]& 0xff]++;
+				}
+				//スキップ
+				row+=row_skip;
+			}
+			return;
+		}
+	}
 	/**
 	 * デバック用関数
 	 * @param args
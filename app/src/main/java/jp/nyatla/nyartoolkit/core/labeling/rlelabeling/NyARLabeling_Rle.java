@@ -24,6 +24,13 @@
  */
 package jp.nyatla.nyartoolkit.core.labeling.rlelabeling;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 import jp.nyatla.nyartoolkit.NyARException;
 import jp.nyatla.nyartoolkit.core.raster.*;
 import jp.nyatla.nyartoolkit.core.types.*;
@@ -50,6 +57,7 @@ import jp.nyatla.nyartoolkit.core.types.stack.NyARObjectStack;
  * <p>{@link NyARBinRaster}を入力する場合
  * <ul>
  * <li>{@link NyARBufferType#INT1D_BIN_8}
+ * <li>{@link NyARBufferType#LONG1D_BIN_1}
  * </ul>
  * </p>
  * <p>{@link NyARGrayscaleRaster}を入力する場合
@@ -58,6 +66,11 @@ import jp.nyatla.nyartoolkit.core.types.stack.NyARObjectStack;
  * </ul>
  * </p>
  * </p>
+ * <p>並列処理 -
+ * {@link #setParallelMode}でスレッドプールを設定すると、画像を水平方向の帯に分けて、帯毎に並列にラべリングします。
+ * 帯の継ぎ目に接するフラグメントは、全ての帯の処理が終わった後に結合します。
+ * 通知されるラベルの値は逐次処理と同じですが、{@link #onLabelFound}を呼び出す順番は異なります。
+ * </p>
  */
 public abstract class NyARLabeling_Rle
 {
@@ -65,8 +78,23 @@ public abstract class NyARLabeling_Rle
 	private static final int AR_AREA_MIN = 70;// #define AR_AREA_MIN 70
 	
 	private RleInfoStack _rlestack;
+	/** フラグメントIDのunion-find木。要素はフラグメントIDの親IDで、ルートは自分自身を指す。*/
+	private int[] _fid_parent;
 	private RleElement[] _rle1;
 	private RleElement[] _rle2;
+	/** 初段の行のRLEのコピー。帯のラべリングの時だけ使う。*/
+	private RleElement[] _rle_first=null;
+	private int _len_first;
+	/** 最終段の行のRLE。{@link #_rle1}か{@link #_rle2}のどちらかを参照する。*/
+	private RleElement[] _rle_last;
+	private int _len_last;
+	/** 並列処理用のスレッドプールと、帯毎のラべリング処理*/
+	private ExecutorService _executor=null;
+	private RleStripe[] _stripes=null;
+	private List<RleStripe> _stripe_tasks=null;
+	/** 帯を結合するときに使う、全ての帯のフラグメントIDのunion-find木*/
+	private int[] _stitch_parent=new int[0];
+	private NyARRleLabelFragmentInfo[] _stitch_info=new NyARRleLabelFragmentInfo[0];
 	private int _max_area;
 	private int _min_area;
 	/** 入力ラスタのサイズ*/
@@ -88,6 +116,7 @@ public abstract class NyARLabeling_Rle
 		long def_wid_and_hei = 320*240;
 		int calced = (int)(wid_and_hei / def_wid_and_hei);
 		this._rlestack=new RleInfoStack(calced * 2048+32);
+		this._fid_parent=new int[calced * 2048+32];
 		this._rle1 = RleElement.createArray(i_width/2+1);
 		this._rle2 = RleElement.createArray(i_width/2+1);
 		this._max_area=AR_AREA_MAX;
@@ -112,6 +141,34 @@ public abstract class NyARLabeling_Rle
 		return;
 	}
 
+	/**
+	 * この関数は、並列処理のモードを設定します。
+	 * i_executorにnullを指定するか、i_number_of_stripeが2未満の場合は、逐次処理になります。
+	 * スレッドプールの所有権は呼び出し側にあり、このクラスは停止しません。
+	 * @param i_executor
+	 * 帯のラべリングを実行するスレッドプール
+	 * @param i_number_of_stripe
+	 * 画像を分割する帯の数。通常は、スレッドプールのスレッド数と同じにします。
+	 * @throws NyARException
+	 */
+	public void setParallelMode(ExecutorService i_executor,int i_number_of_stripe) throws NyARException
+	{
+		if(i_executor==null || i_number_of_stripe<2){
+			this._executor=null;
+			this._stripes=null;
+			this._stripe_tasks=null;
+			return;
+		}
+		this._executor=i_executor;
+		this._stripes=new RleStripe[i_number_of_stripe];
+		this._stripe_tasks=new ArrayList<RleStripe>(i_number_of_stripe);
+		for(int i=0;i<i_number_of_stripe;i++){
+			this._stripes[i]=new RleStripe(this._raster_size.w,this._raster_size.h);
+			this._stripe_tasks.add(this._stripes[i]);
+		}
+		return;
+	}
+
 	/**
 	 * i_bin_bufのgsイメージをREL圧縮する。
 	 * @param i_bin_buf
@@ -178,6 +235,84 @@ public abstract class NyARLabeling_Rle
 		// 行確定
 		return current;
 	}
+	/**
+	 * {@link NyARBufferType#LONG1D_BIN_1}形式の1行をREL圧縮する。
+	 * 64画素をまとめて読み、暗点(0)の始まりと終わりを{@link Long#numberOfTrailingZeros}で探す。
+	 * 出力は{@link #toRel}と同じです。
+	 * @param i_bin_buf
+	 * @param i_row_index
+	 * 行の先頭ワードのインデクス
+	 * @param i_left
+	 * 行の中でRLE圧縮を始める画素位置
+	 * @param i_len
+	 * @param i_out
+	 * @return
+	 */
+	private final int toRelPacked(long[] i_bin_buf,int i_row_index,int i_left,int i_len,RleElement[] i_out)
+	{
+		int current = 0;
+		final int right = i_left + i_len;
+		int run_l = -1;
+		int idx = i_row_index + (i_left >> 6);
+		long from = -1L << (i_left & 63);
+		for (int base = i_left & ~63; base < right; base += 64, idx++) {
+			long dark = ~i_bin_buf[idx];
+			if (right - base < 64) {
+				//右端より先は明点として扱う
+				dark &= (1L << (right - base)) - 1;
+			}
+			for (;;) {
+				if (run_l < 0) {
+					// 暗点(0)スキャン
+					final long t = dark & from;
+					if (t == 0) {
+						break;
+					}
+					final int b = Long.numberOfTrailingZeros(t);
+					run_l = base + b;
+					from = -1L << b;
+				} else {
+					// 明点(1)スキャン→暗点配列終了>登録
+					final long t = ~dark & from;
+					if (t == 0) {
+						break;
+					}
+					final int b = Long.numberOfTrailingZeros(t);
+					i_out[current].l = run_l - i_left;
+					i_out[current].r = base + b - i_left;
+					current++;
+					run_l = -1;
+					from = -1L << b;
+				}
+			}
+			from = -1L;
+		}
+		// 右端まで暗点が続いていた
+		if (run_l >= 0) {
+			i_out[current].l = run_l - i_left;
+			i_out[current].r = i_len;
+			current++;
+		}
+		return current;
+	}
+	/**
+	 * union-find木から、フラグメントIDのルートを探す。
+	 * 探索した経路は、祖父を指すように縮める。
+	 * @param i_parent
+	 * @param i_fid
+	 * @return
+	 * ルートフラグメントのID
+	 */
+	private static int findRoot(int[] i_parent,int i_fid)
+	{
+		int fid=i_fid;
+		while(i_parent[fid]!=fid){
+			final int p=i_parent[fid];
+			i_parent[fid]=i_parent[p];
+			fid=p;
+		}
+		return fid;
+	}
 	/**
 	 * フラグメントをRLEスタックへ追加する。
 	 * @param i_rel_img
@@ -197,6 +332,7 @@ public abstract class NyARLabeling_Rle
 			System.err.println("addFragment force recover!");
 			return false;
 		}
+		this._fid_parent[i_nof]=i_nof;//新しいルート
 		v.entry_x = l;
 		v.area =len;
 		v.clip_l=l;
@@ -217,7 +353,7 @@ public abstract class NyARLabeling_Rle
 	 */
 	public void labeling(NyARBinRaster i_bin_raster) throws NyARException
 	{
-		assert(i_bin_raster.isEqualBufferType(NyARBufferType.INT1D_BIN_8));
+		assert(i_bin_raster.isEqualBufferType(NyARBufferType.INT1D_BIN_8) || i_bin_raster.isEqualBufferType(NyARBufferType.LONG1D_BIN_1));
 		NyARIntSize size=i_bin_raster.getSize();
 		this.imple_labeling(i_bin_raster,0,0,0,size.w,size.h);
 	}
@@ -232,7 +368,7 @@ public abstract class NyARLabeling_Rle
 	 */
 	public void labeling(NyARBinRaster i_bin_raster,NyARIntRect i_area) throws NyARException
 	{
-		assert(i_bin_raster.isEqualBufferType(NyARBufferType.INT1D_BIN_8));
+		assert(i_bin_raster.isEqualBufferType(NyARBufferType.INT1D_BIN_8) || i_bin_raster.isEqualBufferType(NyARBufferType.LONG1D_BIN_1));
 		this.imple_labeling(i_bin_raster,0,i_area.x,i_area.y,i_area.w,i_area.h);
 	}
 	/**
@@ -270,26 +406,185 @@ public abstract class NyARLabeling_Rle
 	{
 		//ラスタのサイズを確認
 		assert(i_raster.getSize().isEqualSize(this._raster_size));
-		
+		if(this._stripes!=null && i_height>=this._stripes.length*2){
+			this.imple_labelingParallel(i_raster, i_th, i_left, i_top, i_width, i_height);
+			return;
+		}
+		final int id_max=this.imple_labelingRows(i_raster, i_th, i_left, i_top, i_width, i_height);
+		//対象のラベルだけを追記
+		final NyARRleLabelFragmentInfo[] f_array=this._rlestack.getArray();
+		for(int i=id_max-1;i>=0;i--){
+			this.notifyLabel(f_array[i],i_left);
+		}
+	}
+	/**
+	 * この関数は、完成したルートフラグメントを、面積で選別してから{@link #onLabelFound}で通知します。
+	 * @param i_info
+	 * @param i_left
+	 * @throws NyARException
+	 */
+	private void notifyLabel(NyARRleLabelFragmentInfo i_info,int i_left) throws NyARException
+	{
+		final int area=i_info.area;
+		if(area<this._min_area || area>this._max_area){//対象外のエリア0のもminではじく
+			return;
+		}
+		//値を相対位置に補正
+		i_info.clip_l+=i_left;
+		i_info.clip_r+=i_left;
+		i_info.entry_x+=i_left;
+		i_info.pos_x/=area;
+		i_info.pos_y/=area;
+		//コールバック関数コール
+		this.onLabelFound(i_info);
+	}
+	/**
+	 * 帯に分けて並列にラべリングしてから、継ぎ目のフラグメントを結合します。
+	 * 結合後のルートフラグメントの値は、逐次処理の結果と同じになります。
+	 */
+	private void imple_labelingParallel(INyARRaster i_raster,int i_th,int i_left,int i_top,int i_width, int i_height) throws NyARException
+	{
+		final RleStripe[] stripes=this._stripes;
+		final int n=stripes.length;
+		int y=i_top;
+		for(int i=0;i<n;i++){
+			final int y_next=i_top+i_height*(i+1)/n;
+			stripes[i].setArea(i_raster, i_th, i_left, y, i_width, y_next-y);
+			y=y_next;
+		}
+		try{
+			List<Future<Object>> futures=this._executor.invokeAll(this._stripe_tasks);
+			for(int i=0;i<futures.size();i++){
+				futures.get(i).get();
+			}
+		}catch(InterruptedException e){
+			throw new NyARException(e);
+		}catch(ExecutionException e){
+			if(e.getCause() instanceof NyARException){
+				throw (NyARException)e.getCause();
+			}
+			throw new NyARException(e);
+		}
+		//全ての帯のフラグメントに通し番号を付けて、帯の中のルートを親にする。
+		int total=0;
+		for(int i=0;i<n;i++){
+			total+=stripes[i].id_max;
+		}
+		if(this._stitch_parent.length<total){
+			this._stitch_parent=new int[total];
+			this._stitch_info=new NyARRleLabelFragmentInfo[total];
+		}
+		final int[] parent=this._stitch_parent;
+		final NyARRleLabelFragmentInfo[] info=this._stitch_info;
+		int offset=0;
+		for(int i=0;i<n;i++){
+			final NyARLabeling_Rle s=stripes[i];
+			final int id_max=stripes[i].id_max;
+			final NyARRleLabelFragmentInfo[] f_array=s._rlestack.getArray();
+			for(int i2=0;i2<id_max;i2++){
+				parent[offset+i2]=offset+findRoot(s._fid_parent,i2);
+				info[offset+i2]=f_array[i2];
+			}
+			stripes[i].offset=offset;
+			offset+=id_max;
+		}
+		//継ぎ目の上下の行で、連結しているフラグメントを結合する。
+		for(int i=0;i<n-1;i++){
+			final NyARLabeling_Rle upper=stripes[i];
+			final NyARLabeling_Rle lower=stripes[i+1];
+			final RleElement[] rle_u=upper._rle_last;
+			final RleElement[] rle_l=lower._rle_first;
+			final int len_u=upper._len_last;
+			final int len_l=lower._len_first;
+			final int ofs_u=stripes[i].offset;
+			final int ofs_l=stripes[i+1].offset;
+			int iu=0,il=0;
+			while(iu<len_u && il<len_l){
+				final RleElement u=rle_u[iu];
+				final RleElement l=rle_l[il];
+				if(l.l<=u.r && u.l<=l.r){// 0なら8方位ラベリング
+					final int ru=findRoot(parent,ofs_u+u.fid);
+					final int rl=findRoot(parent,ofs_l+l.fid);
+					//小さいIDをルートにする。
+					if(ru<rl){
+						parent[rl]=ru;
+					}else if(rl<ru){
+						parent[ru]=rl;
+					}
+				}
+				if(u.r<=l.r){
+					iu++;
+				}else{
+					il++;
+				}
+			}
+		}
+		//ルートフラグメントに情報を集約
+		for(int i=0;i<total;i++){
+			final NyARRleLabelFragmentInfo src=info[i];
+			if(src.area==0){
+				//帯の中で結合済
+				continue;
+			}
+			final int root=findRoot(parent,i);
+			if(root==i){
+				continue;
+			}
+			final NyARRleLabelFragmentInfo dst=info[root];
+			dst.area+=src.area;
+			dst.pos_x+=src.pos_x;
+			dst.pos_y+=src.pos_y;
+			if(dst.clip_t>src.clip_t || (dst.clip_t==src.clip_t && dst.entry_x>src.entry_x)){
+				dst.clip_t=src.clip_t;
+				dst.entry_x=src.entry_x;
+			}
+			if(dst.clip_l>src.clip_l){
+				dst.clip_l=src.clip_l;
+			}
+			if(dst.clip_r<src.clip_r){
+				dst.clip_r=src.clip_r;
+			}
+			if(dst.clip_b<src.clip_b){
+				dst.clip_b=src.clip_b;
+			}
+			src.area=0;
+		}
+		//対象のラベルだけを追記
+		for(int i=total-1;i>=0;i--){
+			this.notifyLabel(info[i],i_left);
+		}
+	}
+	/**
+	 * 指定範囲の行を順にRLE圧縮して、フラグメントを結合します。
+	 * 結果は、{@link #_rlestack}と{@link #_fid_parent}に残ります。
+	 * @return
+	 * 登録したフラグメントの数
+	 */
+	final int imple_labelingRows(INyARRaster i_raster,int i_th,int i_left,int i_top,int i_width, int i_height) throws NyARException
+	{
 		RleElement[] rle_prev = this._rle1;
 		RleElement[] rle_current = this._rle2;
 		// リセット処理
 		final RleInfoStack rlestack=this._rlestack;
 		rlestack.clear();
+		final int[] parent=this._fid_parent;
 
 		//
 		int len_prev = 0;
 		int len_current = 0;
 		final int bottom=i_top+i_height;
-		final int row_stride=this._raster_size.w;
-		int[] in_buf = (int[]) i_raster.getBuffer();
+		//LONG1D_BIN_1の場合は、1行をワード単位で読む
+		final boolean is_packed=i_raster.isEqualBufferType(NyARBufferType.LONG1D_BIN_1);
+		final int row_stride=is_packed?NyARBinRaster.getRowStride(this._raster_size.w):this._raster_size.w;
+		final int[] in_buf = is_packed?null:(int[]) i_raster.getBuffer();
+		final long[] in_packed_buf = is_packed?(long[]) i_raster.getBuffer():null;
 
 		int id_max = 0;
 		int label_count=0;
-		int rle_top_index=i_left+row_stride*i_top;
+		int rle_top_index=(is_packed?0:i_left)+row_stride*i_top;
 		// 初段登録
 
-		len_prev = toRel(in_buf, rle_top_index, i_width, rle_prev,i_th);
+		len_prev = is_packed?toRelPacked(in_packed_buf, rle_top_index, i_left, i_width, rle_prev):toRel(in_buf, rle_top_index, i_width, rle_prev,i_th);
 		for (int i = 0; i < len_prev; i++) {
 			// フラグメントID=フラグメント初期値、POS=Y値、RELインデクス=行
 			if(addFragment(rle_prev[i], id_max, i_top,rlestack)){
@@ -298,12 +593,21 @@ public abstract class NyARLabeling_Rle
 				label_count++;
 			}
 		}
+		if(this._rle_first!=null){
+			//継ぎ目の結合のために、初段のRLEを保存
+			for (int i = 0; i < len_prev; i++) {
+				this._rle_first[i].l=rle_prev[i].l;
+				this._rle_first[i].r=rle_prev[i].r;
+				this._rle_first[i].fid=rle_prev[i].fid;
+			}
+			this._len_first=len_prev;
+		}
 		NyARRleLabelFragmentInfo[] f_array = rlestack.getArray();
 		// 次段結合
 		for (int y = i_top + 1; y < bottom; y++) {
 			// カレント行の読込
 			rle_top_index+=row_stride;
-			len_current = toRel(in_buf,rle_top_index, i_width, rle_current,i_th);
+			len_current = is_packed?toRelPacked(in_packed_buf, rle_top_index, i_left, i_width, rle_current):toRel(in_buf,rle_top_index, i_width, rle_current,i_th);
 			int index_prev = 0;
 
 			SCAN_CUR: for (int i = 0; i < len_current; i++) {
@@ -324,7 +628,7 @@ public abstract class NyARLabeling_Rle
 						// 次のindexをしらべる
 						continue SCAN_CUR;
 					}
-					id=rle_prev[index_prev].fid;//ルートフラグメントid
+					id=findRoot(parent,rle_prev[index_prev].fid);//ルートフラグメントid
 					NyARRleLabelFragmentInfo id_ptr = f_array[id];
 					//結合対象(初回)->prevのIDをコピーして、ルートフラグメントの情報を更新
 					rle_current[i].fid = id;//フラグメントIDを保存
@@ -354,23 +658,13 @@ public abstract class NyARLabeling_Rle
 						// prevとcurは連結している→ルートフラグメントの統合
 						
 						//結合するルートフラグメントを取得
-						final int prev_id =rle_prev[index_prev].fid;
+						final int prev_id =findRoot(parent,rle_prev[index_prev].fid);
 						NyARRleLabelFragmentInfo prev_ptr = f_array[prev_id];
 						if (id != prev_id){
 							label_count--;
-							//prevとcurrentのフラグメントidを書き換える。
-							for(int i2=index_prev;i2<len_prev;i2++){
-								//prevは現在のidから最後まで
-								if(rle_prev[i2].fid==prev_id){
-									rle_prev[i2].fid=id;
-								}
-							}
-							for(int i2=0;i2<i;i2++){
-								//currentは0から現在-1まで
-								if(rle_current[i2].fid==prev_id){
-									rle_current[i2].fid=id;
-								}
-							}
+							//prevのルートをcurrentのルートにつなぐ。
+							//RLE要素のfidは書き換えずに、参照するときにルートを探す。
+							parent[prev_id]=id;
 							
 							//現在のルートフラグメントに情報を集約
 							id_ptr.area +=prev_ptr.area;
@@ -427,24 +721,16 @@ public abstract class NyARLabeling_Rle
 			len_prev = len_current;
 			rle_current = tmp;
 		}
-		//対象のラベルだけを追記
-		final int max=this._max_area;
-		final int min=this._min_area;
-		for(int i=id_max-1;i>=0;i--){
-			final NyARRleLabelFragmentInfo src_info=f_array[i];
-			final int area=src_info.area;
-			if(area<min || area>max){//対象外のエリア0のもminではじく
-				continue;
-			}
-			//値を相対位置に補正
-			src_info.clip_l+=i_left;
-			src_info.clip_r+=i_left;
-			src_info.entry_x+=i_left;
-			src_info.pos_x/=area;
-			src_info.pos_y/=area;
-			//コールバック関数コール
-			this.onLabelFound(src_info);
-		}
+		this._rle_last=rle_prev;
+		this._len_last=len_prev;
+		return id_max;
+	}
+	/**
+	 * 初段のRLEのコピーを有効にします。{@link RleStripe}が使います。
+	 */
+	final void enableFirstRowCopy(int i_width)
+	{
+		this._rle_first=RleElement.createArray(i_width/2+1);
 	}
 	/**
 	 * この仮想関数は自己コールバック関数です。
@@ -464,6 +750,47 @@ public abstract class NyARLabeling_Rle
 	public final static boolean _sf_label_array_safe_reference=true;
 }
 
+/**
+ * このクラスは、{@link NyARLabeling_Rle}が並列処理で使う、帯1本分のラべリング処理です。
+ * ユーザが使うことはありません。
+ */
+class RleStripe extends NyARLabeling_Rle implements Callable<Object>
+{
+	private INyARRaster _raster;
+	private int _th;
+	private int _left;
+	private int _top;
+	private int _width;
+	private int _height;
+	/** 最後のラべリングで登録したフラグメントの数*/
+	int id_max;
+	/** 全ての帯を通したフラグメントIDの開始値*/
+	int offset;
+	public RleStripe(int i_width,int i_height) throws NyARException
+	{
+		super(i_width,i_height);
+		this.enableFirstRowCopy(i_width);
+	}
+	public void setArea(INyARRaster i_raster,int i_th,int i_left,int i_top,int i_width,int i_height)
+	{
+		this._raster=i_raster;
+		this._th=i_th;
+		this._left=i_left;
+		this._top=i_top;
+		this._width=i_width;
+		this._height=i_height;
+	}
+	public Object call() throws NyARException
+	{
+		this.id_max=this.imple_labelingRows(this._raster,this._th,this._left,this._top,this._width,this._height);
+		return null;
+	}
+	protected void onLabelFound(NyARRleLabelFragmentInfo i_ref_label)
+	{
+		//帯の結果は、呼び出し元で結合してから通知する。
+	}
+}
+
 /**
  * このクラスは、{@link NyARLabeling_Rle}が内部的に使うRLEスタックです。
  * ユーザが使うことはありません。
@@ -46,6 +46,8 @@ public class NyARRleLabelFragmentInfoPtrStack  extends NyARPointerStack<NyARRleL
 
 	/**
 	 * この関数は、配列を{@link NyARLabelingLabel#area}でソートします。
+	 * 面積が同じラベルは、エントリポイント(clip_t,entry_x)の順に並べます。
+	 * ラベルを追加した順番に関係なく、同じ結果になります。
 	 */
 	final public void sortByArea()
 	{
@@ -58,7 +60,7 @@ public class NyARRleLabelFragmentInfoPtrStack  extends NyARPointerStack<NyARRleL
 		for(;;){
 		    int swaps = 0;
 		    for (int i = 0; i + h < len; i++) {
-		        if (item[i + h].area > item[i].area) {
+		        if (isPrior(item[i + h],item[i])) {
 		            final NyARRleLabelFragmentInfo temp = item[i + h];
 		            item[i + h] = item[i];
 		            item[i] = temp;
@@ -73,5 +75,18 @@ public class NyARRleLabelFragmentInfoPtrStack  extends NyARPointerStack<NyARRleL
 		        h=h*10/13;
 		    }
 		}		
-	}	
-}
\ No newline at end of file
+	}
+	/**
+	 * i_aがi_bよりも前に並ぶならtrueを返します。
+	 */
+	private static boolean isPrior(NyARRleLabelFragmentInfo i_a,NyARRleLabelFragmentInfo i_b)
+	{
+		if(i_a.area!=i_b.area){
+			return i_a.area>i_b.area;
+		}
+		if(i_a.clip_t!=i_b.clip_t){
+			return i_a.clip_t<i_b.clip_t;
+		}
+		return i_a.entry_x<i_b.entry_x;
+	}
+}
@@ -30,6 +30,7 @@
  */
 package jp.nyatla.nyartoolkit.core.match;
 
+import java.nio.IntBuffer;
 
 import jp.nyatla.nyartoolkit.core.raster.*;
 import jp.nyatla.nyartoolkit.core.types.*;
@@ -81,6 +82,20 @@ public class NyARMatchPattDeviationBlackWhiteData
 		this._data=new int[this._number_of_pixels];
 		return;
 	}
+	/**
+	 * この関数は、計算済みの差分画像と強度値を格納します。
+	 * {@link jp.nyatla.nyartoolkit.core.NyARCodeLibrary}が、ファイルから読み込んだ値をセットするために使います。
+	 * @param i_data
+	 * 差分画像。読出し位置から、幅x高さ個の値を読み出します。
+	 * @param i_pow
+	 * 差分画像の強度値
+	 */
+	public void setDeviation(IntBuffer i_data,double i_pow)
+	{
+		i_data.get(this._data);
+		this._pow=i_pow;
+		return;
+	}
 	/**
 	 * この関数は、ラスタから差分画像を生成して、格納します。
 	 * 制限事項として、{@link NyARBufferType#INT1D_X8R8G8B8_32}形式のラスタのみ、入力できます。
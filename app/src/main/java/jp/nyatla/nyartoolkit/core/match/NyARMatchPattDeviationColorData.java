@@ -31,6 +31,8 @@
 package jp.nyatla.nyartoolkit.core.match;
 
 
+import java.nio.IntBuffer;
+
 import jp.nyatla.nyartoolkit.NyARException;
 import jp.nyatla.nyartoolkit.core.raster.rgb.INyARRgbRaster;
 import jp.nyatla.nyartoolkit.core.rasterreader.*;
@@ -52,6 +54,14 @@ public class NyARMatchPattDeviationColorData
 	private NyARIntSize _size;
 	//
 	private int _optimize_for_mod;
+	/** 低解像度シグネチャの、1辺の分割数*/
+	static final int SIGNATURE_DIV=4;
+	/** 低解像度シグネチャ。{@link #updateSignature}で作ります。*/
+	private final int[] _sig_block_sum=new int[SIGNATURE_DIV*SIGNATURE_DIV*3];
+	private final int[] _sig_block_count;
+	private final long[] _sig_row_pow2;
+	private double _sig_low_pow2;
+	private boolean _sig_valid=false;
 	/**
 	 * この関数は、画素データを格納した配列を返します。
 	 * {@link NyARMatchPatt_Color_WITHOUT_PCA#evaluate}関数等から使います。
@@ -85,8 +95,91 @@ public class NyARMatchPattDeviationColorData
 		int number_of_pix=this._size.w*this._size.h;
 		this._data=new int[number_of_pix*3];
 		this._optimize_for_mod=number_of_pix-(number_of_pix%8);	
+		this._sig_block_count=makeBlockCount(i_width,i_height);
+		this._sig_row_pow2=new long[i_height+1];
 		return;
 	}
+	/**
+	 * シグネチャのブロック毎の要素数を返します。
+	 */
+	static int[] makeBlockCount(int i_width,int i_height)
+	{
+		final int div=SIGNATURE_DIV;
+		final int[] count=new int[div*div*3];
+		for(int y=0;y<i_height;y++){
+			for(int x=0;x<i_width;x++){
+				final int b=((y*div/i_height)*div+(x*div/i_width))*3;
+				count[b]++;
+				count[b+1]++;
+				count[b+2]++;
+			}
+		}
+		return count;
+	}
+	/**
+	 * 差分画像から、低解像度シグネチャを作ります。
+	 * シグネチャは、画像を{@link #SIGNATURE_DIV}x{@link #SIGNATURE_DIV}のブロックに分けた、ブロック・色毎の画素値の合計です。
+	 * 同時に、行毎の画素値の二乗和を累積した値を作ります。o_row_pow2[y]は、0からy-1行の二乗和です。
+	 * @return
+	 * ブロック毎の平均値からなる画像の、二乗和
+	 */
+	static double makeSignature(int[] i_data,int i_width,int i_height,int[] i_block_count,int[] o_block_sum,long[] o_row_pow2)
+	{
+		final int div=SIGNATURE_DIV;
+		for(int i=o_block_sum.length-1;i>=0;i--){
+			o_block_sum[i]=0;
+		}
+		long pow2=0;
+		int ptr=0;
+		for(int y=0;y<i_height;y++){
+			o_row_pow2[y]=pow2;
+			final int row_b=(y*div/i_height)*div;
+			for(int x=0;x<i_width;x++){
+				final int b=(row_b+(x*div/i_width))*3;
+				final int r=i_data[ptr++];
+				final int g=i_data[ptr++];
+				final int bl=i_data[ptr++];
+				o_block_sum[b]+=r;
+				o_block_sum[b+1]+=g;
+				o_block_sum[b+2]+=bl;
+				pow2+=r*r+g*g+bl*bl;
+			}
+		}
+		o_row_pow2[i_height]=pow2;
+		double low_pow2=0;
+		for(int i=o_block_sum.length-1;i>=0;i--){
+			low_pow2+=(double)o_block_sum[i]*o_block_sum[i]/i_block_count[i];
+		}
+		return low_pow2;
+	}
+	/**
+	 * この関数は、差分画像の低解像度シグネチャを更新します。
+	 * {@link NyARMatchPatt_Color_WITHOUT_PCA#evaluate(NyARMatchPattDeviationColorData, double, NyARMatchPattResult)}が使います。
+	 * 差分画像を作り直すまでは、2回目以降は何もしません。
+	 */
+	void updateSignature()
+	{
+		if(this._sig_valid){
+			return;
+		}
+		this._sig_low_pow2=makeSignature(this._data,this._size.w,this._size.h,this._sig_block_count,this._sig_block_sum,this._sig_row_pow2);
+		this._sig_valid=true;
+	}
+	/** ブロック毎の画素値の合計*/
+	int[] refSignature()
+	{
+		return this._sig_block_sum;
+	}
+	/** 行毎の二乗和の累積値*/
+	long[] refRowPow2()
+	{
+		return this._sig_row_pow2;
+	}
+	/** ブロックの平均値からなる画像の二乗和*/
+	double getSignaturePow2()
+	{
+		return this._sig_low_pow2;
+	}
 
 	
 	/**
@@ -99,6 +192,7 @@ public class NyARMatchPattDeviationColorData
 	public void setRaster(INyARRgbRaster i_raster) throws NyARException
 	{
 		assert(i_raster.getSize().isEqualSize(this._size));
+		this._sig_valid=false;
 		switch(i_raster.getBufferType())
 		{
 		case NyARBufferType.INT1D_X8R8G8B8_32:
@@ -110,6 +204,21 @@ public class NyARMatchPattDeviationColorData
 		}
 		return;
 	}
+	/**
+	 * この関数は、計算済みの差分画像と強度値を格納します。
+	 * {@link jp.nyatla.nyartoolkit.core.NyARCodeLibrary}が、ファイルから読み込んだ値をセットするために使います。
+	 * @param i_data
+	 * R,G,Bの順番で並んだ差分画像。読出し位置から、幅x高さx3個の値を読み出します。
+	 * @param i_pow
+	 * 差分画像の強度値
+	 */
+	public void setDeviation(IntBuffer i_data,double i_pow)
+	{
+		i_data.get(this._data);
+		this._pow=i_pow;
+		this._sig_valid=false;
+		return;
+	}
 	/**
 	 * この関数は、元画像を回転してから、差分画像を生成して、格納します。
 	 * 制限として、この関数はあまり高速ではありません。連続使用するときは、最適化を検討してください。
@@ -127,6 +236,7 @@ public class NyARMatchPattDeviationColorData
 		INyARRgbPixelReader reader=i_raster.getRgbPixelReader();
 		int[] rgb=new int[3];
 		int[] dout=this._data;
+		this._sig_valid=false;
 		int ave;//<PV/>
 		//<平均値計算>
 		ave = 0;
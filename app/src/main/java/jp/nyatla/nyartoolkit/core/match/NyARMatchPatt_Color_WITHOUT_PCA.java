@@ -37,6 +37,9 @@ import jp.nyatla.nyartoolkit.core.*;
  * このクラスは、カラーで２パターンの一致度を計算します。
  * 評価アルゴリズムは、ARToolKitの、AR_TEMPLATE_MATCHING_COLORかつAR_MATCHING_WITHOUT_PCAと同様です。
  * 比較対象のデータには、{@link NyARMatchPattDeviationColorData}クラスの物を使います。
+ * <p>多数のパターンから最も一致するものを探すときは、{@link #evaluate(NyARMatchPattDeviationColorData, double, NyARMatchPattResult)}
+ * を使うと、それまでの最良の一致度に届かないパターンの計算を途中で打ち切ります。
+ * </p>
  */
 public class NyARMatchPatt_Color_WITHOUT_PCA implements INyARMatchPatt
 {
@@ -46,6 +49,12 @@ public class NyARMatchPatt_Color_WITHOUT_PCA implements INyARMatchPatt
 	protected int _optimize_for_mod;
 	/** 最適化定数*/
 	protected int _rgbpixels;
+	/** 打ち切り判定の、浮動小数点誤差に対する余裕*/
+	private static final double BOUND_MARGIN=1e-9;
+	/** 打ち切り判定をする行の間隔*/
+	private static final int BOUND_CHECK_ROWS=4;
+	/** 低解像度シグネチャのブロック毎の要素数*/
+	private final int[] _block_count;
 	/**
 	 * コンストラクタ。
 	 * 基準パターンを元に、インスタンスを生成します。
@@ -59,6 +68,7 @@ public class NyARMatchPatt_Color_WITHOUT_PCA implements INyARMatchPatt
 		//最適化定数の計算
 		this._rgbpixels=w*h*3;
 		this._optimize_for_mod=this._rgbpixels-(this._rgbpixels%16);
+		this._block_count=NyARMatchPattDeviationColorData.makeBlockCount(w,h);
 		this.setARCode(i_code_ref);
 		return;
 	}
@@ -77,6 +87,7 @@ public class NyARMatchPatt_Color_WITHOUT_PCA implements INyARMatchPatt
 		//最適化定数の計算
 		this._rgbpixels=i_height*i_width*3;
 		this._optimize_for_mod=this._rgbpixels-(this._rgbpixels%16);		
+		this._block_count=NyARMatchPattDeviationColorData.makeBlockCount(i_width,i_height);
 		return;
 	}
 	/**
@@ -148,4 +159,82 @@ public class NyARMatchPatt_Color_WITHOUT_PCA implements INyARMatchPatt
 		o_result.confidence= max/i_patt.getPow();
 		return true;		
 	}
-}
\ No newline at end of file
+	/**
+	 * この関数は、一致度がi_min_confidence以上になり得る場合だけ、{@link #evaluate(NyARMatchPattDeviationColorData, NyARMatchPattResult)}
+	 * と同じ計算をします。
+	 * 一致度の上限を、はじめに低解像度シグネチャから、次に内積の途中の値から見積もり、i_min_confidenceに届かない向きの計算を打ち切ります。
+	 * 上限は、平均値画像と残差画像への直交分解と、コーシー・シュワルツの不等式から求めるので、届く可能性のある向きを打ち切ることはありません。
+	 * @param i_patt
+	 * 検査パターンを格納したオブジェクトです。このサイズは、基準パターンと一致している必要があります。
+	 * @param i_min_confidence
+	 * 必要な一致度の下限です。{@link Double#NEGATIVE_INFINITY}を指定すると、打ち切りをしません。
+	 * @param o_result
+	 * 結果を受け取るオブジェクトです。戻り値がtrueのときは、{@link #evaluate(NyARMatchPattDeviationColorData, NyARMatchPattResult)}
+	 * と全く同じ値になります。falseのときは不定です。
+	 * @return
+	 * 一致度がi_min_confidence以上ならtrueです。
+	 * @throws NyARException
+	 */
+	public boolean evaluate(NyARMatchPattDeviationColorData i_patt,double i_min_confidence,NyARMatchPattResult o_result) throws NyARException
+	{
+		assert this._code_patt!=null;
+		final int[] linput = i_patt.refData();
+		final int width=this._code_patt.getWidth();
+		final int height=this._code_patt.getHeight();
+		final int row_len=width*3;
+		//入力の低解像度シグネチャ
+		i_patt.updateSignature();
+		final int[] in_sig=i_patt.refSignature();
+		final long[] in_row=i_patt.refRowPow2();
+		final double in_res_pow2=Math.max(0,in_row[height]-i_patt.getSignaturePow2());
+		final int[] count=this._block_count;
+		//sum/code_pow/in_powがi_min_confidence以上になるために必要な、sum/code_powの値
+		final double need_base=i_min_confidence*i_patt.getPow()*(1-BOUND_MARGIN);
+		double max = Double.MIN_VALUE;
+		int res = NyARMatchPattResult.DIRECTION_UNKNOWN;
+		for (int j = 0; j < 4; j++) {
+			final NyARMatchPattDeviationColorData code_patt=this._code_patt.getColorData(j);
+			final double need=need_base*code_patt.getPow()-1;
+			code_patt.updateSignature();
+			//低解像度シグネチャによる上限
+			final int[] code_sig=code_patt.refSignature();
+			final long[] code_row=code_patt.refRowPow2();
+			double bound=0;
+			for(int i=code_sig.length-1;i>=0;i--){
+				bound+=(double)in_sig[i]*code_sig[i]/count[i];
+			}
+			bound+=Math.sqrt(in_res_pow2*Math.max(0,code_row[height]-code_patt.getSignaturePow2()));
+			if(bound<need){
+				continue;
+			}
+			//下の行から内積を計算。残りの行の上限を足しても届かなければ打ち切る。
+			final int[] pat_j = code_patt.refData();
+			int sum=0;
+			int i=this._rgbpixels-1;
+			boolean is_rejected=false;
+			for(int y=height-1;y>=0;y--){
+				final int row_head=i-row_len;
+				for(;i>row_head;i--){
+					sum += linput[i] * pat_j[i];
+				}
+				if(y%BOUND_CHECK_ROWS==0 && y>0){
+					if(sum+Math.sqrt((double)in_row[y]*code_row[y])<need){
+						is_rejected=true;
+						break;
+					}
+				}
+			}
+			if(is_rejected){
+				continue;
+			}
+			final double sum2 = sum / code_patt.getPow();
+			if (sum2 > max) {
+				max = sum2;
+				res = j;
+			}
+		}
+		o_result.direction = res;
+		o_result.confidence= max/i_patt.getPow();
+		return o_result.confidence>=i_min_confidence;
+	}
+}
@@ -128,4 +128,13 @@ public class NyARMatchPatt_Color_WITH_PCA extends NyARMatchPatt_Color_WITHOUT_PC
 		o_result.confidence = max;
 		return true;
 	}
+	/**
+	 * この関数は、打ち切りをせずに{@link #evaluate(NyARMatchPattDeviationColorData, NyARMatchPattResult)}を計算します。
+	 * PCAの評価値には、基底クラスの上限の見積もりが使えないためです。
+	 */
+	public boolean evaluate(NyARMatchPattDeviationColorData i_patt,double i_min_confidence,NyARMatchPattResult o_result) throws NyARException
+	{
+		this.evaluate(i_patt,o_result);
+		return o_result.confidence>=i_min_confidence;
+	}
 }
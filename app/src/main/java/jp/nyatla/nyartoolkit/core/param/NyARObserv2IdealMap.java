@@ -30,27 +30,64 @@
  */
 package jp.nyatla.nyartoolkit.core.param;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import jp.nyatla.nyartoolkit.core.types.NyARDoublePoint2d;
 import jp.nyatla.nyartoolkit.core.types.*;
 
 /**
  * このクラスは、観察座標系を理想座標系へ変換するテーブルです。
  * 座標系を変換するテーブルと、変換機能を提供します。
+ * <p>
+ * テーブルは画素毎ではなく、2^n画素間隔の格子点だけを持ち、格子点の間はバイリニア補間で求めます。
+ * 格子の間隔は、補間誤差が指定した上限に収まる最も粗いものを選びます。
+ * </p>
+ * <p>
+ * 構築後のインスタンスは変更されないので、複数の検出器で共有できます。
+ * {@link #getInstance}は、歪みパラメータとスクリーンサイズ毎にインスタンスを共有し、
+ * {@link #setCacheDirectory}を設定すると、テーブルをファイルに保存して次回以降の起動ではそれを読み込みます。
+ * </p>
  */
 public class NyARObserv2IdealMap
 {
-	/** テーブル１行当たりのデータ数*/
+	/** 補間誤差の上限の規定値(画素)*/
+	public static final double DEFAULT_MAX_ERROR=0.01;
+	/** 格子の間隔の最大値(1<<MAX_STEP_SHIFT画素)*/
+	private static final int MAX_STEP_SHIFT=5;
+	/** 共有するインスタンスの数*/
+	private static final int CACHE_SIZE=4;
+	/** キャッシュファイルの識別子*/
+	private static final int FILE_MAGIC=0x4F324931;
+	private static final int FILE_HEADER_SIZE=4*7+8*5;
+
+	/** 格子の間隔(1<<_shift画素)*/
+	protected int _shift;
+	/** テーブル１行当たりの格子点の数*/
 	protected int _stride;
-	/** X座標の変換テーブル*/
-	protected double[] _mapx;
-	/** Y座標の変換テーブル*/
-	protected double[] _mapy;
+	/** X座標の変換テーブル(格子点)*/
+	protected float[] _mapx;
+	/** Y座標の変換テーブル(格子点)*/
+	protected float[] _mapy;
+	private final int _width;
+	private final int _height;
+	private final double _max_error;
+	private final double[] _factor=new double[4];
 	/**
 	 * コンストラクタです。
 	 * 入力した{@link NyARCameraDistortionFactor}とそのサイズから、テーブルを作成します。
 	 * ２つのパラメータは整合性が取れていなければなりません。
 	 * (通常は、{@link NyARParam}の{@link NyARParam#getDistortionFactor()},{@link NyARParam#getScreenSize()}から得られた
 	 * パラメータを入力します。)
+	 * 補間誤差の上限は、{@link #DEFAULT_MAX_ERROR}です。
 	 * @param i_distfactor
 	 * 樽型歪みパラメータのオブジェクト。
 	 * @param i_screen_size
@@ -58,24 +95,99 @@ public class NyARObserv2IdealMap
 	 */
 	public NyARObserv2IdealMap(NyARCameraDistortionFactor i_distfactor,NyARIntSize i_screen_size)
 	{
+		this(i_distfactor,i_screen_size,DEFAULT_MAX_ERROR);
+	}
+	/**
+	 * コンストラクタです。
+	 * 補間誤差の上限を指定して、テーブルを作成します。
+	 * @param i_distfactor
+	 * 樽型歪みパラメータのオブジェクト。
+	 * @param i_screen_size
+	 * スクリーンサイズ
+	 * @param i_max_error
+	 * 補間誤差の上限(画素)。0の場合は、全画素のテーブルを作ります。
+	 */
+	public NyARObserv2IdealMap(NyARCameraDistortionFactor i_distfactor,NyARIntSize i_screen_size,double i_max_error)
+	{
+		this._width=i_screen_size.w;
+		this._height=i_screen_size.h;
+		this._max_error=i_max_error;
+		i_distfactor.getValue(this._factor);
 		NyARDoublePoint2d opoint=new NyARDoublePoint2d();
-		this._mapx=new double[i_screen_size.w*i_screen_size.h];
-		this._mapy=new double[i_screen_size.w*i_screen_size.h];
-		this._stride=i_screen_size.w;
-		int ptr=i_screen_size.h*i_screen_size.w-1;
-		//歪みマップを構築
-		for(int i=i_screen_size.h-1;i>=0;i--)
-		{
-			for(int i2=i_screen_size.w-1;i2>=0;i2--)
-			{
-				i_distfactor.observ2Ideal(i2,i, opoint);
-				this._mapx[ptr]=opoint.x;
-				this._mapy[ptr]=opoint.y;
-				ptr--;
+		//誤差が上限に収まる、最も粗い格子を探す
+		for(int shift=MAX_STEP_SHIFT;shift>=0;shift--){
+			this.makeGrid(i_distfactor,shift,opoint);
+			if(shift==0 || this.measureError(i_distfactor,opoint)<=i_max_error){
+				break;
 			}
 		}
 		return;
 	}
+	/**
+	 * キャッシュファイルから読み込んだテーブルでインスタンスを作ります。
+	 */
+	private NyARObserv2IdealMap(int i_width,int i_height,double i_max_error,double[] i_factor,int i_shift,float[] i_mapx,float[] i_mapy)
+	{
+		this._width=i_width;
+		this._height=i_height;
+		this._max_error=i_max_error;
+		System.arraycopy(i_factor,0,this._factor,0,4);
+		this._shift=i_shift;
+		this._stride=((i_width-1)>>i_shift)+2;
+		this._mapx=i_mapx;
+		this._mapy=i_mapy;
+	}
+	/**
+	 * 格子点のテーブルを作ります。
+	 * 右端と下端の画素も補間できるように、格子点は各方向に1個余分に作ります。
+	 */
+	private void makeGrid(NyARCameraDistortionFactor i_distfactor,int i_shift,NyARDoublePoint2d i_tmp)
+	{
+		final int gw=((this._width-1)>>i_shift)+2;
+		final int gh=((this._height-1)>>i_shift)+2;
+		this._shift=i_shift;
+		this._stride=gw;
+		this._mapx=new float[gw*gh];
+		this._mapy=new float[gw*gh];
+		int ptr=0;
+		for(int i=0;i<gh;i++){
+			for(int i2=0;i2<gw;i2++){
+				i_distfactor.observ2Ideal(i2<<i_shift,i<<i_shift,i_tmp);
+				this._mapx[ptr]=(float)i_tmp.x;
+				this._mapy[ptr]=(float)i_tmp.y;
+				ptr++;
+			}
+		}
+	}
+	/**
+	 * 格子の各セルの中心と辺の中点で補間誤差を測り、最大値を返します。
+	 * バイリニア補間の誤差は、これらの点でほぼ最大になります。
+	 */
+	private double measureError(NyARCameraDistortionFactor i_distfactor,NyARDoublePoint2d i_tmp)
+	{
+		final int step=1<<this._shift;
+		final int half=step>>1;
+		final NyARDoublePoint2d p=new NyARDoublePoint2d();
+		double max=0;
+		for(int y=0;y<this._height;y+=step){
+			for(int x=0;x<this._width;x+=step){
+				for(int i=0;i<3;i++){
+					final int sx=x+(i==1?0:half);
+					final int sy=y+(i==2?0:half);
+					if(sx>=this._width || sy>=this._height){
+						continue;
+					}
+					i_distfactor.observ2Ideal(sx,sy,i_tmp);
+					this.observ2Ideal(sx,sy,p);
+					final double e=Math.max(Math.abs(p.x-i_tmp.x),Math.abs(p.y-i_tmp.y));
+					if(e>max){
+						max=e;
+					}
+				}
+			}
+		}
+		return max;
+	}
 	/**
 	 * この関数は、観察座標を理想座標へ変換します。
 	 * 入力できる値範囲は、コンストラクタに設定したスクリーンサイズの範囲内です。
@@ -88,9 +200,14 @@ public class NyARObserv2IdealMap
 	 */
 	public void observ2Ideal(int ix, int iy, NyARIntPoint2d o_point)
 	{
-		int idx=ix+iy*this._stride;
-		o_point.x=(int)this._mapx[idx];
-		o_point.y=(int)this._mapy[idx];
+		final int shift=this._shift;
+		final int mask=(1<<shift)-1;
+		final double scale=1.0/(1<<shift);
+		final double fx=(ix&mask)*scale;
+		final double fy=(iy&mask)*scale;
+		final int idx=(ix>>shift)+(iy>>shift)*this._stride;
+		o_point.x=(int)interpolate(this._mapx,idx,this._stride,fx,fy);
+		o_point.y=(int)interpolate(this._mapy,idx,this._stride,fx,fy);
 		return;
 	}
 	/**
@@ -105,9 +222,14 @@ public class NyARObserv2IdealMap
 	 */	
 	public void observ2Ideal(int ix, int iy, NyARDoublePoint2d o_point)
 	{
-		int idx=ix+iy*this._stride;
-		o_point.x=this._mapx[idx];
-		o_point.y=this._mapy[idx];
+		final int shift=this._shift;
+		final int mask=(1<<shift)-1;
+		final double scale=1.0/(1<<shift);
+		final double fx=(ix&mask)*scale;
+		final double fy=(iy&mask)*scale;
+		final int idx=(ix>>shift)+(iy>>shift)*this._stride;
+		o_point.x=interpolate(this._mapx,idx,this._stride,fx,fy);
+		o_point.y=interpolate(this._mapy,idx,this._stride,fx,fy);
 		return;
 	}
 	/**
@@ -129,17 +251,249 @@ public class NyARObserv2IdealMap
 	 */
 	public void observ2IdealBatch(NyARIntPoint2d[] i_coord,int i_start, int i_num, double[] o_x_coord,double[] o_y_coord,int i_out_start_index)
 	{
-		int idx;
 		int ptr=i_out_start_index;
-		final double[] mapx=this._mapx;
-		final double[] mapy=this._mapy;
+		final float[] mapx=this._mapx;
+		final float[] mapy=this._mapy;
 		final int stride=this._stride;
+		final int shift=this._shift;
+		final int mask=(1<<shift)-1;
+		final double scale=1.0/(1<<shift);
 		for (int j = 0; j < i_num; j++){
-			idx=i_coord[i_start + j].x+i_coord[i_start + j].y*stride;
-			o_x_coord[ptr]=mapx[idx];
-			o_y_coord[ptr]=mapy[idx];
+			final NyARIntPoint2d c=i_coord[i_start + j];
+			final double fx=(c.x&mask)*scale;
+			final double fy=(c.y&mask)*scale;
+			final int idx=(c.x>>shift)+(c.y>>shift)*stride;
+			o_x_coord[ptr]=interpolate(mapx,idx,stride,fx,fy);
+			o_y_coord[ptr]=interpolate(mapy,idx,stride,fx,fy);
 			ptr++;
 		}
 		return;
-	}	
+	}
+	private static double interpolate(float[] i_map,int i_idx,int i_stride,double i_fx,double i_fy)
+	{
+		final double t=i_map[i_idx]+(i_map[i_idx+1]-i_map[i_idx])*i_fx;
+		final double b=i_map[i_idx+i_stride]+(i_map[i_idx+i_stride+1]-i_map[i_idx+i_stride])*i_fx;
+		return t+(b-t)*i_fy;
+	}
+	/**
+	 * 格子の間隔を返します。
+	 * @return
+	 * 格子の間隔(画素)
+	 */
+	public int getStep()
+	{
+		return 1<<this._shift;
+	}
+	/**
+	 * テーブルが使用するメモリのバイト数を返します。
+	 * @return
+	 * バイト数
+	 */
+	public int getTableBytes()
+	{
+		return (this._mapx.length+this._mapy.length)*4;
+	}
+	private boolean isSame(double[] i_factor,int i_width,int i_height,double i_max_error)
+	{
+		if(this._width!=i_width || this._height!=i_height || this._max_error!=i_max_error){
+			return false;
+		}
+		for(int i=0;i<4;i++){
+			if(this._factor[i]!=i_factor[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * 共有インスタンスの管理
+	 */
+	private static final Object _cache_lock=new Object();
+	/** 最近使った順に並ぶ、共有インスタンスのリスト*/
+	private static final LinkedHashMap<String,NyARObserv2IdealMap> _cache=new LinkedHashMap<String,NyARObserv2IdealMap>(CACHE_SIZE,0.75f,true){
+		private static final long serialVersionUID=1L;
+		protected boolean removeEldestEntry(Map.Entry<String,NyARObserv2IdealMap> i_eldest){
+			return this.size()>CACHE_SIZE;
+		}
+	};
+	private static File _cache_dir=null;
+	/**
+	 * この関数は、テーブルを保存するディレクトリを設定します。
+	 * 設定すると、{@link #getInstance}で作ったテーブルをファイルに保存し、次回以降はそのファイルを読み込みます。
+	 * @param i_dir
+	 * 保存先のディレクトリ。nullの場合は、ファイルに保存しません。
+	 */
+	public static void setCacheDirectory(File i_dir)
+	{
+		synchronized(_cache_lock){
+			_cache_dir=i_dir;
+		}
+	}
+	/**
+	 * この関数は、歪みパラメータとスクリーンサイズに対応する、共有のテーブルを返します。
+	 * 共有のテーブルが無い場合は、キャッシュファイルから読み込むか、新しく作ります。
+	 * 他のスレッドが同じテーブルを作っている間は、それが終わるまで待ちます。
+	 * @param i_distfactor
+	 * 樽型歪みパラメータのオブジェクト。
+	 * @param i_screen_size
+	 * スクリーンサイズ
+	 * @return
+	 * 共有のテーブル。変更してはいけません。
+	 */
+	public static NyARObserv2IdealMap getInstance(NyARCameraDistortionFactor i_distfactor,NyARIntSize i_screen_size)
+	{
+		final double[] factor=new double[4];
+		i_distfactor.getValue(factor);
+		final String key=makeKey(factor,i_screen_size.w,i_screen_size.h,DEFAULT_MAX_ERROR);
+		synchronized(_cache_lock){
+			NyARObserv2IdealMap map=_cache.get(key);
+			if(map!=null){
+				return map;
+			}
+			File file=null;
+			if(_cache_dir!=null){
+				file=new File(_cache_dir,"o2i_"+Integer.toHexString(key.hashCode())+".bin");
+				map=load(file,factor,i_screen_size.w,i_screen_size.h,DEFAULT_MAX_ERROR);
+			}
+			if(map==null){
+				map=new NyARObserv2IdealMap(i_distfactor,i_screen_size,DEFAULT_MAX_ERROR);
+				if(file!=null){
+					map.save(file);
+				}
+			}
+			_cache.put(key,map);
+			return map;
+		}
+	}
+	/**
+	 * この関数は、バックグラウンドのスレッドで共有のテーブルを用意します。
+	 * 起動時に呼び出しておくと、最初のフレームでテーブルを作らずに済みます。
+	 * 引数の値はコピーするので、呼出し後に変更しても構いません。
+	 * @param i_distfactor
+	 * 樽型歪みパラメータのオブジェクト。
+	 * @param i_screen_size
+	 * スクリーンサイズ
+	 * @return
+	 * テーブルを作るスレッド。開始済みです。
+	 */
+	public static Thread prepare(NyARCameraDistortionFactor i_distfactor,NyARIntSize i_screen_size)
+	{
+		final NyARCameraDistortionFactor dist=new NyARCameraDistortionFactor();
+		dist.copyFrom(i_distfactor);
+		final NyARIntSize size=new NyARIntSize(i_screen_size.w,i_screen_size.h);
+		Thread th=new Thread("NyARObserv2IdealMap"){
+			public void run(){
+				getInstance(dist,size);
+			}
+		};
+		th.setDaemon(true);
+		th.setPriority(Thread.MIN_PRIORITY);
+		th.start();
+		return th;
+	}
+	private static String makeKey(double[] i_factor,int i_width,int i_height,double i_max_error)
+	{
+		StringBuilder sb=new StringBuilder();
+		sb.append(i_width).append('x').append(i_height);
+		for(int i=0;i<4;i++){
+			sb.append('_').append(Long.toHexString(Double.doubleToLongBits(i_factor[i])));
+		}
+		sb.append('_').append(Long.toHexString(Double.doubleToLongBits(i_max_error)));
+		return sb.toString();
+	}
+	/**
+	 * キャッシュファイルを読み込みます。
+	 * ファイルが無いか、パラメータが一致しない場合はnullを返します。
+	 */
+	private static NyARObserv2IdealMap load(File i_file,double[] i_factor,int i_width,int i_height,double i_max_error)
+	{
+		if(!i_file.isFile()){
+			return null;
+		}
+		RandomAccessFile raf=null;
+		try{
+			raf=new RandomAccessFile(i_file,"r");
+			FileChannel ch=raf.getChannel();
+			MappedByteBuffer bb=ch.map(FileChannel.MapMode.READ_ONLY,0,ch.size());
+			if(bb.getInt()!=FILE_MAGIC || bb.getInt()!=i_width || bb.getInt()!=i_height){
+				return null;
+			}
+			if(bb.getDouble()!=i_max_error){
+				return null;
+			}
+			double[] factor=new double[4];
+			for(int i=0;i<4;i++){
+				factor[i]=bb.getDouble();
+				if(factor[i]!=i_factor[i]){
+					return null;
+				}
+			}
+			final int shift=bb.getInt();
+			final int gw=bb.getInt();
+			final int gh=bb.getInt();
+			final int len=bb.getInt();
+			if(shift<0 || shift>MAX_STEP_SHIFT || gw!=((i_width-1)>>shift)+2 || gh!=((i_height-1)>>shift)+2 || len!=gw*gh || bb.remaining()!=len*4*2){
+				return null;
+			}
+			FloatBuffer fb=bb.asFloatBuffer();
+			float[] mapx=new float[len];
+			float[] mapy=new float[len];
+			fb.get(mapx);
+			fb.get(mapy);
+			return new NyARObserv2IdealMap(i_width,i_height,i_max_error,factor,shift,mapx,mapy);
+		}catch(IOException e){
+			//読めないファイルは無視して、作り直す
+			return null;
+		}finally{
+			if(raf!=null){
+				try{
+					raf.close();
+				}catch(IOException e){
+				}
+			}
+		}
+	}
+	/**
+	 * テーブルをキャッシュファイルに保存します。
+	 * 一時ファイルに書き込んでから名前を変えるので、書き込み途中のファイルを読むことはありません。
+	 * 保存に失敗しても、テーブルはそのまま使えます。
+	 */
+	private void save(File i_file)
+	{
+		final int len=this._mapx.length;
+		ByteBuffer bb=ByteBuffer.allocate(FILE_HEADER_SIZE+len*4*2);
+		bb.putInt(FILE_MAGIC);
+		bb.putInt(this._width);
+		bb.putInt(this._height);
+		bb.putDouble(this._max_error);
+		for(int i=0;i<4;i++){
+			bb.putDouble(this._factor[i]);
+		}
+		bb.putInt(this._shift);
+		bb.putInt(this._stride);
+		bb.putInt(len/this._stride);
+		bb.putInt(len);
+		bb.asFloatBuffer().put(this._mapx).put(this._mapy);
+		File tmp=new File(i_file.getPath()+".tmp");
+		FileOutputStream os=null;
+		try{
+			os=new FileOutputStream(tmp);
+			os.write(bb.array());
+			os.close();
+			os=null;
+			if(!tmp.renameTo(i_file)){
+				tmp.delete();
+			}
+		}catch(IOException e){
+			tmp.delete();
+		}finally{
+			if(os!=null){
+				try{
+					os.close();
+				}catch(IOException e){
+				}
+			}
+		}
+	}
 }
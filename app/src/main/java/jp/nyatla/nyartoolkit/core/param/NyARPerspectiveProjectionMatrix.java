@@ -241,6 +241,9 @@ final public class NyARPerspectiveProjectionMatrix extends NyARDoubleMatrix44
 		return;
 	}
 	
+	private final NyARMat __makeCameraFrustumRH_trans=new NyARMat(3, 4);
+	private final NyARMat __makeCameraFrustumRH_icpara=new NyARMat(3, 4);
+	private final double[][] __makeCameraFrustumRH_p=new double[3][3];
 	/**
 	 * 右手系の視錐台を作ります。
 	 * この視錐台は、ARToolKitのarglCameraViewRHの作る視錐台と同じです。
@@ -257,9 +260,10 @@ final public class NyARPerspectiveProjectionMatrix extends NyARDoubleMatrix44
 	 */
 	public void makeCameraFrustumRH(double i_screen_width,double i_screen_height,double i_dist_min,double i_dist_max,NyARDoubleMatrix44 o_frustum)
 	{
-		NyARMat trans_mat = new NyARMat(3, 4);
-		NyARMat icpara_mat = new NyARMat(3, 4);
-		double[][] p = new double[3][3];
+		//decompMatが全要素を上書きするので、作業領域を使い回す。
+		NyARMat trans_mat = this.__makeCameraFrustumRH_trans;
+		NyARMat icpara_mat = this.__makeCameraFrustumRH_icpara;
+		double[][] p = this.__makeCameraFrustumRH_p;
 		int i;
 		
 		this.decompMat(icpara_mat, trans_mat);
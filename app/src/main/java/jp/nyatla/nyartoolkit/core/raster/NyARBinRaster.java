@@ -54,7 +54,8 @@ public class NyARBinRaster extends NyARRaster_BasicClass
 	 * ラスタのバッファ形式。
 	 * {@link NyARBufferType}に定義された定数値を指定してください。指定できる値は、以下の通りです。
 	 * <ul>
-	 * <li>{@link NyARBufferType#INT2D_BIN_8}
+	 * <li>{@link NyARBufferType#INT1D_BIN_8}
+	 * <li>{@link NyARBufferType#LONG1D_BIN_1}
 	 * <ul>
 	 * @param i_is_alloc
 	 * バッファを外部参照にするかのフラグ値。
@@ -125,12 +126,26 @@ public class NyARBinRaster extends NyARRaster_BasicClass
 			case NyARBufferType.INT1D_BIN_8:
 				this._buf = i_is_alloc?new int[i_size.w*i_size.h]:null;
 				break;
+			case NyARBufferType.LONG1D_BIN_1:
+				this._buf = i_is_alloc?new long[getRowStride(i_size.w)*i_size.h]:null;
+				break;
 			default:
 				return false;
 		}
 		this._is_attached_buffer=i_is_alloc;
 		return true;
 	}
+	/**
+	 * この関数は、{@link NyARBufferType#LONG1D_BIN_1}形式のバッファの、1行あたりのlong数を返します。
+	 * @param i_width
+	 * ラスタの幅
+	 * @return
+	 * 1行のlong数。(i_width+63)/64です。
+	 */
+	public static int getRowStride(int i_width)
+	{
+		return (i_width+63)>>6;
+	}
 	/**
 	 * この関数は、ラスタのバッファへの参照値を返します。
 	 * バッファの形式は、コンストラクタに指定した形式と同じです。
@@ -15,6 +15,7 @@ import jp.nyatla.nyartoolkit.*;
  * <li>{@link NyARBufferType#BYTE1D_B8G8R8_24}
  * <li>{@link NyARBufferType#BYTE1D_X8R8G8B8_32}
  * <li>{@link NyARBufferType#WORD1D_R5G6B5_16LE}
+ * <li>{@link NyARBufferType#BYTE1D_YUV420SP_NV21}
  * </ul>
  * </p>
  */
@@ -111,6 +112,10 @@ public class NyARRgbRaster extends NyARRgbRaster_BasicClass
 				this._buf=i_is_alloc?new short[i_size.w*i_size.h]:null;
 				this._reader=new NyARRgbPixelReader_WORD1D_R5G6B5_16LE((short[])this._buf,i_size);
 				break;
+			case NyARBufferType.BYTE1D_YUV420SP_NV21:
+				this._buf=i_is_alloc?new byte[i_size.w*i_size.h*3/2]:null;
+				this._reader=new NyARRgbPixelReader_BYTE1D_YUV420SP_NV21((byte[])this._buf,i_size);
+				break;
 			default:
 				return false;
 		}
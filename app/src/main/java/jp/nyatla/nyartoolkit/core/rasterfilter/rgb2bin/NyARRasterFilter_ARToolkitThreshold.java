@@ -24,13 +24,19 @@ import jp.nyatla.nyartoolkit.core.types.NyARIntSize;
  * <li>{@link NyARBufferType#BYTE1D_X8R8G8B8_32}
  * <li>{@link NyARBufferType#INT1D_X8R8G8B8_32}
  * <li>{@link NyARBufferType#WORD1D_R5G6B5_16LE}
+ * <li>{@link NyARBufferType#BYTE1D_YUV420SP_NV21}
  * </ul>
+ * {@link NyARBufferType#BYTE1D_YUV420SP_NV21}では、RGB値の代わりに輝度値Yを使って<pre>A=th<Y?0:1</pre>を求めます。
+ * 色差面は読みません。
  * </p>
  * <p>出力可能な画素形式
- * 出力可能な画素形式は1種類です。
+ * 出力可能な画素形式は2種類です。
  * <ul>
  * <li>{@link NyARBufferType#INT1D_BIN_8}
+ * <li>{@link NyARBufferType#LONG1D_BIN_1}
  * </ul>
+ * {@link NyARBufferType#LONG1D_BIN_1}に出力できる入力形式は、{@link NyARBufferType#BYTE1D_B8G8R8_24},
+ * {@link NyARBufferType#BYTE1D_R8G8B8_24},{@link NyARBufferType#INT1D_X8R8G8B8_32},{@link NyARBufferType#BYTE1D_YUV420SP_NV21}です。
  * </p>
  */
 public class NyARRasterFilter_ARToolkitThreshold implements INyARRasterFilter_Rgb2Bin
@@ -104,6 +110,25 @@ public class NyARRasterFilter_ARToolkitThreshold implements INyARRasterFilter_Rg
 			case NyARBufferType.WORD1D_R5G6B5_16LE:
 				this._do_threshold_impl=new doThFilterImpl_BUFFERFORMAT_WORD1D_R5G6B5_16LE();
 				break;
+			case NyARBufferType.BYTE1D_YUV420SP_NV21:
+				this._do_threshold_impl=new doThFilterImpl_BUFFERFORMAT_BYTE1D_YUV420SP_NV21();
+				break;
+			default:
+				return false;//サポートしない組み合わせ
+			}
+			break;
+		case NyARBufferType.LONG1D_BIN_1:
+			switch (i_in_raster_type){
+			case NyARBufferType.BYTE1D_B8G8R8_24:
+			case NyARBufferType.BYTE1D_R8G8B8_24:
+				this._do_threshold_impl=new doThFilterImpl_BUFFERFORMAT_BYTE1D_RGB_24_BIN_1();
+				break;
+			case NyARBufferType.INT1D_X8R8G8B8_32:
+				this._do_threshold_impl=new doThFilterImpl_BUFFERFORMAT_INT1D_X8R8G8B8_32_BIN_1();
+				break;
+			case NyARBufferType.BYTE1D_YUV420SP_NV21:
+				this._do_threshold_impl=new doThFilterImpl_BUFFERFORMAT_BYTE1D_YUV420SP_NV21_BIN_1();
+				break;
 			default:
 				return false;//サポートしない組み合わせ
 			}
@@ -389,4 +414,155 @@ public class NyARRasterFilter_ARToolkitThreshold implements INyARRasterFilter_Rg
 	    }
 	}
 	
+	private class doThFilterImpl_BUFFERFORMAT_BYTE1D_YUV420SP_NV21 implements IdoThFilterImpl
+	{
+		public void doThFilter(INyARRaster i_raster,int i_l,int i_t,int i_w,int i_h,int i_th,INyARRaster o_raster)
+		{
+			assert(i_raster.isEqualBufferType(NyARBufferType.BYTE1D_YUV420SP_NV21));
+			//Y面だけを読む
+			final byte[] input=(byte[])i_raster.getBuffer();
+			final int[] output=(int[])o_raster.getBuffer();
+			final int th=i_th;
+			NyARIntSize s=i_raster.getSize();
+			int skip=(s.w-i_w);
+			final int pix_count=i_w;
+			final int pix_mod_part=pix_count-(pix_count%8);
+			//左上から1行づつ走査していく
+			int pt=(i_t*s.w+i_l);
+			for (int y = i_h-1; y >=0 ; y-=1){
+				int x;
+				for (x = pix_count-1; x >=pix_mod_part; x--){
+					output[pt]=(input[pt]& 0xff)<=th?0:1;pt++;
+				}
+				for (;x>=0;x-=8){
+					output[pt]=(input[pt]& 0xff)<=th?0:1;pt++;
+					output[pt]=(input[pt]& 0xff)<=th?0:1;pt++;
+					output[pt]=(input[pt]& 0xff)<=th?0:1;pt++;
+					output[pt]=(input[pt]& 0xff)<=th?0:1;pt++;
+					output[pt]=(input[pt]& 0xff)<=th?0:1;pt++;
+					output[pt]=(input[pt]& 0xff)<=th?0:1;pt++;
+					output[pt]=(input[pt]& 0xff)<=th?0:1;pt++;
+					output[pt]=(input[pt]& 0xff)<=th?0:1;pt++;
+				}
+				//スキップ
+				pt+=skip;
+			}
+			return;
+		}
+	}
+
+	/**
+	 * {@link NyARBufferType#LONG1D_BIN_1}のワードのうち、[i_bit_l,i_bit_r)のビットだけをi_bitsで置き換えます。
+	 * 範囲外のビットは保存するので、矩形の一部だけを二値化できます。
+	 */
+	private static void storeBits(long[] o_buf,int i_idx,int i_bit_l,int i_bit_r,long i_bits)
+	{
+		long mask=(i_bit_r==64?-1L:((1L<<i_bit_r)-1))&(-1L<<i_bit_l);
+		o_buf[i_idx]=(o_buf[i_idx]&~mask)|(i_bits&mask);
+	}
+	private class doThFilterImpl_BUFFERFORMAT_BYTE1D_RGB_24_BIN_1 implements IdoThFilterImpl
+	{
+		public void doThFilter(INyARRaster i_raster,int i_l,int i_t,int i_w,int i_h,int i_th,INyARRaster o_raster)
+		{
+			assert (
+					i_raster.isEqualBufferType(NyARBufferType.BYTE1D_B8G8R8_24)||
+					i_raster.isEqualBufferType(NyARBufferType.BYTE1D_R8G8B8_24));
+			assert (o_raster.isEqualBufferType(NyARBufferType.LONG1D_BIN_1));
+			final byte[] input=(byte[])i_raster.getBuffer();
+			final long[] output=(long[])o_raster.getBuffer();
+			final int th=i_th*3;
+			NyARIntSize s=i_raster.getSize();
+			final int stride=NyARBinRaster.getRowStride(s.w);
+			for (int y = i_t; y <i_t+i_h ; y++){
+				int pt_src=(y*s.w+i_l)*3;
+				int idx=y*stride+(i_l>>6);
+				int bit_l=i_l&63;
+				int bit=bit_l;
+				long bits=0;
+				for (int x = i_w-1; x >=0; x--){
+					if(((input[pt_src+0]& 0xff)+(input[pt_src+1]& 0xff)+(input[pt_src+2]& 0xff))>th){
+						bits|=1L<<bit;
+					}
+					pt_src+=3;
+					if(++bit==64){
+						storeBits(output,idx++,bit_l,64,bits);
+						bits=0;bit=0;bit_l=0;
+					}
+				}
+				if(bit>bit_l){
+					storeBits(output,idx,bit_l,bit,bits);
+				}
+			}
+			return;
+		}
+	}
+	private class doThFilterImpl_BUFFERFORMAT_INT1D_X8R8G8B8_32_BIN_1 implements IdoThFilterImpl
+	{
+		public void doThFilter(INyARRaster i_raster,int i_l,int i_t,int i_w,int i_h,int i_th,INyARRaster o_raster)
+		{
+			assert (i_raster.isEqualBufferType( NyARBufferType.INT1D_X8R8G8B8_32));
+			assert (o_raster.isEqualBufferType(NyARBufferType.LONG1D_BIN_1));
+			final int[] input=(int[])i_raster.getBuffer();
+			final long[] output=(long[])o_raster.getBuffer();
+			final int th=i_th*3;
+			NyARIntSize s=i_raster.getSize();
+			final int stride=NyARBinRaster.getRowStride(s.w);
+			for (int y = i_t; y <i_t+i_h ; y++){
+				int pt_src=y*s.w+i_l;
+				int idx=y*stride+(i_l>>6);
+				int bit_l=i_l&63;
+				int bit=bit_l;
+				long bits=0;
+				for (int x = i_w-1; x >=0; x--){
+					int v=input[pt_src++];
+					if((((v>>16)& 0xff)+((v>>8)& 0xff)+(v& 0xff))>th){
+						bits|=1L<<bit;
+					}
+					if(++bit==64){
+						storeBits(output,idx++,bit_l,64,bits);
+						bits=0;bit=0;bit_l=0;
+					}
+				}
+				if(bit>bit_l){
+					storeBits(output,idx,bit_l,bit,bits);
+				}
+			}
+			return;
+		}
+	}
+	private class doThFilterImpl_BUFFERFORMAT_BYTE1D_YUV420SP_NV21_BIN_1 implements IdoThFilterImpl
+	{
+		public void doThFilter(INyARRaster i_raster,int i_l,int i_t,int i_w,int i_h,int i_th,INyARRaster o_raster)
+		{
+			assert(i_raster.isEqualBufferType(NyARBufferType.BYTE1D_YUV420SP_NV21));
+			assert (o_raster.isEqualBufferType(NyARBufferType.LONG1D_BIN_1));
+			//Y面だけを読む
+			final byte[] input=(byte[])i_raster.getBuffer();
+			final long[] output=(long[])o_raster.getBuffer();
+			final int th=i_th;
+			NyARIntSize s=i_raster.getSize();
+			final int stride=NyARBinRaster.getRowStride(s.w);
+			for (int y = i_t; y <i_t+i_h ; y++){
+				int pt=y*s.w+i_l;
+				int idx=y*stride+(i_l>>6);
+				int bit_l=i_l&63;
+				int bit=bit_l;
+				long bits=0;
+				for (int x = i_w-1; x >=0; x--){
+					if((input[pt++]& 0xff)>th){
+						bits|=1L<<bit;
+					}
+					if(++bit==64){
+						storeBits(output,idx++,bit_l,64,bits);
+						bits=0;bit=0;bit_l=0;
+					}
+				}
+				if(bit>bit_l){
+					storeBits(output,idx,bit_l,bit,bits);
+				}
+			}
+			return;
+		}
+	}
+
 }
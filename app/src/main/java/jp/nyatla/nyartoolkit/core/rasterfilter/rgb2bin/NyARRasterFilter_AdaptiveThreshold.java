@@ -0,0 +1,634 @@
+package jp.nyatla.nyartoolkit.core.rasterfilter.rgb2bin;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.raster.*;
+import jp.nyatla.nyartoolkit.core.raster.rgb.INyARRgbRaster;
+import jp.nyatla.nyartoolkit.core.types.NyARBufferType;
+import jp.nyatla.nyartoolkit.core.types.NyARIntSize;
+
+
+
+/**
+ * このクラスは、画像をタイルに分けて、タイル毎の敷居値でRGBラスタを2値画像へ変換します。
+ * 半分だけ影になったマーカのように、画面内で明るさが違う場合でも2値化できます。
+ * <p>アルゴリズム -
+ * 画像を一辺{@link #getTileSize}画素のタイルに分け、縦横8画素毎に間引いた画素から、
+ * タイル毎に輝度の和、最小値、最大値を求めます。
+ * タイルの敷居値は、周囲3x3タイルの平均値から{@link #setBias}の値を引いたものです。
+ * 最大値と最小値の差が{@link #setMinContrast}未満の一様なタイルは、隣接するタイルの敷居値を広げた値と
+ * タイルの平均値を比べて、タイル全体を明点か暗点にします。全てのタイルが一様なときは、画像全体の平均値を敷居値にします。
+ * 画素の敷居値は、周囲4つのタイルの中心の敷居値を双線形補間して求めます。
+ * 上下のタイルの中心の間の帯毎に、先頭行の敷居値と1行毎の増分を作り、行毎に増分を足していくので、
+ * 画素毎の処理は、輝度の計算と敷居値との比較だけです。
+ * 輝度Lと敷居値thから、次の式で２値画素を求めます。
+ * <pre>A=th&lt;L?1:0</pre>
+ * RGB形式の輝度は(R+G+B)/3、{@link NyARBufferType#BYTE1D_YUV420SP_NV21}の輝度はYです。
+ * 全ての画素の敷居値がthの場合、{@link NyARRasterFilter_ARToolkitThreshold}と同じ結果になります。
+ * </p>
+ * <p>作業メモリは、コンストラクタで全て確保します。大きさはタイルの数に比例し、画像全体の輝度画像や積分画像は作りません。
+ * 処理時間は画素数に比例します。</p>
+ * <p>入力可能な画素形式
+ * 入力可能な画素形式は以下の通りです。
+ * <ul>
+ * <li>{@link NyARBufferType#BYTE1D_B8G8R8_24}
+ * <li>{@link NyARBufferType#BYTE1D_R8G8B8_24}
+ * <li>{@link NyARBufferType#INT1D_X8R8G8B8_32}
+ * <li>{@link NyARBufferType#BYTE1D_YUV420SP_NV21}
+ * </ul>
+ * </p>
+ * <p>出力可能な画素形式
+ * 出力ラスタの形式に合わせて、次の2種類を出力します。
+ * <ul>
+ * <li>{@link NyARBufferType#INT1D_BIN_8}
+ * <li>{@link NyARBufferType#LONG1D_BIN_1}
+ * </ul>
+ * </p>
+ */
+public class NyARRasterFilter_AdaptiveThreshold implements INyARRasterFilter_Rgb2Bin
+{
+	/** タイルの大きさの初期値*/
+	public static final int DEFAULT_TILE_SIZE=32;
+	/** 統計を取るときの、画素の間隔*/
+	private static final int SAMPLE_STEP=8;
+	/** 画素毎の敷居値を、Y方向に補間し直す行の間隔*/
+	private static final int LINE_STEP=4;
+
+	private final int _width;
+	private final int _height;
+	private final int _tile;
+	private final int _tiles_x;
+	private final int _tiles_y;
+	private final int _in_raster_type;
+	/**
+	 * 輝度の倍率です。RGB形式はR+G+Bを輝度として扱うので3、NV21形式は1です。
+	 * 敷居値も同じ倍率で持ちます。
+	 */
+	private final int _scale;
+	/** 統計を取る行の、間引いた画素の輝度*/
+	private final int[] _sample_row;
+	/** 3バイト形式を入力したときの、1行分の輝度(R+G+B)*/
+	private final int[] _lum_row;
+	/** タイル毎の統計値*/
+	private final int[] _tile_sum;
+	private final int[] _tile_count;
+	private final int[] _tile_min;
+	private final int[] _tile_max;
+	/** タイル毎の敷居値*/
+	private final int[] _tile_th;
+	/** 一様なタイルの敷居値を決めるときの作業領域*/
+	private final int[] _tile_th_work;
+	private final boolean[] _tile_fixed;
+	private final boolean[] _tile_uniform;
+	private final boolean[] _tile_fixed_work;
+	/** タイルの中心座標*/
+	private final int[] _center_x;
+	private final int[] _center_y;
+	/** 1行分の画素の敷居値*/
+	private final int[] _th_line;
+	/** 1行分の画素の敷居値(16.16固定小数点)と、その{@link #LINE_STEP}行毎の増分*/
+	private final int[] _th_line_fp;
+	private final int[] _th_step;
+	/** タイルの列毎の、敷居値か増分(16.16固定小数点)*/
+	private final int[] _knot;
+	/** {@link #_th_step}が全て0ならtrue*/
+	private boolean _th_is_flat;
+
+	private int _bias=0;
+	private int _min_contrast=24;
+
+	/**
+	 * コンストラクタです。
+	 * 入力画像のサイズと画素形式を指定して、タイルの大きさが{@link #DEFAULT_TILE_SIZE}のフィルタを作成します。
+	 * @param i_width
+	 * 入力画像の幅
+	 * @param i_height
+	 * 入力画像の高さ
+	 * @param i_in_raster_type
+	 * 入力ラスタの形式です。
+	 * @throws NyARException
+	 */
+	public NyARRasterFilter_AdaptiveThreshold(int i_width,int i_height,int i_in_raster_type) throws NyARException
+	{
+		this(i_width,i_height,DEFAULT_TILE_SIZE,i_in_raster_type);
+	}
+	/**
+	 * コンストラクタです。
+	 * 入力画像のサイズ、タイルの大きさ、画素形式を指定して、フィルタを作成します。
+	 * @param i_width
+	 * 入力画像の幅
+	 * @param i_height
+	 * 入力画像の高さ
+	 * @param i_tile_size
+	 * タイルの一辺の画素数。マーカの大きさの半分くらいが目安です。16以上を指定します。
+	 * @param i_in_raster_type
+	 * 入力ラスタの形式です。
+	 * @throws NyARException
+	 */
+	public NyARRasterFilter_AdaptiveThreshold(int i_width,int i_height,int i_tile_size,int i_in_raster_type) throws NyARException
+	{
+		assert(i_tile_size>=SAMPLE_STEP*2);
+		switch(i_in_raster_type){
+		case NyARBufferType.BYTE1D_B8G8R8_24:
+		case NyARBufferType.BYTE1D_R8G8B8_24:
+		case NyARBufferType.INT1D_X8R8G8B8_32:
+			this._scale=3;
+			break;
+		case NyARBufferType.BYTE1D_YUV420SP_NV21:
+			this._scale=1;
+			break;
+		default:
+			throw new NyARException();
+		}
+		this._in_raster_type=i_in_raster_type;
+		this._width=i_width;
+		this._height=i_height;
+		this._tile=i_tile_size;
+		this._tiles_x=(i_width+i_tile_size-1)/i_tile_size;
+		this._tiles_y=(i_height+i_tile_size-1)/i_tile_size;
+		final int n=this._tiles_x*this._tiles_y;
+		this._sample_row=new int[(i_width+SAMPLE_STEP-1)/SAMPLE_STEP];
+		this._lum_row=new int[i_width];
+		this._tile_sum=new int[n];
+		this._tile_count=new int[n];
+		this._tile_min=new int[n];
+		this._tile_max=new int[n];
+		this._tile_th=new int[n];
+		this._tile_th_work=new int[n];
+		this._tile_fixed=new boolean[n];
+		this._tile_uniform=new boolean[n];
+		this._tile_fixed_work=new boolean[n];
+		this._center_x=new int[this._tiles_x];
+		this._center_y=new int[this._tiles_y];
+		this._th_line=new int[i_width];
+		this._th_line_fp=new int[i_width];
+		this._th_step=new int[i_width];
+		this._knot=new int[this._tiles_x];
+		//端のタイルは画像の端までの中心
+		for(int i=0;i<this._tiles_x;i++){
+			final int x0=i*i_tile_size;
+			this._center_x[i]=(x0+Math.min(x0+i_tile_size,i_width))/2;
+		}
+		for(int i=0;i<this._tiles_y;i++){
+			final int y0=i*i_tile_size;
+			this._center_y[i]=(y0+Math.min(y0+i_tile_size,i_height))/2;
+		}
+	}
+	/**
+	 * この関数は、タイルの一辺の画素数を返します。
+	 */
+	public int getTileSize()
+	{
+		return this._tile;
+	}
+	/**
+	 * この関数は、タイルの敷居値から引く値を設定します。
+	 * 大きくするほど、暗い画素だけが暗点になります。初期値は0です。
+	 * @param i_bias
+	 * 0～255の値
+	 */
+	public void setBias(int i_bias)
+	{
+		this._bias=i_bias;
+	}
+	/**
+	 * この関数は、タイルを一様とみなさない最小のコントラストを設定します。
+	 * 輝度の最大値と最小値の差がこの値未満のタイルは、一様なタイルとみなして、隣接するタイルから敷居値を決めます。
+	 * 初期値は24です。
+	 * @param i_min_contrast
+	 * 0～255の値
+	 */
+	public void setMinContrast(int i_min_contrast)
+	{
+		this._min_contrast=i_min_contrast;
+	}
+	/**
+	 * この関数は、入力画像を２値化した画像を出力画像へ書込みます。
+	 * 入力画像と出力画像のサイズは、コンストラクタで指定したサイズと同じである必要があります。
+	 */
+	public void doFilter(INyARRgbRaster i_input, NyARBinRaster i_output) throws NyARException
+	{
+		final NyARIntSize s=i_input.getSize();
+		assert(s.isEqualSize(this._width,this._height));
+		assert(s.isEqualSize(i_output.getSize()));
+		assert(i_input.isEqualBufferType(this._in_raster_type));
+		final Object in_buf=i_input.getBuffer();
+		//統計
+		final int n=this._tiles_x*this._tiles_y;
+		for(int i=n-1;i>=0;i--){
+			this._tile_sum[i]=0;
+			this._tile_count[i]=0;
+			this._tile_min[i]=Integer.MAX_VALUE;
+			this._tile_max[i]=0;
+		}
+		for(int y=0;y<this._height;y+=SAMPLE_STEP){
+			this.makeTileStat(in_buf,y);
+		}
+		this.makeTileThreshold();
+		//2値化
+		final int out_type=i_output.getBufferType();
+		if(out_type!=NyARBufferType.INT1D_BIN_8 && out_type!=NyARBufferType.LONG1D_BIN_1){
+			throw new NyARException();
+		}
+		final Object out_buf=i_output.getBuffer();
+		int next_band=0;
+		int next_line=0;
+		for(int y=0;y<this._height;y++){
+			if(y==next_band){
+				next_band=this.makeThresholdBand(y);
+				next_line=y+LINE_STEP;
+			}else if(y==next_line){
+				this.nextThresholdLine();
+				next_line+=LINE_STEP;
+			}
+			//行の2値化は、JITコンパイラが小さなループとして最適化できるように別の関数にする
+			if(out_type==NyARBufferType.INT1D_BIN_8){
+				this.makeBin8Line(in_buf,y,(int[])out_buf);
+			}else{
+				this.makeBin1Line(in_buf,y,(long[])out_buf);
+			}
+		}
+		return;
+	}
+	/**
+	 * 1行を間引いて読み、タイル毎の統計に加えます。
+	 */
+	private void makeTileStat(Object i_in_buf,int i_y)
+	{
+		final int w=this._width;
+		final int[] lum=this._sample_row;
+		//間引いた画素の輝度
+		switch(this._in_raster_type){
+		case NyARBufferType.BYTE1D_B8G8R8_24:
+		case NyARBufferType.BYTE1D_R8G8B8_24:
+			{
+				final byte[] in_buf=(byte[])i_in_buf;
+				int pt_src=i_y*w*3;
+				for(int x=0,k=0;x<w;x+=SAMPLE_STEP,k++){
+					lum[k]=(in_buf[pt_src+0]& 0xff)+(in_buf[pt_src+1]& 0xff)+(in_buf[pt_src+2]& 0xff);
+					pt_src+=SAMPLE_STEP*3;
+				}
+			}
+			break;
+		case NyARBufferType.INT1D_X8R8G8B8_32:
+			{
+				final int[] in_buf=(int[])i_in_buf;
+				int pt_src=i_y*w;
+				for(int x=0,k=0;x<w;x+=SAMPLE_STEP,k++){
+					final int v=in_buf[pt_src];
+					lum[k]=((v>>16)& 0xff)+((v>>8)& 0xff)+(v& 0xff);
+					pt_src+=SAMPLE_STEP;
+				}
+			}
+			break;
+		default:
+			{
+				//Y面をそのまま使う
+				final byte[] in_buf=(byte[])i_in_buf;
+				int pt_src=i_y*w;
+				for(int x=0,k=0;x<w;x+=SAMPLE_STEP,k++){
+					lum[k]=in_buf[pt_src]& 0xff;
+					pt_src+=SAMPLE_STEP;
+				}
+			}
+			break;
+		}
+		//タイル毎の和、最小値、最大値
+		final int tile=this._tile;
+		final int[] sum=this._tile_sum;
+		final int[] cnt=this._tile_count;
+		final int[] min=this._tile_min;
+		final int[] max=this._tile_max;
+		int t=(i_y/tile)*this._tiles_x;
+		int x=0,k=0;
+		for(int x0=0;x0<w;x0+=tile,t++){
+			final int x1=x0+tile<w?x0+tile:w;
+			int s=0,c=0;
+			int mn=min[t],mx=max[t];
+			for(;x<x1;x+=SAMPLE_STEP,k++){
+				//ノイズで分岐予測が外れないように、Math.min/maxを使う
+				final int v=lum[k];
+				s+=v;
+				c++;
+				mn=Math.min(mn,v);
+				mx=Math.max(mx,v);
+			}
+			sum[t]+=s;
+			cnt[t]+=c;
+			min[t]=mn;
+			max[t]=mx;
+		}
+	}
+	/**
+	 * タイル毎の敷居値を決めます。
+	 * 一様でないタイルの敷居値を周囲3x3タイルの平均値とし、敷居値の決まったタイルから順に、
+	 * 隣接するタイルの敷居値の平均を一様なタイルへ広げていきます。
+	 * 最後にタイルの平均値との差が{@link #setMinContrast}の値になるように、敷居値を明暗どちらかへ寄せます。
+	 */
+	private void makeTileThreshold()
+	{
+		final int tw=this._tiles_x;
+		final int th=this._tiles_y;
+		final int n=tw*th;
+		final int[] sum=this._tile_sum;
+		final int[] cnt=this._tile_count;
+		final int[] min=this._tile_min;
+		final int[] max=this._tile_max;
+		final int[] tile_th=this._tile_th;
+		final boolean[] fixed=this._tile_fixed;
+		final boolean[] uniform=this._tile_uniform;
+		final int min_contrast=this._min_contrast*this._scale;
+		final int bias=this._bias*this._scale;
+		long total_sum=0;
+		long total_cnt=0;
+		int num_of_fixed=0;
+		for(int ty=0;ty<th;ty++){
+			for(int tx=0;tx<tw;tx++){
+				final int i=ty*tw+tx;
+				total_sum+=sum[i];
+				total_cnt+=cnt[i];
+				if(cnt[i]==0 || max[i]-min[i]<min_contrast){
+					//一様なタイル
+					fixed[i]=false;
+					uniform[i]=true;
+					continue;
+				}
+				//周囲3x3タイルの平均値
+				int s=0,c=0;
+				for(int y=(ty>0?ty-1:0);y<=(ty<th-1?ty+1:ty);y++){
+					for(int x=(tx>0?tx-1:0);x<=(tx<tw-1?tx+1:tx);x++){
+						s+=sum[y*tw+x];
+						c+=cnt[y*tw+x];
+					}
+				}
+				final int v=s/c-bias;
+				tile_th[i]=v<0?0:v;
+				fixed[i]=true;
+				uniform[i]=false;
+				num_of_fixed++;
+			}
+		}
+		if(num_of_fixed==0){
+			//全て一様なら全体の平均値
+			final int global_th=total_cnt>0?(int)(total_sum/total_cnt):0;
+			for(int i=n-1;i>=0;i--){
+				tile_th[i]=global_th;
+			}
+			return;
+		}
+		//敷居値の決まったタイルから、隣接する一様なタイルへ広げる
+		final int[] work_th=this._tile_th_work;
+		final boolean[] work_fixed=this._tile_fixed_work;
+		while(num_of_fixed<n){
+			for(int ty=0;ty<th;ty++){
+				for(int tx=0;tx<tw;tx++){
+					final int i=ty*tw+tx;
+					work_th[i]=tile_th[i];
+					work_fixed[i]=fixed[i];
+					if(fixed[i]){
+						continue;
+					}
+					int s=0,c=0;
+					if(tx>0 && fixed[i-1]){
+						s+=tile_th[i-1];
+						c++;
+					}
+					if(tx<tw-1 && fixed[i+1]){
+						s+=tile_th[i+1];
+						c++;
+					}
+					if(ty>0 && fixed[i-tw]){
+						s+=tile_th[i-tw];
+						c++;
+					}
+					if(ty<th-1 && fixed[i+tw]){
+						s+=tile_th[i+tw];
+						c++;
+					}
+					if(c>0){
+						work_th[i]=s/c;
+						work_fixed[i]=true;
+						num_of_fixed++;
+					}
+				}
+			}
+			System.arraycopy(work_th,0,tile_th,0,n);
+			System.arraycopy(work_fixed,0,fixed,0,n);
+		}
+		//一様なタイルは、広げた敷居値より明るいか暗いかで、タイル全体を明点か暗点にする
+		for(int i=n-1;i>=0;i--){
+			if(!uniform[i] || cnt[i]==0){
+				continue;
+			}
+			final int m=sum[i]/cnt[i];
+			final int v=m>tile_th[i]?m-min_contrast:m+min_contrast;
+			tile_th[i]=v<0?0:v;
+		}
+	}
+	/**
+	 * タイルの列毎の値(16.16固定小数点)をX方向に補間して、画素毎の値をo_lineへ書込みます。
+	 * タイルの中心の間は一定の増分を足していき、最初のタイルの中心より左と、最後のタイルの中心より右は、端のタイルの値のままです。
+	 */
+	private void interpolateRow(int[] i_knot,int[] o_line)
+	{
+		final int w=this._width;
+		final int tx_max=this._tiles_x-1;
+		final int[] cx=this._center_x;
+		int x=0;
+		for(int tx=-1;tx<=tx_max;tx++){
+			int v,step,right;
+			if(tx<0){
+				v=i_knot[0];
+				step=0;
+				right=cx[0];
+			}else if(tx==tx_max){
+				v=i_knot[tx_max];
+				step=0;
+				right=w;
+			}else{
+				v=i_knot[tx];
+				step=(i_knot[tx+1]-i_knot[tx])/(cx[tx+1]-cx[tx]);
+				right=cx[tx+1];
+			}
+			for(;x<right;x++){
+				o_line[x]=v;
+				v+=step;
+			}
+		}
+	}
+	/**
+	 * i_y行から始まる帯の、先頭行の敷居値を{@link #_th_line_fp}と{@link #_th_line}へ、{@link #LINE_STEP}行毎の増分を{@link #_th_step}へ作ります。
+	 * 帯は、上下に隣接するタイルの中心の間の行です。最初のタイルの中心より上と、最後のタイルの中心より下は増分が0です。
+	 * 敷居値は線形に補間するので、増分もタイルの列毎に求めてからX方向に補間します。
+	 * @return
+	 * 次の帯の先頭行
+	 */
+	private int makeThresholdBand(int i_y)
+	{
+		final int w=this._width;
+		final int tw=this._tiles_x;
+		final int ty_max=this._tiles_y-1;
+		final int[] cy=this._center_y;
+		final int[] tile_th=this._tile_th;
+		final int[] knot=this._knot;
+		final int[] line=this._th_line;
+		final int[] line_fp=this._th_line_fp;
+		int ty;
+		int next;
+		if(i_y<cy[0]){
+			ty=0;
+			next=cy[0];
+		}else{
+			ty=i_y/this._tile;
+			if(ty>0 && i_y<cy[ty]){
+				ty--;
+			}
+			next=ty==ty_max?this._height:cy[ty+1];
+		}
+		final int t0=ty*tw;
+		for(int tx=0;tx<tw;tx++){
+			knot[tx]=tile_th[t0+tx]<<16;
+		}
+		this.interpolateRow(knot,line_fp);
+		if(i_y<cy[0] || ty==ty_max){
+			this._th_is_flat=true;
+		}else{
+			//下のタイル行との差を、帯の行数で割る
+			final int t1=t0+tw;
+			final int d=cy[ty+1]-cy[ty];
+			for(int tx=0;tx<tw;tx++){
+				knot[tx]=((tile_th[t1+tx]-tile_th[t0+tx])<<16)/d*LINE_STEP;
+			}
+			this.interpolateRow(knot,this._th_step);
+			this._th_is_flat=false;
+		}
+		for(int x=0;x<w;x++){
+			line[x]=line_fp[x]>>16;
+		}
+		return next;
+	}
+	/**
+	 * 敷居値を{@link #LINE_STEP}行下へ進めます。
+	 */
+	private void nextThresholdLine()
+	{
+		if(this._th_is_flat){
+			return;
+		}
+		final int[] line=this._th_line;
+		final int[] line_fp=this._th_line_fp;
+		final int[] step=this._th_step;
+		final int w=this._width;
+		for(int x=0;x<w;x++){
+			final int v=line_fp[x]+step[x];
+			line_fp[x]=v;
+			line[x]=v>>16;
+		}
+	}
+	/**
+	 * i_y行を、{@link NyARBufferType#INT1D_BIN_8}形式で書込みます。
+	 * 画素毎の処理は、輝度の計算と{@link #_th_line}との比較だけです。
+	 * 敷居値は整数部だけを比べますが、Lは整数なので、固定小数点の敷居値と比べるのと同じ結果になります。
+	 */
+	private void makeBin8Line(Object i_in_buf,int i_y,int[] o_buf)
+	{
+		final int w=this._width;
+		final int[] line=this._th_line;
+		final int pt=i_y*w;
+		switch(this._in_raster_type){
+		case NyARBufferType.BYTE1D_B8G8R8_24:
+		case NyARBufferType.BYTE1D_R8G8B8_24:
+			{
+				final byte[] in_buf=(byte[])i_in_buf;
+				//3バイト毎の読出しと比較を1つのループにするとJITコンパイラの最適化が効かないので、
+				//輝度を8画素毎に展開したループで求めてから、敷居値と比べる
+				final int[] lum=this._lum_row;
+				int pt_src=pt*3;
+				final int pix_mod_part=w-(w%8);
+				int x;
+				for(x=0;x<pix_mod_part;x+=8){
+					lum[x+0]=(in_buf[pt_src+0]& 0xff)+(in_buf[pt_src+1]& 0xff)+(in_buf[pt_src+2]& 0xff);
+					lum[x+1]=(in_buf[pt_src+3]& 0xff)+(in_buf[pt_src+4]& 0xff)+(in_buf[pt_src+5]& 0xff);
+					lum[x+2]=(in_buf[pt_src+6]& 0xff)+(in_buf[pt_src+7]& 0xff)+(in_buf[pt_src+8]& 0xff);
+					lum[x+3]=(in_buf[pt_src+9]& 0xff)+(in_buf[pt_src+10]& 0xff)+(in_buf[pt_src+11]& 0xff);
+					lum[x+4]=(in_buf[pt_src+12]& 0xff)+(in_buf[pt_src+13]& 0xff)+(in_buf[pt_src+14]& 0xff);
+					lum[x+5]=(in_buf[pt_src+15]& 0xff)+(in_buf[pt_src+16]& 0xff)+(in_buf[pt_src+17]& 0xff);
+					lum[x+6]=(in_buf[pt_src+18]& 0xff)+(in_buf[pt_src+19]& 0xff)+(in_buf[pt_src+20]& 0xff);
+					lum[x+7]=(in_buf[pt_src+21]& 0xff)+(in_buf[pt_src+22]& 0xff)+(in_buf[pt_src+23]& 0xff);
+					pt_src+=24;
+				}
+				for(;x<w;x++){
+					lum[x]=(in_buf[pt_src]& 0xff)+(in_buf[pt_src+1]& 0xff)+(in_buf[pt_src+2]& 0xff);
+					pt_src+=3;
+				}
+				for(x=0;x<w;x++){
+					//L>thなら1
+					o_buf[pt+x]=(line[x]-lum[x])>>>31;
+				}
+			}
+			break;
+		case NyARBufferType.INT1D_X8R8G8B8_32:
+			{
+				final int[] in_buf=(int[])i_in_buf;
+				for(int x=0;x<w;x++){
+					final int v=in_buf[pt+x];
+					o_buf[pt+x]=(line[x]-(((v>>16)& 0xff)+((v>>8)& 0xff)+(v& 0xff)))>>>31;
+				}
+			}
+			break;
+		default:
+			{
+				final byte[] in_buf=(byte[])i_in_buf;
+				for(int x=0;x<w;x++){
+					o_buf[pt+x]=(line[x]-(in_buf[pt+x]& 0xff))>>>31;
+				}
+			}
+			break;
+		}
+	}
+	/**
+	 * i_y行を、{@link NyARBufferType#LONG1D_BIN_1}形式で書込みます。
+	 * 敷居値との比べ方は{@link #makeBin8Line}と同じです。64画素毎にワードを書込みます。
+	 */
+	private void makeBin1Line(Object i_in_buf,int i_y,long[] o_buf)
+	{
+		final int w=this._width;
+		final int[] line=this._th_line;
+		final int pt=i_y*w;
+		int idx=i_y*NyARBinRaster.getRowStride(w);
+		for(int x0=0;x0<w;x0+=64){
+			final int x1=x0+64<w?x0+64:w;
+			long bits=0;
+			switch(this._in_raster_type){
+			case NyARBufferType.BYTE1D_B8G8R8_24:
+			case NyARBufferType.BYTE1D_R8G8B8_24:
+				{
+					final byte[] in_buf=(byte[])i_in_buf;
+					int pt_src=(pt+x1-1)*3;
+					for(int x=x1-1;x>=x0;x--){
+						bits=(bits<<1)|((line[x]-((in_buf[pt_src+0]& 0xff)+(in_buf[pt_src+1]& 0xff)+(in_buf[pt_src+2]& 0xff)))>>>31);
+						pt_src-=3;
+					}
+				}
+				break;
+			case NyARBufferType.INT1D_X8R8G8B8_32:
+				{
+					final int[] in_buf=(int[])i_in_buf;
+					for(int x=x1-1;x>=x0;x--){
+						final int v=in_buf[pt+x];
+						bits=(bits<<1)|((line[x]-(((v>>16)& 0xff)+((v>>8)& 0xff)+(v& 0xff)))>>>31);
+					}
+				}
+				break;
+			default:
+				{
+					final byte[] in_buf=(byte[])i_in_buf;
+					for(int x=x1-1;x>=x0;x--){
+						bits=(bits<<1)|((line[x]-(in_buf[pt+x]& 0xff))>>>31);
+					}
+				}
+				break;
+			}
+			o_buf[idx++]=bits;
+		}
+	}
+}
@@ -46,6 +46,7 @@ import jp.nyatla.nyartoolkit.core.utils.*;
  * <li>{@link NyARBufferType#BYTE1D_B8G8R8_24}
  * <li>{@link NyARBufferType#BYTE1D_R8G8B8_24}
  * </ul>
+ * {@link NyARBufferType#BYTE1D_YUV420SP_NV21}は、サンプリングした画素だけをRGBに変換して読み出します。
  * </p>
  * <p>出力ラスタについて
  * 基本的には全ての{@link NyARBufferType#INT1D_X8R8G8B8_32}形式のバッファを持つラスタを使用してください。
@@ -82,6 +83,9 @@ public class NyARPerspectiveRasterReader
 		case NyARBufferType.BYTE1D_R8G8B8_24:
 			this._picker=new PPickup_Impl_BYTE1D_R8G8B8_24();
 			break;
+		case NyARBufferType.BYTE1D_YUV420SP_NV21:
+			this._picker=new PPickup_Impl_BYTE1D_YUV420SP_NV21();
+			break;
 		default:
 			this._picker=new PPickup_Impl_AnyRaster();
 			//低速インタフェイス警告。必要に応じて、高速取得系を実装してね
@@ -811,6 +815,195 @@ final class PPickup_Impl_BYTE1D_B8G8R8X8_32 implements IPickupRasterImpl
 	}
 }
 
+/** BYTE1D_YUV420SP_NV21形式のドライバ*/
+final class PPickup_Impl_BYTE1D_YUV420SP_NV21 implements IPickupRasterImpl
+{
+	private final int[] __rgb_tmp = new int[3];
+	public void onePixel(int pk_l,int pk_t,double[] cpara,INyARRgbRaster i_in_raster,INyARRgbRaster o_out)throws NyARException
+	{
+		assert(i_in_raster.isEqualBufferType(NyARBufferType.BYTE1D_YUV420SP_NV21));
+		//出力形式による分岐
+		switch(o_out.getBufferType())
+		{
+		case NyARBufferType.INT1D_X8R8G8B8_32:
+			onePixel_INT1D_X8R8G8B8_32(pk_l,pk_t,i_in_raster.getWidth(),i_in_raster.getHeight(),cpara,(byte[])i_in_raster.getBuffer(),o_out);
+			break;
+		default:
+			onePixel_ANY(pk_l,pk_t,i_in_raster.getWidth(),i_in_raster.getHeight(),cpara,(byte[])i_in_raster.getBuffer(),o_out);
+			break;
+		}
+		return;
+	}
+	public void multiPixel(int pk_l,int pk_t,double[] cpara,int i_resolution,INyARRgbRaster i_in_raster,INyARRgbRaster o_out)throws NyARException
+	{
+		assert(i_in_raster.isEqualBufferType(NyARBufferType.BYTE1D_YUV420SP_NV21));
+		//出力形式による分岐(分解能が高い時は大した差が出ないから、ANYだけ。)
+		multiPixel_ANY(pk_l,pk_t,i_in_raster.getWidth(),i_in_raster.getHeight(),i_resolution,cpara,(byte[])i_in_raster.getBuffer(),o_out);
+		return;
+	}
+	/**
+	 * (x,y)の画素をRGBに変換して、o_rgbへ格納します。
+	 */
+	private static void getRgb(int x,int y,int in_w,int uv_top,byte[] i_in_buf,int[] o_rgb)
+	{
+		final int uv=uv_top+(y>>1)*in_w+(x&0xfffffffe);
+		NyARRgbPixelReader_BYTE1D_YUV420SP_NV21.yuv2rgb(i_in_buf[x+y*in_w]&0xff,i_in_buf[uv+1]&0xff,i_in_buf[uv]&0xff,o_rgb,0);
+	}
+
+	private void onePixel_INT1D_X8R8G8B8_32(int pk_l,int pk_t,int in_w,int in_h,double[] cpara,byte[] i_in_buf,INyARRgbRaster o_out)throws NyARException
+	{
+		assert(o_out.isEqualBufferType(NyARBufferType.INT1D_X8R8G8B8_32));
+		final int[] rgb_tmp=this.__rgb_tmp;
+		final int uv_top=in_w*in_h;
+		int[] pat_data=(int[])o_out.getBuffer();
+		//ピクセルリーダーを取得
+		double cp0=cpara[0];
+		double cp3=cpara[3];
+		double cp6=cpara[6];
+		double cp1=cpara[1];
+		double cp4=cpara[4];
+		double cp7=cpara[7];
+
+		int out_w=o_out.getWidth();
+		int out_h=o_out.getHeight();
+		double cp7_cy_1  =cp7*pk_t+1.0+cp6*pk_l;
+		double cp1_cy_cp2=cp1*pk_t+cpara[2]+cp0*pk_l;
+		double cp4_cy_cp5=cp4*pk_t+cpara[5]+cp3*pk_l;
+		int p=0;
+		for(int iy=0;iy<out_h;iy++){
+			//解像度分の点を取る。
+			double cp7_cy_1_cp6_cx  =cp7_cy_1;
+			double cp1_cy_cp2_cp0_cx=cp1_cy_cp2;
+			double cp4_cy_cp5_cp3_cx=cp4_cy_cp5;
+
+			for(int ix=0;ix<out_w;ix++){
+				//1ピクセルを作成
+				final double d=1/(cp7_cy_1_cp6_cx);
+				int x=(int)((cp1_cy_cp2_cp0_cx)*d);
+				int y=(int)((cp4_cy_cp5_cp3_cx)*d);
+				if(x<0){x=0;}else if(x>=in_w){x=in_w-1;}
+				if(y<0){y=0;}else if(y>=in_h){y=in_h-1;}
+
+				getRgb(x,y,in_w,uv_top,i_in_buf,rgb_tmp);
+				cp7_cy_1_cp6_cx+=cp6;
+				cp1_cy_cp2_cp0_cx+=cp0;
+				cp4_cy_cp5_cp3_cx+=cp3;
+				pat_data[p]=(rgb_tmp[0]<<16)|(rgb_tmp[1]<<8)|((rgb_tmp[2]&0xff));
+				p++;
+			}
+			cp7_cy_1+=cp7;
+			cp1_cy_cp2+=cp1;
+			cp4_cy_cp5+=cp4;
+		}
+		return;
+	}
+	private void onePixel_ANY(int pk_l,int pk_t,int in_w,int in_h,double[] cpara,byte[] i_in_buf,INyARRgbRaster o_out)throws NyARException
+	{
+		final int[] rgb_tmp=this.__rgb_tmp;
+		final int uv_top=in_w*in_h;
+		INyARRgbPixelReader out_reader=o_out.getRgbPixelReader();
+
+		//ピクセルリーダーを取得
+		double cp0=cpara[0];
+		double cp3=cpara[3];
+		double cp6=cpara[6];
+		double cp1=cpara[1];
+		double cp4=cpara[4];
+		double cp7=cpara[7];
+
+		int out_w=o_out.getWidth();
+		int out_h=o_out.getHeight();
+		double cp7_cy_1  =cp7*pk_t+1.0+cp6*pk_l;
+		double cp1_cy_cp2=cp1*pk_t+cpara[2]+cp0*pk_l;
+		double cp4_cy_cp5=cp4*pk_t+cpara[5]+cp3*pk_l;
+		for(int iy=0;iy<out_h;iy++){
+			//解像度分の点を取る。
+			double cp7_cy_1_cp6_cx  =cp7_cy_1;
+			double cp1_cy_cp2_cp0_cx=cp1_cy_cp2;
+			double cp4_cy_cp5_cp3_cx=cp4_cy_cp5;
+
+			for(int ix=0;ix<out_w;ix++){
+				//1ピクセルを作成
+				final double d=1/(cp7_cy_1_cp6_cx);
+				int x=(int)((cp1_cy_cp2_cp0_cx)*d);
+				int y=(int)((cp4_cy_cp5_cp3_cx)*d);
+				if(x<0){x=0;}else if(x>=in_w){x=in_w-1;}
+				if(y<0){y=0;}else if(y>=in_h){y=in_h-1;}
+
+				getRgb(x,y,in_w,uv_top,i_in_buf,rgb_tmp);
+				cp7_cy_1_cp6_cx+=cp6;
+				cp1_cy_cp2_cp0_cx+=cp0;
+				cp4_cy_cp5_cp3_cx+=cp3;
+
+				out_reader.setPixel(ix,iy,rgb_tmp);
+			}
+			cp7_cy_1+=cp7;
+			cp1_cy_cp2+=cp1;
+			cp4_cy_cp5+=cp4;
+		}
+		return;
+	}
+	private void multiPixel_ANY(int pk_l,int pk_t,int in_w,int in_h,int i_resolution,double[] cpara,byte[] i_in_buf,INyARRgbRaster o_out)throws NyARException
+	{
+		final int res_pix=i_resolution*i_resolution;
+		final int[] rgb_tmp=this.__rgb_tmp;
+		final int uv_top=in_w*in_h;
+
+		INyARRgbPixelReader out_reader=o_out.getRgbPixelReader();
+
+		//ピクセルリーダーを取得
+		double cp0=cpara[0];
+		double cp3=cpara[3];
+		double cp6=cpara[6];
+		double cp1=cpara[1];
+		double cp4=cpara[4];
+		double cp7=cpara[7];
+		double cp2=cpara[2];
+		double cp5=cpara[5];
+
+		int out_w=o_out.getWidth();
+		int out_h=o_out.getHeight();
+		for(int iy=out_h-1;iy>=0;iy--){
+			//解像度分の点を取る。
+			for(int ix=out_w-1;ix>=0;ix--){
+				int r,g,b;
+				r=g=b=0;
+				int cy=pk_t+iy*i_resolution;
+				int cx=pk_l+ix*i_resolution;
+				double cp7_cy_1_cp6_cx_b  =cp7*cy+1.0+cp6*cx;
+				double cp1_cy_cp2_cp0_cx_b=cp1*cy+cp2+cp0*cx;
+				double cp4_cy_cp5_cp3_cx_b=cp4*cy+cp5+cp3*cx;
+				for(int i2y=i_resolution-1;i2y>=0;i2y--){
+					double cp7_cy_1_cp6_cx  =cp7_cy_1_cp6_cx_b;
+					double cp1_cy_cp2_cp0_cx=cp1_cy_cp2_cp0_cx_b;
+					double cp4_cy_cp5_cp3_cx=cp4_cy_cp5_cp3_cx_b;
+					for(int i2x=i_resolution-1;i2x>=0;i2x--){
+						//1ピクセルを作成
+						final double d=1/(cp7_cy_1_cp6_cx);
+						int x=(int)((cp1_cy_cp2_cp0_cx)*d);
+						int y=(int)((cp4_cy_cp5_cp3_cx)*d);
+						if(x<0){x=0;}else if(x>=in_w){x=in_w-1;}
+						if(y<0){y=0;}else if(y>=in_h){y=in_h-1;}
+
+						getRgb(x,y,in_w,uv_top,i_in_buf,rgb_tmp);
+						r+=rgb_tmp[0];
+						g+=rgb_tmp[1];
+						b+=rgb_tmp[2];
+						cp7_cy_1_cp6_cx+=cp6;
+						cp1_cy_cp2_cp0_cx+=cp0;
+						cp4_cy_cp5_cp3_cx+=cp3;
+					}
+					cp7_cy_1_cp6_cx_b+=cp7;
+					cp1_cy_cp2_cp0_cx_b+=cp1;
+					cp4_cy_cp5_cp3_cx_b+=cp4;
+				}
+				out_reader.setPixel(ix,iy,r/res_pix,g/res_pix,b/res_pix);
+			}
+		}
+		return;
+	}
+}
+
 /**
  * 全種類のNyARRasterを入力できるクラス
  */
@@ -0,0 +1,153 @@
+/* 
+ * PROJECT: NyARToolkit
+ * --------------------------------------------------------------------------------
+ * This work is based on the original ARToolKit developed by
+ *   Hirokazu Kato
+ *   Mark Billinghurst
+ *   HITLab, University of Washington, Seattle
+ * http://www.hitl.washington.edu/artoolkit/
+ *
+ * The NyARToolkit is Java edition ARToolKit class library.
+ * Copyright (C)2008-2009 Ryo Iizuka
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp> or <nyatla(at)nyatla.jp>
+ * 
+ */
+package jp.nyatla.nyartoolkit.core.rasterreader;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.types.NyARBufferType;
+import jp.nyatla.nyartoolkit.core.types.NyARIntSize;
+
+/**
+ * このクラスは、{@link NyARBufferType#BYTE1D_YUV420SP_NV21}形式のラスタバッファに対応する、ピクセルリーダです。
+ * Y面の後ろに、2x2画素で共有するV,Uの組が並んだ、AndroidカメラのプレビューフォーマットNV21を読み出します。
+ * RGB値は、読み出す画素だけをその場で変換します。
+ */
+final public class NyARRgbPixelReader_BYTE1D_YUV420SP_NV21 implements INyARRgbPixelReader
+{
+	/** 参照する外部バッファ*/
+	protected byte[] _ref_buf;
+
+	private NyARIntSize _size;
+	/**
+	 * コンストラクタです。
+	 * 参照するラスタのバッファとサイズを指定して、インスタンスを作成します。
+	 * @param i_buf
+	 * ラスタのバッファオブジェクトの参照値
+	 * @param i_size
+	 * ラスタのサイズオブジェクトの参照値。
+	 */
+	public NyARRgbPixelReader_BYTE1D_YUV420SP_NV21(byte[] i_buf, NyARIntSize i_size)
+	{
+		this._ref_buf = i_buf;
+		this._size = i_size;
+	}
+	/**
+	 * この関数は、1画素分のYUV値をRGB値に変換して、o_rgbのi_ptから格納します。
+	 * 変換式は、libyuv420sp2rgbと同じ固定小数点式です。
+	 * @param i_y
+	 * 輝度値(0-255)
+	 * @param i_u
+	 * 色差U(0-255)
+	 * @param i_v
+	 * 色差V(0-255)
+	 * @param o_rgb
+	 * 出力先の配列
+	 * @param i_pt
+	 * 出力先の位置
+	 */
+	public static void yuv2rgb(int i_y,int i_u,int i_v,int[] o_rgb,int i_pt)
+	{
+		int y=i_y-16;
+		final int u=i_u-128;
+		final int v=i_v-128;
+		if(y<0){
+			y=0;
+		}
+		y*=1192;
+		int r=y+1634*v;
+		int g=y-833*v-400*u;
+		int b=y+2066*u;
+		r=r<0?0:(r>262143?262143:r);
+		g=g<0?0:(g>262143?262143:g);
+		b=b<0?0:(b>262143?262143:b);
+		o_rgb[i_pt+0]=r>>10;
+		o_rgb[i_pt+1]=g>>10;
+		o_rgb[i_pt+2]=b>>10;
+	}
+	/**
+	 * この関数は、指定した座標の1ピクセル分のRGBデータを、配列に格納して返します。
+	 */
+	public void getPixel(int i_x, int i_y, int[] o_rgb)
+	{
+		final byte[] ref_buf = this._ref_buf;
+		final int w=this._size.w;
+		final int uv=w*this._size.h+(i_y>>1)*w+(i_x&0xfffffffe);
+		yuv2rgb(ref_buf[i_x+i_y*w]&0xff,ref_buf[uv+1]&0xff,ref_buf[uv]&0xff,o_rgb,0);
+		return;
+	}
+	/**
+	 * この関数は、座標群から、ピクセルごとのRGBデータを、配列に格納して返します。
+	 */
+	public void getPixelSet(int[] i_x, int[] i_y, int i_num, int[] o_rgb)
+	{
+		final byte[] ref_buf = this._ref_buf;
+		final int w=this._size.w;
+		final int uv_top=w*this._size.h;
+		for (int i = i_num - 1; i >= 0; i--) {
+			final int x=i_x[i];
+			final int y=i_y[i];
+			final int uv=uv_top+(y>>1)*w+(x&0xfffffffe);
+			yuv2rgb(ref_buf[x+y*w]&0xff,ref_buf[uv+1]&0xff,ref_buf[uv]&0xff,o_rgb,i*3);
+		}
+		return;
+	}
+	/**
+	 * この関数は、機能しません。
+	 * 色差成分は2x2画素で共有されているので、1画素単位の書込みはできません。
+	 */
+	public void setPixel(int i_x, int i_y, int[] i_rgb) throws NyARException
+	{
+		NyARException.notImplement();
+	}
+	/**
+	 * この関数は、機能しません。
+	 */
+	public void setPixel(int i_x, int i_y, int i_r,int i_g,int i_b) throws NyARException
+	{
+		NyARException.notImplement();
+	}
+	/**
+	 * この関数は、機能しません。
+	 */
+	public void setPixels(int[] i_x, int[] i_y, int i_num, int[] i_intrgb) throws NyARException
+	{
+		NyARException.notImplement();
+	}
+	/**
+	 * この関数は、参照しているバッファをi_ref_bufferへ切り替えます。
+	 * 通常は、このインスタンスを所有するクラスが使います。ユーザが使うことはありません。
+	 * 関数は、入力値のバッファサイズと、型だけを確認します。
+	 */
+	public void switchBuffer(Object i_ref_buffer) throws NyARException
+	{
+		assert(((byte[])i_ref_buffer).length>=this._size.w*this._size.h*3/2);
+		this._ref_buf=(byte[])i_ref_buffer;
+	}
+}
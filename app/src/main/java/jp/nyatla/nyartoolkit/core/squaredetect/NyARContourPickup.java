@@ -41,6 +41,7 @@ import jp.nyatla.nyartoolkit.core.types.*;
  * {@link NyARBinRaster}
  * <ul>
  * <li>{@link NyARBufferType#INT1D_BIN_8}
+ * <li>{@link NyARBufferType#LONG1D_BIN_1}
  * </ul>
  * {@link NyARGrayscaleRaster}
  * <ul>
@@ -75,8 +76,11 @@ public class NyARContourPickup
 	 */
 	public boolean getContour(NyARBinRaster i_raster,int i_entry_x,int i_entry_y,NyARIntCoordinates o_coord) throws NyARException
 	{
-		assert(i_raster.isEqualBufferType(NyARBufferType.INT1D_BIN_8));
 		NyARIntSize s=i_raster.getSize();
+		if(i_raster.isEqualBufferType(NyARBufferType.LONG1D_BIN_1)){
+			return impl_getContourPacked(i_raster,0,0,s.w-1,s.h-1,i_entry_x,i_entry_y,o_coord);
+		}
+		assert(i_raster.isEqualBufferType(NyARBufferType.INT1D_BIN_8));
 		return impl_getContour(i_raster,0,0,s.w-1,s.h-1,0,i_entry_x,i_entry_y,o_coord);
 	}
 	/**
@@ -99,6 +103,9 @@ public class NyARContourPickup
 	 */	
 	public boolean getContour(NyARBinRaster i_raster,NyARIntRect i_area,int i_entry_x,int i_entry_y,NyARIntCoordinates o_coord) throws NyARException
 	{
+		if(i_raster.isEqualBufferType(NyARBufferType.LONG1D_BIN_1)){
+			return impl_getContourPacked(i_raster,i_area.x,i_area.y,i_area.x+i_area.w-1,i_area.h+i_area.y-1,i_entry_x,i_entry_y,o_coord);
+		}
 		assert(i_raster.isEqualBufferType(NyARBufferType.INT1D_BIN_8));
 		return impl_getContour(i_raster,i_area.x,i_area.y,i_area.x+i_area.w-1,i_area.h+i_area.y-1,0,i_entry_x,i_entry_y,o_coord);
 	}
@@ -302,4 +309,119 @@ public class NyARContourPickup
 		}
 		return true;
 	}
+	/**
+	 * {@link NyARBufferType#LONG1D_BIN_1}形式のラスタ用の、輪郭線抽出関数の実体です。
+	 * 画素の読み方以外は{@link #impl_getContour}と同じです。
+	 * @param i_raster
+	 * @param i_l
+	 * @param i_t
+	 * @param i_r
+	 * @param i_b
+	 * @param i_entry_x
+	 * @param i_entry_y
+	 * @param o_coord
+	 * @return
+	 * @throws NyARException
+	 */
+	private boolean impl_getContourPacked(INyARRaster i_raster,int i_l,int i_t,int i_r,int i_b,int i_entry_x,int i_entry_y,NyARIntCoordinates o_coord) throws NyARException
+	{
+		NyARIntPoint2d[] coord=o_coord.items;
+		final int[] xdir = _getContour_xdir;
+		final int[] ydir = _getContour_ydir;
+
+		final long[] buf=(long[])i_raster.getBuffer();
+		final int stride=NyARBinRaster.getRowStride(i_raster.getWidth());
+
+		int max_coord=o_coord.items.length;
+		int coord_num = 1;
+		coord[0].x = i_entry_x;
+		coord[0].y = i_entry_y;
+		int dir = 5;
+
+		int c = i_entry_x;
+		int r = i_entry_y;
+		for (;;) {
+			dir = (dir + 5) % 8;//dirの正規化
+			int i;
+			if(c>i_l && c<i_r && r>i_t && r<i_b){
+				//境界に接していないとき(暗点判定)
+				for (i = 0; i < 8; i++){
+					final int x=c + xdir[dir];
+					if (((buf[(r + ydir[dir])*stride+(x>>6)]>>>(x&63))&1)==0) {
+						break;
+					}
+					dir++;
+				}
+			}else{
+				//境界に接しているとき
+				for (i = 0; i < 8; i++){
+					final int x=c + xdir[dir];
+					final int y=r + ydir[dir];
+					//境界チェック
+					if(x>=i_l && x<=i_r && y>=i_t && y<=i_b){
+						if (((buf[y*stride+(x>>6)]>>>(x&63))&1)==0) {
+							break;
+						}
+					}
+					dir++;//倍長テーブルを参照するので問題なし
+				}
+			}
+			if (i == 8) {
+				//8方向全て調べたけどラベルが無いよ？
+				throw new NyARException();
+			}
+
+			// xcoordとycoordをc,rにも保存
+			c = c + xdir[dir];
+			r = r + ydir[dir];
+			coord[coord_num].x = c;
+			coord[coord_num].y = r;
+			//終了条件判定
+			if (c == i_entry_x && r == i_entry_y){
+				//開始点と同じピクセルに到達したら、終点の可能性がある。
+				coord_num++;
+				//末端のチェック
+				if (coord_num == max_coord) {
+					//輪郭bufが末端に達した
+					return false;
+				}
+				//末端候補の次のピクセルを調べる
+				dir = (dir + 5) % 8;//dirの正規化
+				for (i = 0; i < 8; i++){
+					final int x=c + xdir[dir];
+					final int y=r + ydir[dir];
+					//境界チェック
+					if(x>=i_l && x<=i_r && y>=i_t && y<=i_b){
+						if (((buf[y*stride+(x>>6)]>>>(x&63))&1)==0) {
+							break;
+						}
+					}
+					dir++;//倍長テーブルを参照するので問題なし
+				}
+				if (i == 8) {
+					//8方向全て調べたけどラベルが無いよ？
+					throw new NyARException();
+				}
+				//得たピクセルが、[1]と同じならば、末端である。
+				c = c + xdir[dir];
+				r = r + ydir[dir];
+				if(coord[1].x ==c && coord[1].y ==r){
+					//終点に達している。
+					o_coord.length=coord_num;
+					break;
+				}else{
+					//終点ではない。
+					coord[coord_num].x = c;
+					coord[coord_num].y = r;
+				}
+			}
+			coord_num++;
+			//末端のチェック
+			if (coord_num == max_coord) {
+				//輪郭が末端に達した
+				return false;
+			}
+		}
+		return true;
+	}
 }
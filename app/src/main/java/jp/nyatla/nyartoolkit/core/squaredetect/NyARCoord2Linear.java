@@ -67,7 +67,8 @@ public class NyARCoord2Linear
 	public NyARCoord2Linear(NyARIntSize i_size,NyARCameraDistortionFactor i_distfactor)
 	{
 		if(i_distfactor!=null){
-			this._dist_factor = new NyARObserv2IdealMap(i_distfactor,i_size);
+			//変換テーブルは、同じパラメータの検出器の間で共有する。
+			this._dist_factor = NyARObserv2IdealMap.getInstance(i_distfactor,i_size);
 		}else{
 			this._dist_factor=null;
 		}
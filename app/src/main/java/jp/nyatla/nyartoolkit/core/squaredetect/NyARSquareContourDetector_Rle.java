@@ -30,6 +30,13 @@
  */
 package jp.nyatla.nyartoolkit.core.squaredetect;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 import jp.nyatla.nyartoolkit.NyARException;
 import jp.nyatla.nyartoolkit.core.labeling.NyARLabelOverlapChecker;
 import jp.nyatla.nyartoolkit.core.labeling.rlelabeling.*;
@@ -41,6 +48,12 @@ import jp.nyatla.nyartoolkit.core.types.*;
  * このクラスは、{@link NyARLabeling_Rle}クラスを用いた矩形検出器です。
  * 検出した矩形を、自己コールバック関数{@link #onSquareDetect}へ通知します。
  * 継承クラスで自己コールバック関数{@link #onSquareDetect}を実装する必要があります。
+ * <p>並列処理 -
+ * {@link #setParallelMode}でスレッドプールを設定すると、ラべリングを帯毎に並列に実行し、
+ * 輪郭線と頂点の検出も、ラベルを何個かずつまとめて並列に実行します。
+ * 重なりの判定と{@link #onSquareDetect}の呼び出しは、呼び出し元のスレッドで、逐次処理と同じ順番で行います。
+ * そのため、検出結果は逐次処理と同じになります。
+ * </p>
  */
 public abstract class NyARSquareContourDetector_Rle extends NyARSquareContourDetector
 {
@@ -48,6 +61,11 @@ public abstract class NyARSquareContourDetector_Rle extends NyARSquareContourDet
 	private class Labeling extends NyARLabeling_Rle
 	{
 		public NyARRleLabelFragmentInfoPtrStack label_stack;
+		private final int _width;
+		private final int _height;
+		/** ラべリングする範囲の辺。この辺に接するラベルは除外する。*/
+		int _left;
+		int _top;
 		int _right;
 		int _bottom;
 		
@@ -62,14 +80,24 @@ public abstract class NyARSquareContourDetector_Rle extends NyARSquareContourDet
 			int calced = (int)(wid_and_hei / def_wid_and_hei);
 
 			this.label_stack=new NyARRleLabelFragmentInfoPtrStack(calced * 2048+32);//検出可能な最大ラベル数
-			this._bottom=i_height-1;
-			this._right=i_width-1;
+			this._width=i_width;
+			this._height=i_height;
+			this.setBorder(0,0,i_width,i_height);
 			return;
 		}
+		private void setBorder(int i_left,int i_top,int i_width,int i_height)
+		{
+			this._left=i_left;
+			this._top=i_top;
+			this._right=i_left+i_width-1;
+			this._bottom=i_top+i_height-1;
+		}
 		public void labeling(NyARGrayscaleRaster i_raster,NyARIntRect i_area,int i_th) throws NyARException
 		{
 			//配列初期化
 			this.label_stack.clear();
+			//範囲の枠で除外するのは2値ラスタの範囲指定(トラッキング)だけ。こちらは従来通り画面の枠で除外する。
+			this.setBorder(0,0,this._width,this._height);
 			//ラベルの検出
 			super.labeling(i_raster, i_area, i_th);
 			//ソート
@@ -79,19 +107,30 @@ public abstract class NyARSquareContourDetector_Rle extends NyARSquareContourDet
 		{
 			//配列初期化
 			this.label_stack.clear();
+			this.setBorder(0,0,this._width,this._height);
 			//ラベルの検出
 			super.labeling(i_bin_raster);
 			//ソート
 			this.label_stack.sortByArea();			
 		}
+		public void labeling(NyARBinRaster i_bin_raster,NyARIntRect i_area) throws NyARException
+		{
+			//配列初期化
+			this.label_stack.clear();
+			this.setBorder(i_area.x,i_area.y,i_area.w,i_area.h);
+			//ラベルの検出
+			super.labeling(i_bin_raster,i_area);
+			//ソート
+			this.label_stack.sortByArea();
+		}
 		
 		protected void onLabelFound(NyARRleLabelFragmentInfo i_label)
 		{
-			// クリップ領域が画面の枠に接していれば除外
-			if (i_label.clip_l == 0 || i_label.clip_r == this._right){
+			// クリップ領域が検出範囲の枠に接していれば除外
+			if (i_label.clip_l == this._left || i_label.clip_r == this._right){
 				return;
 			}
-			if (i_label.clip_t == 0 || i_label.clip_b == this._bottom){
+			if (i_label.clip_t == this._top || i_label.clip_b == this._bottom){
 				return;
 			}
 			this.label_stack.push(i_label);
@@ -110,6 +149,56 @@ public abstract class NyARSquareContourDetector_Rle extends NyARSquareContourDet
 	private final NyARCoord2SquareVertexIndexes _coord2vertex=new NyARCoord2SquareVertexIndexes();
 	
 	private final NyARIntCoordinates _coord;
+
+	/** 1スレッドあたりの、一度に輪郭線を検出するラベル数*/
+	private static final int LABELS_PER_THREAD=4;
+	/** 輪郭線と頂点の検出処理。スレッド毎に1個。*/
+	private class ContourTask implements Callable<Object>
+	{
+		private final NyARContourPickup _pickup=new NyARContourPickup();
+		private final NyARCoord2SquareVertexIndexes _c2v=new NyARCoord2SquareVertexIndexes();
+		private final int _first;
+		public ContourTask(int i_first)
+		{
+			this._first=i_first;
+		}
+		public Object call() throws NyARException
+		{
+			final NyARSquareContourDetector_Rle p=NyARSquareContourDetector_Rle.this;
+			final int step=p._contour_tasks.size();
+			for(int i=this._first;i<p._batch_len;i+=step){
+				if(!p._batch_valid[i]){
+					continue;
+				}
+				final NyARRleLabelFragmentInfo label_pt=p._batch_labels[i];
+				final NyARIntCoordinates coord=p._batch_coord[i];
+				boolean ret;
+				if(p._batch_bin_raster!=null){
+					if(p._batch_area!=null){
+						ret=this._pickup.getContour(p._batch_bin_raster,p._batch_area,label_pt.entry_x,label_pt.clip_t,coord);
+					}else{
+						ret=this._pickup.getContour(p._batch_bin_raster,label_pt.entry_x,label_pt.clip_t,coord);
+					}
+				}else{
+					ret=this._pickup.getContour(p._batch_gs_raster,p._batch_area,p._batch_th,label_pt.entry_x,label_pt.clip_t,coord);
+				}
+				//輪郭線をチェックして、矩形かどうかを判定。矩形ならばmkvertexに取得
+				p._batch_valid[i]=ret && this._c2v.getVertexIndexes(coord,label_pt.area,p._batch_vertex[i]);
+			}
+			return null;
+		}
+	}
+	private ExecutorService _executor=null;
+	private List<ContourTask> _contour_tasks=null;
+	private NyARRleLabelFragmentInfo[] _batch_labels;
+	private NyARIntCoordinates[] _batch_coord;
+	private int[][] _batch_vertex;
+	private boolean[] _batch_valid;
+	private int _batch_len;
+	private NyARBinRaster _batch_bin_raster;
+	private NyARGrayscaleRaster _batch_gs_raster;
+	private NyARIntRect _batch_area;
+	private int _batch_th;
 	/**
 	 * コンストラクタです。
 	 * 入力画像のサイズを指定して、インスタンスを生成します。
@@ -133,6 +222,91 @@ public abstract class NyARSquareContourDetector_Rle extends NyARSquareContourDet
 		return;
 	}
 
+	/**
+	 * この関数は、並列処理のモードを設定します。
+	 * i_executorにnullを指定するか、i_number_of_threadが2未満の場合は、逐次処理になります。
+	 * スレッドプールの所有権は呼び出し側にあり、このクラスは停止しません。
+	 * @param i_executor
+	 * ラべリングと輪郭線の検出を実行するスレッドプール
+	 * @param i_number_of_thread
+	 * スレッドプールのスレッド数
+	 * @throws NyARException
+	 */
+	public void setParallelMode(ExecutorService i_executor,int i_number_of_thread) throws NyARException
+	{
+		this._labeling.setParallelMode(i_executor,i_number_of_thread);
+		if(i_executor==null || i_number_of_thread<2){
+			this._executor=null;
+			this._contour_tasks=null;
+			return;
+		}
+		final int batch=i_number_of_thread*LABELS_PER_THREAD;
+		final int number_of_coord = (this._width + this._height) * 2;
+		this._batch_labels=new NyARRleLabelFragmentInfo[batch];
+		this._batch_coord=new NyARIntCoordinates[batch];
+		this._batch_vertex=new int[batch][4];
+		this._batch_valid=new boolean[batch];
+		for(int i=0;i<batch;i++){
+			this._batch_coord[i]=new NyARIntCoordinates(number_of_coord);
+		}
+		this._contour_tasks=new ArrayList<ContourTask>(i_number_of_thread);
+		for(int i=0;i<i_number_of_thread;i++){
+			this._contour_tasks.add(new ContourTask(i));
+		}
+		this._executor=i_executor;
+		return;
+	}
+	/**
+	 * ソート済のラベルから、輪郭線と頂点の検出を並列に実行して、矩形を通知します。
+	 * 重なりチェックと通知の順番は逐次処理と同じです。
+	 */
+	private void detectSquareParallel(NyARRleLabelFragmentInfo[] i_labels,int i_label_num) throws NyARException
+	{
+		final NyARLabelOverlapChecker<NyARRleLabelFragmentInfo> overlap = this._overlap_checker;
+		final NyARRleLabelFragmentInfo[] batch_labels=this._batch_labels;
+		final boolean[] valid=this._batch_valid;
+		final int batch=batch_labels.length;
+		for(int st=0;st<i_label_num;st+=batch){
+			final int len=(i_label_num-st)<batch?(i_label_num-st):batch;
+			for(int i=0;i<len;i++){
+				batch_labels[i]=i_labels[st+i];
+				//既に検出された矩形と重なっているものは、輪郭を取らない。
+				valid[i]=overlap.check(batch_labels[i]);
+			}
+			this._batch_len=len;
+			try{
+				List<Future<Object>> futures=this._executor.invokeAll(this._contour_tasks);
+				for(int i=0;i<futures.size();i++){
+					futures.get(i).get();
+				}
+			}catch(InterruptedException e){
+				throw new NyARException(e);
+			}catch(ExecutionException e){
+				if(e.getCause() instanceof NyARException){
+					throw (NyARException)e.getCause();
+				}
+				throw new NyARException(e);
+			}
+			for(int i=0;i<len;i++){
+				if(!valid[i]){
+					continue;
+				}
+				// 同じまとまりの中で先に検出された矩形との重なりを確認
+				if (!overlap.check(batch_labels[i])) {
+					continue;
+				}
+				//矩形を発見したことをコールバック関数で通知
+				this.onSquareDetect(this._batch_coord[i],this._batch_vertex[i]);
+				// 検出済の矩形の属したラベルを重なりチェックに追加する。
+				overlap.push(batch_labels[i]);
+			}
+		}
+		this._batch_bin_raster=null;
+		this._batch_gs_raster=null;
+		this._batch_area=null;
+		return;
+	}
+
 	private final int[] __detectMarker_mkvertex = new int[4];
 	/**
 	 * この関数は、ラスタから矩形を検出して、自己コールバック関数{@link #onSquareDetect}で通知します。
@@ -169,6 +343,13 @@ public abstract class NyARSquareContourDetector_Rle extends NyARSquareContourDet
 		//重なりチェッカの最大数を設定
 		overlap.setMaxLabels(label_num);
 
+		if(this._executor!=null){
+			this._batch_gs_raster=i_raster;
+			this._batch_area=i_area;
+			this._batch_th=i_th;
+			this.detectSquareParallel(labels,label_num);
+			return;
+		}
 		for (int i=0; i < label_num; i++) {
 			NyARRleLabelFragmentInfo label_pt=labels[i];
 			// 既に検出された矩形との重なりを確認
@@ -225,6 +406,11 @@ public abstract class NyARSquareContourDetector_Rle extends NyARSquareContourDet
 		//重なりチェッカの最大数を設定
 		overlap.setMaxLabels(label_num);
 
+		if(this._executor!=null){
+			this._batch_bin_raster=i_raster;
+			this.detectSquareParallel(labels,label_num);
+			return;
+		}
 		for (int i=0; i < label_num; i++) {
 			final NyARRleLabelFragmentInfo label_pt=labels[i];
 			int label_area = label_pt.area;
@@ -253,6 +439,65 @@ public abstract class NyARSquareContourDetector_Rle extends NyARSquareContourDet
 		}
 		return;
 	}
+	/**
+	 * この関数は、2値ラスタの指定範囲から矩形を検出して、自己コールバック関数{@link #onSquareDetect}で通知します。
+	 * 範囲の外側の画素は読みません。範囲の枠に接するラベルは、画面の枠に接するラベルと同じように除外します。
+	 * @param i_raster
+	 * 検出元の2値ラスタ画像。範囲の内側が2値化されている必要があります。
+	 * @param i_area
+	 * 検出する範囲。検出元のラスタの内側である必要があります。
+	 * @throws NyARException
+	 */
+	public void detectMarker(NyARBinRaster i_raster,NyARIntRect i_area) throws NyARException
+	{
+		assert(i_area.w*i_area.h>0);
+
+		final NyARRleLabelFragmentInfoPtrStack flagment=this._labeling.label_stack;
+		final NyARLabelOverlapChecker<NyARRleLabelFragmentInfo> overlap = this._overlap_checker;
+
+		// ラベル数が0ならここまで
+		this._labeling.labeling(i_raster,i_area);
+		final int label_num=flagment.getLength();
+		if (label_num < 1) {
+			return;
+		}
+		//ラベルリストを取得
+		NyARRleLabelFragmentInfo[] labels=flagment.getArray();
+
+		NyARIntCoordinates coord = this._coord;
+		final int[] mkvertex =this.__detectMarker_mkvertex;
+
+		//重なりチェッカの最大数を設定
+		overlap.setMaxLabels(label_num);
+
+		if(this._executor!=null){
+			this._batch_bin_raster=i_raster;
+			this._batch_area=i_area;
+			this.detectSquareParallel(labels,label_num);
+			return;
+		}
+		for (int i=0; i < label_num; i++) {
+			final NyARRleLabelFragmentInfo label_pt=labels[i];
+			// 既に検出された矩形との重なりを確認
+			if (!overlap.check(label_pt)) {
+				continue;
+			}
+			//輪郭を取得
+			if(!this._cpickup.getContour(i_raster,i_area,label_pt.entry_x,label_pt.clip_t,coord)){
+				continue;
+			}
+			//輪郭線をチェックして、矩形かどうかを判定。矩形ならばmkvertexに取得
+			if (!this._coord2vertex.getVertexIndexes(coord,label_pt.area, mkvertex)) {
+				continue;
+			}
+			//矩形を発見したことをコールバック関数で通知
+			this.onSquareDetect(coord,mkvertex);
+
+			// 検出済の矩形の属したラベルを重なりチェックに追加する。
+			overlap.push(label_pt);
+		}
+		return;
+	}
 	/**
 	 * デバック用API
 	 * @return
@@ -40,8 +40,8 @@ import jp.nyatla.nyartoolkit.core.raster.*;
  * <table>
  * <tr><td>ビットイールド(ビット幅)</td><td>カテゴリ</td><td>備考</td></tr>
  * <tr><td>24-31(8)</td><td>予約</td><td></td></tr>
- * <tr><td>16-27(8)</td><td>型ID</td><td>00:無効/01:byte[]/02:int[][]/03:short[]</td></tr>
- * <tr><td>08-15(8)</td><td>ビットフォーマットID</td><td>00:24bit/01:32bit/02:16bit</td></tr>
+ * <tr><td>16-27(8)</td><td>型ID</td><td>00:無効/01:byte[]/02:int[][]/03:short[]/04:int[]/05:long[]</td></tr>
+ * <tr><td>08-15(8)</td><td>ビットフォーマットID</td><td>00:24bit/01:32bit/02:16bit/03:YUV</td></tr>
  * <tr><td>00-07(8)</td><td>型番号</td><td></td></tr>
  * </table>
  * </pre>
@@ -52,6 +52,7 @@ public class NyARBufferType
 	private static final int T_INT2D  =0x00020000;
 	private static final int T_SHORT1D=0x00030000;
 	private static final int T_INT1D  =0x00040000;
+	private static final int T_LONG1D =0x00050000;
 	private static final int T_OBJECT =0x00100000;
 	private static final int T_USER   =0x00FF0000;
 	//
@@ -92,6 +93,10 @@ public class NyARBufferType
 	/**　RGB形式。byte[2]で、RGB565の16ビット(big endian)の画素形式。
 	 */
     public static final int BYTE1D_R5G6B5_16BE = T_BYTE1D|0x0202;
+	/**　YUV形式。byte[w*h*3/2]で、8bitのY面の後に2x2画素で共有するV8U8を並べた画素形式(YUV420SP/NV21)。
+	 * Androidカメラのプレビュー画像の標準形式です。
+	 */
+	public static final int BYTE1D_YUV420SP_NV21 = T_BYTE1D|0x0301;
 	/**　RGB形式。short[1]で、RGB565の16ビット(little endian)の画素形式。
 	 */	
     public static final int WORD1D_R5G6B5_16LE = T_SHORT1D|0x0201;
@@ -135,6 +140,16 @@ public class NyARBufferType
 	/** HSV形式。int[1]で、H:9bit(0-359),S:8bit(0-255),V(0-255)の画素形式
 	 */
 	public static final int INT1D_X7H9S8V8_32=T_INT1D|0x0103;
+
+	//
+	//long[]形式
+	//
+
+	/** 二値形式。long[1]に64画素を詰めた1bit/画素の2値画像。
+	 * 画素xはlong[(x>>6)]の(x&63)ビット目(LSBが左端)で、1が明、0が暗です。
+	 * 1行は{@link NyARBinRaster#getRowStride}個のlongで、行末の余りビットは0です。
+	 */
+	public static final int LONG1D_BIN_1 = T_LONG1D|0x0002;
     
 	//
 	//プラットフォーム固有形式
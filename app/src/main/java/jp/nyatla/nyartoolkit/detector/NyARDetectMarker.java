@@ -32,8 +32,14 @@ package jp.nyatla.nyartoolkit.detector;
 
 import android.util.Log;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 import jp.nyatla.nyartoolkit.NyARException;
 import jp.nyatla.nyartoolkit.core.*;
+import jp.nyatla.nyartoolkit.core.analyzer.histogram.*;
+import jp.nyatla.nyartoolkit.core.analyzer.raster.NyARRasterAnalyzer_Histogram;
 import jp.nyatla.nyartoolkit.core.match.*;
 import jp.nyatla.nyartoolkit.core.param.NyARParam;
 import jp.nyatla.nyartoolkit.core.pickup.*;
@@ -130,9 +136,13 @@ public class NyARDetectMarker
 			square_index=0;
 			direction=mr.direction;
 			confidence=mr.confidence;
-			//2番目以降
+			//2番目以降。それまでの最良の一致度に届かないパターンは、計算を打ち切る。
+			//方位が決まらない場合は、同じ一致度の後のパターンが選ばれるので打ち切らない。
 			for(int i=1;i<this._match_patt.length;i++){
-				this._match_patt[i].evaluate(this._deviation_data,mr);
+				final double min_confidence=(direction==NyARMatchPattResult.DIRECTION_UNKNOWN)?Double.NEGATIVE_INFINITY:confidence;
+				if(!this._match_patt[i].evaluate(this._deviation_data,min_confidence,mr)){
+					continue;
+				}
 				if (confidence > mr.confidence) {
 					continue;
 				}
@@ -172,6 +182,14 @@ public class NyARDetectMarker
 	private boolean _is_continue = false;
 	private RleDetector _square_detect;
 	private NyARRectOffset[] _offset;	
+	/** マーカパターン毎の姿勢の履歴。インデクスはarcode_id。*/
+	private NyARDetectMarkerPoseHistory[] _pose_history;
+	/** {@link #detectMarkerLite}を呼び出した回数。姿勢の履歴の新しさを調べるのに使う。*/
+	private int _frame_id=0;
+	/** 姿勢の履歴を捨てるまでの、見失ったフレーム数*/
+	private int _pose_reset_frames=DEFAULT_POSE_RESET_FRAMES;
+	/** 姿勢の履歴を捨てるまでの、見失ったフレーム数の初期値*/
+	public static final int DEFAULT_POSE_RESET_FRAMES=3;
 
 	/**
 	 * コンストラクタです。
@@ -196,6 +214,25 @@ public class NyARDetectMarker
 		initInstance(i_param,i_code,i_marker_width,i_number_of_code,i_input_raster_type);
 		return;
 	}
+	/**
+	 * コンストラクタです。
+	 * マーカパターンライブラリにある全てのパターンを検出する検出器を作成します。
+	 * @param i_param
+	 * カメラパラメータを指定します。このサイズは、{@link #detectMarkerLite}に入力する画像と同じである必要があります。
+	 * @param i_library
+	 * 検出するマーカーパターンを格納した、{@link NyARCodeLibrary}を指定します。
+	 * ライブラリのID番号が、{@link #getARCodeIndex}で取得できるID値になります。
+	 * @param i_marker_width
+	 * 正方形マーカの物理サイズをmm単位で指定します。ライブラリのパターン数以上の要素が必要です。
+	 * @param i_input_raster_type
+	 * {@link #detectMarkerLite}に入力するラスタの画素形式を指定します。
+	 * @throws NyARException
+	 */
+	public NyARDetectMarker(NyARParam i_param,NyARCodeLibrary i_library,double[] i_marker_width,int i_input_raster_type) throws NyARException
+	{
+		initInstance(i_param,i_library.refCodes(),i_marker_width,i_library.getNumberOfCode(),i_input_raster_type);
+		return;
+	}
 	/**
 	 * この関数は、インスタンスを初期化します。
 	 * コンストラクタから呼び出します。
@@ -226,23 +263,125 @@ public class NyARDetectMarker
 		final int ch = i_ref_code[0].getHeight();
 
 		this._transmat = new NyARTransMat(i_ref_param);
+		this._input_raster_type=i_input_raster_type;
 		//NyARToolkitプロファイル
 		this._square_detect =new RleDetector(new NyARColorPatt_Perspective_O2(cw, ch,4,25,i_input_raster_type),i_ref_code,i_number_of_code,i_ref_param);
-		this._tobin_filter=new NyARRasterFilter_ARToolkitThreshold(100,i_input_raster_type);
+		//２値画像はLONG1D_BIN_1で持つ。フィルタが出力できない入力形式の場合はINT1D_BIN_8にする。
+		int bin_type=NyARBufferType.LONG1D_BIN_1;
+		try{
+			this._th_filter=new NyARRasterFilter_ARToolkitThreshold(100,i_input_raster_type,bin_type);
+		}catch(NyARException e){
+			bin_type=NyARBufferType.INT1D_BIN_8;
+			this._th_filter=new NyARRasterFilter_ARToolkitThreshold(100,i_input_raster_type,bin_type);
+		}
+		this._tobin_filter=this._th_filter;
 
 		//実サイズ保存
 		this._offset = NyARRectOffset.createArray(i_number_of_code);
+		this._pose_history=new NyARDetectMarkerPoseHistory[i_number_of_code];
 		for(int i=0;i<i_number_of_code;i++){
 			this._offset[i].setSquare(i_marker_width[i]);
+			this._pose_history[i]=new NyARDetectMarkerPoseHistory();
 		}
 		//２値画像バッファを作る
-		this._bin_raster=new NyARBinRaster(scr_size.w,scr_size.h);
+		this._bin_raster=new NyARBinRaster(scr_size.w,scr_size.h,bin_type,true);
 		return;		
 	}
 	
 	private NyARBinRaster _bin_raster;
 
 	private INyARRasterFilter_Rgb2Bin _tobin_filter;
+	/** 敷居値を指定する2値化フィルタ。{@link #setBinarizeFilter}を使わない場合は、これで2値化する。*/
+	private NyARRasterFilter_ARToolkitThreshold _th_filter;
+
+	/**
+	 * この関数は、2値化に使うフィルタを設定します。
+	 * {@link NyARRasterFilter_AdaptiveThreshold}のような、画像から敷居値を決めるフィルタを使うときに指定します。
+	 * そのようなフィルタでは、{@link #detectMarkerLite}の敷居値は無視されます。
+	 * フィルタは、{@link NyARBufferType#INT1D_BIN_8}と{@link NyARBufferType#LONG1D_BIN_1}の両方に出力できる必要があります。
+	 * @param i_filter
+	 * 2値化フィルタ。nullの場合は、ARToolKit互換の固定敷居値フィルタに戻します。
+	 */
+	public void setBinarizeFilter(INyARRasterFilter_Rgb2Bin i_filter)
+	{
+		this._tobin_filter=i_filter!=null?i_filter:this._th_filter;
+	}
+
+	/** 入力ラスタの画素形式*/
+	private int _input_raster_type;
+	/** 自動敷居値の設定。敷居値を自動で決めない時は、_th_analyzerがnull*/
+	private INyARHistogramAnalyzer_Threshold _th_analyzer=null;
+	private NyARRasterAnalyzer_Histogram _histogram_analyzer=null;
+	private final NyARHistogram _histogram=new NyARHistogram(256);
+	private double _th_smoothing;
+	/** 平滑化した敷居値。負の値なら、まだ計算していない。*/
+	private double _th_smoothed=-1;
+	/** 最後に二値化に使った敷居値*/
+	private int _last_threshold=100;
+
+	/**
+	 * この関数は、自動敷居値モードを設定します。
+	 * 自動敷居値モードでは、{@link #detectMarkerLite(INyARRgbRaster)}が、フレーム毎に間引いた画素のヒストグラムから敷居値を1つ決めて、
+	 * 1回だけ検出を行います。敷居値は、前のフレームの値と指数平滑して、急に変わらないようにします。
+	 * @param i_analyzer
+	 * ヒストグラムから敷居値を求めるクラス。{@link NyARHistogramAnalyzer_SlidePTile},{@link NyARHistogramAnalyzer_DiscriminantThreshold},
+	 * {@link NyARHistogramAnalyzer_KittlerThreshold}などが使えます。nullの場合、自動敷居値モードを解除します。
+	 * @param i_interval
+	 * ヒストグラムを計算する画素の間隔。縦方向と横方向に、この間隔で間引きます。
+	 * 横方向の間引きは、入力が{@link NyARBufferType#BYTE1D_YUV420SP_NV21}の時だけ有効です。
+	 * @param i_smoothing
+	 * 前のフレームの敷居値の重み。0以上1未満で指定します。0なら平滑化しません。
+	 * @throws NyARException
+	 * 入力ラスタの画素形式が、ヒストグラムの計算に対応していない場合。
+	 */
+	public void setAutoThreshold(INyARHistogramAnalyzer_Threshold i_analyzer,int i_interval,double i_smoothing) throws NyARException
+	{
+		assert(i_interval>0 && 0<=i_smoothing && i_smoothing<1.0);
+		if(i_analyzer==null){
+			this._th_analyzer=null;
+			this._histogram_analyzer=null;
+			return;
+		}
+		this._histogram_analyzer=new NyARRasterAnalyzer_Histogram(this._input_raster_type,i_interval);
+		this._histogram_analyzer.setHorizontalInterval(i_interval);
+		this._th_analyzer=i_analyzer;
+		this._th_smoothing=i_smoothing;
+		this._th_smoothed=-1;
+	}
+	/**
+	 * この関数は、最後に二値化に使った敷居値を返します。
+	 * @return
+	 * 0～255の敷居値
+	 */
+	public int getLastThreshold()
+	{
+		return this._last_threshold;
+	}
+	/**
+	 * この関数は、画像からマーカを検出します。
+	 * {@link #setAutoThreshold}で自動敷居値モードを設定していれば、敷居値を画像から決めます。
+	 * 設定していなければ、前回の敷居値(初期値は100)を使います。
+	 * @param i_raster
+	 * マーカーを検出するイメージを指定します。
+	 * @return
+	 * 検出したマーカーの数を返します。 マーカーが見つからない場合は0を返します。
+	 * @throws NyARException
+	 */
+	public int detectMarkerLite(INyARRgbRaster i_raster) throws NyARException
+	{
+		int th=this._last_threshold;
+		if(this._th_analyzer!=null){
+			this._histogram_analyzer.analyzeRaster(i_raster,this._histogram);
+			final int new_th=this._th_analyzer.getThreshold(this._histogram);
+			if(this._th_smoothed<0){
+				this._th_smoothed=new_th;
+			}else{
+				this._th_smoothed=this._th_smoothed*this._th_smoothing+new_th*(1.0-this._th_smoothing);
+			}
+			th=(int)(this._th_smoothed+0.5);
+		}
+		return this.detectMarkerLite(i_raster,th);
+	}
 
 	/**
 	 * この関数は、画像からマーカを検出します。
@@ -261,40 +400,220 @@ public class NyARDetectMarker
 		if (!this._bin_raster.getSize().isEqualSize(i_raster.getSize())) {
 			throw new NyARException();
 		}
+		this._last_threshold=i_threshold;
+		this._th_filter.setThreshold(i_threshold);
+		this._frame_id++;
+		final RleDetector detect=this._square_detect;
+
+		//追跡モードなら、前回の矩形の周辺だけを探索する。
+		if(this._number_of_roi>0 && this._frames_from_full_search<this._full_search_interval){
+			this._frames_from_full_search++;
+			detect.init(i_raster);
+			if(this._tobin_filter!=this._th_filter){
+				//範囲を指定できないフィルタは、全画面を２値化する。
+				this._tobin_filter.doFilter(i_raster, this._bin_raster);
+			}
+			for(int i=0;i<this._number_of_roi;i++){
+				final NyARIntRect roi=this._roi[i];
+				if(this._tobin_filter==this._th_filter){
+					this._th_filter.doFilter(i_raster,roi,this._bin_raster);
+				}
+				detect.detectMarker(this._bin_raster,roi);
+			}
+			if(this.countTrackable()>=this._number_of_tracked){
+				this.updateRoi();
+				return detect.result_stack.getLength();
+			}
+			//見失ったマーカがあるので、このフレームで全画面を探索しなおす。
+		}
+		this._frames_from_full_search=1;
 
 		// ラスタを２値イメージに変換する.
-		((NyARRasterFilter_ARToolkitThreshold)this._tobin_filter).setThreshold(i_threshold);
 		this._tobin_filter.doFilter(i_raster, this._bin_raster);
 
 		//detect
-		this._square_detect.init(i_raster);
-		this._square_detect.detectMarker(this._bin_raster);
+		detect.init(i_raster);
+		detect.detectMarker(this._bin_raster);
+		this.updateRoi();
 
 		//見付かった数を返す。
-		return this._square_detect.result_stack.getLength();
+		return detect.result_stack.getLength();
+	}
+	/** 追跡する範囲の最大数*/
+	private static final int ROI_MAX=8;
+	/** 全画面を探索する間隔。1以下なら追跡モードを使わない。*/
+	private int _full_search_interval=0;
+	/** 追跡する範囲の余白。矩形の外接矩形の長辺に対する割合。*/
+	private double _roi_margin;
+	/** 追跡するマーカの最小の一致度*/
+	private double _roi_min_confidence;
+	private int _frames_from_full_search=0;
+	/** 前回のフレームで検出したマーカの数*/
+	private int _number_of_tracked=0;
+	private final NyARIntRect[] _roi=new NyARIntRect[ROI_MAX];
+	private int _number_of_roi=0;
+	
+	/**
+	 * この関数は、追跡モードを設定します。
+	 * 追跡モードでは、前のフレームで検出した矩形の外接矩形に余白を加えた範囲だけを、２値化してラべリングします。
+	 * 全画面の探索は、i_full_search_intervalフレームに1回と、追跡中のマーカを見失ったときに行います。
+	 * 追跡中に新しく画面に入ったマーカは、次の全画面の探索で見付かります。
+	 * 追跡するのは一致度がi_min_confidence以上のマーカだけです。追跡するマーカが多すぎる場合は、全画面の探索を続けます。
+	 * @param i_full_search_interval
+	 * 全画面を探索する間隔のフレーム数。1以下を指定すると、追跡モードを解除して毎フレーム全画面を探索します。
+	 * @param i_margin
+	 * 前のフレームの矩形から広げる余白です。外接矩形の長辺に対する割合で指定します。0.25なら、長辺の1/4だけ上下左右に広げます。
+	 * @param i_min_confidence
+	 * 追跡するマーカの最小の一致度です。これより一致度の低い矩形は、追跡にも見失った判定にも使いません。
+	 */
+	public void setTrackingMode(int i_full_search_interval,double i_margin,double i_min_confidence)
+	{
+		assert(i_margin>=0);
+		this._full_search_interval=i_full_search_interval;
+		this._roi_margin=i_margin;
+		this._roi_min_confidence=i_min_confidence;
+		this._frames_from_full_search=0;
+		this._number_of_roi=0;
+		for(int i=0;i<ROI_MAX;i++){
+			if(this._roi[i]==null){
+				this._roi[i]=new NyARIntRect();
+			}
+		}
+	}
+	/**
+	 * 検出結果のうち、追跡する一致度のマーカの数を返します。
+	 */
+	private int countTrackable()
+	{
+		final NyARDetectMarkerResultStack results=this._square_detect.result_stack;
+		int n=0;
+		for(int i=results.getLength()-1;i>=0;i--){
+			if(results.getItem(i).confidence>=this._roi_min_confidence){
+				n++;
+			}
+		}
+		return n;
+	}
+	/**
+	 * 検出結果から、次のフレームで探索する範囲を作ります。
+	 * 重なる範囲は1つにまとめます。
+	 */
+	private void updateRoi()
+	{
+		final NyARDetectMarkerResultStack results=this._square_detect.result_stack;
+		final int num=this.countTrackable();
+		this._number_of_tracked=num;
+		this._number_of_roi=0;
+		if(this._full_search_interval<2 || num<1 || num>ROI_MAX){
+			return;
+		}
+		final NyARIntSize s=this._bin_raster.getSize();
+		final NyARIntRect[] roi=this._roi;
+		int n=0;
+		for(int i=results.getLength()-1;i>=0;i--){
+			final NyARDetectMarkerResult result=results.getItem(i);
+			if(result.confidence<this._roi_min_confidence){
+				continue;
+			}
+			final NyARIntRect r=roi[n];
+			r.setAreaRect(result.square.sqvertex,4);
+			final int m=(int)((r.w>r.h?r.w:r.h)*this._roi_margin)+1;
+			r.x-=m;
+			r.y-=m;
+			r.w+=m*2;
+			r.h+=m*2;
+			r.clip(0,0,s.w-1,s.h-1);
+			if(r.w<1 || r.h<1){
+				continue;
+			}
+			n++;
+		}
+		//重なる範囲をまとめる。
+		for(int i=0;i<n;i++){
+			for(int j=i+1;j<n;j++){
+				final NyARIntRect a=roi[i];
+				final NyARIntRect b=roi[j];
+				if(a.x+a.w<=b.x || b.x+b.w<=a.x || a.y+a.h<=b.y || b.y+b.h<=a.y){
+					continue;
+				}
+				final int l=a.x<b.x?a.x:b.x;
+				final int t=a.y<b.y?a.y:b.y;
+				final int r=(a.x+a.w>b.x+b.w)?a.x+a.w:b.x+b.w;
+				final int btm=(a.y+a.h>b.y+b.h)?a.y+a.h:b.y+b.h;
+				a.x=l;
+				a.y=t;
+				a.w=r-l;
+				a.h=btm-t;
+				//jを末尾と入れ替えて、iを最初から調べなおす。
+				n--;
+				roi[j]=roi[n];
+				roi[n]=b;
+				j=i;
+			}
+		}
+		this._number_of_roi=n;
 	}
 
 	/**
 	 * この関数は、i_index番目に検出したマーカの、変換行列を計算します。
 	 * 直前に実行した{@link #detectMarkerLite}が成功していないと使えません。
+	 * 計算した変換行列は、マーカのID番号毎に履歴として保存します。
+	 * continueモードでは、同じID番号のマーカの前回の変換行列を初期値に使います。
 	 * @param i_index
 	 * 検出結果のインデックス番号を指定します。 
 	 * この値は、0から{@link #detectMarkerLite}関数の戻り値-1の数です。
 	 * @param o_result
-	 * 結果値を受け取るオブジェクト
+	 * 結果値を受け取るオブジェクト。前回の値は使いません。
 	 * @throws NyARException
 	 */
 	public void getTransmationMatrix(int i_index, NyARTransMatResult o_result) throws NyARException
 	{
 		final NyARDetectMarkerResult result = this._square_detect.result_stack.getItem(i_index);
+		final NyARDetectMarkerPoseHistory history=this._pose_history[result.arcode_id];
+		//見失っていた期間が長ければ、履歴を捨てる。
+		if(this._frame_id-history.last_frame-1>this._pose_reset_frames){
+			history.pose.has_value=false;
+			history.age=0;
+		}
 		// 一番一致したマーカーの位置とかその辺を計算
 		if (_is_continue) {
-			_transmat.transMatContinue(result.square, this._offset[result.arcode_id], o_result,o_result);
+			_transmat.transMatContinue(result.square, this._offset[result.arcode_id], history.pose,o_result);
 		} else {
 			_transmat.transMat(result.square, this._offset[result.arcode_id], o_result);
 		}
+		//履歴を更新
+		if(history.last_frame!=this._frame_id){
+			history.age=(history.last_frame==this._frame_id-1)?history.age+1:1;
+			history.last_frame=this._frame_id;
+		}
+		history.pose.setValue(o_result);
+		history.pose.last_error=o_result.last_error;
+		history.pose.has_value=o_result.has_value;
 		return;
 	}
+	/**
+	 * この関数は、ID番号のマーカの変換行列を、続けて計算したフレーム数を返します。
+	 * {@link #getTransmationMatrix}で変換行列を計算したフレームを数えます。
+	 * @param i_arcode_id
+	 * マーカパターンのID番号
+	 * @return
+	 * 続けて計算したフレーム数。最後に計算したフレームが前回のフレームより古い場合も、その時点の値を返します。
+	 */
+	public int getPoseAge(int i_arcode_id)
+	{
+		return this._pose_history[i_arcode_id].age;
+	}
+	/**
+	 * この関数は、ID番号のマーカの変換行列を、最後に計算してから経過したフレーム数を返します。
+	 * @param i_arcode_id
+	 * マーカパターンのID番号
+	 * @return
+	 * 今回のフレームで計算していれば0です。一度も計算していなければ、{@link #detectMarkerLite}を呼び出した回数です。
+	 */
+	public int getLostFrames(int i_arcode_id)
+	{
+		return this._frame_id-this._pose_history[i_arcode_id].last_frame;
+	}
 
 	/**
 	 * この関数は、i_index番目に検出したマーカの、一致度を返します。
@@ -332,6 +651,7 @@ public class NyARDetectMarker
 	 * transMatCont互換の計算は、姿勢の初期値に前回の結果を流用します。このモードは、姿勢の安定したマーカに対しては
 	 * ジッタの減少や負荷減少などの効果がありますが、姿勢の安定しないマーカや複数のマーカを使用する環境では、
 	 * 少量の負荷変動があります。
+	 * 前回の結果は、マーカのID番号毎に保存した履歴を使います。
 	 * @param i_is_continue
 	 * TRUEなら、transMatCont互換の計算をします。 FALSEなら、transMat互換の計算をします。
 	 */
@@ -339,6 +659,61 @@ public class NyARDetectMarker
 	{
 		this._is_continue = i_is_continue;
 	}
+	/**
+	 * この関数は、変換行列の計算モードを切り替えて、姿勢の履歴を捨てるまでのフレーム数を設定します。
+	 * @param i_is_continue
+	 * {@link #setContinueMode(boolean)}を参照してください。
+	 * @param i_reset_frames
+	 * マーカを続けてこのフレーム数より多く見失ったら、そのマーカの履歴を捨てて、次は二次元座標から姿勢を計算しなおします。
+	 * 初期値は{@link #DEFAULT_POSE_RESET_FRAMES}です。
+	 */
+	public void setContinueMode(boolean i_is_continue,int i_reset_frames)
+	{
+		assert(i_reset_frames>=0);
+		this._is_continue = i_is_continue;
+		this._pose_reset_frames=i_reset_frames;
+	}
+
+	/** 並列処理用のスレッドプール。逐次処理の時はnull*/
+	private ExecutorService _executor=null;
+	/**
+	 * この関数は、矩形検出の並列処理モードを切り替えます。
+	 * 2以上を指定すると、その数のスレッドを持つスレッドプールを作り、ラべリングと輪郭線の検出を並列に実行します。
+	 * 検出結果は逐次処理と同じです。
+	 * 1以下を指定すると、スレッドプールを停止して逐次処理に戻します。
+	 * @param i_number_of_thread
+	 * 使用するスレッド数
+	 * @throws NyARException
+	 */
+	public void setParallelMode(int i_number_of_thread) throws NyARException
+	{
+		if(this._executor!=null){
+			this._executor.shutdown();
+			this._executor=null;
+		}
+		if(i_number_of_thread<2){
+			this._square_detect.setParallelMode(null,0);
+			return;
+		}
+		this._executor=Executors.newFixedThreadPool(i_number_of_thread,new ThreadFactory(){
+			public Thread newThread(Runnable r)
+			{
+				Thread t=new Thread(r,"NyARDetectMarker");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._square_detect.setParallelMode(this._executor,i_number_of_thread);
+	}
+	/**
+	 * この関数は、並列処理モードのスレッドプールを停止します。
+	 * インスタンスを使い終わったら呼び出してください。逐次処理の時は何もしません。
+	 * @throws NyARException
+	 */
+	public void release() throws NyARException
+	{
+		this.setParallelMode(0);
+	}
 }
 
 /** 内部クラスです。ユーザが使用することはありません*/
@@ -351,6 +726,17 @@ class NyARDetectMarkerResult
 }
 
 
+/** 内部クラスです。ユーザが使用することはありません*/
+class NyARDetectMarkerPoseHistory
+{
+	/** 最後に計算した変換行列*/
+	public final NyARTransMatResult pose=new NyARTransMatResult();
+	/** 続けて変換行列を計算したフレーム数*/
+	public int age=0;
+	/** 最後に変換行列を計算したフレームの番号*/
+	public int last_frame=0;
+}
+
 /** 内部クラスです。ユーザが使用することはありません*/
 class NyARDetectMarkerResultStack extends NyARObjectStack<NyARDetectMarkerResult>
 {
@@ -33,6 +33,7 @@ import jp.nyatla.nyartoolkit.core.pickup.*;
 import jp.nyatla.nyartoolkit.core.raster.*;
 import jp.nyatla.nyartoolkit.core.raster.rgb.*;
 import jp.nyatla.nyartoolkit.core.transmat.*;
+import jp.nyatla.nyartoolkit.core.rasterfilter.rgb2bin.INyARRasterFilter_Rgb2Bin;
 import jp.nyatla.nyartoolkit.core.rasterfilter.rgb2bin.NyARRasterFilter_ARToolkitThreshold;
 import jp.nyatla.nyartoolkit.core.types.*;
 import jp.nyatla.nyartoolkit.core.squaredetect.*;
@@ -215,6 +216,8 @@ public abstract class SingleARMarkerProcesser
 	private NyARBinRaster _bin_raster;
 
 	private NyARRasterFilter_ARToolkitThreshold _tobin_filter;
+	/** {@link #setBinarizeFilter}で設定した2値化フィルタ。nullなら_tobin_filterを使う。*/
+	private INyARRasterFilter_Rgb2Bin _user_filter=null;
 
 	protected int _current_arcode_index = -1;
 
@@ -260,6 +263,19 @@ public abstract class SingleARMarkerProcesser
 		return;
 	}
 
+	/**
+	 * この関数は、2値化に使うフィルタを設定します。
+	 * {@link jp.nyatla.nyartoolkit.core.rasterfilter.rgb2bin.NyARRasterFilter_AdaptiveThreshold}のような、
+	 * 画像から敷居値を決めるフィルタを使うときに指定します。フィルタを設定している間は、敷居値のフィードバックを行いません。
+	 * フィルタは、{@link jp.nyatla.nyartoolkit.core.types.NyARBufferType#INT1D_BIN_8}に出力できる必要があります。
+	 * @param i_filter
+	 * 2値化フィルタ。nullの場合は、ARToolKit互換の固定敷居値フィルタに戻します。
+	 */
+	public void setBinarizeFilter(INyARRasterFilter_Rgb2Bin i_filter)
+	{
+		this._user_filter=i_filter;
+	}
+
 	/*自動・手動の設定が出来ないので、コメントアウト
 	public void setThreshold(int i_threshold)
 	{
@@ -291,6 +307,21 @@ public abstract class SingleARMarkerProcesser
 		this._offset.setSquare(i_marker_width);
 		return;
 	}
+	/**
+	 * この関数は、マーカパターンライブラリの全てのパターンを、検出するマーカパターンテーブルにします。
+	 * ID番号は、ライブラリのID番号と同じです。
+	 * @param i_library
+	 * マーカパターンライブラリ。パターンの縦横解像度は同じである必要があります。
+	 * @param i_marker_width
+	 * マーカの物理サイズ(mm)
+	 * @see #setARCodeTable(NyARCode[], int, double)
+	 */
+	public void setARCodeTable(NyARCodeLibrary i_library, double i_marker_width)
+	{
+		assert(i_library.getWidth()==i_library.getHeight());
+		setARCodeTable(i_library.refCodes(),i_library.getWidth(),i_marker_width);
+		return;
+	}
 	/**
 	 * この関数は、インスタンスの状態をリセットします。
 	 * 状態をリセットすると、もしマーカを認識している場合には、{@link #onLeaveHandler}イベントハンドラがコールされ、未認識状態になります。
@@ -321,8 +352,12 @@ public abstract class SingleARMarkerProcesser
 		assert(this._bin_raster.getSize().isEqualSize(i_raster.getSize().w, i_raster.getSize().h));
 
 		//BINイメージへの変換
-		this._tobin_filter.setThreshold(this._threshold);
-		this._tobin_filter.doFilter(i_raster, this._bin_raster);
+		if(this._user_filter!=null){
+			this._user_filter.doFilter(i_raster, this._bin_raster);
+		}else{
+			this._tobin_filter.setThreshold(this._threshold);
+			this._tobin_filter.doFilter(i_raster, this._bin_raster);
+		}
 
 		// スクエアコードを探す
 		this._detectmarker.init(i_raster,this._current_arcode_index);
@@ -331,7 +366,7 @@ public abstract class SingleARMarkerProcesser
 		// 認識状態を更新
 		final boolean is_id_found=this.updateStatus(this._detectmarker.square,this._detectmarker.code_index);
 		//閾値フィードバック(detectExistMarkerにもあるよ)
-		if(!is_id_found){
+		if(!is_id_found && this._user_filter==null){
 			//マーカがなければ、探索+DualPTailで基準輝度検索
 			int th=this._threshold_detect.analyzeRaster(i_raster);
 			this._threshold=(this._threshold+th)/2;
@@ -19,6 +19,11 @@ public class AnimationObject3d extends Object3d {
 	private int loopStartIndex;
 	private boolean loop = false;
 
+	// Interpolation scratch, allocated on first update() and reused afterwards
+	private float[] interpolatedVerts;
+	private float[] interpolatedNormals;
+	private float[] interpolationScratch;
+
 	public AnimationObject3d(int $maxVertices, int $maxFaces, int $numFrames) {
 		super($maxVertices, $maxFaces);
 		this.numFrames = $numFrames;
@@ -101,28 +106,28 @@ public class AnimationObject3d extends Object3d {
 			return;
 		}
 		
-		float[] currentVerts = currentFrame.getVertices();
-		float[] nextVerts = nextFrame.getVertices();
-		float[] currentNormals = currentFrame.getNormals();
-		float[] nextNormals = nextFrame.getNormals();
-		int numVerts = currentVerts.length;
+		int numVerts = currentFrame.size();
 		
-		float[] interPolatedVerts = new float[numVerts];
-		float[] interPolatedNormals = new float[numVerts];
-
-		for (int i = 0; i < numVerts; i += 3) {
-			interPolatedVerts[i] = currentVerts[i] + interpolation * (nextVerts[i] - currentVerts[i]);
-			interPolatedVerts[i + 1] = currentVerts[i + 1] + interpolation * (nextVerts[i + 1] - currentVerts[i + 1]);
-			interPolatedVerts[i + 2] = currentVerts[i + 2] + interpolation 	* (nextVerts[i + 2] - currentVerts[i + 2]);
-			interPolatedNormals[i] = currentNormals[i] + interpolation * (nextNormals[i] - currentNormals[i]);
-			interPolatedNormals[i + 1] = currentNormals[i + 1] + interpolation * (nextNormals[i + 1] - currentNormals[i + 1]);
-			interPolatedNormals[i + 2] = currentNormals[i + 2] + interpolation * (nextNormals[i + 2] - currentNormals[i + 2]);
+		if (interpolatedVerts == null || interpolatedVerts.length != numVerts) {
+			interpolatedVerts = new float[numVerts];
+			interpolatedNormals = new float[numVerts];
+		}
+		if (currentFrame.isQuantized() && (interpolationScratch == null
+				|| interpolationScratch.length < currentFrame.getNumVertices() * 3)) {
+			interpolationScratch = new float[currentFrame.getNumVertices() * 3];
 		}
+		// Quantized frames are dequantized here, only for the two frames involved
+		boolean hasNormals = currentFrame.isQuantized()
+				|| (currentFrame.getNormals() != null && nextFrame.getNormals() != null);
+		KeyFrame.interpolate(currentFrame, nextFrame, interpolation,
+				interpolatedVerts, hasNormals ? interpolatedNormals : null, interpolationScratch);
 
 		interpolation += fps * (currentTime - startTime) / 1000;
 		
-		vertices().overwriteNormals(interPolatedNormals);
-		vertices().overwriteVerts(interPolatedVerts);
+		// Bulk put into the existing direct buffers; much cheaper than per-element put()
+		if (hasNormals)
+			vertices().overwriteNormals(interpolatedNormals);
+		vertices().overwriteVerts(interpolatedVerts);
 	
 		if (interpolation > 1) {
 			interpolation = 0;
@@ -8,6 +8,13 @@ public class KeyFrame {
 	private float[] normals;
 
 	private int[] indices;
+
+	// Quantized (MD2) storage: per vertex 3 position bytes and 1 MD2Normals index,
+	// dequantized as scale * (byte & 0xff) + translate
+	private byte[] positions;
+	private byte[] normalIndices;
+	private float[] scale;
+	private float[] translate;
 	
 	public KeyFrame(String name, float[] vertices)
 	{
@@ -20,12 +27,57 @@ public class KeyFrame {
 		this(name, vertices);
 		this.normals = normals;
 	}
+
+	/**
+	 * Keyframe kept in MD2's native quantized form.
+	 * $positions holds x, y, z bytes per vertex, $normalIndices one MD2Normals index per vertex.
+	 * The arrays are kept by reference and never modified.
+	 */
+	public KeyFrame(String name, byte[] positions, byte[] normalIndices, float[] scale, float[] translate)
+	{
+		this.name = name;
+		this.positions = positions;
+		this.normalIndices = normalIndices;
+		this.scale = scale;
+		this.translate = translate;
+	}
+	
+	public boolean isQuantized() {
+		return positions != null;
+	}
+	
+	/**
+	 * Number of indexed vertices (before de-indexing)
+	 */
+	public int getNumVertices() {
+		if (positions != null)
+			return normalIndices.length;
+		return vertices.length / 3;
+	}
+	
+	/**
+	 * Number of floats in the (de-indexed) vertex and normal arrays of this frame
+	 */
+	public int size() {
+		if (positions != null)
+			return indices != null ? indices.length * 3 : positions.length;
+		return vertices.length;
+	}
 	
 	public String getName() {
 		return name;
 	}
 
+	/**
+	 * For quantized frames this dequantizes into a new array on every call;
+	 * use interpolate() to animate.
+	 */
 	public float[] getVertices() {
+		if (positions != null) {
+			float[] v = new float[size()];
+			interpolate(this, this, 0, v, null);
+			return v;
+		}
 		return vertices;
 	}
 
@@ -33,12 +85,46 @@ public class KeyFrame {
 		return indices;
 	}
 
+	/**
+	 * Quantized storage (null for float frames); the arrays must not be modified
+	 */
+	public byte[] getPositions() {
+		return positions;
+	}
+
+	public byte[] getNormalIndices() {
+		return normalIndices;
+	}
+
+	public float[] getScale() {
+		return scale;
+	}
+
+	public float[] getTranslate() {
+		return translate;
+	}
+
+	/**
+	 * For quantized frames this dequantizes into a new array on every call;
+	 * use interpolate() to animate.
+	 */
 	public float[] getNormals() {
+		if (positions != null) {
+			float[] n = new float[size()];
+			interpolate(this, this, 0, null, n);
+			return n;
+		}
 		return normals;
 	}
 	
+	/**
+	 * Quantized frames only keep a reference to the (shared) index array.
+	 * Float frames are de-indexed and get flat face normals.
+	 */
 	public void setIndices(int[] indices) {
 		this.indices = indices;
+		if (positions != null)
+			return;
 		float[] compressed = vertices;
 		vertices = new float[indices.length*3];
 		int len = indices.length;
@@ -76,6 +162,109 @@ public class KeyFrame {
 		}
 	}
 	
+	/**
+	 * Writes the vertices and normals of frame $a blended towards frame $b by $t into
+	 * $outVerts and $outNormals (either may be null), each of length a.size().
+	 * Quantized frames are dequantized on the fly; both frames must use the same storage.
+	 */
+	public static void interpolate(KeyFrame a, KeyFrame b, float t, float[] outVerts, float[] outNormals)
+	{
+		interpolate(a, b, t, outVerts, outNormals, null);
+	}
+	
+	/**
+	 * Same as interpolate() above. With a $scratch array of at least a.getNumVertices() * 3
+	 * floats, quantized frames are blended once per indexed vertex and then expanded
+	 * through the index array, instead of once per triangle corner.
+	 */
+	public static void interpolate(KeyFrame a, KeyFrame b, float t, float[] outVerts, float[] outNormals, float[] scratch)
+	{
+		if (a.positions == null) {
+			float[] av = a.vertices;
+			float[] bv = b.vertices;
+			float[] an = a.normals;
+			float[] bn = b.normals;
+			int len = av.length;
+			if (outVerts != null) {
+				for (int i = 0; i < len; i++)
+					outVerts[i] = av[i] + t * (bv[i] - av[i]);
+			}
+			if (outNormals != null && an != null && bn != null) {
+				for (int i = 0; i < len; i++)
+					outNormals[i] = an[i] + t * (bn[i] - an[i]);
+			}
+			return;
+		}
+		
+		final int[] idx = a.indices;
+		final int numVerts = a.normalIndices.length;
+		
+		if (idx == null || scratch == null || scratch.length < numVerts * 3) {
+			// Per output vertex
+			if (outVerts != null)
+				blendPositions(a, b, t, idx, idx != null ? idx.length : numVerts, outVerts);
+			if (outNormals != null)
+				blendNormals(a, b, t, idx, idx != null ? idx.length : numVerts, outNormals);
+			return;
+		}
+		
+		if (outVerts != null) {
+			blendPositions(a, b, t, null, numVerts, scratch);
+			expand(scratch, idx, outVerts);
+		}
+		if (outNormals != null) {
+			blendNormals(a, b, t, null, numVerts, scratch);
+			expand(scratch, idx, outNormals);
+		}
+	}
+	
+	private static void blendPositions(KeyFrame a, KeyFrame b, float t, int[] idx, int count, float[] out)
+	{
+		final byte[] ap = a.positions;
+		final byte[] bp = b.positions;
+		final float asx = a.scale[0], asy = a.scale[1], asz = a.scale[2];
+		final float atx = a.translate[0], aty = a.translate[1], atz = a.translate[2];
+		final float bsx = b.scale[0], bsy = b.scale[1], bsz = b.scale[2];
+		final float btx = b.translate[0], bty = b.translate[1], btz = b.translate[2];
+		int o = 0;
+		for (int i = 0; i < count; i++) {
+			int v = (idx != null ? idx[i] : i) * 3;
+			float ax = asx * (ap[v] & 0xff) + atx;
+			float ay = asy * (ap[v + 1] & 0xff) + aty;
+			float az = asz * (ap[v + 2] & 0xff) + atz;
+			out[o++] = ax + t * (bsx * (bp[v] & 0xff) + btx - ax);
+			out[o++] = ay + t * (bsy * (bp[v + 1] & 0xff) + bty - ay);
+			out[o++] = az + t * (bsz * (bp[v + 2] & 0xff) + btz - az);
+		}
+	}
+	
+	private static void blendNormals(KeyFrame a, KeyFrame b, float t, int[] idx, int count, float[] out)
+	{
+		final float[] table = MD2Normals.NORMALS;
+		final byte[] an = a.normalIndices;
+		final byte[] bn = b.normalIndices;
+		int o = 0;
+		for (int i = 0; i < count; i++) {
+			int v = idx != null ? idx[i] : i;
+			int na = (an[v] & 0xff) * 3;
+			int nb = (bn[v] & 0xff) * 3;
+			out[o++] = table[na] + t * (table[nb] - table[na]);
+			out[o++] = table[na + 1] + t * (table[nb + 1] - table[na + 1]);
+			out[o++] = table[na + 2] + t * (table[nb + 2] - table[na + 2]);
+		}
+	}
+	
+	private static void expand(float[] src, int[] idx, float[] out)
+	{
+		int o = 0;
+		for (int i = 0; i < idx.length; i++) {
+			int v = idx[i] * 3;
+			out[o++] = src[v];
+			out[o++] = src[v + 1];
+			out[o++] = src[v + 2];
+		}
+	}
+	
 	public Number3d calculateFaceNormal(Number3d v1, Number3d v2, Number3d v3)
 	{
 		Number3d vector1 = Number3d.subtract(v2, v1);
@@ -97,6 +286,12 @@ public class KeyFrame {
 	
 	public KeyFrame clone()
 	{
+		if (positions != null) {
+			// Quantized data is never modified, so it can be shared
+			KeyFrame q = new KeyFrame(name, positions, normalIndices, scale, translate);
+			q.indices = indices;
+			return q;
+		}
 		KeyFrame k = new KeyFrame(name, vertices.clone(), normals.clone());
 		return k;
 	}
@@ -0,0 +1,181 @@
+package min3d.animation;
+
+/**
+ * The 162 precalculated vertex normals of the Quake II MD2 format (anorms.h).
+ * MD2 frames store one byte per vertex that indexes into this table.
+ */
+public class MD2Normals
+{
+	/**
+	 * Number of entries in the table
+	 */
+	public static final int NUM_NORMALS = 162;
+
+	/**
+	 * x, y, z of normal i at [i*3], [i*3+1], [i*3+2]
+	 */
+	public static final float[] NORMALS = {
+		-0.525731f, 0.000000f, 0.850651f,
+		-0.442863f, 0.238856f, 0.864188f,
+		-0.295242f, 0.000000f, 0.955423f,
+		-0.309017f, 0.500000f, 0.809017f,
+		-0.162460f, 0.262866f, 0.951056f,
+		0.000000f, 0.000000f, 1.000000f,
+		0.000000f, 0.850651f, 0.525731f,
+		-0.147621f, 0.716567f, 0.681718f,
+		0.147621f, 0.716567f, 0.681718f,
+		0.000000f, 0.525731f, 0.850651f,
+		0.309017f, 0.500000f, 0.809017f,
+		0.525731f, 0.000000f, 0.850651f,
+		0.295242f, 0.000000f, 0.955423f,
+		0.442863f, 0.238856f, 0.864188f,
+		0.162460f, 0.262866f, 0.951056f,
+		-0.681718f, 0.147621f, 0.716567f,
+		-0.809017f, 0.309017f, 0.500000f,
+		-0.587785f, 0.425325f, 0.688191f,
+		-0.850651f, 0.525731f, 0.000000f,
+		-0.864188f, 0.442863f, 0.238856f,
+		-0.716567f, 0.681718f, 0.147621f,
+		-0.688191f, 0.587785f, 0.425325f,
+		-0.500000f, 0.809017f, 0.309017f,
+		-0.238856f, 0.864188f, 0.442863f,
+		-0.425325f, 0.688191f, 0.587785f,
+		-0.716567f, 0.681718f, -0.147621f,
+		-0.500000f, 0.809017f, -0.309017f,
+		-0.525731f, 0.850651f, 0.000000f,
+		0.000000f, 0.850651f, -0.525731f,
+		-0.238856f, 0.864188f, -0.442863f,
+		0.000000f, 0.955423f, -0.295242f,
+		-0.262866f, 0.951056f, -0.162460f,
+		0.000000f, 1.000000f, 0.000000f,
+		0.000000f, 0.955423f, 0.295242f,
+		-0.262866f, 0.951056f, 0.162460f,
+		0.238856f, 0.864188f, 0.442863f,
+		0.262866f, 0.951056f, 0.162460f,
+		0.500000f, 0.809017f, 0.309017f,
+		0.238856f, 0.864188f, -0.442863f,
+		0.262866f, 0.951056f, -0.162460f,
+		0.500000f, 0.809017f, -0.309017f,
+		0.850651f, 0.525731f, 0.000000f,
+		0.716567f, 0.681718f, 0.147621f,
+		0.716567f, 0.681718f, -0.147621f,
+		0.525731f, 0.850651f, 0.000000f,
+		0.425325f, 0.688191f, 0.587785f,
+		0.864188f, 0.442863f, 0.238856f,
+		0.688191f, 0.587785f, 0.425325f,
+		0.809017f, 0.309017f, 0.500000f,
+		0.681718f, 0.147621f, 0.716567f,
+		0.587785f, 0.425325f, 0.688191f,
+		0.955423f, 0.295242f, 0.000000f,
+		1.000000f, 0.000000f, 0.000000f,
+		0.951056f, 0.162460f, 0.262866f,
+		0.850651f, -0.525731f, 0.000000f,
+		0.955423f, -0.295242f, 0.000000f,
+		0.864188f, -0.442863f, 0.238856f,
+		0.951056f, -0.162460f, 0.262866f,
+		0.809017f, -0.309017f, 0.500000f,
+		0.681718f, -0.147621f, 0.716567f,
+		0.850651f, 0.000000f, 0.525731f,
+		0.864188f, 0.442863f, -0.238856f,
+		0.809017f, 0.309017f, -0.500000f,
+		0.951056f, 0.162460f, -0.262866f,
+		0.525731f, 0.000000f, -0.850651f,
+		0.681718f, 0.147621f, -0.716567f,
+		0.681718f, -0.147621f, -0.716567f,
+		0.850651f, 0.000000f, -0.525731f,
+		0.809017f, -0.309017f, -0.500000f,
+		0.864188f, -0.442863f, -0.238856f,
+		0.951056f, -0.162460f, -0.262866f,
+		0.147621f, 0.716567f, -0.681718f,
+		0.309017f, 0.500000f, -0.809017f,
+		0.425325f, 0.688191f, -0.587785f,
+		0.442863f, 0.238856f, -0.864188f,
+		0.587785f, 0.425325f, -0.688191f,
+		0.688191f, 0.587785f, -0.425325f,
+		-0.147621f, 0.716567f, -0.681718f,
+		-0.309017f, 0.500000f, -0.809017f,
+		0.000000f, 0.525731f, -0.850651f,
+		-0.525731f, 0.000000f, -0.850651f,
+		-0.442863f, 0.238856f, -0.864188f,
+		-0.295242f, 0.000000f, -0.955423f,
+		-0.162460f, 0.262866f, -0.951056f,
+		0.000000f, 0.000000f, -1.000000f,
+		0.295242f, 0.000000f, -0.955423f,
+		0.162460f, 0.262866f, -0.951056f,
+		-0.442863f, -0.238856f, -0.864188f,
+		-0.309017f, -0.500000f, -0.809017f,
+		-0.162460f, -0.262866f, -0.951056f,
+		0.000000f, -0.850651f, -0.525731f,
+		-0.147621f, -0.716567f, -0.681718f,
+		0.147621f, -0.716567f, -0.681718f,
+		0.000000f, -0.525731f, -0.850651f,
+		0.309017f, -0.500000f, -0.809017f,
+		0.442863f, -0.238856f, -0.864188f,
+		0.162460f, -0.262866f, -0.951056f,
+		0.238856f, -0.864188f, -0.442863f,
+		0.500000f, -0.809017f, -0.309017f,
+		0.425325f, -0.688191f, -0.587785f,
+		0.716567f, -0.681718f, -0.147621f,
+		0.688191f, -0.587785f, -0.425325f,
+		0.587785f, -0.425325f, -0.688191f,
+		0.000000f, -0.955423f, -0.295242f,
+		0.000000f, -1.000000f, 0.000000f,
+		0.262866f, -0.951056f, -0.162460f,
+		0.000000f, -0.850651f, 0.525731f,
+		0.000000f, -0.955423f, 0.295242f,
+		0.238856f, -0.864188f, 0.442863f,
+		0.262866f, -0.951056f, 0.162460f,
+		0.500000f, -0.809017f, 0.309017f,
+		0.716567f, -0.681718f, 0.147621f,
+		0.525731f, -0.850651f, 0.000000f,
+		-0.238856f, -0.864188f, -0.442863f,
+		-0.500000f, -0.809017f, -0.309017f,
+		-0.262866f, -0.951056f, -0.162460f,
+		-0.850651f, -0.525731f, 0.000000f,
+		-0.716567f, -0.681718f, -0.147621f,
+		-0.716567f, -0.681718f, 0.147621f,
+		-0.525731f, -0.850651f, 0.000000f,
+		-0.500000f, -0.809017f, 0.309017f,
+		-0.238856f, -0.864188f, 0.442863f,
+		-0.262866f, -0.951056f, 0.162460f,
+		-0.864188f, -0.442863f, 0.238856f,
+		-0.809017f, -0.309017f, 0.500000f,
+		-0.688191f, -0.587785f, 0.425325f,
+		-0.681718f, -0.147621f, 0.716567f,
+		-0.442863f, -0.238856f, 0.864188f,
+		-0.587785f, -0.425325f, 0.688191f,
+		-0.309017f, -0.500000f, 0.809017f,
+		-0.147621f, -0.716567f, 0.681718f,
+		-0.425325f, -0.688191f, 0.587785f,
+		-0.162460f, -0.262866f, 0.951056f,
+		0.442863f, -0.238856f, 0.864188f,
+		0.162460f, -0.262866f, 0.951056f,
+		0.309017f, -0.500000f, 0.809017f,
+		0.147621f, -0.716567f, 0.681718f,
+		0.000000f, -0.525731f, 0.850651f,
+		0.425325f, -0.688191f, 0.587785f,
+		0.587785f, -0.425325f, 0.688191f,
+		0.688191f, -0.587785f, 0.425325f,
+		-0.955423f, 0.295242f, 0.000000f,
+		-0.951056f, 0.162460f, 0.262866f,
+		-1.000000f, 0.000000f, 0.000000f,
+		-0.850651f, 0.000000f, 0.525731f,
+		-0.955423f, -0.295242f, 0.000000f,
+		-0.951056f, -0.162460f, 0.262866f,
+		-0.864188f, 0.442863f, -0.238856f,
+		-0.951056f, 0.162460f, -0.262866f,
+		-0.809017f, 0.309017f, -0.500000f,
+		-0.864188f, -0.442863f, -0.238856f,
+		-0.951056f, -0.162460f, -0.262866f,
+		-0.809017f, -0.309017f, -0.500000f,
+		-0.681718f, 0.147621f, -0.716567f,
+		-0.681718f, -0.147621f, -0.716567f,
+		-0.850651f, 0.000000f, -0.525731f,
+		-0.688191f, 0.587785f, -0.425325f,
+		-0.587785f, 0.425325f, -0.688191f,
+		-0.425325f, 0.688191f, -0.587785f,
+		-0.425325f, -0.688191f, -0.587785f,
+		-0.587785f, -0.425325f, -0.688191f,
+		-0.688191f, -0.587785f, -0.425325f
+	};
+}
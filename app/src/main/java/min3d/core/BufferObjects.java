@@ -0,0 +1,42 @@
+package min3d.core;
+
+/**
+ * GL buffer object names for a set of vertex lists (or for a face list),
+ * and how many elements each one currently has room for on the GPU.
+ * Created and updated by Renderer.
+ */
+class BufferObjects /*package-private*/
+{
+	// Slots used for Vertices
+	static final int POINTS = 0;
+	static final int UVS = 1;
+	static final int NORMALS = 2;
+	static final int COLORS = 3;
+	static final int NUM_VERTEX_SLOTS = 4;
+
+	// Slot used for FacesBufferedList
+	static final int FACES = 0;
+
+	/**
+	 * GL buffer names, one per slot
+	 */
+	final int[] ids;
+
+	/**
+	 * Number of elements allocated with glBufferData(), per slot
+	 */
+	final int[] allocatedElements;
+
+	/**
+	 * Renderer context the names belong to; they are invalid in any other
+	 */
+	final int contextId;
+
+
+	BufferObjects(int $numSlots, int $contextId)
+	{
+		ids = new int[$numSlots];
+		allocatedElements = new int[$numSlots];
+		contextId = $contextId;
+	}
+}
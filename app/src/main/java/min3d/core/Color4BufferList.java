@@ -13,12 +13,16 @@ public class Color4BufferList
 
 	private ByteBuffer _b;
 	private int _numElements;
+
+	// Elements changed since the buffer object was last updated
+	private final DirtyRange _dirty = new DirtyRange();
 	
 	public Color4BufferList(ByteBuffer $b, int $size)
 	{
 		_b = ByteBuffer.allocate($b.limit() * BYTES_PER_PROPERTY);
 		_b.put($b);
 		_numElements = $size;
+		_dirty.mark(0, $size);
 	}
 	
 	public Color4BufferList(int $maxElements)
@@ -105,6 +109,7 @@ public class Color4BufferList
 	
 	public void set(int $index, Color4 $c)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT);
 		_b.put((byte)$c.r);
 		_b.put((byte)$c.g);
@@ -116,6 +121,7 @@ public class Color4BufferList
 
 	public void set(int $index, short $r, short $g, short $b, short $a)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT);
 		_b.put((byte)$r);
 		_b.put((byte)$g);
@@ -125,21 +131,25 @@ public class Color4BufferList
 	
 	public void setPropertyR(int $index, short $r)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT);
 		_b.put((byte)$r);
 	}
 	public void setPropertyG(int $index, short $g)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT + 1);
 		_b.put((byte)$g);
 	}
 	public void setPropertyB(int $index, short $b)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT + 2);
 		_b.put((byte)$b);
 	}
 	public void setPropertyA(int $index, short $a)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT + 3);
 		_b.put((byte)$a);
 	}
@@ -151,6 +161,28 @@ public class Color4BufferList
 		return _b;
 	}
 	
+	/**
+	 * Elements changed since the buffer object was last updated
+	 */
+	DirtyRange dirtyRange() /*package-private*/
+	{
+		return _dirty;
+	}
+	
+	/**
+	 * Uses $b as the list's storage without copying it.
+	 * $b must be a direct buffer in native byte order (for example a view of a
+	 * memory-mapped file) that holds exactly $size elements.
+	 */
+	public static Color4BufferList wrap(ByteBuffer $b, int $size)
+	{
+		Color4BufferList l = new Color4BufferList(0);
+		l._b = $b;
+		l._numElements = $size;
+		l._dirty.mark(0, $size);
+		return l;
+	}
+	
 	public Color4BufferList clone()
 	{
 		_b.position(0);
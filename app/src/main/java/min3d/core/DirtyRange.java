@@ -0,0 +1,49 @@
+package min3d.core;
+
+/**
+ * Range of elements of a buffer list changed since it was last sent to its
+ * buffer object. Shared by Number3dBufferList, UvBufferList, Color4BufferList
+ * and FacesBufferedList; read and cleared by Renderer.
+ */
+class DirtyRange /*package-private*/
+{
+	private int _from = 0;
+	private int _to = 0;
+
+	/**
+	 * Grows the range to include elements $from up to (not including) $to
+	 */
+	void mark(int $from, int $to)
+	{
+		if (_from == _to) {
+			_from = $from;
+			_to = $to;
+		}
+		else {
+			if ($from < _from) _from = $from;
+			if ($to > _to) _to = $to;
+		}
+	}
+
+	/**
+	 * First element changed since the last clear()
+	 */
+	int from()
+	{
+		return _from;
+	}
+
+	/**
+	 * One past the last element changed since the last clear();
+	 * equal to from() when nothing has changed
+	 */
+	int to()
+	{
+		return _to;
+	}
+
+	void clear()
+	{
+		_from = _to = 0;
+	}
+}
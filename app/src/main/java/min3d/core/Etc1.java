@@ -0,0 +1,272 @@
+package min3d.core;
+
+/**
+ * ETC1 (Ericsson Texture Compression) encoder and decoder in plain Java,
+ * without Android dependencies, for GL_OES_compressed_ETC1_RGB8_texture.
+ *
+ * Every 4x4 block of pixels becomes 8 bytes: two base colors, one for each
+ * half of the block (left/right or top/bottom), each with a table of four
+ * luminance offsets. That's 4 bits per pixel, an eighth of ARGB_8888.
+ * ETC1 has no alpha; see TextureCache for how alpha is kept separately.
+ *
+ * The encoder tries both block orientations and both base color encodings
+ * (individual 4-bit colors, or a 5-bit color and a 3-bit difference) with
+ * all eight tables, and keeps the one with the smallest squared error.
+ */
+public class Etc1
+{
+	/**
+	 * GL_ETC1_RGB8_OES, the internalformat for glCompressedTexImage2D()
+	 */
+	public static final int ETC1_RGB8_OES = 0x8D64;
+
+	private static final int[][] MODIFIERS = {
+		{ 2, 8, -2, -8 },
+		{ 5, 17, -5, -17 },
+		{ 9, 29, -9, -29 },
+		{ 13, 42, -13, -42 },
+		{ 18, 60, -18, -60 },
+		{ 24, 80, -24, -80 },
+		{ 33, 106, -33, -106 },
+		{ 47, 183, -47, -183 }
+	};
+
+
+	/**
+	 * Size in bytes of an encoded $width x $height image
+	 */
+	public static int encodedSize(int $width, int $height)
+	{
+		return ((($width + 3) >> 2) * (($height + 3) >> 2)) << 3;
+	}
+
+	/**
+	 * Encodes ARGB pixels (as from Bitmap.getPixels()), row by row. Alpha is ignored.
+	 * Blocks over the right and bottom edges repeat the last column and row.
+	 */
+	public static byte[] encode(int[] $argb, int $width, int $height)
+	{
+		byte[] out = new byte[encodedSize($width, $height)];
+		int[] block = new int[16 * 3];
+		int[] best = new int[2];
+		int offset = 0;
+
+		for (int by = 0; by < $height; by += 4)
+		{
+			for (int bx = 0; bx < $width; bx += 4)
+			{
+				// Column by column, like the pixel indices
+				for (int x = 0; x < 4; x++) {
+					for (int y = 0; y < 4; y++) {
+						int p = $argb[Math.min(by + y, $height - 1) * $width + Math.min(bx + x, $width - 1)];
+						int i = (x * 4 + y) * 3;
+						block[i] = (p >> 16) & 0xff;
+						block[i + 1] = (p >> 8) & 0xff;
+						block[i + 2] = p & 0xff;
+					}
+				}
+				encodeBlock(block, best);
+				for (int i = 0; i < 4; i++) {
+					out[offset++] = (byte)(best[0] >>> (24 - i * 8));
+				}
+				for (int i = 0; i < 4; i++) {
+					out[offset++] = (byte)(best[1] >>> (24 - i * 8));
+				}
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Decodes $width x $height pixels from $data at $offset, to opaque ARGB
+	 */
+	public static int[] decode(byte[] $data, int $offset, int $width, int $height)
+	{
+		int[] out = new int[$width * $height];
+		int[] colors = new int[6];
+
+		for (int by = 0; by < $height; by += 4)
+		{
+			for (int bx = 0; bx < $width; bx += 4)
+			{
+				int high = readInt($data, $offset);
+				int low = readInt($data, $offset + 4);
+				$offset += 8;
+
+				baseColors(high, colors);
+				boolean flip = (high & 1) != 0;
+				int[] table0 = MODIFIERS[(high >>> 5) & 7];
+				int[] table1 = MODIFIERS[(high >>> 2) & 7];
+
+				for (int x = 0; x < 4; x++) {
+					for (int y = 0; y < 4; y++) {
+						if (bx + x >= $width || by + y >= $height) continue;
+						int i = x * 4 + y;
+						boolean second = flip ? y >= 2 : x >= 2;
+						int index = ((low >>> (i + 15)) & 2) | ((low >>> i) & 1);
+						int m = (second ? table1 : table0)[index];
+						int c = second ? 3 : 0;
+						out[(by + y) * $width + bx + x] = 0xff000000
+								| clamp(colors[c] + m) << 16 | clamp(colors[c + 1] + m) << 8 | clamp(colors[c + 2] + m);
+					}
+				}
+			}
+		}
+		return out;
+	}
+
+	//
+
+	/**
+	 * Encodes 16 RGB pixels (column by column) into the two words of a block
+	 */
+	private static void encodeBlock(int[] $block, int[] $out)
+	{
+		int bestError = Integer.MAX_VALUE;
+		int[] avg = new int[6];
+		int[] base = new int[6];
+		int[] pick = new int[3];
+
+		for (int flip = 0; flip < 2; flip++)
+		{
+			// Average color of each half
+			for (int c = 0; c < 6; c++) avg[c] = 0;
+			for (int i = 0; i < 16; i++) {
+				int half = flip == 1 ? ((i & 3) >> 1) : (i >> 3);
+				for (int c = 0; c < 3; c++) avg[half * 3 + c] += $block[i * 3 + c];
+			}
+			for (int c = 0; c < 6; c++) avg[c] = (avg[c] + 4) >> 3;
+
+			for (int diff = 0; diff < 2; diff++)
+			{
+				int high;
+				if (diff == 1)
+				{
+					// 5-bit base color and a 3-bit signed difference to the second
+					boolean fits = true;
+					int[] q = new int[6];
+					for (int c = 0; c < 6; c++) q[c] = (avg[c] * 31 + 127) / 255;
+					for (int c = 0; c < 3; c++) {
+						int d = q[3 + c] - q[c];
+						if (d < -4 || d > 3) fits = false;
+					}
+					if (! fits) continue;
+					high = 2;
+					for (int c = 0; c < 3; c++) {
+						high |= (q[c] << 3 | ((q[3 + c] - q[c]) & 7)) << (24 - c * 8);
+						base[c] = (q[c] << 3) | (q[c] >> 2);
+						base[3 + c] = (q[3 + c] << 3) | (q[3 + c] >> 2);
+					}
+				}
+				else
+				{
+					high = 0;
+					for (int c = 0; c < 3; c++) {
+						int q0 = (avg[c] * 15 + 127) / 255;
+						int q1 = (avg[3 + c] * 15 + 127) / 255;
+						high |= (q0 << 4 | q1) << (24 - c * 8);
+						base[c] = q0 * 17;
+						base[3 + c] = q1 * 17;
+					}
+				}
+				high |= flip;
+
+				int error = 0;
+				int low = 0;
+				for (int half = 0; half < 2 && error < bestError; half++) {
+					error += encodeHalf($block, base, half, flip == 1, pick);
+					high |= pick[0] << (half == 0 ? 5 : 2);
+					low |= pick[1] | pick[2];
+				}
+				if (error < bestError) {
+					bestError = error;
+					$out[0] = high;
+					$out[1] = low;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Picks the table and per-pixel offsets for one half of a block with the given
+	 * base colors. $pick gets the table and the low word's MSB and LSB bits.
+	 * Returns the squared error.
+	 */
+	private static int encodeHalf(int[] $block, int[] $base, int $half, boolean $flip, int[] $pick)
+	{
+		int bestError = Integer.MAX_VALUE;
+		int r = $base[$half * 3];
+		int g = $base[$half * 3 + 1];
+		int b = $base[$half * 3 + 2];
+
+		for (int t = 0; t < 8; t++)
+		{
+			int[] table = MODIFIERS[t];
+			int error = 0;
+			int bits = 0;
+			for (int i = 0; i < 16 && error < bestError; i++)
+			{
+				int half = $flip ? ((i & 3) >> 1) : (i >> 3);
+				if (half != $half) continue;
+
+				int pr = $block[i * 3];
+				int pg = $block[i * 3 + 1];
+				int pb = $block[i * 3 + 2];
+				int pixelError = Integer.MAX_VALUE;
+				int index = 0;
+				for (int k = 0; k < 4; k++) {
+					int m = table[k];
+					int dr = clamp(r + m) - pr;
+					int dg = clamp(g + m) - pg;
+					int db = clamp(b + m) - pb;
+					int e = dr * dr + dg * dg + db * db;
+					if (e < pixelError) {
+						pixelError = e;
+						index = k;
+					}
+				}
+				error += pixelError;
+				bits |= (index >> 1) << (i + 16) | (index & 1) << i;
+			}
+			if (error < bestError) {
+				bestError = error;
+				$pick[0] = t;
+				$pick[1] = bits & 0xffff0000;
+				$pick[2] = bits & 0xffff;
+			}
+		}
+		return bestError;
+	}
+
+	/**
+	 * The two base colors of a block, expanded to 8 bits
+	 */
+	private static void baseColors(int $high, int[] $out)
+	{
+		for (int c = 0; c < 3; c++)
+		{
+			int v = ($high >>> (24 - c * 8)) & 0xff;
+			if (($high & 2) != 0) {
+				int q0 = v >> 3;
+				int q1 = q0 + ((v & 7) ^ 4) - 4;
+				$out[c] = (q0 << 3) | (q0 >> 2);
+				$out[3 + c] = (q1 << 3) | (q1 >> 2);
+			}
+			else {
+				$out[c] = (v >> 4) * 17;
+				$out[3 + c] = (v & 15) * 17;
+			}
+		}
+	}
+
+	private static int readInt(byte[] $data, int $offset)
+	{
+		return ($data[$offset] & 0xff) << 24 | ($data[$offset + 1] & 0xff) << 16
+				| ($data[$offset + 2] & 0xff) << 8 | ($data[$offset + 3] & 0xff);
+	}
+
+	private static int clamp(int $v)
+	{
+		return $v < 0 ? 0 : ($v > 255 ? 255 : $v);
+	}
+}
@@ -14,9 +14,15 @@ public class FacesBufferedList
 	private ShortBuffer _b;
 	private int _numElements;
 
+	// Elements changed since the buffer object was last updated
+	private final DirtyRange _dirty = new DirtyRange();
+
 	private int _renderSubsetStartIndex = 0;
 	private int _renderSubsetLength = 1;
 	private boolean _renderSubsetEnabled = false;
+
+	// GPU copy of the list, when the owning object uses buffer objects
+	private BufferObjects _bufferObjects;
 	
 	public FacesBufferedList(ShortBuffer $b, int $size)
 	{
@@ -25,6 +31,7 @@ public class FacesBufferedList
 		_b = bb.asShortBuffer();
 		_b.put($b);
 		_numElements = $size;
+		_dirty.mark(0, $size);
 	}
 	
 	public FacesBufferedList(int $maxElements)
@@ -144,6 +151,7 @@ public class FacesBufferedList
 	
 	public void set(int $index, Face $face)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT);
 		_b.put($face.a);
 		_b.put($face.b);
@@ -152,6 +160,7 @@ public class FacesBufferedList
 
 	public void set(int $index, short $a, short $b, short $c)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT);
 		_b.put($a);
 		_b.put($b);
@@ -160,16 +169,19 @@ public class FacesBufferedList
 	
 	public void setPropertyA(int $index, short $a)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT);
 		_b.put($a);
 	}
 	public void setPropertyB(int $index, short $b)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT + 1);
 		_b.put($b);
 	}
 	public void setPropertyC(int $index, short $c)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT + 2);
 		_b.put($c);
 	}
@@ -181,6 +193,38 @@ public class FacesBufferedList
 		return _b;
 	}
 	
+	/**
+	 * Elements changed since the buffer object was last updated
+	 */
+	DirtyRange dirtyRange() /*package-private*/
+	{
+		return _dirty;
+	}
+	
+	BufferObjects bufferObjects() /*package-private*/
+	{
+		return _bufferObjects;
+	}
+	
+	void bufferObjects(BufferObjects $b) /*package-private*/
+	{
+		_bufferObjects = $b;
+	}
+	
+	/**
+	 * Uses $b as the list's storage without copying it.
+	 * $b must be a direct buffer in native byte order (for example a view of a
+	 * memory-mapped file) that holds exactly $size elements.
+	 */
+	public static FacesBufferedList wrap(ShortBuffer $b, int $size)
+	{
+		FacesBufferedList l = new FacesBufferedList(0);
+		l._b = $b;
+		l._numElements = $size;
+		l._dirty.mark(0, $size);
+		return l;
+	}
+	
 	public FacesBufferedList clone()
 	{
 		_b.position(0);
@@ -0,0 +1,496 @@
+package min3d.core;
+
+import java.util.Arrays;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+/**
+ * CPU-side shadow of the OpenGL ES 1.x state that Renderer changes per object.
+ *
+ * State changes go through here: a call that would not change the state is dropped,
+ * and the tracked state can be read back without glGet*(), which stalls the pipeline.
+ *
+ * Everything starts out 'unknown', so the first call for each piece of state is always
+ * issued. Call invalidate() whenever the GL context is (re)created, or after code outside
+ * this class has changed tracked state directly through GL10.
+ */
+public class GLState
+{
+	/**
+	 * Texture units whose state is tracked; higher units are passed through
+	 */
+	public static final int MAX_TEXTURE_UNITS = 8;
+
+	private static final int UNKNOWN = -1;
+
+	// Tracked capabilities (glEnable/glDisable)
+	private static final int CAP_LIGHTING = 0;
+	private static final int CAP_CULL_FACE = 1;
+	private static final int CAP_COLOR_MATERIAL = 2;
+	private static final int CAP_FOG = 3;
+	private static final int CAP_POINT_SMOOTH = 4;
+	private static final int CAP_LINE_SMOOTH = 5;
+	private static final int CAP_DEPTH_TEST = 6;
+	private static final int CAP_BLEND = 7;
+	private static final int CAP_LIGHT0 = 8;
+	private static final int CAP_TEXTURE_2D = CAP_LIGHT0 + Renderer.NUM_GLLIGHTS;		// + unit
+	private static final int NUM_CAPS = CAP_TEXTURE_2D + MAX_TEXTURE_UNITS;
+
+	// Tracked client states (glEnableClientState/glDisableClientState)
+	private static final int ARRAY_VERTEX = 0;
+	private static final int ARRAY_NORMAL = 1;
+	private static final int ARRAY_COLOR = 2;
+	private static final int ARRAY_TEXTURE_COORD = 3;									// + client unit
+	private static final int NUM_ARRAYS = ARRAY_TEXTURE_COORD + MAX_TEXTURE_UNITS;
+
+	// Tracked per-texture-object parameters
+	private static final int TEXPARAM_MIN_FILTER = 0;
+	private static final int TEXPARAM_MAG_FILTER = 1;
+	private static final int TEXPARAM_WRAP_S = 2;
+	private static final int TEXPARAM_WRAP_T = 3;
+	private static final int NUM_TEXPARAMS = 4;
+
+	private GL10 _gl;
+
+	private final int[] _caps = new int[NUM_CAPS];
+	private final int[] _arrays = new int[NUM_ARRAYS];
+	private final int[] _boundTexture = new int[MAX_TEXTURE_UNITS];
+	private int _arrayBuffer;
+	private int _elementArrayBuffer;
+	private int _activeTexture;
+	private int _clientActiveTexture;
+	private int _matrixMode;
+	private int _shadeModel;
+
+	private boolean _colorKnown;
+	private float _r, _g, _b, _a;
+	private float _pointSize;
+	private float _lineWidth;
+
+	// NUM_TEXPARAMS values per GL texture name, grown on demand
+	private int[] _texParams = new int[0];
+
+	// stats
+	private long _issuedCount;
+	private long _skippedCount;
+
+
+	public GLState()
+	{
+		invalidate();
+	}
+
+	public void setGl(GL10 $gl)
+	{
+		_gl = $gl;
+	}
+
+	public GL10 gl()
+	{
+		return _gl;
+	}
+
+	/**
+	 * Forgets all tracked state, so the next call for each piece of state is issued
+	 */
+	public void invalidate()
+	{
+		Arrays.fill(_caps, UNKNOWN);
+		Arrays.fill(_arrays, UNKNOWN);
+		Arrays.fill(_boundTexture, UNKNOWN);
+		Arrays.fill(_texParams, UNKNOWN);
+		_arrayBuffer = UNKNOWN;
+		_elementArrayBuffer = UNKNOWN;
+		_activeTexture = UNKNOWN;
+		_clientActiveTexture = UNKNOWN;
+		_matrixMode = UNKNOWN;
+		_shadeModel = UNKNOWN;
+		_colorKnown = false;
+		_pointSize = Float.NaN;
+		_lineWidth = Float.NaN;
+	}
+
+	//
+	// Capabilities
+	//
+
+	public void enable(int $cap)
+	{
+		setCap($cap, true);
+	}
+
+	public void disable(int $cap)
+	{
+		setCap($cap, false);
+	}
+
+	public void setCap(int $cap, boolean $enabled)
+	{
+		int slot = capSlot($cap);
+		int value = $enabled ? 1 : 0;
+		if (slot != UNKNOWN) {
+			if (_caps[slot] == value) {
+				_skippedCount++;
+				return;
+			}
+			_caps[slot] = value;
+		}
+		_issuedCount++;
+		if ($enabled)
+			_gl.glEnable($cap);
+		else
+			_gl.glDisable($cap);
+	}
+
+	/**
+	 * Tracked value of $cap; false if it is not tracked or not known yet
+	 */
+	public boolean isEnabled(int $cap)
+	{
+		int slot = capSlot($cap);
+		return slot != UNKNOWN && _caps[slot] == 1;
+	}
+
+	//
+	// Client states
+	//
+
+	public void enableClientState(int $array)
+	{
+		setClientState($array, true);
+	}
+
+	public void disableClientState(int $array)
+	{
+		setClientState($array, false);
+	}
+
+	public void setClientState(int $array, boolean $enabled)
+	{
+		int slot = arraySlot($array);
+		int value = $enabled ? 1 : 0;
+
+		// The current color is undefined after drawing with a color array
+		if ($array == GL10.GL_COLOR_ARRAY && $enabled) _colorKnown = false;
+
+		if (slot != UNKNOWN) {
+			if (_arrays[slot] == value) {
+				_skippedCount++;
+				return;
+			}
+			_arrays[slot] = value;
+		}
+		_issuedCount++;
+		if ($enabled)
+			_gl.glEnableClientState($array);
+		else
+			_gl.glDisableClientState($array);
+	}
+
+	public boolean isClientStateEnabled(int $array)
+	{
+		int slot = arraySlot($array);
+		return slot != UNKNOWN && _arrays[slot] == 1;
+	}
+
+	//
+	// Buffer objects (GL11 only)
+	//
+
+	/**
+	 * glBindBuffer() for GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER. 
+	 * Only call this when RenderCaps.isVboSupported().
+	 */
+	public void bindBuffer(int $target, int $buffer)
+	{
+		if ($target == GL11.GL_ARRAY_BUFFER) {
+			if (_arrayBuffer == $buffer) {
+				_skippedCount++;
+				return;
+			}
+			_arrayBuffer = $buffer;
+		}
+		else if ($target == GL11.GL_ELEMENT_ARRAY_BUFFER) {
+			if (_elementArrayBuffer == $buffer) {
+				_skippedCount++;
+				return;
+			}
+			_elementArrayBuffer = $buffer;
+		}
+		_issuedCount++;
+		((GL11)_gl).glBindBuffer($target, $buffer);
+	}
+
+	/**
+	 * Must be called when a buffer name is deleted
+	 */
+	public void forgetBuffer(int $buffer)
+	{
+		if (_arrayBuffer == $buffer) _arrayBuffer = UNKNOWN;
+		if (_elementArrayBuffer == $buffer) _elementArrayBuffer = UNKNOWN;
+	}
+
+	//
+	// Texture units and bindings
+	//
+
+	public void activeTexture(int $texture)
+	{
+		if (_activeTexture == $texture) {
+			_skippedCount++;
+			return;
+		}
+		_activeTexture = $texture;
+		_issuedCount++;
+		_gl.glActiveTexture($texture);
+	}
+
+	public void clientActiveTexture(int $texture)
+	{
+		if (_clientActiveTexture == $texture) {
+			_skippedCount++;
+			return;
+		}
+		_clientActiveTexture = $texture;
+		_issuedCount++;
+		_gl.glClientActiveTexture($texture);
+	}
+
+	/**
+	 * Binds a GL_TEXTURE_2D texture name to the active texture unit
+	 */
+	public void bindTexture(int $glTextureId)
+	{
+		int unit = _activeTexture - GL10.GL_TEXTURE0;
+		boolean tracked = unit >= 0 && unit < MAX_TEXTURE_UNITS;
+		if (tracked && _boundTexture[unit] == $glTextureId) {
+			_skippedCount++;
+			return;
+		}
+		if (tracked) _boundTexture[unit] = $glTextureId;
+		_issuedCount++;
+		_gl.glBindTexture(GL10.GL_TEXTURE_2D, $glTextureId);
+	}
+
+	/**
+	 * True if texture unit $unit is known to have GL_TEXTURE_2D and its texture
+	 * coordinate array disabled, and no texture bound
+	 */
+	public boolean isTextureUnitOff(int $unit)
+	{
+		if ($unit < 0 || $unit >= MAX_TEXTURE_UNITS) return false;
+		return _caps[CAP_TEXTURE_2D + $unit] == 0
+			&& _arrays[ARRAY_TEXTURE_COORD + $unit] == 0
+			&& _boundTexture[$unit] == 0;
+	}
+
+	/**
+	 * Must be called when a texture name is deleted, as GL may hand it out again
+	 */
+	public void forgetTexture(int $glTextureId)
+	{
+		int base = $glTextureId * NUM_TEXPARAMS;
+		if ($glTextureId > 0 && base < _texParams.length) {
+			for (int i = 0; i < NUM_TEXPARAMS; i++) {
+				_texParams[base + i] = UNKNOWN;
+			}
+		}
+		for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+			if (_boundTexture[i] == $glTextureId) _boundTexture[i] = UNKNOWN;
+		}
+	}
+
+	/**
+	 * glTexParameterf() on the GL_TEXTURE_2D texture bound to the active unit.
+	 * Filter and wrap modes are tracked per texture object.
+	 */
+	public void texParameterf(int $pname, float $param)
+	{
+		if (isTexParamCurrent($pname, (int)$param)) {
+			_skippedCount++;
+			return;
+		}
+		_issuedCount++;
+		_gl.glTexParameterf(GL10.GL_TEXTURE_2D, $pname, $param);
+	}
+
+	/**
+	 * glTexParameterx() on the GL_TEXTURE_2D texture bound to the active unit.
+	 * Filter and wrap modes are tracked per texture object.
+	 */
+	public void texParameterx(int $pname, int $param)
+	{
+		if (isTexParamCurrent($pname, $param)) {
+			_skippedCount++;
+			return;
+		}
+		_issuedCount++;
+		_gl.glTexParameterx(GL10.GL_TEXTURE_2D, $pname, $param);
+	}
+
+	//
+	// Other per-object state
+	//
+
+	public void matrixMode(int $mode)
+	{
+		if (_matrixMode == $mode) {
+			_skippedCount++;
+			return;
+		}
+		_matrixMode = $mode;
+		_issuedCount++;
+		_gl.glMatrixMode($mode);
+	}
+
+	public void shadeModel(int $mode)
+	{
+		if (_shadeModel == $mode) {
+			_skippedCount++;
+			return;
+		}
+		_shadeModel = $mode;
+		_issuedCount++;
+		_gl.glShadeModel($mode);
+	}
+
+	/**
+	 * Tracked shade model, or -1 if not known yet
+	 */
+	public int shadeModel()
+	{
+		return _shadeModel;
+	}
+
+	public void color4f(float $r, float $g, float $b, float $a)
+	{
+		if (_colorKnown && _r == $r && _g == $g && _b == $b && _a == $a) {
+			_skippedCount++;
+			return;
+		}
+		_colorKnown = true;
+		_r = $r;
+		_g = $g;
+		_b = $b;
+		_a = $a;
+		_issuedCount++;
+		_gl.glColor4f($r, $g, $b, $a);
+	}
+
+	public void pointSize(float $size)
+	{
+		if (_pointSize == $size) {
+			_skippedCount++;
+			return;
+		}
+		_pointSize = $size;
+		_issuedCount++;
+		_gl.glPointSize($size);
+	}
+
+	public void lineWidth(float $width)
+	{
+		if (_lineWidth == $width) {
+			_skippedCount++;
+			return;
+		}
+		_lineWidth = $width;
+		_issuedCount++;
+		_gl.glLineWidth($width);
+	}
+
+	//
+	// stats
+	//
+
+	/**
+	 * Number of calls passed on to GL
+	 */
+	public long issuedCount()
+	{
+		return _issuedCount;
+	}
+
+	/**
+	 * Number of calls dropped because they would not have changed the state
+	 */
+	public long skippedCount()
+	{
+		return _skippedCount;
+	}
+
+	//
+
+	private boolean isTexParamCurrent(int $pname, int $param)
+	{
+		int unit = _activeTexture - GL10.GL_TEXTURE0;
+		if (unit < 0 || unit >= MAX_TEXTURE_UNITS) return false;
+
+		int texture = _boundTexture[unit];
+		int param = texParamSlot($pname);
+		if (texture <= 0 || param == UNKNOWN) return false;
+
+		int index = texture * NUM_TEXPARAMS + param;
+		if (index >= _texParams.length) {
+			int[] grown = new int[Math.max(index + 1, _texParams.length * 2)];
+			Arrays.fill(grown, _texParams.length, grown.length, UNKNOWN);
+			System.arraycopy(_texParams, 0, grown, 0, _texParams.length);
+			_texParams = grown;
+		}
+		if (_texParams[index] == $param) return true;
+
+		_texParams[index] = $param;
+		return false;
+	}
+
+	private int capSlot(int $cap)
+	{
+		switch ($cap)
+		{
+			case GL10.GL_LIGHTING: return CAP_LIGHTING;
+			case GL10.GL_CULL_FACE: return CAP_CULL_FACE;
+			case GL10.GL_COLOR_MATERIAL: return CAP_COLOR_MATERIAL;
+			case GL10.GL_FOG: return CAP_FOG;
+			case GL10.GL_POINT_SMOOTH: return CAP_POINT_SMOOTH;
+			case GL10.GL_LINE_SMOOTH: return CAP_LINE_SMOOTH;
+			case GL10.GL_DEPTH_TEST: return CAP_DEPTH_TEST;
+			case GL10.GL_BLEND: return CAP_BLEND;
+			case GL10.GL_TEXTURE_2D:
+				// GL_TEXTURE_2D is per texture unit
+				int unit = _activeTexture - GL10.GL_TEXTURE0;
+				return (unit >= 0 && unit < MAX_TEXTURE_UNITS) ? CAP_TEXTURE_2D + unit : UNKNOWN;
+		}
+		if ($cap >= GL10.GL_LIGHT0 && $cap < GL10.GL_LIGHT0 + Renderer.NUM_GLLIGHTS) {
+			return CAP_LIGHT0 + ($cap - GL10.GL_LIGHT0);
+		}
+		return UNKNOWN;
+	}
+
+	private int arraySlot(int $array)
+	{
+		switch ($array)
+		{
+			case GL10.GL_VERTEX_ARRAY: return ARRAY_VERTEX;
+			case GL10.GL_NORMAL_ARRAY: return ARRAY_NORMAL;
+			case GL10.GL_COLOR_ARRAY: return ARRAY_COLOR;
+			case GL10.GL_TEXTURE_COORD_ARRAY:
+				// Texture coordinate arrays are per client texture unit
+				int unit = _clientActiveTexture - GL10.GL_TEXTURE0;
+				return (unit >= 0 && unit < MAX_TEXTURE_UNITS) ? ARRAY_TEXTURE_COORD + unit : UNKNOWN;
+		}
+		return UNKNOWN;
+	}
+
+	private int texParamSlot(int $pname)
+	{
+		switch ($pname)
+		{
+			case GL10.GL_TEXTURE_MIN_FILTER: return TEXPARAM_MIN_FILTER;
+			case GL10.GL_TEXTURE_MAG_FILTER: return TEXPARAM_MAG_FILTER;
+			case GL10.GL_TEXTURE_WRAP_S: return TEXPARAM_WRAP_S;
+			case GL10.GL_TEXTURE_WRAP_T: return TEXPARAM_WRAP_T;
+		}
+		return UNKNOWN;
+	}
+}
@@ -0,0 +1,131 @@
+package min3d.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Work that has to run on the GL thread (texture and buffer uploads, adding
+ * loaded objects to the Scene), posted from any thread.
+ *
+ * Renderer drains the queue at the start of every frame, running jobs until
+ * the per-frame budget is used up, so a large batch of uploads is spread over
+ * several frames instead of stalling one.
+ *
+ * Jobs belong to the GL context that was current when they were posted; when
+ * the context is re-created (Renderer.onSurfaceCreated()) the remaining ones
+ * are dropped, and so is anything posted later for the old context.
+ */
+public class GLUploadQueue
+{
+	private final ConcurrentLinkedQueue<Job> _jobs = new ConcurrentLinkedQueue<Job>();
+	private final AtomicInteger _generation = new AtomicInteger(0);
+
+	private long _budgetNanos = 4 * 1000000L;
+
+	// stats
+	private int _lastDrained;
+
+
+	/**
+	 * Time per frame spent running jobs, in milliseconds. At least one job runs
+	 * per frame however long it takes. Default is 4ms.
+	 */
+	public void budget(float $millis)
+	{
+		_budgetNanos = (long)($millis * 1000000f);
+	}
+
+	public float budget()
+	{
+		return _budgetNanos / 1000000f;
+	}
+
+	/**
+	 * Identifies the current GL context. Pass it to post(Runnable, int) so a job
+	 * prepared on another thread is dropped if the context changed meanwhile.
+	 */
+	public int generation()
+	{
+		return _generation.get();
+	}
+
+	/**
+	 * Queues $job for the current GL context
+	 */
+	public void post(Runnable $job)
+	{
+		post($job, _generation.get());
+	}
+
+	/**
+	 * Queues $job for the GL context identified by $generation
+	 */
+	public void post(Runnable $job, int $generation)
+	{
+		if ($generation != _generation.get()) return;
+		_jobs.add(new Job($job, $generation));
+	}
+
+	/**
+	 * Number of jobs waiting
+	 */
+	public int size()
+	{
+		return _jobs.size();
+	}
+
+	/**
+	 * Number of jobs run by the last drain()
+	 */
+	public int lastDrained()
+	{
+		return _lastDrained;
+	}
+
+	/**
+	 * Runs queued jobs until the budget is used up. GL thread only.
+	 */
+	void drain() /*package-private*/
+	{
+		_lastDrained = 0;
+		if (_jobs.isEmpty()) return;
+
+		long start = System.nanoTime();
+		int generation = _generation.get();
+		Job j;
+
+		while ((j = _jobs.poll()) != null)
+		{
+			if (j.generation != generation) continue;
+
+			j.runnable.run();
+			_lastDrained++;
+
+			if (System.nanoTime() - start >= _budgetNanos) break;
+		}
+	}
+
+	/**
+	 * Drops all jobs, including those posted later for the current context.
+	 * Called by Renderer when the GL context is re-created.
+	 */
+	void clear() /*package-private*/
+	{
+		_generation.incrementAndGet();
+		_jobs.clear();
+	}
+
+	//
+
+	private static class Job
+	{
+		final Runnable runnable;
+		final int generation;
+
+		Job(Runnable $runnable, int $generation)
+		{
+			runnable = $runnable;
+			generation = $generation;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package min3d.core;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffer that hands marker detection results
+ * (ids, 4x4 poses, projection matrix and timestamp) from the detection
+ * thread to the GL thread.
+ *
+ * The producer always owns one buffer (back), the consumer owns another
+ * (front), and the third (middle) holds the newest completely written set.
+ * Both sides only ever swap their own buffer with the middle one through a
+ * single atomic exchange, so the consumer never blocks and can never see a
+ * partially written set.
+ *
+ * Both sides are wait-free as long as there is a single producer. When more
+ * than one thread publishes at the same time (e.g. objectClear() from the UI
+ * thread while the detection thread publishes), they are serialized by a spin
+ * flag, so a contending publisher spins with Thread.yield() until the other
+ * one is done. The consumer never spins.
+ */
+public class MarkerResultBuffer
+{
+	public static final int MARKER_MAX = 8;
+
+	// Set on the middle index when it holds a set the consumer has not taken yet
+	private static final int DIRTY = 0x4;
+	private static final int INDEX_MASK = 0x3;
+
+	private final Frame[] _frames = new Frame[3];
+
+	// Index of the middle buffer, | DIRTY when it is newer than front
+	private final AtomicInteger _middle = new AtomicInteger(1);
+
+	// Owned by the producer
+	private int _back = 0;
+	private long _sequence = 0;
+	private final AtomicBoolean _publishing = new AtomicBoolean(false);
+
+	// Owned by the consumer
+	private int _front = 2;
+
+	// stats
+	private final AtomicInteger _contendedCount = new AtomicInteger(0);
+
+
+	public MarkerResultBuffer()
+	{
+		for (int i = 0; i < _frames.length; i++) {
+			_frames[i] = new Frame();
+		}
+	}
+
+	/**
+	 * Called from the detection thread. Copies the results into the back buffer
+	 * and makes it the newest set. Never dropped: if another thread is publishing
+	 * at the same moment (e.g. objectClear() from the UI thread), this call spins
+	 * until that one is done, so the set published last is the one that lands.
+	 */
+	public void publish(int $count, int[] $ids, float[][] $poses, float[] $projection, long $timestamp)
+	{
+		if (! _publishing.compareAndSet(false, true)) {
+			_contendedCount.incrementAndGet();
+			while (! _publishing.compareAndSet(false, true)) {
+				Thread.yield();
+			}
+		}
+		try
+		{
+			if ($count > MARKER_MAX) $count = MARKER_MAX;
+
+			Frame f = _frames[_back];
+			f._count = $count;
+			for (int i = 0; i < $count; i++) {
+				f._ids[i] = $ids[i];
+				System.arraycopy($poses[i], 0, f._poses, i * 16, 16);
+			}
+			if ($projection != null) {
+				System.arraycopy($projection, 0, f._projection, 0, 16);
+				f._hasProjection = true;
+			}
+			else {
+				f._hasProjection = false;
+			}
+			f._timestamp = $timestamp;
+			f._sequence = ++_sequence;
+
+			// getAndSet() is the release point of the writes above
+			_back = _middle.getAndSet(_back | DIRTY) & INDEX_MASK;
+		}
+		finally
+		{
+			_publishing.set(false);
+		}
+	}
+
+	/**
+	 * Called from the GL thread, once per frame.
+	 * Makes the newest published set the front buffer.
+	 *
+	 * @return true if a new set became available since the last call
+	 */
+	public boolean acquire()
+	{
+		if ((_middle.get() & DIRTY) == 0) return false;
+
+		// Hand back the front buffer as the (clean) middle one
+		_front = _middle.getAndSet(_front) & INDEX_MASK;
+		return true;
+	}
+
+	/**
+	 * Set taken by the last acquire(). Only valid on the GL thread.
+	 */
+	public Frame front()
+	{
+		return _frames[_front];
+	}
+
+	/**
+	 * Number of publish() calls that had to wait because another thread was publishing
+	 */
+	public int contendedCount()
+	{
+		return _contendedCount.get();
+	}
+
+	//
+
+	/**
+	 * One set of marker results
+	 */
+	public static class Frame
+	{
+		private int _count = 0;
+		private final int[] _ids = new int[MARKER_MAX];
+		private final float[] _poses = new float[MARKER_MAX * 16];
+		private final float[] _projection = new float[16];
+		private boolean _hasProjection = false;
+		private long _timestamp = 0;
+		private long _sequence = 0;
+
+		public int count()
+		{
+			return _count;
+		}
+
+		public int id(int $index)
+		{
+			return _ids[$index];
+		}
+
+		/**
+		 * Copies the 4x4 pose of marker $index into $out
+		 */
+		public void pose(int $index, float[] $out)
+		{
+			System.arraycopy(_poses, $index * 16, $out, 0, 16);
+		}
+
+		/**
+		 * Backing array of all poses; pose i starts at offset i*16
+		 */
+		public float[] poses()
+		{
+			return _poses;
+		}
+
+		public boolean hasProjection()
+		{
+			return _hasProjection;
+		}
+
+		public float[] projection()
+		{
+			return _projection;
+		}
+
+		public long timestamp()
+		{
+			return _timestamp;
+		}
+
+		/**
+		 * Increases by one with every successful publish()
+		 */
+		public long sequence()
+		{
+			return _sequence;
+		}
+	}
+}
@@ -13,6 +13,9 @@ public class Number3dBufferList
 
 	private FloatBuffer _b;
 	private int _numElements = 0;
+
+	// Elements changed since the buffer object was last updated
+	private final DirtyRange _dirty = new DirtyRange();
 	
 	public Number3dBufferList(FloatBuffer $b, int $size)
 	{
@@ -21,6 +24,7 @@ public class Number3dBufferList
 		_b = bb.asFloatBuffer();
 		_b.put($b);
 		_numElements = $size;
+		_dirty.mark(0, $size);
 	}
 	
 	public Number3dBufferList(int $maxElements)
@@ -105,6 +109,7 @@ public class Number3dBufferList
 	
 	public void set(int $index, Number3d $n)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT);
 		_b.put($n.x);
 		_b.put($n.y);
@@ -113,6 +118,7 @@ public class Number3dBufferList
 
 	public void set(int $index, float $x, float $y, float $z)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT);
 		_b.put($x);
 		_b.put($y);
@@ -121,16 +127,19 @@ public class Number3dBufferList
 	
 	public void setPropertyX(int $index, float $x)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT);
 		_b.put($x);
 	}
 	public void setPropertyY(int $index, float $y)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT + 1);
 		_b.put($y);
 	}
 	public void setPropertyZ(int $index, float $z)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT + 2);
 		_b.put($z);
 	}
@@ -144,10 +153,33 @@ public class Number3dBufferList
 	
 	public void overwrite(float[] $newVals)
 	{
+		_dirty.mark(0, $newVals.length / PROPERTIES_PER_ELEMENT);
 		_b.position(0);
 		_b.put($newVals);
 	}
 	
+	/**
+	 * Elements changed since the buffer object was last updated
+	 */
+	DirtyRange dirtyRange() /*package-private*/
+	{
+		return _dirty;
+	}
+	
+	/**
+	 * Uses $b as the list's storage without copying it.
+	 * $b must be a direct buffer in native byte order (for example a view of a
+	 * memory-mapped file) that holds exactly $size elements.
+	 */
+	public static Number3dBufferList wrap(FloatBuffer $b, int $size)
+	{
+		Number3dBufferList l = new Number3dBufferList(0);
+		l._b = $b;
+		l._numElements = $size;
+		l._dirty.mark(0, $size);
+		return l;
+	}
+	
 	public Number3dBufferList clone()
 	{
 		_b.position(0);
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 
 import javax.microedition.khronos.opengles.GL10;
 
+import min3d.Shared;
 import min3d.interfaces.IObject3dContainer;
 import min3d.vos.Color4;
 import min3d.vos.Number3d;
@@ -27,6 +28,7 @@ public class Object3d
 	private boolean _ignoreFaces = false;
 	private boolean _colorMaterialEnabled = false;
 	private boolean _lightingEnabled = true;
+	private boolean _vboEnabled = false;
 
 	private Number3d _position = new Number3d(0,0,0);
 	private Number3d _rotation = new Number3d(0,0,0);
@@ -119,6 +121,22 @@ public class Object3d
 		System.arraycopy($matrix, 0, _matrix, 0, 16);
 	}
 	
+	/**
+	 * If true, vertices and faces are uploaded once into GL buffer objects and drawn 
+	 * from there; afterwards only the ranges that change are sent again (eg, every 
+	 * frame for an animated object). Falls back to client-side arrays when 
+	 * RenderCaps.isVboSupported() is false. 
+	 * Default is false.
+	 */
+	public boolean vboEnabled()
+	{
+		return _vboEnabled;
+	}
+	public void vboEnabled(boolean $b)
+	{
+		_vboEnabled = $b;
+	}
+	
 	/**
 	 * Determines if object will be rendered.
 	 * Default is true. 
@@ -332,6 +350,7 @@ public class Object3d
 		if(this.vertices().colors() != null)
 			this.vertices().colors().clear();
 		_textures.clear();
+		if (Shared.renderer() != null) Shared.renderer().deleteBufferObjects(_vertices, _faces);
 		if (this.parent() != null) this.parent().removeChild(this);
 	}
 
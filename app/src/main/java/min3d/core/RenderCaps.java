@@ -29,6 +29,8 @@ public class RenderCaps
 	private static int _smoothLineSizeMin;
 	private static int _smoothLineSizeMax;
 	private static int _maxLights;
+	private static boolean _isVboSupported;
+	private static boolean _isEtc1Supported;
 	
 	
 	public static float openGlVersion()
@@ -46,6 +48,14 @@ public class RenderCaps
 		return _maxTextureUnits;
 	}
 	
+	/**
+	 * Largest texture width or height; 0 before the first onSurfaceCreated()
+	 */
+	public static int maxTextureSize()
+	{
+		return _maxTextureSize;
+	}
+	
 	public static int aliasedPointSizeMin()
 	{
 		return _aliasedPointSizeMin;
@@ -91,6 +101,22 @@ public class RenderCaps
 		return _maxLights;
 	}
 	
+	/**
+	 * True if vertex and index buffer objects (GL11) can be used 
+	 */
+	public static boolean isVboSupported()
+	{
+		return _isVboSupported;
+	}
+	
+	/**
+	 * True if ETC1 compressed textures (GL_OES_compressed_ETC1_RGB8_texture) can be uploaded 
+	 */
+	public static boolean isEtc1Supported()
+	{
+		return _isEtc1Supported;
+	}
+	
 	/**
 	 * Called by Renderer.onSurfaceCreate() 
 	 */
@@ -144,10 +170,21 @@ public class RenderCaps
 		i = IntBuffer.allocate(1);
 		$gl.glGetIntegerv(GL10.GL_MAX_LIGHTS, i);
 		_maxLights = i.get(0);
+		
+		// Buffer objects are core in OpenGL ES 1.1 ("OpenGL ES-CM 1.1 ..."), but the GL
+		// object implements GL11 even on 1.0 contexts; those need the extension
+		String version = $gl.glGetString(GL10.GL_VERSION);
+		String extensions = $gl.glGetString(GL10.GL_EXTENSIONS);
+		_isVboSupported = ($gl instanceof GL11) && (
+			(version != null && version.startsWith("OpenGL ES-C") && version.startsWith("1.1", 13)) ||
+			(extensions != null && extensions.indexOf("vertex_buffer_object") != -1));
+		_isEtc1Supported = extensions != null && extensions.indexOf("GL_OES_compressed_ETC1_RGB8_texture") != -1;
 
 		Log.v(Min3d.TAG, "RenderCaps - openGLVersion: " + _openGlVersion);
 		Log.v(Min3d.TAG, "RenderCaps - maxTextureUnits: " + _maxTextureUnits);
 		Log.v(Min3d.TAG, "RenderCaps - maxTextureSize: " + _maxTextureSize);
 		Log.v(Min3d.TAG, "RenderCaps - maxLights: " + _maxLights);
+		Log.v(Min3d.TAG, "RenderCaps - isVboSupported: " + _isVboSupported);
+		Log.v(Min3d.TAG, "RenderCaps - isEtc1Supported: " + _isEtc1Supported);
 	}
 }
@@ -1,7 +1,7 @@
 package min3d.core;
 
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -29,14 +29,18 @@ public class Renderer implements GLSurfaceView.Renderer
 	public static final int NUM_GLLIGHTS = 8;
 
 	private GL10 _gl;
+	private GLState _state;
+	
+	// Identifies the current GL context, for buffer objects created in earlier ones
+	private static int _contextCount = 0;
+	private int _contextId = 0;
 	private Scene _scene;
 	private TextureManager _textureManager;
+	private GLUploadQueue _uploads;
 
 	private float _surfaceAspectRatio;
 	
-	private IntBuffer _scratchIntBuffer;
 	private FloatBuffer _scratchFloatBuffer;
-	private boolean _scratchB;
 	
 
 	// stats-related
@@ -53,12 +57,14 @@ public class Renderer implements GLSurfaceView.Renderer
 	{
 		_scene = $scene;
 
-		_scratchIntBuffer = IntBuffer.allocate(4);
+		_state = new GLState();
 		_scratchFloatBuffer = FloatBuffer.allocate(4);
 		
 		_textureManager = new TextureManager();
 		Shared.textureManager(_textureManager); 
 		
+		_uploads = new GLUploadQueue();
+		
 		_activityManager = (ActivityManager) Shared.context().getSystemService( Context.ACTIVITY_SERVICE );
 		_memoryInfo = new ActivityManager.MemoryInfo();
 	}
@@ -70,6 +76,13 @@ public class Renderer implements GLSurfaceView.Renderer
 		RenderCaps.setRenderCaps($gl);
 		
 		setGl($gl);
+		
+		// New context; nothing known about its state yet
+		_state.invalidate();
+		_contextId = ++_contextCount;
+		
+		// Pending uploads were meant for the old context
+		_uploads.clear();
 
 		reset();
 		
@@ -84,7 +97,7 @@ public class Renderer implements GLSurfaceView.Renderer
 		_surfaceAspectRatio = (float)w / (float)h;
 		
 		_gl.glViewport(0, 0, w, h);
-		_gl.glMatrixMode(GL10.GL_PROJECTION);
+		_state.matrixMode(GL10.GL_PROJECTION);
 		_gl.glLoadIdentity();
 		
 		updateViewFrustrum();
@@ -92,6 +105,12 @@ public class Renderer implements GLSurfaceView.Renderer
 	
 	public void onDrawFrame(GL10 gl)
 	{
+		// Pick up the newest marker results once per frame
+		updateMarkerObjects();
+		
+		// Uploads (and objects) posted by loader threads, within the frame budget
+		_uploads.drain();
+
 		// Update 'model'
 		_scene.update();
 		
@@ -113,6 +132,24 @@ public class Renderer implements GLSurfaceView.Renderer
 		return _gl;
 	}
 
+	/**
+	 * Shadow of the GL state changed by the renderer. Call glState().invalidate()
+	 * after changing any of that state directly through gl().
+	 */
+	public GLState glState()
+	{
+		return _state;
+	}
+
+	/**
+	 * Jobs to run on the GL thread at the start of a frame, e.g. uploads
+	 * prepared by loader threads 
+	 */
+	public GLUploadQueue uploadQueue()
+	{
+		return _uploads;
+	}
+
 	/**
 	 * Returns last sampled framerate (logFps must be set to true) 
 	 */
@@ -139,7 +176,7 @@ public class Renderer implements GLSurfaceView.Renderer
 		 
 		// Camera 
 		
-		_gl.glMatrixMode(GL10.GL_MODELVIEW);
+		_state.matrixMode(GL10.GL_MODELVIEW);
 		_gl.glLoadIdentity();
 
 		GLU.gluLookAt(_gl, 
@@ -167,7 +204,7 @@ public class Renderer implements GLSurfaceView.Renderer
 		drawSetupLights();
 		
 		// Always on:
-		_gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
+		_state.enableClientState(GL10.GL_VERTEX_ARRAY);
 	}
 	
 	protected void drawSetupLights()
@@ -179,14 +216,14 @@ public class Renderer implements GLSurfaceView.Renderer
 			{
 				if (_scene.lights().glIndexEnabled()[glIndex] == true) 
 				{
-					_gl.glEnable(GL10.GL_LIGHT0 + glIndex);
+					_state.enable(GL10.GL_LIGHT0 + glIndex);
 					
 					// make light's properties dirty to force update
 					_scene.lights().getLightByGlIndex(glIndex).setAllDirty();
 				} 
 				else 
 				{
-					_gl.glDisable(GL10.GL_LIGHT0 + glIndex);
+					_state.disable(GL10.GL_LIGHT0 + glIndex);
 				}
 				
 				_scene.lights().glIndexEnabledDirty()[glIndex] = false; // clear dirtyflag
@@ -246,9 +283,9 @@ public class Renderer implements GLSurfaceView.Renderer
 				if (light.isVisibleBm().isDirty()) 
 				{
 					if (light.isVisible()) {
-						_gl.glEnable(glLightId);
+						_state.enable(glLightId);
 					} else {
-						_gl.glDisable(glLightId);
+						_state.disable(glLightId);
 					}
 					light.isVisibleBm().clearDirtyFlag();
 				}
@@ -272,9 +309,9 @@ public class Renderer implements GLSurfaceView.Renderer
 			_gl.glFogf(GL10.GL_FOG_START, _scene.fogNear());
 			_gl.glFogf(GL10.GL_FOG_END, _scene.fogFar());
 			_gl.glFogfv(GL10.GL_FOG_COLOR, _scene.fogColor().toFloatBuffer() );
-			_gl.glEnable(GL10.GL_FOG);
+			_state.enable(GL10.GL_FOG);
 		} else {
-			_gl.glDisable(GL10.GL_FOG);
+			_state.disable(GL10.GL_FOG);
 		}
 
 		for (int i = 0; i < _scene.children().size(); i++)
@@ -296,17 +333,31 @@ public class Renderer implements GLSurfaceView.Renderer
 	{
 		if ($o.isVisible() == false) return;		
 
+		// Buffer objects, if used: bring the GPU copies up to date
+		
+		BufferObjects vbo = null;
+		if ($o.vboEnabled() && RenderCaps.isVboSupported()) {
+			vbo = updateBufferObjects($o);
+		}
+		
 		// Various per-object settings:
 		
 		// Normals
 
 		if ($o.hasNormals() && $o.normalsEnabled()) {
-			$o.vertices().normals().buffer().position(0);
-			_gl.glNormalPointer(GL10.GL_FLOAT, 0, $o.vertices().normals().buffer());
-			_gl.glEnableClientState(GL10.GL_NORMAL_ARRAY);
+			if (vbo != null) {
+				_state.bindBuffer(GL11.GL_ARRAY_BUFFER, vbo.ids[BufferObjects.NORMALS]);
+				((GL11)_gl).glNormalPointer(GL10.GL_FLOAT, 0, 0);
+			}
+			else {
+				unbindBuffer(GL11.GL_ARRAY_BUFFER);
+				$o.vertices().normals().buffer().position(0);
+				_gl.glNormalPointer(GL10.GL_FLOAT, 0, $o.vertices().normals().buffer());
+			}
+			_state.enableClientState(GL10.GL_NORMAL_ARRAY);
 		}
 		else {
-			_gl.glDisableClientState(GL10.GL_NORMAL_ARRAY);
+			_state.disableClientState(GL10.GL_NORMAL_ARRAY);
 		}
 		
 		// Is lighting enabled for object...
@@ -327,56 +378,53 @@ public class Renderer implements GLSurfaceView.Renderer
 		
 		boolean useLighting = (_scene.lightingEnabled() && $o.hasNormals() && $o.normalsEnabled() && $o.lightingEnabled());
 		if (useLighting) {
-			_gl.glEnable(GL10.GL_LIGHTING);
+			_state.enable(GL10.GL_LIGHTING);
 		} else {
-			_gl.glDisable(GL10.GL_LIGHTING);
+			_state.disable(GL10.GL_LIGHTING);
 		}
 		
 		// Shademodel
 		
-		_gl.glGetIntegerv(GL11.GL_SHADE_MODEL, _scratchIntBuffer);
-		if ($o.shadeModel().glConstant() != _scratchIntBuffer.get(0)) {
-			_gl.glShadeModel($o.shadeModel().glConstant());
-		}
+		_state.shadeModel($o.shadeModel().glConstant());
 		
 		// Colors: either per-vertex, or per-object
 
 		if ($o.hasVertexColors() && $o.vertexColorsEnabled()) {
-			$o.vertices().colors().buffer().position(0);
-			_gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, $o.vertices().colors().buffer());
-			_gl.glEnableClientState(GL10.GL_COLOR_ARRAY); 
+			if (vbo != null) {
+				_state.bindBuffer(GL11.GL_ARRAY_BUFFER, vbo.ids[BufferObjects.COLORS]);
+				((GL11)_gl).glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, 0);
+			}
+			else {
+				unbindBuffer(GL11.GL_ARRAY_BUFFER);
+				$o.vertices().colors().buffer().position(0);
+				_gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, $o.vertices().colors().buffer());
+			}
+			_state.enableClientState(GL10.GL_COLOR_ARRAY); 
 		}
 		else {
-			_gl.glColor4f(
+			_state.color4f(
 				(float)$o.defaultColor().r / 255f, 
 				(float)$o.defaultColor().g / 255f, 
 				(float)$o.defaultColor().b / 255f, 
 				(float)$o.defaultColor().a / 255f
 			);
-			_gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
+			_state.disableClientState(GL10.GL_COLOR_ARRAY);
 		}
 		
 		// Colormaterial
 		
-		_gl.glGetIntegerv(GL10.GL_COLOR_MATERIAL, _scratchIntBuffer);
-		_scratchB = (_scratchIntBuffer.get(0) != 0);
-		if ($o.colorMaterialEnabled() != _scratchB) {
-			if ($o.colorMaterialEnabled())
-				_gl.glEnable(GL10.GL_COLOR_MATERIAL);
-			else
-				_gl.glDisable(GL10.GL_COLOR_MATERIAL);
-		}
+		_state.setCap(GL10.GL_COLOR_MATERIAL, $o.colorMaterialEnabled());
 		
 		// Point size
 		
 		if ($o.renderType() == RenderType.POINTS) 
 		{
 			if ($o.pointSmoothing()) 
-				_gl.glEnable(GL10.GL_POINT_SMOOTH);
+				_state.enable(GL10.GL_POINT_SMOOTH);
 			else
-				_gl.glDisable(GL10.GL_POINT_SMOOTH);
+				_state.disable(GL10.GL_POINT_SMOOTH);
 			
-			_gl.glPointSize($o.pointSize());
+			_state.pointSize($o.pointSize());
 		}
 
 		// Line properties
@@ -384,26 +432,26 @@ public class Renderer implements GLSurfaceView.Renderer
 		if ($o.renderType() == RenderType.LINES || $o.renderType() == RenderType.LINE_STRIP || $o.renderType() == RenderType.LINE_LOOP) 
 		{
 			if ( $o.lineSmoothing() == true) {
-				_gl.glEnable(GL10.GL_LINE_SMOOTH);
+				_state.enable(GL10.GL_LINE_SMOOTH);
 			}
 			else {
-				_gl.glDisable(GL10.GL_LINE_SMOOTH);
+				_state.disable(GL10.GL_LINE_SMOOTH);
 			}
 
-			_gl.glLineWidth($o.lineWidth());
+			_state.lineWidth($o.lineWidth());
 		}
 
 		// Backface culling 
 		
 		if ($o.doubleSidedEnabled()) {
-		    _gl.glDisable(GL10.GL_CULL_FACE);
+		    _state.disable(GL10.GL_CULL_FACE);
 		} 
 		else {
-		    _gl.glEnable(GL10.GL_CULL_FACE);
+		    _state.enable(GL10.GL_CULL_FACE);
 		}
 		
 
-		drawObject_textures($o);
+		drawObject_textures($o, vbo);
 
 		
 		// Matrix operations in modelview
@@ -423,8 +471,15 @@ public class Renderer implements GLSurfaceView.Renderer
 		
 		// Draw
 
-		$o.vertices().points().buffer().position(0);
-		_gl.glVertexPointer(3, GL10.GL_FLOAT, 0, $o.vertices().points().buffer());
+		if (vbo != null) {
+			_state.bindBuffer(GL11.GL_ARRAY_BUFFER, vbo.ids[BufferObjects.POINTS]);
+			((GL11)_gl).glVertexPointer(3, GL10.GL_FLOAT, 0, 0);
+		}
+		else {
+			unbindBuffer(GL11.GL_ARRAY_BUFFER);
+			$o.vertices().points().buffer().position(0);
+			_gl.glVertexPointer(3, GL10.GL_FLOAT, 0, $o.vertices().points().buffer());
+		}
 
 		if (! $o.ignoreFaces())
 		{
@@ -439,13 +494,24 @@ public class Renderer implements GLSurfaceView.Renderer
 				len = $o.faces().renderSubsetLength();
 			}
 
-			$o.faces().buffer().position(pos);
-
-			_gl.glDrawElements(
-					$o.renderType().glValue(),
-					len * FacesBufferedList.PROPERTIES_PER_ELEMENT, 
-					GL10.GL_UNSIGNED_SHORT, 
-					$o.faces().buffer());
+			if (vbo != null) {
+				_state.bindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, $o.faces().bufferObjects().ids[BufferObjects.FACES]);
+				((GL11)_gl).glDrawElements(
+						$o.renderType().glValue(),
+						len * FacesBufferedList.PROPERTIES_PER_ELEMENT, 
+						GL10.GL_UNSIGNED_SHORT, 
+						pos * FacesBufferedList.BYTES_PER_PROPERTY);
+			}
+			else {
+				unbindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER);
+				$o.faces().buffer().position(pos);
+	
+				_gl.glDrawElements(
+						$o.renderType().glValue(),
+						len * FacesBufferedList.PROPERTIES_PER_ELEMENT, 
+						GL10.GL_UNSIGNED_SHORT, 
+						$o.faces().buffer());
+			}
 		}
 		else
 		{
@@ -472,19 +538,30 @@ public class Renderer implements GLSurfaceView.Renderer
 		_gl.glPopMatrix();
 	}
 	
-	private void drawObject_textures(Object3d $o)
+	private void drawObject_textures(Object3d $o, BufferObjects $vbo)
 	{
 		// iterate thru object's textures
 		
 		for (int i = 0; i < RenderCaps.maxTextureUnits(); i++)
 		{
-			_gl.glActiveTexture(GL10.GL_TEXTURE0 + i);
-			_gl.glClientActiveTexture(GL10.GL_TEXTURE0 + i); 
+			// Unit not used by this object and already off; no need to even select it
+			boolean useUnit = $o.hasUvs() && $o.texturesEnabled() && i < $o.textures().size();
+			if (! useUnit && _state.isTextureUnitOff(i)) continue;
+
+			_state.activeTexture(GL10.GL_TEXTURE0 + i);
+			_state.clientActiveTexture(GL10.GL_TEXTURE0 + i); 
 
 			if ($o.hasUvs() && $o.texturesEnabled())
 			{
-				$o.vertices().uvs().buffer().position(0);
-				_gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, $o.vertices().uvs().buffer());
+				if ($vbo != null) {
+					_state.bindBuffer(GL11.GL_ARRAY_BUFFER, $vbo.ids[BufferObjects.UVS]);
+					((GL11)_gl).glTexCoordPointer(2, GL10.GL_FLOAT, 0, 0);
+				}
+				else {
+					unbindBuffer(GL11.GL_ARRAY_BUFFER);
+					$o.vertices().uvs().buffer().position(0);
+					_gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, $o.vertices().uvs().buffer());
+				}
 
 				TextureVo textureVo = ((i < $o.textures().size())) ? textureVo = $o.textures().get(i) : null;
 
@@ -492,13 +569,13 @@ public class Renderer implements GLSurfaceView.Renderer
 				{
 					// activate texture
 					int glId = _textureManager.getGlTextureId(textureVo.textureId);
-					_gl.glBindTexture(GL10.GL_TEXTURE_2D, glId);
-				    _gl.glEnable(GL10.GL_TEXTURE_2D);
-					_gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+					_state.bindTexture(glId);
+				    _state.enable(GL10.GL_TEXTURE_2D);
+					_state.enableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
 
 					int minFilterType = _textureManager.hasMipMap(textureVo.textureId) ? GL10.GL_LINEAR_MIPMAP_NEAREST : GL10.GL_NEAREST; 
-					_gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER, minFilterType);
-					_gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR); // (OpenGL default)
+					_state.texParameterf(GL10.GL_TEXTURE_MIN_FILTER, minFilterType);
+					_state.texParameterf(GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR); // (OpenGL default)
 					
 					// do texture environment settings
 					for (int j = 0; j < textureVo.textureEnvs.size(); j++)
@@ -507,31 +584,186 @@ public class Renderer implements GLSurfaceView.Renderer
 					}
 					
 					// texture wrapping settings
-					_gl.glTexParameterx(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S, (textureVo.repeatU ? GL10.GL_REPEAT : GL10.GL_CLAMP_TO_EDGE));
-					_gl.glTexParameterx(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T, (textureVo.repeatV ? GL10.GL_REPEAT : GL10.GL_CLAMP_TO_EDGE));		
+					_state.texParameterx(GL10.GL_TEXTURE_WRAP_S, (textureVo.repeatU ? GL10.GL_REPEAT : GL10.GL_CLAMP_TO_EDGE));
+					_state.texParameterx(GL10.GL_TEXTURE_WRAP_T, (textureVo.repeatV ? GL10.GL_REPEAT : GL10.GL_CLAMP_TO_EDGE));		
 
 					// texture offset, if any
 					if (textureVo.offsetU != 0 || textureVo.offsetV != 0)
 					{
-						_gl.glMatrixMode(GL10.GL_TEXTURE);
+						_state.matrixMode(GL10.GL_TEXTURE);
 						_gl.glLoadIdentity();
 						_gl.glTranslatef(textureVo.offsetU, textureVo.offsetV, 0);
-						_gl.glMatrixMode(GL10.GL_MODELVIEW); // .. restore matrixmode
+						_state.matrixMode(GL10.GL_MODELVIEW); // .. restore matrixmode
 					}
 				}
 				else
 				{
-					_gl.glBindTexture(GL10.GL_TEXTURE_2D, 0);
-				    _gl.glDisable(GL10.GL_TEXTURE_2D);
-					_gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+					_state.bindTexture(0);
+				    _state.disable(GL10.GL_TEXTURE_2D);
+					_state.disableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
 				}
 			}
 			else
 			{
-				_gl.glBindTexture(GL10.GL_TEXTURE_2D, 0);
-			    _gl.glDisable(GL10.GL_TEXTURE_2D);
-				_gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+				_state.bindTexture(0);
+			    _state.disable(GL10.GL_TEXTURE_2D);
+				_state.disableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+			}
+		}
+	}
+	
+	/**
+	 * Creates $o's buffer objects in the current context if needed, and sends 
+	 * whatever changed in its vertex and face lists since the last call. 
+	 * Returns the buffer objects of the vertex lists.
+	 */
+	private BufferObjects updateBufferObjects(Object3d $o)
+	{
+		int usage = $o.animationEnabled() ? GL11.GL_DYNAMIC_DRAW : GL11.GL_STATIC_DRAW;
+		
+		Vertices v = $o.vertices();
+		BufferObjects vbo = v.bufferObjects();
+		if (vbo == null || vbo.contextId != _contextId) {
+			vbo = genBufferObjects(BufferObjects.NUM_VERTEX_SLOTS);
+			v.bufferObjects(vbo);
+		}
+		
+		Number3dBufferList points = v.points();
+		updateBuffer(vbo, BufferObjects.POINTS, GL11.GL_ARRAY_BUFFER, points.buffer(), points.size(), 
+				Number3dBufferList.PROPERTIES_PER_ELEMENT, Number3dBufferList.BYTES_PER_PROPERTY, 
+				points.dirtyRange(), usage);
+		
+		if (v.hasUvs()) {
+			UvBufferList uvs = v.uvs();
+			updateBuffer(vbo, BufferObjects.UVS, GL11.GL_ARRAY_BUFFER, uvs.buffer(), uvs.size(), 
+					UvBufferList.PROPERTIES_PER_ELEMENT, UvBufferList.BYTES_PER_PROPERTY, 
+					uvs.dirtyRange(), usage);
+		}
+		if (v.hasNormals()) {
+			Number3dBufferList normals = v.normals();
+			updateBuffer(vbo, BufferObjects.NORMALS, GL11.GL_ARRAY_BUFFER, normals.buffer(), normals.size(), 
+					Number3dBufferList.PROPERTIES_PER_ELEMENT, Number3dBufferList.BYTES_PER_PROPERTY, 
+					normals.dirtyRange(), usage);
+		}
+		if (v.hasColors()) {
+			Color4BufferList colors = v.colors();
+			updateBuffer(vbo, BufferObjects.COLORS, GL11.GL_ARRAY_BUFFER, colors.buffer(), colors.size(), 
+					Color4BufferList.PROPERTIES_PER_ELEMENT, Color4BufferList.BYTES_PER_PROPERTY, 
+					colors.dirtyRange(), usage);
+		}
+		
+		if (! $o.ignoreFaces())
+		{
+			FacesBufferedList faces = $o.faces();
+			BufferObjects ibo = faces.bufferObjects();
+			if (ibo == null || ibo.contextId != _contextId) {
+				ibo = genBufferObjects(1);
+				faces.bufferObjects(ibo);
+			}
+			updateBuffer(ibo, BufferObjects.FACES, GL11.GL_ELEMENT_ARRAY_BUFFER, faces.buffer(), faces.size(), 
+					FacesBufferedList.PROPERTIES_PER_ELEMENT, FacesBufferedList.BYTES_PER_PROPERTY, 
+					faces.dirtyRange(), GL11.GL_STATIC_DRAW);
+		}
+		
+		return vbo;
+	}
+	
+	/**
+	 * Sends the lists of $o and of its children to their buffer objects now,
+	 * rather than when they are first drawn. Only affects objects with
+	 * vboEnabled(). GL thread only.
+	 */
+	public void uploadBufferObjects(Object3d $o)
+	{
+		if ($o.vboEnabled() && RenderCaps.isVboSupported()) {
+			updateBufferObjects($o);
+		}
+		if ($o instanceof Object3dContainer) {
+			Object3dContainer c = (Object3dContainer)$o;
+			for (int i = 0; i < c.numChildren(); i++) {
+				uploadBufferObjects(c.getChildAt(i));
+			}
+		}
+	}
+	
+	private BufferObjects genBufferObjects(int $numSlots)
+	{
+		BufferObjects bo = new BufferObjects($numSlots, _contextId);
+		((GL11)_gl).glGenBuffers($numSlots, bo.ids, 0);
+		return bo;
+	}
+	
+	/**
+	 * Allocates the buffer in slot $slot with all of $data the first time (or when the list 
+	 * has grown), otherwise only sends the elements in $dirty. Clears $dirty.
+	 */
+	private void updateBuffer(BufferObjects $bo, int $slot, int $target, Buffer $data, int $size, 
+			int $propertiesPerElement, int $bytesPerProperty, DirtyRange $dirty, int $usage)
+	{
+		int dirtyFrom = $dirty.from();
+		int dirtyTo = $dirty.to();
+		$dirty.clear();
+		
+		if ($size == 0) return;
+		
+		int elementBytes = $propertiesPerElement * $bytesPerProperty;
+		
+		if ($bo.allocatedElements[$slot] < $size)
+		{
+			_state.bindBuffer($target, $bo.ids[$slot]);
+			$data.position(0);
+			((GL11)_gl).glBufferData($target, $size * elementBytes, $data, $usage);
+			$bo.allocatedElements[$slot] = $size;
+		}
+		else
+		{
+			int to = Math.min(dirtyTo, $size);
+			if (to <= dirtyFrom) return;
+			
+			_state.bindBuffer($target, $bo.ids[$slot]);
+			$data.position(dirtyFrom * $propertiesPerElement);
+			((GL11)_gl).glBufferSubData($target, dirtyFrom * elementBytes, (to - dirtyFrom) * elementBytes, $data);
+		}
+	}
+	
+	/**
+	 * Back to client-side arrays for the next gl*Pointer() or glDrawElements() call
+	 */
+	private void unbindBuffer(int $target)
+	{
+		if (RenderCaps.isVboSupported()) {
+			_state.bindBuffer($target, 0);
+		}
+	}
+	
+	/**
+	 * Used by Object3d.clear(), which may be called from any thread.
+	 * The GL calls are posted to the upload queue and run on the GL thread.
+	 */
+	void deleteBufferObjects(final Vertices $vertices, final FacesBufferedList $faces) /*package-private*/
+	{
+		_uploads.post(new Runnable() {
+			public void run() {
+				if ($vertices != null) {
+					deleteBufferObjects($vertices.bufferObjects());
+					$vertices.bufferObjects(null);
+				}
+				if ($faces != null) {
+					deleteBufferObjects($faces.bufferObjects());
+					$faces.bufferObjects(null);
+				}
 			}
+		});
+	}
+	
+	private void deleteBufferObjects(BufferObjects $bo)
+	{
+		// Names from an earlier context went away with it
+		if ($bo == null || $bo.contextId != _contextId) return;
+		
+		((GL11)_gl).glDeleteBuffers($bo.ids.length, $bo.ids, 0);
+		for (int i = 0; i < $bo.ids.length; i++) {
+			_state.forgetBuffer($bo.ids[i]);
 		}
 	}
 	
@@ -545,7 +777,7 @@ public class Renderer implements GLSurfaceView.Renderer
 		int[] a = new int[1];
 		_gl.glGenTextures(1, a, 0); // create a 'texture name' and put it in array element 0
 		glTextureId = a[0];
-		_gl.glBindTexture(GL10.GL_TEXTURE_2D, glTextureId);
+		_state.bindTexture(glTextureId);
 		
 		if($generateMipMap && _gl instanceof GL11) {
 			_gl.glTexParameterf(GL11.GL_TEXTURE_2D, GL11.GL_GENERATE_MIPMAP, GL11.GL_TRUE);
@@ -559,6 +791,23 @@ public class Renderer implements GLSurfaceView.Renderer
 		return glTextureId;
 	}
 	
+	/**
+	 * Used by TextureManager
+	 */
+	int uploadCompressedTextureAndReturnId(TextureCache.Etc1Texture $texture) /*package-private*/
+	{
+		int[] a = new int[1];
+		_gl.glGenTextures(1, a, 0);
+		int glTextureId = a[0];
+		_state.bindTexture(glTextureId);
+		
+		// Compressed textures bring their own mipmap levels, if any
+		_gl.glTexParameterf(GL11.GL_TEXTURE_2D, GL11.GL_GENERATE_MIPMAP, GL11.GL_FALSE);
+		$texture.upload(_gl);
+		
+		return glTextureId;
+	}
+	
 
 	/**
 	 * Used by TextureManager
@@ -568,6 +817,7 @@ public class Renderer implements GLSurfaceView.Renderer
 		int[] a = new int[1];
 		a[0] = $glTextureId;
 		_gl.glDeleteTextures(1, a, 0);
+		_state.forgetTexture($glTextureId);
 	}
 	
 	protected void updateViewFrustrum()
@@ -589,7 +839,7 @@ public class Renderer implements GLSurfaceView.Renderer
 			top *= 1f/_surfaceAspectRatio;
 		}
 		
-		_gl.glMatrixMode(GL10.GL_PROJECTION);
+		_state.matrixMode(GL10.GL_PROJECTION);
 		_gl.glLoadIdentity();
 		_gl.glFrustumf(lt,rt, btm,top, vf.zNear(), vf.zFar());
 		
@@ -613,6 +863,7 @@ public class Renderer implements GLSurfaceView.Renderer
 	private void setGl(GL10 $gl)
 	{
 		_gl = $gl;
+		_state.setGl($gl);
 	}
 	
 	private void doFps()
@@ -641,14 +892,14 @@ public class Renderer implements GLSurfaceView.Renderer
 		// Do OpenGL settings which we are using as defaults, or which we will not be changing on-draw
 		
 	    // Explicit depth settings
-		_gl.glEnable(GL10.GL_DEPTH_TEST);									
+		_state.enable(GL10.GL_DEPTH_TEST);									
 		_gl.glClearDepthf(1.0f);
 		_gl.glDepthFunc(GL10.GL_LESS);										
 		_gl.glDepthRangef(0,1f);											
 		_gl.glDepthMask(true);												
 
 		// Alpha enabled
-		_gl.glEnable(GL10.GL_BLEND);										
+		_state.enable(GL10.GL_BLEND);										
 		_gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA); 	
 		
 		// "Transparency is best implemented using glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA) 
@@ -661,11 +912,11 @@ public class Renderer implements GLSurfaceView.Renderer
 		// CCW frontfaces only, by default
 		_gl.glFrontFace(GL10.GL_CCW);
 	    _gl.glCullFace(GL10.GL_BACK);
-	    _gl.glEnable(GL10.GL_CULL_FACE);
+	    _state.enable(GL10.GL_CULL_FACE);
 	    
 	    // Disable lights by default
 	    for (int i = GL10.GL_LIGHT0; i < GL10.GL_LIGHT0 + NUM_GLLIGHTS; i++) {
-	    	_gl.glDisable(i);
+	    	_state.disable(i);
 	    }
 
 		//
@@ -674,43 +925,48 @@ public class Renderer implements GLSurfaceView.Renderer
 	}
 
 	// for NyARToolkit I/F
-	private static final int MARKER_MAX = 8;
-	private int found_markers;
-	private int [] ar_code_index = new int[MARKER_MAX];
-	private float [][] resultf = new float[MARKER_MAX][16];
-	private float [] cameraRHf = new float[16];
+	// Written by the detection thread, taken by the GL thread at the start of onDrawFrame()
+	private MarkerResultBuffer _markerResults = new MarkerResultBuffer();
+	private float[] _scratchPose = new float[16];
 
+	/**
+	 * Called from the detection thread. Only publishes the results;
+	 * the scene is updated on the GL thread in onDrawFrame().
+	 */
     public void objectPointChanged(int found_markers, int [] ar_code_index, float[][] resultf,
     		   float[] cameraRHf) {
+    	objectPointChanged(found_markers, ar_code_index, resultf, cameraRHf, System.nanoTime());
+    }
 
-    	synchronized (this) {
-			this.found_markers = found_markers;
-			for (int i = 0; i < this.found_markers; i++) {
-				this.ar_code_index[i] = ar_code_index[i];
-				System.arraycopy(resultf[i], 0, this.resultf[i], 0, 16);
-			}
-			System.arraycopy(cameraRHf, 0, this.cameraRHf, 0, 16);
-		}
+    public void objectPointChanged(int found_markers, int [] ar_code_index, float[][] resultf,
+    		   float[] cameraRHf, long timestamp) {
+    	_markerResults.publish(found_markers, ar_code_index, resultf, cameraRHf, timestamp);
+    }
 
-		objectClear();
+	/**
+	 * Called from the detection thread when no marker was found.
+	 */
+	public void objectClear() {
+		_markerResults.publish(0, null, null, null, System.nanoTime());
+	}
 
-		for (int i = 0; i < this.found_markers; i++) {
+	/**
+	 * Marker results currently applied to the scene. Only valid on the GL thread.
+	 */
+	public MarkerResultBuffer.Frame markerResults()
+	{
+		return _markerResults.front();
+	}
 
-			if (ar_code_index[i] > (_scene.children().size() - 1))
-				continue;
+	/**
+	 * Applies the newest marker results to the scene objects (GL thread)
+	 */
+	protected void updateMarkerObjects()
+	{
+		if (! _markerResults.acquire()) return;
 
-			Log.i("min3D Render","Draw Model number:" + ar_code_index[i]);
-			Object3d o = _scene.children().get(ar_code_index[i]);
-			if (!o.isVisible()) {
-				if (o.animationEnabled())
-					((AnimationObject3d)o).play();
-				o.isVisible(true);
-				o.matrix(resultf[i]);
-			}
-		}
-    }
+		MarkerResultBuffer.Frame f = _markerResults.front();
 
-	public void objectClear() {
 		for (int i = 0; i < _scene.children().size(); i++)
 		{
 			Object3d o = _scene.children().get(i);
@@ -718,6 +974,21 @@ public class Renderer implements GLSurfaceView.Renderer
 				((AnimationObject3d)o).pause();
 			o.isVisible(false);
 		}
+
+		for (int i = 0; i < f.count(); i++) {
+
+			if (f.id(i) > (_scene.children().size() - 1))
+				continue;
+
+			Object3d o = _scene.children().get(f.id(i));
+			if (!o.isVisible()) {
+				if (o.animationEnabled())
+					((AnimationObject3d)o).play();
+				o.isVisible(true);
+				f.pose(i, _scratchPose);
+				o.matrix(_scratchPose);
+			}
+		}
 	}
 }
 
@@ -0,0 +1,408 @@
+package min3d.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import min3d.Min3d;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * Disk cache of textures compressed to ETC1 (see Etc1), for devices with
+ * GL_OES_compressed_ETC1_RGB8_texture (RenderCaps.isEtc1Supported()).
+ *
+ * Textures are keyed by a hash of their source: the image file, or the
+ * decoded pixels when only a Bitmap is at hand. The first load encodes the
+ * texture and saves it; later loads map the file and upload the compressed
+ * data as it is, which takes an eighth of the memory of ARGB_8888.
+ *
+ * ETC1 has no alpha. An Etc1Texture can carry the alpha as a separate 8 bit
+ * plane, uploaded as a GL_ALPHA texture and combined on a second texture unit
+ * with GL_MODULATE; it's up to the caller to do so (KGLTextures does).
+ * TextureManager only compresses opaque textures.
+ */
+public class TextureCache
+{
+	// "M3DT"
+	private static final int MAGIC = 0x4d334454;
+	// Increase whenever the format or the encoder's output changes
+	private static final int VERSION = 1;
+
+	private static final int FLAG_ALPHA = 0x1;
+
+	private static File _cacheDir;
+
+
+	/**
+	 * Directory to keep compressed textures in (e.g. Context.getCacheDir()).
+	 * null, the default, turns compression off.
+	 */
+	public static synchronized void setCacheDirectory(File $dir)
+	{
+		_cacheDir = $dir;
+	}
+
+	public static synchronized File getCacheDirectory()
+	{
+		return _cacheDir;
+	}
+
+	/**
+	 * Content hash of a source file: length in the upper 32 bits, CRC32 in the lower.
+	 * Doesn't close $in.
+	 */
+	public static long hash(InputStream $in) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		byte[] buf = new byte[8192];
+		long length = 0;
+		int n;
+		while ((n = $in.read(buf)) > 0) {
+			crc.update(buf, 0, n);
+			length += n;
+		}
+		return (length << 32) | crc.getValue();
+	}
+
+	/**
+	 * Content hash of decoded pixels (64-bit FNV-1a)
+	 */
+	public static long hash(int[] $argb, int $width, int $height)
+	{
+		long h = 0xcbf29ce484222325L;
+		h = (h ^ $width) * 0x100000001b3L;
+		h = (h ^ $height) * 0x100000001b3L;
+		for (int i = 0; i < $width * $height; i++) {
+			h = (h ^ $argb[i]) * 0x100000001b3L;
+		}
+		return h;
+	}
+
+	public static boolean isOpaque(int[] $argb, int $length)
+	{
+		for (int i = 0; i < $length; i++) {
+			if (($argb[i] >>> 24) != 0xff) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The cached texture for $key, or null if there is none (or no cache directory)
+	 */
+	public static Etc1Texture get(long $key, boolean $mipMap)
+	{
+		File file = file($key, $mipMap);
+		if (file == null || ! file.isFile()) return null;
+
+		RandomAccessFile raf = null;
+		try
+		{
+			raf = new RandomAccessFile(file, "r");
+			FileChannel ch = raf.getChannel();
+			MappedByteBuffer bb = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+
+			if (bb.getInt() != MAGIC || bb.getInt() != VERSION || bb.getLong() != $key) {
+				return null;
+			}
+			int width = bb.getInt();
+			int height = bb.getInt();
+			int flags = bb.getInt();
+			ByteBuffer[] levels = new ByteBuffer[bb.getInt()];
+			for (int i = 0; i < levels.length; i++) {
+				levels[i] = slice(bb, bb.getInt());
+			}
+			ByteBuffer alpha = (flags & FLAG_ALPHA) != 0 ? slice(bb, width * height) : null;
+			return new Etc1Texture(width, height, levels, alpha);
+		}
+		catch (Exception e)
+		{
+			// Unreadable or truncated file; it gets rewritten after encoding
+			Log.d(Min3d.TAG, "Ignoring texture cache " + file + ": " + e);
+			return null;
+		}
+		finally
+		{
+			if (raf != null) {
+				try { raf.close(); } catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * Encodes ARGB pixels and, if there is a cache directory, saves them under $key.
+	 * With $mipMap, all mipmap levels down to 1x1 are encoded. With $alphaPlane,
+	 * the alpha is kept as a separate plane (mipmaps don't get one).
+	 */
+	public static Etc1Texture put(long $key, int[] $argb, int $width, int $height, boolean $mipMap, boolean $alphaPlane)
+	{
+		long start = System.nanoTime();
+
+		int numLevels = 1;
+		if ($mipMap) {
+			for (int s = Math.max($width, $height); s > 1; s >>= 1) numLevels++;
+		}
+		ByteBuffer[] levels = new ByteBuffer[numLevels];
+		int[] pixels = $argb;
+		int w = $width;
+		int h = $height;
+		for (int i = 0; i < numLevels; i++)
+		{
+			levels[i] = ByteBuffer.wrap(Etc1.encode(pixels, w, h));
+			if (i + 1 < numLevels) {
+				pixels = downsample(pixels, w, h);
+				w = Math.max(1, w >> 1);
+				h = Math.max(1, h >> 1);
+			}
+		}
+
+		ByteBuffer alpha = null;
+		if ($alphaPlane) {
+			byte[] a = new byte[$width * $height];
+			for (int i = 0; i < a.length; i++) a[i] = (byte)($argb[i] >>> 24);
+			alpha = ByteBuffer.wrap(a);
+		}
+
+		Etc1Texture t = new Etc1Texture($width, $height, levels, alpha);
+		Log.d(Min3d.TAG, "Encoded ETC1 " + t + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+		save(file($key, $mipMap), $key, t);
+		return t;
+	}
+
+	/**
+	 * For TextureManager: the compressed version of an opaque Bitmap, from the
+	 * cache or encoded now. $key is the hash of the Bitmap's source, or 0 to
+	 * hash its pixels. Returns null without a cache directory, or if the Bitmap
+	 * has any alpha. Needs no GL context; parsers call it on their loader thread.
+	 */
+	public static Etc1Texture compress(Bitmap $b, long $key, boolean $mipMap)
+	{
+		if (getCacheDirectory() == null) return null;
+
+		int w = $b.getWidth();
+		int h = $b.getHeight();
+		if ($key != 0) {
+			Etc1Texture t = get($key, $mipMap);
+			if (t != null) return t;
+		}
+
+		int[] argb = new int[w * h];
+		$b.getPixels(argb, 0, w, 0, 0, w, h);
+		if (! isOpaque(argb, argb.length)) return null;
+
+		if ($key == 0) {
+			$key = hash(argb, w, h);
+			Etc1Texture t = get($key, $mipMap);
+			if (t != null) return t;
+		}
+		return put($key, argb, w, h, $mipMap, false);
+	}
+
+	//
+
+	/**
+	 * ETC1 data (every mipmap level) and optional alpha plane of a texture.
+	 * The buffers are views of the cache file, or of the encoder's arrays.
+	 */
+	public static class Etc1Texture
+	{
+		private int _width;
+		private int _height;
+		private ByteBuffer[] _levels;
+		private ByteBuffer _alpha;
+
+		Etc1Texture(int $width, int $height, ByteBuffer[] $levels, ByteBuffer $alpha) /*package-private*/
+		{
+			_width = $width;
+			_height = $height;
+			_levels = $levels;
+			_alpha = $alpha;
+		}
+
+		public int width()
+		{
+			return _width;
+		}
+
+		public int height()
+		{
+			return _height;
+		}
+
+		public int numLevels()
+		{
+			return _levels.length;
+		}
+
+		public boolean hasAlpha()
+		{
+			return _alpha != null;
+		}
+
+		/**
+		 * ETC1 data of mipmap level $level
+		 */
+		ByteBuffer levelData(int $level) /*package-private*/
+		{
+			return _levels[$level];
+		}
+
+		/**
+		 * The alpha plane, or null
+		 */
+		ByteBuffer alphaData() /*package-private*/
+		{
+			return _alpha;
+		}
+
+		/**
+		 * Bytes of texture memory, including the alpha plane
+		 */
+		public int byteSize()
+		{
+			int n = _alpha != null ? _alpha.capacity() : 0;
+			for (ByteBuffer b : _levels) n += b.capacity();
+			return n;
+		}
+
+		/**
+		 * Uploads every level to the bound texture
+		 */
+		public void upload(GL10 $gl)
+		{
+			int w = _width;
+			int h = _height;
+			for (int i = 0; i < _levels.length; i++)
+			{
+				ByteBuffer b = _levels[i].duplicate();
+				b.position(0);
+				$gl.glCompressedTexImage2D(GL10.GL_TEXTURE_2D, i, Etc1.ETC1_RGB8_OES, w, h, 0, b.capacity(), b);
+				w = Math.max(1, w >> 1);
+				h = Math.max(1, h >> 1);
+			}
+		}
+
+		/**
+		 * Uploads the alpha plane to the bound texture, as GL_ALPHA
+		 */
+		public void uploadAlpha(GL10 $gl)
+		{
+			ByteBuffer b = _alpha.duplicate();
+			b.position(0);
+			$gl.glPixelStorei(GL10.GL_UNPACK_ALIGNMENT, 1);
+			$gl.glTexImage2D(GL10.GL_TEXTURE_2D, 0, GL10.GL_ALPHA, _width, _height, 0, GL10.GL_ALPHA, GL10.GL_UNSIGNED_BYTE, b);
+		}
+
+		public String toString()
+		{
+			return _width + "x" + _height + ", " + _levels.length + " level(s)" + (_alpha != null ? " + alpha" : "")
+					+ ", " + byteSize() + " bytes";
+		}
+	}
+
+	//
+
+	private static File file(long $key, boolean $mipMap)
+	{
+		File dir = getCacheDirectory();
+		if (dir == null) return null;
+		return new File(dir, "etc1_" + Long.toHexString($key) + ($mipMap ? "_mip" : "") + ".bin");
+	}
+
+	/**
+	 * Writes to a temporary file first and then renames it, so a partly
+	 * written file is never loaded. Failures are only logged. Loader threads
+	 * may save the same texture at once, so each writes its own temporary file.
+	 */
+	private static void save(File $file, long $key, Etc1Texture $t)
+	{
+		if ($file == null) return;
+
+		File tmp = new File($file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		DataOutputStream out = null;
+		try
+		{
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong($key);
+			out.writeInt($t._width);
+			out.writeInt($t._height);
+			out.writeInt($t._alpha != null ? FLAG_ALPHA : 0);
+			out.writeInt($t._levels.length);
+			for (ByteBuffer b : $t._levels) {
+				out.writeInt(b.capacity());
+				out.write(b.array(), 0, b.capacity());
+			}
+			if ($t._alpha != null) {
+				out.write($t._alpha.array(), 0, $t._alpha.capacity());
+			}
+			out.close();
+			out = null;
+			if (! tmp.renameTo($file)) {
+				$file.delete();
+				if (! tmp.renameTo($file)) throw new IOException("rename failed");
+			}
+		}
+		catch (IOException e)
+		{
+			Log.d(Min3d.TAG, "Could not write texture cache " + $file + ": " + e);
+			tmp.delete();
+		}
+		finally
+		{
+			if (out != null) {
+				try { out.close(); } catch (IOException e) {}
+			}
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer $bb, int $length)
+	{
+		ByteBuffer b = $bb.slice();
+		b.limit($length);
+		$bb.position($bb.position() + $length);
+		return b.slice();
+	}
+
+	/**
+	 * Next mipmap level: the average of each 2x2 square (or 2x1 at odd edges)
+	 */
+	private static int[] downsample(int[] $argb, int $width, int $height)
+	{
+		int w = Math.max(1, $width >> 1);
+		int h = Math.max(1, $height >> 1);
+		int[] out = new int[w * h];
+		for (int y = 0; y < h; y++)
+		{
+			int y0 = Math.min(y * 2, $height - 1) * $width;
+			int y1 = Math.min(y * 2 + 1, $height - 1) * $width;
+			for (int x = 0; x < w; x++)
+			{
+				int x0 = Math.min(x * 2, $width - 1);
+				int x1 = Math.min(x * 2 + 1, $width - 1);
+				int p0 = $argb[y0 + x0];
+				int p1 = $argb[y0 + x1];
+				int p2 = $argb[y1 + x0];
+				int p3 = $argb[y1 + x1];
+				int c = 0;
+				for (int s = 0; s < 32; s += 8) {
+					int v = ((p0 >>> s) & 0xff) + ((p1 >>> s) & 0xff) + ((p2 >>> s) & 0xff) + ((p3 >>> s) & 0xff);
+					c |= ((v + 2) >> 2) << s;
+				}
+				out[y * w + x] = c;
+			}
+		}
+		return out;
+	}
+}
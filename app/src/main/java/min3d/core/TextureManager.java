@@ -1,10 +1,14 @@
 package min3d.core;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import min3d.Min3d;
 import min3d.Shared;
+import min3d.Utils;
 import android.graphics.Bitmap;
 import android.util.Log;
 
@@ -21,7 +25,8 @@ public class TextureManager
 	private HashMap<String, Integer> _idToTextureName;
 	private HashMap<String, Boolean> _idToHasMipMap;
 	private static int _counter = 1000001;
-	private static int _atlasId = 0;
+	// Atlases are generated by loader threads too
+	private static AtomicInteger _atlasId = new AtomicInteger(0);
 	
 	
 	public TextureManager()
@@ -52,24 +57,92 @@ public class TextureManager
 	 * 'Uploads' a texture via OpenGL which is mapped to a textureId to the TextureManager, 
 	 * which can subsequently be used to assign textures to Object3d's. 
 	 * 
+	 * When a TextureCache directory is set and the device supports ETC1, opaque 
+	 * textures are uploaded compressed, from the cache or encoded the first time. 
+	 * 
 	 * @return The textureId as added to TextureManager, which is identical to $id 
 	 */
 	public String addTextureId(Bitmap $b, String $id, boolean $generateMipMap)
+	{
+		return addTextureId($b, 0, $id, $generateMipMap);
+	}
+
+	/**
+	 * Like addTextureId(Bitmap, String, boolean), but decodes the raw resource $resourceId 
+	 * only when there is no compressed version of it in the TextureCache.
+	 */
+	public String addTextureId(int $resourceId, String $id, boolean $generateMipMap)
 	{
 		if (_idToTextureName.containsKey($id)) throw new Error("Texture id \"" + $id + "\" already exists."); 
 
-		int glId = Shared.renderer().uploadTextureAndReturnId($b, $generateMipMap);
+		long key = 0;
+		if (TextureCache.getCacheDirectory() != null && RenderCaps.isEtc1Supported())
+		{
+			InputStream is = Shared.context().getResources().openRawResource($resourceId);
+			try {
+				key = TextureCache.hash(is);
+			} catch (IOException e) {
+				// Hash the decoded pixels instead
+			} finally {
+				try { is.close(); } catch (IOException e) {}
+			}
+			
+			TextureCache.Etc1Texture t = key != 0 ? TextureCache.get(key, $generateMipMap) : null;
+			if (t != null) {
+				add($id, Shared.renderer().uploadCompressedTextureAndReturnId(t), $generateMipMap);
+				return $id;
+			}
+		}
+		
+		Bitmap b = Utils.makeBitmapFromResourceId($resourceId);
+		String s = addTextureId(b, key, $id, $generateMipMap);
+		b.recycle();
+		return s;
+	}
 
+	/**
+	 * Adds a texture that was prepared off the GL thread: uploads $compressed if 
+	 * it isn't null, and $b as it is otherwise, without going through the TextureCache. 
+	 * Used for texture atlases, so the GL thread does nothing but the upload.
+	 * 
+	 * @param $compressed	from TextureCache.compress(), or null
+	 */
+	public String addTextureId(Bitmap $b, TextureCache.Etc1Texture $compressed, String $id, boolean $generateMipMap)
+	{
+		if (_idToTextureName.containsKey($id)) throw new Error("Texture id \"" + $id + "\" already exists."); 
+
+		int glId = $compressed != null 
+			? Shared.renderer().uploadCompressedTextureAndReturnId($compressed) 
+			: Shared.renderer().uploadTextureAndReturnId($b, $generateMipMap);
+
+		add($id, glId, $generateMipMap);
+		return $id;
+	}
+
+	private String addTextureId(Bitmap $b, long $key, String $id, boolean $generateMipMap)
+	{
+		if (_idToTextureName.containsKey($id)) throw new Error("Texture id \"" + $id + "\" already exists."); 
+
+		// Opaque textures go through the TextureCache, when there is one, as ETC1
+		TextureCache.Etc1Texture t = RenderCaps.isEtc1Supported() ? TextureCache.compress($b, $key, $generateMipMap) : null;
+		int glId = t != null 
+			? Shared.renderer().uploadCompressedTextureAndReturnId(t) 
+			: Shared.renderer().uploadTextureAndReturnId($b, $generateMipMap);
+
+		add($id, glId, $generateMipMap);
+		return $id;
+	}
+	
+	private void add(String $id, int $glId, boolean $generateMipMap)
+	{
 		String s = $id;
-		_idToTextureName.put(s, glId);
+		_idToTextureName.put(s, $glId);
 		_idToHasMipMap.put(s, $generateMipMap);
 	
 		_counter++;
 		
 		// For debugging purposes (potentially adds a lot of chatter)
 		// logContents();
-		
-		return s;
 	}
 
 	/**
@@ -161,6 +234,6 @@ public class TextureManager
 	}
 	
 	public String getNewAtlasId() {
-		return "atlas".concat(Integer.toString(_atlasId++));
+		return "atlas".concat(Integer.toString(_atlasId.getAndIncrement()));
 	}
 }
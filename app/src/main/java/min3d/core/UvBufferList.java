@@ -14,6 +14,9 @@ public class UvBufferList
 
 	private FloatBuffer _b;
 	private int _numElements = 0;
+
+	// Elements changed since the buffer object was last updated
+	private final DirtyRange _dirty = new DirtyRange();
 	
 	public UvBufferList(FloatBuffer $b, int $size)
 	{
@@ -22,6 +25,7 @@ public class UvBufferList
 		_b = bb.asFloatBuffer();
 		_b.put($b);
 		_numElements = $size;
+		_dirty.mark(0, $size);
 	}
 	
 	public UvBufferList(int $maxElements)
@@ -98,6 +102,7 @@ public class UvBufferList
 	
 	public void set(int $index, Uv $uv)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT);
 		_b.put($uv.u);
 		_b.put($uv.v);
@@ -105,6 +110,7 @@ public class UvBufferList
 
 	public void set(int $index, float $u, float $v)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT);
 		_b.put($u);
 		_b.put($v);
@@ -112,11 +118,13 @@ public class UvBufferList
 	
 	public void setPropertyU(int $index, float $u)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT);
 		_b.put($u);
 	}
 	public void setPropertyV(int $index, float $v)
 	{
+		_dirty.mark($index, $index + 1);
 		_b.position($index * PROPERTIES_PER_ELEMENT + 1);
 		_b.put($v);
 	}
@@ -128,6 +136,28 @@ public class UvBufferList
 		return _b;
 	}
 	
+	/**
+	 * Elements changed since the buffer object was last updated
+	 */
+	DirtyRange dirtyRange() /*package-private*/
+	{
+		return _dirty;
+	}
+	
+	/**
+	 * Uses $b as the list's storage without copying it.
+	 * $b must be a direct buffer in native byte order (for example a view of a
+	 * memory-mapped file) that holds exactly $size elements.
+	 */
+	public static UvBufferList wrap(FloatBuffer $b, int $size)
+	{
+		UvBufferList l = new UvBufferList(0);
+		l._b = $b;
+		l._numElements = $size;
+		l._dirty.mark(0, $size);
+		return l;
+	}
+	
 	public UvBufferList clone()
 	{
 		_b.position(0);
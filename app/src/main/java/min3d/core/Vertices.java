@@ -16,6 +16,9 @@ public class Vertices
 	private boolean _hasNormals;
 	private boolean _hasColors;
 	
+	// GPU copies of the lists, when the owning object uses buffer objects
+	private BufferObjects _bufferObjects;
+	
 	
 	/**
 	 * Used by Object3d to hold the lists of vertex points, texture coordinates (UV), normals, and vertex colors. 
@@ -175,6 +178,16 @@ public class Vertices
 		return _colors;
 	}
 	
+	BufferObjects bufferObjects() /*package-private*/
+	{
+		return _bufferObjects;
+	}
+	
+	void bufferObjects(BufferObjects $b) /*package-private*/
+	{
+		_bufferObjects = $b;
+	}
+	
 	public Vertices clone()
 	{
 		Vertices v = new Vertices(_points.clone(), _uvs.clone(), _normals.clone(), _colors.clone());
@@ -5,14 +5,15 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 
 import min3d.Min3d;
 import min3d.Shared;
 import min3d.Utils;
 import min3d.animation.AnimationObject3d;
+import min3d.core.GLUploadQueue;
+import min3d.core.RenderCaps;
+import min3d.core.TextureCache;
 import min3d.core.Object3dContainer;
 import min3d.vos.Color4;
 import min3d.vos.Number3d;
@@ -42,6 +43,17 @@ public abstract class AParser implements IParser {
 	protected ArrayList<Number3d> normals;
 	protected boolean generateMipMap;
 	protected HashMap<String, Material> materialMap;
+	/**
+	 * Raw resources read by parse() besides resourceID (e.g. OBJ material libraries).
+	 * ModelCache checks them too before using a cached model.
+	 */
+	protected ArrayList<String> dependencyIDs;
+	/**
+	 * Set when parsing on a loader thread: texture uploads are posted here
+	 * (for GL context uploadGeneration) instead of being done right away.
+	 */
+	protected GLUploadQueue uploadQueue;
+	protected int uploadGeneration;
 	
 	public AParser()
 	{
@@ -52,6 +64,7 @@ public abstract class AParser implements IParser {
 		textureAtlas = new TextureAtlas();
 		firstObject = true;
 		materialMap = new HashMap<String, Material>();
+		dependencyIDs = new ArrayList<String>();
 	}
 	
 	public AParser(Resources resources, String resourceID, Boolean generateMipMap)
@@ -114,6 +127,75 @@ public abstract class AParser implements IParser {
 	public void parse() {
 	}
 	
+	/**
+	 * Generates the texture atlas and adds it to the TextureManager, right away
+	 * or, when uploadQueue is set, from the GL thread later on. Opaque pages are
+	 * hashed and compressed to ETC1 (TextureCache) here, on the calling thread,
+	 * so the GL thread only uploads. The atlas bitmap is recycled once it has
+	 * been compressed or uploaded.
+	 */
+	protected void uploadTextureAtlas()
+	{
+		textureAtlas.generate();
+		Bitmap[] pages = textureAtlas.detachBitmaps();
+		String[] ids = textureAtlas.getIds();
+		final boolean mipMap = generateMipMap;
+		
+		for (int i = 0; i < pages.length; i++) {
+			final TextureCache.Etc1Texture compressed = RenderCaps.isEtc1Supported() 
+					? TextureCache.compress(pages[i], 0, mipMap) : null;
+			if (compressed != null) {
+				pages[i].recycle();
+			}
+			final Bitmap texture = compressed == null ? pages[i] : null;
+			final String atlasId = ids[i];
+			Runnable upload = new Runnable() {
+				public void run() {
+					Shared.textureManager().addTextureId(texture, compressed, atlasId, mipMap);
+					if (texture != null) texture.recycle();
+				}
+			};
+			
+			if (uploadQueue != null)
+				uploadQueue.post(upload, uploadGeneration);
+			else
+				upload.run();
+		}
+	}
+	
+	/**
+	 * Rebuilds the texture atlas of a cached model and registers it with the
+	 * TextureManager, like getParsedObject() does after parse(). The textures
+	 * are put where the original atlas had them, so the cached UVs stay valid.
+	 * 
+	 * @param layout	page, x and y of each texture
+	 * @param pageSizes	width and height of each page
+	 * @return the atlas page ids, or null if a texture is missing or its size changed
+	 */
+	protected String[] restoreTextureAtlas(String[] textureIDs, int[] widths, int[] heights,
+			int[] layout, int padding, int[] pageSizes)
+	{
+		for (int i = 0; i < textureIDs.length; i++) {
+			textureAtlas.addBitmapAsset(new BitmapAsset(textureIDs[i], textureIDs[i]));
+			BitmapAsset ba = textureAtlas.getBitmapAssetByResourceID(textureIDs[i]);
+			if (ba == null || ba.width != widths[i] || ba.height != heights[i]) {
+				Log.d(Min3d.TAG, "Texture changed: " + textureIDs[i]);
+				cleanup();
+				return null;
+			}
+			ba.page = layout[i * 3];
+			ba.x = layout[i * 3 + 1];
+			ba.y = layout[i * 3 + 2];
+		}
+		
+		textureAtlas.setLayout(padding, pageSizes);
+		uploadTextureAtlas();
+		String[] atlasIds = textureAtlas.getIds();
+		cleanup();
+		
+		return atlasIds;
+	}
+	
 
 	/**
 	 * Contains texture information. UV offsets and scaling is stored here.
@@ -153,6 +235,17 @@ public abstract class AParser implements IParser {
 		 */
 		public float vScale;
 		public boolean useForAtlasDimensions;
+		/**
+		 * Size of the source bitmap
+		 */
+		public int width;
+		public int height;
+		/**
+		 * Atlas page and position on it, set by TextureAtlas.generate()
+		 */
+		public int page;
+		public int x;
+		public int y;
 		
 		/**
 		 * Creates a new BitmapAsset object
@@ -175,22 +268,40 @@ public abstract class AParser implements IParser {
 	 * 
 	 */
 	protected class TextureAtlas {
+		/**
+		 * Largest page size while RenderCaps doesn't know the real one yet
+		 */
+		private static final int DEFAULT_MAX_SIZE = 1024;
 		/**
 		 * The texture bitmaps that should be combined into one.
 		 */
 		private ArrayList<BitmapAsset> bitmaps;
 		/**
-		 * The texture atlas bitmap
+		 * The distinct textures in the order they were added. Unlike bitmaps
+		 * this is neither sorted nor cleared, so ModelCache can record it.
+		 */
+		private ArrayList<BitmapAsset> sources;
+		/**
+		 * The texture atlas pages, their ids and sizes
+		 */
+		private Bitmap[] pages;
+		private String[] pageIds;
+		private int[] pageSizes;
+		private int padding;
+		/**
+		 * Set by setLayout(); the textures already have their places
 		 */
-		private Bitmap atlas;
+		private boolean presetLayout;
 
 		/**
 		 * Creates a new texture atlas instance.
 		 */
 		public TextureAtlas() {
 			bitmaps = new ArrayList<BitmapAsset>();
+			sources = new ArrayList<BitmapAsset>();
+			pageIds = new String[0];
+			pageSizes = new int[0];
 		}
-		private String atlasId;
 
 		/**
 		 * Adds a bitmap to the atlas
@@ -214,6 +325,9 @@ public abstract class AParser implements IParser {
 				Bitmap b = Utils.makeBitmapFromResourceId(bmResourceID);
 				ba.useForAtlasDimensions = true;
 				ba.bitmap = b;
+				ba.width = b.getWidth();
+				ba.height = b.getHeight();
+				sources.add(ba);
 			}
 			else
 			{
@@ -237,82 +351,157 @@ public abstract class AParser implements IParser {
 		}
 
 		/**
-		 * Generates a new texture atlas
+		 * Generates a new texture atlas. The textures are packed into as few
+		 * power-of-two pages as possible (AtlasPacker) with Parser.getAtlasPadding()
+		 * pixels between them, unless setLayout() was called. Each page gets its
+		 * own texture id.
 		 */
 		public void generate() {
-			Collections.sort(bitmaps, new BitmapHeightComparer());
-
 			if(bitmaps.size() == 0) return;
 			
-			BitmapAsset largestBitmap = bitmaps.get(0);
-			int totalWidth = 0;
 			int numBitmaps = bitmaps.size();
-			int uOffset = 0;
-			int vOffset = 0;
-
+			
+			if(!presetLayout)
+			{
+				int maxSize = RenderCaps.maxTextureSize() > 0 ? RenderCaps.maxTextureSize() : DEFAULT_MAX_SIZE;
+				padding = Parser.getAtlasPadding();
+				AtlasPacker packer = new AtlasPacker(maxSize, padding);
+				ArrayList<BitmapAsset> packed = new ArrayList<BitmapAsset>();
+				
+				for (int i = 0; i < numBitmaps; i++) {
+					BitmapAsset ba = bitmaps.get(i);
+					if(ba.useForAtlasDimensions) {
+						packer.add(ba.width, ba.height);
+						packed.add(ba);
+					}
+				}
+				packer.pack();
+				
+				for (int i = 0; i < packed.size(); i++) {
+					BitmapAsset ba = packed.get(i);
+					ba.page = packer.page(i);
+					ba.x = packer.x(i);
+					ba.y = packer.y(i);
+				}
+				pageSizes = new int[packer.numPages() * 2];
+				for (int i = 0; i < packer.numPages(); i++) {
+					pageSizes[i * 2] = packer.pageWidth(i);
+					pageSizes[i * 2 + 1] = packer.pageHeight(i);
+				}
+				Log.d(Min3d.TAG, "Texture atlas: " + packer);
+			}
+			
+			int numPages = pageSizes.length / 2;
+			pages = new Bitmap[numPages];
+			pageIds = new String[numPages];
+			for (int i = 0; i < numPages; i++) {
+				pages[i] = Bitmap.createBitmap(pageSizes[i * 2], pageSizes[i * 2 + 1], Config.ARGB_8888);
+				pageIds[i] = Shared.textureManager().getNewAtlasId();
+			}
+			
+			// One row buffer for all copies
+			int rowLength = 0;
 			for (int i = 0; i < numBitmaps; i++) {
-				if(bitmaps.get(i).useForAtlasDimensions)
-					totalWidth += bitmaps.get(i).bitmap.getWidth();
+				rowLength = Math.max(rowLength, bitmaps.get(i).width + padding);
 			}
-
-			atlas = Bitmap.createBitmap(totalWidth, largestBitmap.bitmap
-					.getHeight(), Config.ARGB_8888);
-
+			int[] row = new int[rowLength];
+			
 			for (int i = 0; i < numBitmaps; i++) {
 				BitmapAsset ba = bitmaps.get(i);
-				BitmapAsset existingBA = getBitmapAssetByResourceID(ba.resourceID);				
 				
 				if(ba.useForAtlasDimensions)
 				{
-					Bitmap b = ba.bitmap;
-					int w = b.getWidth();
-					int h = b.getHeight();
-					int[] pixels = new int[w * h];
+					int pageWidth = pageSizes[ba.page * 2];
+					int pageHeight = pageSizes[ba.page * 2 + 1];
 					
-					b.getPixels(pixels, 0, w, 0, 0, w, h);
-					atlas.setPixels(pixels, 0, w, uOffset, vOffset, w, h);
+					// A texture larger than the maximum texture size has a page of
+					// its own, cut down to that size; scale it to fit
+					int w = Math.min(ba.width, pageWidth - ba.x);
+					int h = Math.min(ba.height, pageHeight - ba.y);
+					if (w != ba.width || h != ba.height) {
+						Log.w(Min3d.TAG, "Texture " + ba.resourceID + " is " + ba.width + "x" + ba.height
+								+ ", scaled down to " + w + "x" + h);
+						Bitmap scaled = Bitmap.createScaledBitmap(ba.bitmap, w, h, true);
+						ba.bitmap.recycle();
+						ba.bitmap = scaled;
+					}
+					copy(ba, pages[ba.page], row);
 					
-					ba.uOffset = (float) uOffset / totalWidth;
-					ba.vOffset = 0;
-					ba.uScale = (float) w / (float) totalWidth;
-					ba.vScale = (float) h / (float) largestBitmap.bitmap.getHeight();
+					ba.uOffset = (float) ba.x / pageWidth;
+					ba.vOffset = (float) ba.y / pageHeight;
+					ba.uScale = (float) w / pageWidth;
+					ba.vScale = (float) h / pageHeight;
 					
-					uOffset += w;
-					b.recycle();
+					ba.bitmap.recycle();
 				}
-				else
+			}
+			
+			for (int i = 0; i < numBitmaps; i++) {
+				BitmapAsset ba = bitmaps.get(i);
+				
+				if(!ba.useForAtlasDimensions)
 				{
+					BitmapAsset existingBA = getBitmapAssetByResourceID(ba.resourceID);
+					ba.page = existingBA.page;
+					ba.x = existingBA.x;
+					ba.y = existingBA.y;
 					ba.uOffset = existingBA.uOffset;
 					ba.vOffset = existingBA.vOffset;
 					ba.uScale = existingBA.uScale;
 					ba.vScale = existingBA.vScale;
 				}
 			}
-			/*
-			FileOutputStream fos;
-			try {
-				fos = new FileOutputStream("/data/screenshot.png");
-				atlas.compress(Bitmap.CompressFormat.PNG, 100, fos);
-				fos.flush();
-				fos.close();
-			} catch (FileNotFoundException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		}
+		
+		/**
+		 * Copies the bitmap of ba to its place on page, a row at a time, and
+		 * repeats its edge pixels into the padding around it so that filtering
+		 * near the edges doesn't pick up a neighbor.
+		 */
+		private void copy(BitmapAsset ba, Bitmap page, int[] row) {
+			Bitmap b = ba.bitmap;
+			int w = b.getWidth();
+			int h = b.getHeight();
+			int left = Math.max(0, Math.min(padding / 2, ba.x));
+			int top = Math.max(0, Math.min(padding / 2, ba.y));
+			int right = Math.max(0, Math.min(padding - padding / 2, page.getWidth() - ba.x - w));
+			int bottom = Math.max(0, Math.min(padding - padding / 2, page.getHeight() - ba.y - h));
+			int rowWidth = left + w + right;
+			
+			for (int y = -top; y < h + bottom; y++) {
+				int sourceY = y < 0 ? 0 : (y >= h ? h - 1 : y);
+				b.getPixels(row, left, w, 0, sourceY, w, 1);
+				for (int x = 0; x < left; x++)
+					row[x] = row[left];
+				for (int x = 0; x < right; x++)
+					row[left + w + x] = row[left + w - 1];
+				page.setPixels(row, 0, rowWidth, ba.x - left, ba.y + y, rowWidth, 1);
 			}
-			*/
-			setId(Shared.textureManager().getNewAtlasId());
+		}
+		
+		/**
+		 * Places the textures like an earlier generate() did: the page, x and y
+		 * of each BitmapAsset must be set already.
+		 * 
+		 * @param padding	padding of the earlier atlas
+		 * @param pageSizes	width and height of each page
+		 */
+		public void setLayout(int padding, int[] pageSizes) {
+			this.padding = padding;
+			this.pageSizes = pageSizes;
+			presetLayout = true;
 		}
 
 		/**
-		 * Returns the generated texture atlas bitmap
+		 * Returns the generated atlas pages and hands over their ownership;
+		 * cleanup() won't recycle them.
 		 * 
 		 * @return
 		 */
-		public Bitmap getBitmap() {
-			return atlas;
+		public Bitmap[] detachBitmaps() {
+			Bitmap[] b = pages;
+			pages = null;
+			return b;
 		}
 
 		/**
@@ -323,28 +512,16 @@ public abstract class AParser implements IParser {
 		public boolean hasBitmaps() {
 			return bitmaps.size() > 0;
 		}
-
+		
 		/**
-		 * Compares the height of two BitmapAsset objects.
-		 * 
-		 * @author dennis.ippel
+		 * Returns the distinct textures in the order they were added.
 		 * 
+		 * @return
 		 */
-		private class BitmapHeightComparer implements Comparator<BitmapAsset> {
-			public int compare(BitmapAsset b1, BitmapAsset b2) {
-				int height1 = b1.bitmap.getHeight();
-				int height2 = b2.bitmap.getHeight();
-
-				if (height1 < height2) {
-					return 1;
-				} else if (height1 == height2) {
-					return 0;
-				} else {
-					return -1;
-				}
-			}
+		public ArrayList<BitmapAsset> getSources() {
+			return sources;
 		}
-		
+
 		/**
 		 * Returns a bitmap asset with a specified name.
 		 * 
@@ -370,19 +547,45 @@ public abstract class AParser implements IParser {
 				bitmaps.get(i).bitmap.recycle();
 			}
 			
-			if(atlas != null) atlas.recycle();
+			if (pages != null) {
+				for (int i = 0; i < pages.length; i++)
+					pages[i].recycle();
+				pages = null;
+			}
 			bitmaps.clear();
 			vertices.clear();
 			texCoords.clear();
 			normals.clear();
 		}
 
-		public void setId(String newAtlasId) {
-			atlasId = newAtlasId;			
-		}
-
+		/**
+		 * Id of the first atlas page
+		 */
 		public String getId() {
-			return atlasId;
+			return pageIds.length > 0 ? pageIds[0] : null;
+		}
+		
+		public String getId(int page) {
+			return pageIds[page];
+		}
+		
+		public String[] getIds() {
+			return pageIds;
+		}
+		
+		public int getNumPages() {
+			return pageIds.length;
+		}
+		
+		/**
+		 * Width and height of each page
+		 */
+		public int[] getPageSizes() {
+			return pageSizes;
+		}
+		
+		public int getPadding() {
+			return padding;
 		}
 	}
 	
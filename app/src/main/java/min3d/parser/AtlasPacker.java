@@ -0,0 +1,363 @@
+package min3d.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Packs rectangles (texture sizes) into power-of-two pages with the MaxRects
+ * algorithm (Jukka Jylanki, "A Thousand Ways to Pack the Bin"), choosing
+ * free areas by best short side fit.
+ *
+ * Each page gets the smallest power-of-two size that holds the rectangles
+ * left, up to the maximum size; what doesn't fit goes to further pages.
+ * Every rectangle is given $padding extra pixels around it (half on each
+ * side), so neighbors don't bleed into each other when filtered.
+ * A lone rectangle is put at (0, 0) without padding, on the smallest
+ * power-of-two page that holds it; the texture coordinates' scale covers the
+ * part of the page it doesn't fill.
+ * A rectangle wider or higher than the maximum size can't be placed as it is:
+ * it gets a page of its own, with each side that is too long cut down to the
+ * maximum size (the other one rounded up to a power of two), and the texture
+ * has to be scaled down to fill that side (see pageWidth() and pageHeight()).
+ *
+ * Plain Java without Android dependencies; used by AParser.TextureAtlas.
+ */
+public class AtlasPacker
+{
+	private int _maxSize;
+	private int _padding;
+
+	private ArrayList<int[]> _sizes = new ArrayList<int[]>();
+
+	// Result per rectangle, and per page
+	private int[] _page;
+	private int[] _x;
+	private int[] _y;
+	private ArrayList<int[]> _pages = new ArrayList<int[]>();
+
+
+	/**
+	 * @param $maxSize	largest page width and height, normally the GL_MAX_TEXTURE_SIZE
+	 * @param $padding	pixels between rectangles
+	 */
+	public AtlasPacker(int $maxSize, int $padding)
+	{
+		_maxSize = $maxSize;
+		_padding = $padding;
+	}
+
+	/**
+	 * Adds a rectangle and returns its index
+	 */
+	public int add(int $width, int $height)
+	{
+		_sizes.add(new int[] { $width, $height });
+		return _sizes.size() - 1;
+	}
+
+	public int size()
+	{
+		return _sizes.size();
+	}
+
+	/**
+	 * Places all rectangles. The result only depends on the sizes, in the order they were added.
+	 */
+	public void pack()
+	{
+		int n = _sizes.size();
+		_page = new int[n];
+		_x = new int[n];
+		_y = new int[n];
+		_pages.clear();
+		if (n == 0) return;
+
+		if (n == 1) {
+			int[] s = _sizes.get(0);
+			_pages.add(ownPage(s));
+			return;
+		}
+
+		// Largest first; the stable sort keeps equal ones in order
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer $a, Integer $b) {
+				int[] a = _sizes.get($a);
+				int[] b = _sizes.get($b);
+				int d = Math.max(b[0], b[1]) - Math.max(a[0], a[1]);
+				return d != 0 ? d : b[0] * b[1] - a[0] * a[1];
+			}
+		});
+
+		ArrayList<Integer> remaining = new ArrayList<Integer>(Arrays.asList(order));
+		while (remaining.size() > 0)
+		{
+			int page = _pages.size();
+			int[] first = cell(remaining.get(0));
+
+			if (first[0] > _maxSize || first[1] > _maxSize)
+			{
+				// Too large for any page; it gets one of its own, at most the maximum size
+				int i = remaining.remove(0);
+				_page[i] = page;
+				_pages.add(ownPage(_sizes.get(i)));
+				continue;
+			}
+
+			int[] size = smallestPage(remaining);
+			if (size != null) {
+				place(size[0], size[1], remaining, page);
+				_pages.add(size);
+				remaining.clear();
+			}
+			else {
+				// A full size page with as many as fit, then shrunk to what it uses
+				ArrayList<Integer> placed = place(_maxSize, _maxSize, remaining, page);
+				int usedWidth = 0;
+				int usedHeight = 0;
+				for (int i : placed) {
+					int[] c = cell(i);
+					usedWidth = Math.max(usedWidth, _x[i] - _padding / 2 + c[0]);
+					usedHeight = Math.max(usedHeight, _y[i] - _padding / 2 + c[1]);
+				}
+				_pages.add(new int[] { powerOfTwo(usedWidth), powerOfTwo(usedHeight) });
+				remaining.removeAll(placed);
+			}
+		}
+	}
+
+	/**
+	 * Page of rectangle $i
+	 */
+	public int page(int $i)
+	{
+		return _page[$i];
+	}
+
+	/**
+	 * Position of rectangle $i on its page, inside its padding
+	 */
+	public int x(int $i)
+	{
+		return _x[$i];
+	}
+
+	public int y(int $i)
+	{
+		return _y[$i];
+	}
+
+	public int numPages()
+	{
+		return _pages.size();
+	}
+
+	public int pageWidth(int $page)
+	{
+		return _pages.get($page)[0];
+	}
+
+	public int pageHeight(int $page)
+	{
+		return _pages.get($page)[1];
+	}
+
+	/**
+	 * Area of the rectangles divided by the area of the pages
+	 */
+	public float efficiency()
+	{
+		long used = 0;
+		for (int[] s : _sizes) used += (long)s[0] * s[1];
+		long total = 0;
+		for (int[] p : _pages) total += (long)p[0] * p[1];
+		return total > 0 ? (float)used / total : 0;
+	}
+
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(_sizes.size()).append(" textures on ").append(_pages.size()).append(" page(s)");
+		for (int[] p : _pages) sb.append(' ').append(p[0]).append('x').append(p[1]);
+		sb.append(String.format(Locale.US, ", %.0f%% used", efficiency() * 100));
+		return sb.toString();
+	}
+
+	//
+
+	/**
+	 * Size of rectangle $i with its padding
+	 */
+	private int[] cell(int $i)
+	{
+		int[] s = _sizes.get($i);
+		return new int[] { s[0] + _padding, s[1] + _padding };
+	}
+
+	/**
+	 * Page of a rectangle on its own: the smallest power of two on each side,
+	 * sides longer than the maximum size cut down to it
+	 */
+	private int[] ownPage(int[] $size)
+	{
+		return new int[] {
+				$size[0] > _maxSize ? _maxSize : Math.min(_maxSize, powerOfTwo($size[0])),
+				$size[1] > _maxSize ? _maxSize : Math.min(_maxSize, powerOfTwo($size[1])) };
+	}
+
+	/**
+	 * Smallest power-of-two page all of $rects fit on, or null if even the largest is too small
+	 */
+	private int[] smallestPage(ArrayList<Integer> $rects)
+	{
+		long area = 0;
+		int minWidth = 1;
+		int minHeight = 1;
+		for (int i : $rects) {
+			int[] c = cell(i);
+			area += (long)c[0] * c[1];
+			minWidth = Math.max(minWidth, c[0]);
+			minHeight = Math.max(minHeight, c[1]);
+		}
+
+		// Candidate sizes by area, the squarer one first when equal
+		ArrayList<int[]> sizes = new ArrayList<int[]>();
+		for (int w = powerOfTwo(minWidth); w <= _maxSize; w *= 2) {
+			for (int h = powerOfTwo(minHeight); h <= _maxSize; h *= 2) {
+				if ((long)w * h >= area) sizes.add(new int[] { w, h });
+			}
+		}
+		Collections.sort(sizes, new Comparator<int[]>() {
+			public int compare(int[] $a, int[] $b) {
+				long d = (long)$a[0] * $a[1] - (long)$b[0] * $b[1];
+				if (d != 0) return d < 0 ? -1 : 1;
+				int da = Math.abs($a[0] - $a[1]);
+				int db = Math.abs($b[0] - $b[1]);
+				if (da != db) return da - db;
+				return $b[0] - $a[0];
+			}
+		});
+
+		for (int[] s : sizes) {
+			if (fits(s[0], s[1], $rects)) return s;
+		}
+		return null;
+	}
+
+	private boolean fits(int $width, int $height, ArrayList<Integer> $rects)
+	{
+		ArrayList<int[]> free = new ArrayList<int[]>();
+		free.add(new int[] { 0, 0, $width, $height });
+		for (int i : $rects) {
+			if (insert(free, cell(i)) == null) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Places whichever of $rects fit on a $width x $height page, in order, and returns them
+	 */
+	private ArrayList<Integer> place(int $width, int $height, ArrayList<Integer> $rects, int $page)
+	{
+		ArrayList<int[]> free = new ArrayList<int[]>();
+		free.add(new int[] { 0, 0, $width, $height });
+		ArrayList<Integer> placed = new ArrayList<Integer>();
+
+		for (int i : $rects)
+		{
+			int[] at = insert(free, cell(i));
+			if (at == null) continue;
+
+			_page[i] = $page;
+			_x[i] = at[0] + _padding / 2;
+			_y[i] = at[1] + _padding / 2;
+			placed.add(i);
+		}
+		return placed;
+	}
+
+	/**
+	 * Puts a $cell sized rectangle in the free area that leaves the shortest
+	 * side over, and updates the free areas. Returns the position, or null.
+	 */
+	private static int[] insert(ArrayList<int[]> $free, int[] $cell)
+	{
+		int w = $cell[0];
+		int h = $cell[1];
+		int[] best = null;
+		int bestShort = Integer.MAX_VALUE;
+		int bestLong = Integer.MAX_VALUE;
+
+		for (int[] f : $free)
+		{
+			if (f[2] < w || f[3] < h) continue;
+			int leftX = f[2] - w;
+			int leftY = f[3] - h;
+			int shortSide = Math.min(leftX, leftY);
+			int longSide = Math.max(leftX, leftY);
+			if (shortSide < bestShort || (shortSide == bestShort && longSide < bestLong)) {
+				best = f;
+				bestShort = shortSide;
+				bestLong = longSide;
+			}
+		}
+		if (best == null) return null;
+
+		int x = best[0];
+		int y = best[1];
+
+		// Split every free area the new rectangle overlaps into up to four maximal ones
+		int count = $free.size();
+		for (int i = 0; i < count; i++)
+		{
+			int[] f = $free.get(i);
+			if (x >= f[0] + f[2] || x + w <= f[0] || y >= f[1] + f[3] || y + h <= f[1]) continue;
+
+			if (x > f[0]) $free.add(new int[] { f[0], f[1], x - f[0], f[3] });
+			if (x + w < f[0] + f[2]) $free.add(new int[] { x + w, f[1], f[0] + f[2] - x - w, f[3] });
+			if (y > f[1]) $free.add(new int[] { f[0], f[1], f[2], y - f[1] });
+			if (y + h < f[1] + f[3]) $free.add(new int[] { f[0], y + h, f[2], f[1] + f[3] - y - h });
+
+			$free.remove(i);
+			i--;
+			count--;
+		}
+
+		// Drop free areas contained in others
+		for (int i = 0; i < $free.size(); i++)
+		{
+			int[] a = $free.get(i);
+			for (int j = i + 1; j < $free.size(); j++)
+			{
+				int[] b = $free.get(j);
+				if (contains(b, a)) {
+					$free.remove(i);
+					i--;
+					break;
+				}
+				if (contains(a, b)) {
+					$free.remove(j);
+					j--;
+				}
+			}
+		}
+		return new int[] { x, y };
+	}
+
+	private static boolean contains(int[] $a, int[] $b)
+	{
+		return $b[0] >= $a[0] && $b[1] >= $a[1]
+				&& $b[0] + $b[2] <= $a[0] + $a[2] && $b[1] + $b[3] <= $a[1] + $a[3];
+	}
+
+	private static int powerOfTwo(int $n)
+	{
+		int p = 1;
+		while (p < $n) p *= 2;
+		return p;
+	}
+}
@@ -0,0 +1,133 @@
+package min3d.parser;
+
+import java.io.File;
+
+import min3d.Min3d;
+import min3d.animation.AnimationObject3d;
+import min3d.core.Object3d;
+import min3d.core.Object3dContainer;
+import min3d.vos.TextureVo;
+import android.content.res.Resources;
+import android.util.Log;
+
+/**
+ * Wraps a parser so that its result is taken from ModelCache when the cache
+ * holds an up-to-date copy, and saved to the cache after a real parse otherwise.
+ * Returned by Parser.createParser() while a cache directory is set.
+ */
+class CachedParser implements IParser /*package-private*/
+{
+	private AParser _parser;
+	private Resources _resources;
+	private String _resourceID;
+	private File _file;
+	private long _sourceHash = -1;
+	private ModelCache.Model _model;
+
+
+	public CachedParser(AParser $parser, Parser.Type $type, Resources $resources, String $resourceID)
+	{
+		_parser = $parser;
+		_resources = $resources;
+		_resourceID = $resourceID;
+		_file = ModelCache.file($type, $resourceID);
+	}
+
+	public void parse()
+	{
+		long startTime = System.currentTimeMillis();
+
+		_sourceHash = ModelCache.hash(_resources, _resourceID);
+		if (_sourceHash != -1) {
+			_model = ModelCache.load(_file, _sourceHash, _resources);
+		}
+
+		if (_model != null) {
+			Log.d(Min3d.TAG, "Loaded " + _resourceID + " from cache in " + (System.currentTimeMillis() - startTime) + "ms");
+		}
+		else {
+			_parser.parse();
+		}
+	}
+
+	public Object3dContainer getParsedObject()
+	{
+		if (_model != null && ! _model.animated)
+		{
+			Object3d[] objects = restore();
+			if (objects != null) {
+				Object3dContainer obj = new Object3dContainer(0, 0);
+				for (int i = 0; i < objects.length; i++) {
+					obj.addChild(objects[i]);
+				}
+				return obj;
+			}
+		}
+
+		Object3dContainer obj = _parser.getParsedObject();
+		if (obj != null && _sourceHash != -1)
+		{
+			Object3d[] objects = new Object3d[obj.numChildren()];
+			for (int i = 0; i < objects.length; i++) {
+				objects[i] = obj.getChildAt(i);
+			}
+			save(objects, false);
+		}
+		return obj;
+	}
+
+	public AnimationObject3d getParsedAnimationObject()
+	{
+		if (_model != null && _model.animated && _model.objects.length == 1)
+		{
+			Object3d[] objects = restore();
+			if (objects != null) {
+				return (AnimationObject3d)objects[0];
+			}
+		}
+
+		AnimationObject3d obj = _parser.getParsedAnimationObject();
+		if (obj != null && _sourceHash != -1) {
+			save(new Object3d[] { obj }, true);
+		}
+		return obj;
+	}
+
+	/**
+	 * Registers the cached model's texture atlas and returns its objects.
+	 * When the textures changed, parses the source instead and returns null.
+	 */
+	private Object3d[] restore()
+	{
+		ModelCache.Model m = _model;
+		_model = null;
+
+		String[] atlasIds = null;
+		if (m.textureIDs.length > 0)
+		{
+			atlasIds = _parser.restoreTextureAtlas(m.textureIDs, m.textureWidths, m.textureHeights,
+					m.textureLayout, m.atlasPadding, m.atlasPageSizes);
+			if (atlasIds == null) {
+				_parser.parse();
+				return null;
+			}
+		}
+
+		for (int i = 0; i < m.objects.length; i++) {
+			if (m.atlasPages[i] >= 0 && atlasIds != null) {
+				m.objects[i].textures().add(new TextureVo(atlasIds[m.atlasPages[i]]));
+			}
+		}
+		return m.objects;
+	}
+
+	private void save(Object3d[] $objects, boolean $animated)
+	{
+		if (_file == null) return;
+
+		long startTime = System.currentTimeMillis();
+		ModelCache.save(_file, _sourceHash, _resources, _parser.dependencyIDs,
+				_parser.textureAtlas, $objects, $animated);
+		Log.d(Min3d.TAG, "Cached " + _resourceID + " in " + (System.currentTimeMillis() - startTime) + "ms");
+	}
+}
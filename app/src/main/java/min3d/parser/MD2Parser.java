@@ -4,16 +4,14 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
 
 import min3d.Min3d;
-import min3d.Shared;
 import min3d.animation.AnimationObject3d;
 import min3d.animation.KeyFrame;
+import min3d.animation.MD2Normals;
 import min3d.vos.Number3d;
 import min3d.vos.Uv;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.util.Log;
 
 public class MD2Parser extends AParser implements IParser {
@@ -28,22 +26,14 @@ public class MD2Parser extends AParser implements IParser {
 	@Override
 	public AnimationObject3d getParsedAnimationObject() {
 		Log.d(Min3d.TAG, "Start object creation");
-		Bitmap texture = null;
 		AnimationObject3d animObj;
 
 		if (textureAtlas.hasBitmaps()) {
-			textureAtlas.generate();
-			texture = textureAtlas.getBitmap();
-			Shared.textureManager().addTextureId(texture, textureAtlas.getId(), generateMipMap);
+			uploadTextureAtlas();
 		}
 
 		Log.d(Min3d.TAG, "Creating object " + co.name);
 		animObj = co.getParsedObject(textureAtlas, materialMap, frames);
-
-		if (textureAtlas.hasBitmaps()) {
-			if (texture != null)
-				texture.recycle();
-		}
 		Log.d(Min3d.TAG, "Object creation finished");
 
 		super.cleanup();
@@ -118,7 +108,8 @@ public class MD2Parser extends AParser implements IParser {
 		ByteArrayInputStream ba = new ByteArrayInputStream(bytes,
 				header.offsetFrames - 68, bytes.length - header.offsetFrames);
 		LittleEndianDataInputStream is = new LittleEndianDataInputStream(ba);
-		ArrayList<Number3d> firstFrameVerts = new ArrayList<Number3d>();
+		int numVerts = header.numVerts;
+		byte[] packed = new byte[numVerts * 4];
 
 		for (int i = 0; i < header.numFrames; i++) {
 			float scaleX = is.readFloat();
@@ -135,21 +126,32 @@ public class MD2Parser extends AParser implements IParser {
 				name = name.substring(0, 6).replaceAll("[0-9]{1,2}$", "");
 			
 			Log.d(Min3d.TAG, "frame name: " + name);
-			float vertices[] = new float[header.numVerts * 3];
+			
+			// Keep the frame in MD2's quantized form; it is dequantized per frame
+			// pair while animating (KeyFrame.interpolate)
+			is.readFully(packed);
+			byte[] positions = new byte[numVerts * 3];
+			byte[] normalIndices = new byte[numVerts];
 			int index = 0;
 
-			for (int j = 0; j < header.numVerts; j++) {
-				vertices[index++] = scaleX * is.readUnsignedByte() + translateX;
-				vertices[index++] = scaleY * is.readUnsignedByte() + translateY;
-				vertices[index++] = scaleZ * is.readUnsignedByte() + translateZ;
+			for (int j = 0; j < numVerts; j++) {
+				int p = j * 4;
+				positions[index++] = packed[p];
+				positions[index++] = packed[p + 1];
+				positions[index++] = packed[p + 2];
 				
-				int normalIndex = is.readUnsignedByte();
+				int normalIndex = packed[p + 3] & 0xff;
+				normalIndices[j] = (byte)(normalIndex < MD2Normals.NUM_NORMALS ? normalIndex : 0);
 				if (i == 0)
-					co.vertices.add(new Number3d(vertices[index - 3],
-							vertices[index - 2], vertices[index - 1]));
+					co.vertices.add(new Number3d(
+							scaleX * (positions[index - 3] & 0xff) + translateX,
+							scaleY * (positions[index - 2] & 0xff) + translateY,
+							scaleZ * (positions[index - 1] & 0xff) + translateZ));
 			}
 
-			frames[i] = new KeyFrame(name, vertices);
+			frames[i] = new KeyFrame(name, positions, normalIndices,
+					new float[] { scaleX, scaleY, scaleZ },
+					new float[] { translateX, translateY, translateZ });
 		}
 	}
 
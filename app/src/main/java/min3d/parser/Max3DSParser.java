@@ -5,12 +5,11 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import min3d.Min3d;
-import min3d.Shared;
+import min3d.core.Object3d;
 import min3d.core.Object3dContainer;
 import min3d.vos.Number3d;
 import min3d.vos.Uv;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.util.Log;
 
 public class Max3DSParser extends AParser implements IParser {
@@ -202,24 +201,18 @@ public class Max3DSParser extends AParser implements IParser {
 		Log.d(Min3d.TAG, "Start object creation");
 		Object3dContainer obj = new Object3dContainer(0, 0);
 		int numObjects = parseObjects.size();
-		Bitmap texture = null;
 
 		if(textureAtlas.hasBitmaps())
 		{
-			textureAtlas.generate();
-			texture = textureAtlas.getBitmap();
-			Shared.textureManager().addTextureId(texture, textureAtlas.getId(), generateMipMap);
+			uploadTextureAtlas();
 		}
 		
 		for (int i = 0; i < numObjects; i++) {
 			ParseObjectData o = parseObjects.get(i);
 			Log.d(Min3d.TAG, "Creating object " + o.name);
-			obj.addChild(o.getParsedObject(materialMap, textureAtlas));
-		}
-		
-		if(textureAtlas.hasBitmaps())
-		{
-			if(texture != null) texture.recycle();
+			Object3d[] parts = o.getParsedObjects(materialMap, textureAtlas);
+			for (int j = 0; j < parts.length; j++)
+				obj.addChild(parts[j]);
 		}
 		Log.d(Min3d.TAG, "Object creation finished");
 		
@@ -0,0 +1,566 @@
+package min3d.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+import min3d.core.Color4BufferList;
+import min3d.core.FacesBufferedList;
+import min3d.core.Number3dBufferList;
+import min3d.core.UvBufferList;
+import min3d.core.Vertices;
+
+/**
+ * Prepares a parsed triangle mesh for drawing with an index buffer:
+ *
+ * 1. Welds vertices whose position, uv, normal and color are all identical,
+ *    so the index buffer actually shares them.
+ * 2. Reorders the triangles for the GPU's post-transform vertex cache, with
+ *    Tom Forsyth's "Linear-Speed Vertex Cache Optimisation" scoring.
+ * 3. Renumbers the vertices in the order the triangles first use them, so
+ *    vertex fetches walk the buffers forward. Vertices no triangle uses are
+ *    dropped.
+ *
+ * Input is one array per attribute plus triangle indices into them. The
+ * parsers fill these and build their Object3d from createVertices() and
+ * createFaces(). The average cache miss ratio (ACMR, vertices transformed
+ * per triangle, simulated with a FIFO cache of ACMR_CACHE_SIZE entries) is
+ * measured before and after.
+ */
+public class MeshOptimizer
+{
+	/**
+	 * Cache size used to report ACMR. Smaller than the one optimized for,
+	 * as older mobile GPUs have small FIFO caches.
+	 */
+	public static final int ACMR_CACHE_SIZE = 16;
+
+	// Forsyth's scoring constants, for an LRU cache of CACHE_SIZE entries
+	private static final int CACHE_SIZE = 32;
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRI_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+	private static final int MAX_VALENCE = 64;
+
+	private static final float[] CACHE_SCORES = new float[CACHE_SIZE];
+	private static final float[] VALENCE_SCORES = new float[MAX_VALENCE];
+
+	static
+	{
+		for (int i = 0; i < CACHE_SIZE; i++)
+		{
+			if (i < 3) {
+				// The last triangle's vertices; a fixed score so it isn't simply repeated
+				CACHE_SCORES[i] = LAST_TRI_SCORE;
+			}
+			else {
+				float scaler = 1.0f / (CACHE_SIZE - 3);
+				CACHE_SCORES[i] = (float)Math.pow(1.0f - (i - 3) * scaler, CACHE_DECAY_POWER);
+			}
+		}
+		for (int i = 1; i < MAX_VALENCE; i++)
+		{
+			// Favors vertices with few triangles left, to finish them off
+			VALENCE_SCORES[i] = VALENCE_BOOST_SCALE * (float)Math.pow(i, -VALENCE_BOOST_POWER);
+		}
+	}
+
+	private int _numVertices;
+	private float[] _points;
+	private float[] _uvs;
+	private float[] _normals;
+	private byte[] _colors;
+	private int[] _indices;
+
+	// Result: source vertex of each output vertex, and the triangles in output numbering
+	private int[] _order;
+	private int _numOutput;
+	private int[] _output;
+
+	private float _acmrBefore;
+	private float _acmrAfter;
+
+
+	/**
+	 * @param $numVertices	number of input vertices
+	 * @param $points		3 floats per vertex
+	 * @param $uvs			2 floats per vertex, or null
+	 * @param $normals		3 floats per vertex, or null
+	 * @param $colors		4 bytes per vertex, or null
+	 * @param $indices		3 vertex indices per triangle
+	 */
+	public MeshOptimizer(int $numVertices, float[] $points, float[] $uvs, float[] $normals, byte[] $colors, int[] $indices)
+	{
+		_numVertices = $numVertices;
+		_points = $points;
+		_uvs = $uvs;
+		_normals = $normals;
+		_colors = $colors;
+		_indices = $indices;
+		_acmrBefore = _acmrAfter = acmr($indices, $numVertices, ACMR_CACHE_SIZE);
+	}
+
+	/**
+	 * Welds and reorders the mesh
+	 */
+	public void optimize()
+	{
+		optimize(null);
+	}
+
+	/**
+	 * Welds and reorders the mesh.
+	 *
+	 * @param $sourceVertices	when not null, vertices are told apart by this key
+	 * (plus uv and color) instead of their position and normal. For keyframe
+	 * animated meshes, whose positions and normals come from the keyframes'
+	 * vertex indices.
+	 */
+	public void optimize(int[] $sourceVertices)
+	{
+		int numTriangles = _indices.length / 3;
+
+		// Welding: the first vertex of each group represents it
+		int[] remap = new int[_numVertices];
+		int[] representatives = new int[_numVertices];
+		int numWelded = weld($sourceVertices, remap, representatives);
+
+		int[] welded = new int[_indices.length];
+		for (int i = 0; i < welded.length; i++) {
+			welded[i] = remap[_indices[i]];
+		}
+
+		int[] triangleOrder = orderTriangles(welded, numWelded, numTriangles);
+
+		// Vertices in order of first use
+		int[] newIndex = new int[numWelded];
+		for (int i = 0; i < numWelded; i++) newIndex[i] = -1;
+		_order = new int[numWelded];
+		_output = new int[_indices.length];
+		_numOutput = 0;
+
+		int o = 0;
+		for (int t = 0; t < numTriangles; t++)
+		{
+			int src = triangleOrder[t] * 3;
+			for (int k = 0; k < 3; k++)
+			{
+				int w = welded[src + k];
+				if (newIndex[w] == -1) {
+					newIndex[w] = _numOutput;
+					_order[_numOutput++] = representatives[w];
+				}
+				_output[o++] = newIndex[w];
+			}
+		}
+		if (_numOutput < numWelded) {
+			// Welded vertices no triangle uses
+			_order = Arrays.copyOf(_order, _numOutput);
+		}
+		_acmrAfter = acmr(_output, _numOutput, ACMR_CACHE_SIZE);
+	}
+
+	/**
+	 * Number of vertices after optimize()
+	 */
+	public int numVertices()
+	{
+		return _order != null ? _numOutput : _numVertices;
+	}
+
+	/**
+	 * For each output vertex, the input vertex it was taken from
+	 */
+	public int[] vertexOrder()
+	{
+		if (_order == null) {
+			int[] identity = new int[_numVertices];
+			for (int i = 0; i < identity.length; i++) identity[i] = i;
+			return identity;
+		}
+		return _order;
+	}
+
+	/**
+	 * Triangle indices into the output vertices
+	 */
+	public int[] indices()
+	{
+		return _order != null ? _output : _indices;
+	}
+
+	public float acmrBefore()
+	{
+		return _acmrBefore;
+	}
+
+	public float acmrAfter()
+	{
+		return _acmrAfter;
+	}
+
+	/**
+	 * Copies per-vertex values of $src ($stride per vertex) into output vertex order
+	 */
+	public float[] gather(float[] $src, int $stride)
+	{
+		if ($src == null) return null;
+		if (_order == null) return $src;
+
+		float[] out = new float[_numOutput * $stride];
+		for (int i = 0; i < _numOutput; i++) {
+			System.arraycopy($src, _order[i] * $stride, out, i * $stride, $stride);
+		}
+		return out;
+	}
+
+	public byte[] gather(byte[] $src, int $stride)
+	{
+		if ($src == null) return null;
+		if (_order == null) return $src;
+
+		byte[] out = new byte[_numOutput * $stride];
+		for (int i = 0; i < _numOutput; i++) {
+			System.arraycopy($src, _order[i] * $stride, out, i * $stride, $stride);
+		}
+		return out;
+	}
+
+	public int[] gather(int[] $src)
+	{
+		if ($src == null) return null;
+		if (_order == null) return $src;
+
+		int[] out = new int[_numOutput];
+		for (int i = 0; i < _numOutput; i++) {
+			out[i] = $src[_order[i]];
+		}
+		return out;
+	}
+
+	/**
+	 * Vertex lists holding the output vertices, in direct buffers.
+	 * Attributes passed as null are left out.
+	 */
+	public Vertices createVertices()
+	{
+		int n = numVertices();
+		float[] uvs = gather(_uvs, 2);
+		float[] normals = gather(_normals, 3);
+		byte[] colors = gather(_colors, 4);
+
+		return new Vertices(
+				Number3dBufferList.wrap(toBuffer(gather(_points, 3)), n),
+				uvs != null ? UvBufferList.wrap(toBuffer(uvs), n) : null,
+				normals != null ? Number3dBufferList.wrap(toBuffer(normals), n) : null,
+				colors != null ? Color4BufferList.wrap(toBuffer(colors), n) : null);
+	}
+
+	/**
+	 * Index buffer of the output triangles. Vertex numbers must fit in an unsigned short.
+	 */
+	public FacesBufferedList createFaces()
+	{
+		int[] indices = indices();
+		ByteBuffer b = ByteBuffer.allocateDirect(indices.length * 2);
+		b.order(ByteOrder.nativeOrder());
+		ShortBuffer s = b.asShortBuffer();
+		for (int i = 0; i < indices.length; i++) {
+			s.put((short)indices[i]);
+		}
+		s.position(0);
+		return FacesBufferedList.wrap(s, indices.length / 3);
+	}
+
+	public String toString()
+	{
+		return String.format(Locale.US, "%d -> %d vertices, ACMR %.2f -> %.2f",
+				_numVertices, numVertices(), _acmrBefore, _acmrAfter);
+	}
+
+	/**
+	 * Splits triangles into groups, for example by texture atlas page.
+	 *
+	 * @param $groups	group of each triangle
+	 * @return the indices of each group's triangles; null for a group without any
+	 */
+	public static int[][] split(int[] $indices, int[] $groups, int $numGroups)
+	{
+		int[] counts = new int[$numGroups];
+		for (int t = 0; t < $groups.length; t++) counts[$groups[t]]++;
+
+		int[][] out = new int[$numGroups][];
+		for (int g = 0; g < $numGroups; g++) {
+			if (counts[g] > 0) out[g] = new int[counts[g] * 3];
+			counts[g] = 0;
+		}
+		for (int t = 0; t < $groups.length; t++)
+		{
+			int g = $groups[t];
+			int o = counts[g];
+			out[g][o] = $indices[t * 3];
+			out[g][o + 1] = $indices[t * 3 + 1];
+			out[g][o + 2] = $indices[t * 3 + 2];
+			counts[g] = o + 3;
+		}
+		return out;
+	}
+
+	/**
+	 * Average number of vertices transformed per triangle with a FIFO cache of $cacheSize entries.
+	 * 3 means no reuse at all; 0.5 is the limit for a large regular grid.
+	 */
+	public static float acmr(int[] $indices, int $numVertices, int $cacheSize)
+	{
+		if ($indices.length == 0) return 0;
+
+		// Entry time of each vertex, counted in misses
+		int[] entered = new int[$numVertices];
+		for (int i = 0; i < $numVertices; i++) entered[i] = Integer.MIN_VALUE / 2;
+		int misses = 0;
+
+		for (int i = 0; i < $indices.length; i++)
+		{
+			int v = $indices[i];
+			if (misses - entered[v] >= $cacheSize) {
+				entered[v] = misses++;
+			}
+		}
+		return (float)misses / ($indices.length / 3);
+	}
+
+	//
+
+	/**
+	 * Groups identical vertices. Fills $remap (vertex -> group) and
+	 * $representatives (group -> first vertex) and returns the number of groups.
+	 */
+	private int weld(int[] $sourceVertices, int[] $remap, int[] $representatives)
+	{
+		int size = Integer.highestOneBit(Math.max(_numVertices, 1) * 2) * 2;
+		int mask = size - 1;
+		// Group + 1 per slot, 0 when empty
+		int[] table = new int[size];
+		int numGroups = 0;
+
+		for (int v = 0; v < _numVertices; v++)
+		{
+			int slot = hash(v, $sourceVertices) & mask;
+			int e;
+			while ((e = table[slot]) != 0)
+			{
+				if (same($representatives[e - 1], v, $sourceVertices)) break;
+				slot = (slot + 1) & mask;
+			}
+			if (e == 0) {
+				$representatives[numGroups] = v;
+				table[slot] = ++numGroups;
+				e = numGroups;
+			}
+			$remap[v] = e - 1;
+		}
+		return numGroups;
+	}
+
+	private int hash(int $v, int[] $sourceVertices)
+	{
+		int h;
+		if ($sourceVertices != null) {
+			h = $sourceVertices[$v] * 0x9E3779B1;
+		}
+		else {
+			h = mix(0, _points, $v * 3, 3);
+			if (_normals != null) h = mix(h, _normals, $v * 3, 3);
+		}
+		if (_uvs != null) h = mix(h, _uvs, $v * 2, 2);
+		if (_colors != null) {
+			int o = $v * 4;
+			h = (h ^ ((_colors[o] & 0xff) | (_colors[o + 1] & 0xff) << 8 | (_colors[o + 2] & 0xff) << 16 | _colors[o + 3] << 24)) * 0x85EBCA6B;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static int mix(int $h, float[] $a, int $offset, int $count)
+	{
+		for (int i = 0; i < $count; i++) {
+			$h = ($h ^ Float.floatToIntBits($a[$offset + i])) * 0x85EBCA6B;
+			$h ^= $h >>> 13;
+		}
+		return $h;
+	}
+
+	private boolean same(int $a, int $b, int[] $sourceVertices)
+	{
+		if ($sourceVertices != null) {
+			if ($sourceVertices[$a] != $sourceVertices[$b]) return false;
+		}
+		else {
+			if (! same(_points, $a * 3, $b * 3, 3)) return false;
+			if (_normals != null && ! same(_normals, $a * 3, $b * 3, 3)) return false;
+		}
+		if (_uvs != null && ! same(_uvs, $a * 2, $b * 2, 2)) return false;
+		if (_colors != null) {
+			for (int i = 0; i < 4; i++) {
+				if (_colors[$a * 4 + i] != _colors[$b * 4 + i]) return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean same(float[] $x, int $a, int $b, int $count)
+	{
+		for (int i = 0; i < $count; i++) {
+			if (Float.floatToIntBits($x[$a + i]) != Float.floatToIntBits($x[$b + i])) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Forsyth's greedy triangle ordering. Returns the triangles in drawing order.
+	 */
+	private static int[] orderTriangles(int[] $indices, int $numVertices, int $numTriangles)
+	{
+		// Triangles of each vertex; the first remaining[v] of its list are not drawn yet
+		int[] remaining = new int[$numVertices];
+		for (int i = 0; i < $indices.length; i++) remaining[$indices[i]]++;
+
+		int[] start = new int[$numVertices + 1];
+		for (int v = 0; v < $numVertices; v++) start[v + 1] = start[v] + remaining[v];
+
+		int[] triangles = new int[$indices.length];
+		int[] fill = new int[$numVertices];
+		for (int i = 0; i < $indices.length; i++) {
+			int v = $indices[i];
+			triangles[start[v] + fill[v]++] = i / 3;
+		}
+
+		int[] cachePosition = new int[$numVertices];
+		float[] vertexScore = new float[$numVertices];
+		for (int v = 0; v < $numVertices; v++) {
+			cachePosition[v] = -1;
+			vertexScore[v] = score(-1, remaining[v]);
+		}
+
+		float[] triangleScore = new float[$numTriangles];
+		boolean[] drawn = new boolean[$numTriangles];
+		for (int t = 0; t < $numTriangles; t++) {
+			triangleScore[t] = vertexScore[$indices[t * 3]] + vertexScore[$indices[t * 3 + 1]] + vertexScore[$indices[t * 3 + 2]];
+		}
+
+		int[] cache = new int[CACHE_SIZE + 3];
+		int[] newCache = new int[CACHE_SIZE + 3];
+		int cacheSize = 0;
+
+		int[] order = new int[$numTriangles];
+		int cursor = 0;
+		int best = -1;
+		float bestScore = -1;
+		for (int t = 0; t < $numTriangles; t++) {
+			if (triangleScore[t] > bestScore) {
+				bestScore = triangleScore[t];
+				best = t;
+			}
+		}
+
+		for (int n = 0; n < $numTriangles; n++)
+		{
+			if (best == -1)
+			{
+				// Nothing left around the cache; continue with the next triangle in input order
+				while (drawn[cursor]) cursor++;
+				best = cursor;
+			}
+
+			int t = best;
+			order[n] = t;
+			drawn[t] = true;
+
+			// The triangle's vertices go to the front of the cache
+			int newSize = 0;
+			for (int k = 0; k < 3; k++)
+			{
+				int v = $indices[t * 3 + k];
+				// Take the triangle off the vertex's remaining list
+				int end = start[v] + remaining[v] - 1;
+				for (int j = start[v]; j <= end; j++) {
+					if (triangles[j] == t) {
+						triangles[j] = triangles[end];
+						triangles[end] = t;
+						break;
+					}
+				}
+				remaining[v]--;
+				newCache[newSize++] = v;
+			}
+			for (int i = 0; i < cacheSize; i++)
+			{
+				int v = cache[i];
+				if (v != newCache[0] && v != newCache[1] && v != newCache[2]) {
+					newCache[newSize++] = v;
+				}
+			}
+
+			// Rescore everything that was or is in the cache
+			for (int i = 0; i < cacheSize; i++) cachePosition[cache[i]] = -1;
+			int[] swap = cache;
+			cache = newCache;
+			newCache = swap;
+			cacheSize = Math.min(newSize, CACHE_SIZE);
+
+			best = -1;
+			bestScore = -1;
+			for (int i = 0; i < newSize; i++)
+			{
+				int v = cache[i];
+				int position = i < CACHE_SIZE ? i : -1;
+				cachePosition[v] = position;
+				float s = score(position, remaining[v]);
+				float delta = s - vertexScore[v];
+				vertexScore[v] = s;
+
+				for (int j = start[v], end = start[v] + remaining[v]; j < end; j++)
+				{
+					int u = triangles[j];
+					triangleScore[u] += delta;
+					if (triangleScore[u] > bestScore) {
+						bestScore = triangleScore[u];
+						best = u;
+					}
+				}
+			}
+		}
+		return order;
+	}
+
+	private static float score(int $cachePosition, int $remaining)
+	{
+		if ($remaining == 0) return -1;
+
+		float s = $cachePosition >= 0 ? CACHE_SCORES[$cachePosition] : 0;
+		return s + ($remaining < MAX_VALENCE ? VALENCE_SCORES[$remaining]
+				: VALENCE_BOOST_SCALE * (float)Math.pow($remaining, -VALENCE_BOOST_POWER));
+	}
+
+	private static FloatBuffer toBuffer(float[] $values)
+	{
+		ByteBuffer b = ByteBuffer.allocateDirect($values.length * 4);
+		b.order(ByteOrder.nativeOrder());
+		FloatBuffer fb = b.asFloatBuffer();
+		fb.put($values);
+		fb.position(0);
+		return fb;
+	}
+
+	private static ByteBuffer toBuffer(byte[] $values)
+	{
+		ByteBuffer b = ByteBuffer.allocateDirect($values.length);
+		b.order(ByteOrder.nativeOrder());
+		b.put($values);
+		b.position(0);
+		return b;
+	}
+}
@@ -0,0 +1,548 @@
+package min3d.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import min3d.Min3d;
+import min3d.animation.AnimationObject3d;
+import min3d.animation.KeyFrame;
+import min3d.core.Color4BufferList;
+import min3d.core.FacesBufferedList;
+import min3d.core.Number3dBufferList;
+import min3d.core.Object3d;
+import min3d.core.TextureList;
+import min3d.core.UvBufferList;
+import min3d.core.Vertices;
+import android.content.res.Resources;
+import android.util.Log;
+
+/**
+ * Binary cache of parsed models.
+ *
+ * Once a cache directory is set, Parser.createParser() returns parsers that
+ * save the objects they build (vertex lists, faces, MD2 keyframes and the
+ * texture atlas layout) to a file, and on the next launch memory-map
+ * that file straight into the objects' vertex and face buffers instead of
+ * parsing the source again. A cached model is only used while the length and
+ * CRC32 of its source resource (and of the resources it depends on, such as
+ * OBJ material libraries) still match.
+ *
+ * The file is written in the device's native byte order and every section is
+ * 4-byte aligned, so the mapped floats and shorts can be handed to GL as they are.
+ */
+public class ModelCache
+{
+	// "M3DC" in native order; a file written with the other byte order is rejected
+	private static final int MAGIC = 0x4d334443;
+	// Increase whenever the format or the parsers' output changes.
+	// 2: atlas pages; 3: welded/vertex-cache-ordered meshes, non-ASCII OBJ names;
+	// 4: oversized textures scaled onto max-size pages;
+	// 5: rebuild of every cache written before mesh optimization was versioned;
+	// 6: a lone texture on a power-of-two page
+	private static final int VERSION = 6;
+
+	private static final int FLAG_UVS = 0x1;
+	private static final int FLAG_NORMALS = 0x2;
+	private static final int FLAG_COLORS = 0x4;
+
+	private static File _cacheDir;
+
+
+	/**
+	 * Directory to keep cached models in (e.g. Context.getCacheDir()).
+	 * null turns the cache off.
+	 */
+	public static synchronized void setCacheDirectory(File $dir)
+	{
+		_cacheDir = $dir;
+	}
+
+	public static synchronized File getCacheDirectory()
+	{
+		return _cacheDir;
+	}
+
+	/**
+	 * Cache file for a source resource, or null when no cache directory is set
+	 */
+	static File file(Parser.Type $type, String $resourceID) /*package-private*/
+	{
+		File dir = getCacheDirectory();
+		if (dir == null) return null;
+		return new File(dir, "m3d_" + $type.name().toLowerCase() + "_" + Integer.toHexString($resourceID.hashCode()) + ".bin");
+	}
+
+	/**
+	 * Content hash of a raw resource: length in the upper 32 bits, CRC32 in the lower.
+	 * Returns -1 when the resource can't be read.
+	 */
+	static long hash(Resources $resources, String $resourceID) /*package-private*/
+	{
+		InputStream in = null;
+		try
+		{
+			in = $resources.openRawResource($resources.getIdentifier($resourceID, null, null));
+			CRC32 crc = new CRC32();
+			byte[] buf = new byte[8192];
+			long length = 0;
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				crc.update(buf, 0, n);
+				length += n;
+			}
+			return (length << 32) | crc.getValue();
+		}
+		catch (Exception e)
+		{
+			return -1;
+		}
+		finally
+		{
+			if (in != null) {
+				try { in.close(); } catch (IOException e) {}
+			}
+		}
+	}
+
+	//
+
+	/**
+	 * Contents of a cache file
+	 */
+	static class Model /*package-private*/
+	{
+		boolean animated;
+		String[] textureIDs;
+		int[] textureWidths;
+		int[] textureHeights;
+		// page, x and y of each texture, then the atlas padding and page sizes
+		int[] textureLayout;
+		int atlasPadding;
+		int[] atlasPageSizes;
+		Object3d[] objects;
+		// Atlas page of each object, -1 for none
+		int[] atlasPages;
+	}
+
+	/**
+	 * Maps a cache file. Returns null if there is none, or if it doesn't match
+	 * the current format, source or dependencies.
+	 * The objects' vertex and face lists are views of the (copy-on-write) mapping.
+	 */
+	static Model load(File $file, long $sourceHash, Resources $resources) /*package-private*/
+	{
+		if ($file == null || ! $file.isFile()) return null;
+
+		RandomAccessFile raf = null;
+		try
+		{
+			// A private (copy-on-write) mapping needs a writable channel; the file itself is never changed
+			raf = new RandomAccessFile($file, "rw");
+			FileChannel ch = raf.getChannel();
+			MappedByteBuffer bb = ch.map(FileChannel.MapMode.PRIVATE, 0, ch.size());
+			bb.order(ByteOrder.nativeOrder());
+
+			if (bb.getInt() != MAGIC || bb.getInt() != VERSION || bb.getLong() != $sourceHash) {
+				return null;
+			}
+
+			int numDependencies = bb.getInt();
+			for (int i = 0; i < numDependencies; i++) {
+				String id = getString(bb);
+				if (bb.getLong() != hash($resources, id)) return null;
+			}
+
+			Model m = new Model();
+			int numTextures = bb.getInt();
+			m.textureIDs = new String[numTextures];
+			m.textureWidths = new int[numTextures];
+			m.textureHeights = new int[numTextures];
+			m.textureLayout = new int[numTextures * 3];
+			for (int i = 0; i < numTextures; i++) {
+				m.textureIDs[i] = getString(bb);
+				m.textureWidths[i] = bb.getInt();
+				m.textureHeights[i] = bb.getInt();
+				m.textureLayout[i * 3] = bb.getInt();
+				m.textureLayout[i * 3 + 1] = bb.getInt();
+				m.textureLayout[i * 3 + 2] = bb.getInt();
+			}
+			m.atlasPadding = bb.getInt();
+			m.atlasPageSizes = new int[bb.getInt() * 2];
+			for (int i = 0; i < m.atlasPageSizes.length; i++) {
+				m.atlasPageSizes[i] = bb.getInt();
+			}
+
+			m.animated = bb.getInt() != 0;
+			int numObjects = bb.getInt();
+			m.objects = new Object3d[numObjects];
+			m.atlasPages = new int[numObjects];
+			for (int i = 0; i < numObjects; i++) {
+				String name = getString(bb);
+				int flags = bb.getInt();
+				int atlasPage = bb.getInt();
+				int numVertices = bb.getInt();
+				int numFaces = bb.getInt();
+
+				Number3dBufferList points = Number3dBufferList.wrap(getFloats(bb, numVertices * 3), numVertices);
+				UvBufferList uvs = (flags & FLAG_UVS) != 0 ? UvBufferList.wrap(getFloats(bb, numVertices * 2), numVertices) : null;
+				Number3dBufferList normals = (flags & FLAG_NORMALS) != 0 ? Number3dBufferList.wrap(getFloats(bb, numVertices * 3), numVertices) : null;
+				Color4BufferList colors = (flags & FLAG_COLORS) != 0 ? Color4BufferList.wrap(getBytes(bb, numVertices * 4), numVertices) : null;
+				FacesBufferedList faces = FacesBufferedList.wrap(getBytes(bb, numFaces * 6).asShortBuffer(), numFaces);
+
+				Vertices v = new Vertices(points, uvs, normals, colors);
+				Object3d o;
+				if (m.animated) {
+					AnimationObject3d a = new AnimationObject3d(v, faces, new TextureList(), getFrames(bb));
+					a.animationEnabled(true);
+					o = a;
+				}
+				else {
+					o = new Object3d(v, faces, new TextureList());
+				}
+				o.name(name);
+				m.objects[i] = o;
+				m.atlasPages[i] = atlasPage < m.atlasPageSizes.length / 2 ? atlasPage : -1;
+			}
+			return m;
+		}
+		catch (Exception e)
+		{
+			// Unreadable or truncated file; it gets rewritten after parsing
+			Log.d(Min3d.TAG, "Ignoring model cache " + $file + ": " + e);
+			return null;
+		}
+		finally
+		{
+			if (raf != null) {
+				try { raf.close(); } catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * Saves parsed objects. Writes to a temporary file first and then renames it,
+	 * so a partly written file is never loaded. Failures are only logged.
+	 *
+	 * @param $dependencyIDs	raw resources the source refers to (AParser.dependencyIDs)
+	 * @param $atlas			the parser's texture atlas, after generate()
+	 */
+	static void save(File $file, long $sourceHash, Resources $resources, ArrayList<String> $dependencyIDs,
+			AParser.TextureAtlas $atlas, Object3d[] $objects, boolean $animated) /*package-private*/
+	{
+		Writer w = new Writer();
+		w.putInt(MAGIC);
+		w.putInt(VERSION);
+		w.putLong($sourceHash);
+
+		w.putInt($dependencyIDs.size());
+		for (String id : $dependencyIDs) {
+			long h = hash($resources, id);
+			if (h == -1) return;
+			w.putString(id);
+			w.putLong(h);
+		}
+
+		ArrayList<AParser.BitmapAsset> textures = $atlas.getSources();
+		w.putInt(textures.size());
+		for (AParser.BitmapAsset ba : textures) {
+			w.putString(ba.resourceID);
+			w.putInt(ba.width);
+			w.putInt(ba.height);
+			w.putInt(ba.page);
+			w.putInt(ba.x);
+			w.putInt(ba.y);
+		}
+		int[] pageSizes = $atlas.getPageSizes();
+		w.putInt($atlas.getPadding());
+		w.putInt(pageSizes.length / 2);
+		for (int i = 0; i < pageSizes.length; i++) {
+			w.putInt(pageSizes[i]);
+		}
+		List<String> atlasIds = Arrays.asList($atlas.getIds());
+
+		w.putInt($animated ? 1 : 0);
+		w.putInt($objects.length);
+		for (Object3d o : $objects)
+		{
+			int numVertices = o.vertices().size();
+			int numFaces = o.faces().size();
+			int flags = 0;
+			if (o.hasUvs()) flags |= FLAG_UVS;
+			if (o.hasNormals()) flags |= FLAG_NORMALS;
+			if (o.hasVertexColors()) flags |= FLAG_COLORS;
+			int atlasPage = o.textures().size() > 0 ? atlasIds.indexOf(o.textures().get(0).textureId) : -1;
+
+			w.putString(o.name());
+			w.putInt(flags);
+			w.putInt(atlasPage);
+			w.putInt(numVertices);
+			w.putInt(numFaces);
+			w.putFloats(o.points().buffer(), numVertices * 3);
+			if (o.hasUvs()) w.putFloats(o.uvs().buffer(), numVertices * 2);
+			if (o.hasNormals()) w.putFloats(o.normals().buffer(), numVertices * 3);
+			if (o.hasVertexColors()) w.putBytes(o.colors().buffer(), numVertices * 4);
+			w.putShorts(o.faces().buffer(), numFaces * 3);
+
+			if ($animated) {
+				putFrames(w, ((AnimationObject3d)o).getClonedFrames());
+			}
+		}
+
+		File tmp = new File($file.getPath() + ".tmp");
+		FileOutputStream out = null;
+		try
+		{
+			out = new FileOutputStream(tmp);
+			ByteBuffer data = w.finish();
+			FileChannel ch = out.getChannel();
+			while (data.hasRemaining()) {
+				ch.write(data);
+			}
+			out.close();
+			out = null;
+			if (! tmp.renameTo($file)) {
+				$file.delete();
+				if (! tmp.renameTo($file)) throw new IOException("rename failed");
+			}
+		}
+		catch (IOException e)
+		{
+			Log.d(Min3d.TAG, "Could not write model cache " + $file + ": " + e);
+			tmp.delete();
+		}
+		finally
+		{
+			if (out != null) {
+				try { out.close(); } catch (IOException e) {}
+			}
+		}
+	}
+
+	//
+
+	private static void putFrames(Writer $w, KeyFrame[] $frames)
+	{
+		$w.putInt($frames.length);
+		int[] indices = $frames.length > 0 ? $frames[0].getIndices() : null;
+		$w.putInt(indices != null ? indices.length : -1);
+		if (indices != null) {
+			ByteBuffer b = $w.reserve(indices.length * 4);
+			for (int i = 0; i < indices.length; i++) b.putInt(indices[i]);
+		}
+
+		for (KeyFrame f : $frames)
+		{
+			$w.putString(f.getName());
+			if (f.isQuantized()) {
+				$w.putInt(1);
+				$w.putInt(f.getNumVertices());
+				for (int i = 0; i < 3; i++) $w.putFloat(f.getScale()[i]);
+				for (int i = 0; i < 3; i++) $w.putFloat(f.getTranslate()[i]);
+				$w.reserve(f.getPositions().length).put(f.getPositions());
+				$w.align();
+				$w.reserve(f.getNormalIndices().length).put(f.getNormalIndices());
+				$w.align();
+			}
+			else {
+				// Float frames are already de-indexed; their indices are not needed again
+				float[] verts = f.getVertices();
+				float[] normals = f.getNormals();
+				$w.putInt(0);
+				$w.putInt(verts.length);
+				$w.putInt(normals != null ? normals.length : -1);
+				for (int i = 0; i < verts.length; i++) $w.putFloat(verts[i]);
+				if (normals != null) {
+					for (int i = 0; i < normals.length; i++) $w.putFloat(normals[i]);
+				}
+			}
+		}
+	}
+
+	private static KeyFrame[] getFrames(ByteBuffer $bb) throws IOException
+	{
+		KeyFrame[] frames = new KeyFrame[$bb.getInt()];
+		int numIndices = $bb.getInt();
+		int[] indices = null;
+		if (numIndices >= 0) {
+			indices = new int[numIndices];
+			$bb.asIntBuffer().get(indices);
+			$bb.position($bb.position() + numIndices * 4);
+		}
+
+		for (int i = 0; i < frames.length; i++)
+		{
+			String name = getString($bb);
+			if ($bb.getInt() != 0) {
+				int numVertices = $bb.getInt();
+				float[] scale = { $bb.getFloat(), $bb.getFloat(), $bb.getFloat() };
+				float[] translate = { $bb.getFloat(), $bb.getFloat(), $bb.getFloat() };
+				byte[] positions = new byte[numVertices * 3];
+				byte[] normalIndices = new byte[numVertices];
+				$bb.get(positions);
+				align($bb);
+				$bb.get(normalIndices);
+				align($bb);
+				frames[i] = new KeyFrame(name, positions, normalIndices, scale, translate);
+				if (indices != null) frames[i].setIndices(indices);
+			}
+			else {
+				float[] verts = new float[$bb.getInt()];
+				int numNormals = $bb.getInt();
+				$bb.asFloatBuffer().get(verts);
+				$bb.position($bb.position() + verts.length * 4);
+				float[] normals = null;
+				if (numNormals >= 0) {
+					normals = new float[numNormals];
+					$bb.asFloatBuffer().get(normals);
+					$bb.position($bb.position() + numNormals * 4);
+				}
+				frames[i] = new KeyFrame(name, verts, normals);
+			}
+		}
+		return frames;
+	}
+
+	private static String getString(ByteBuffer $bb) throws IOException
+	{
+		byte[] b = new byte[$bb.getInt()];
+		$bb.get(b);
+		align($bb);
+		return new String(b, "UTF-8");
+	}
+
+	/**
+	 * Native order view of the next $count floats; advances past them
+	 */
+	private static FloatBuffer getFloats(ByteBuffer $bb, int $count)
+	{
+		return getBytes($bb, $count * 4).asFloatBuffer();
+	}
+
+	/**
+	 * Native order view of the next $count bytes; advances past them
+	 */
+	private static ByteBuffer getBytes(ByteBuffer $bb, int $count)
+	{
+		int start = $bb.position();
+		int end = start + $count;
+		$bb.limit(end);
+		ByteBuffer view = $bb.slice().order(ByteOrder.nativeOrder());
+		$bb.limit($bb.capacity());
+		$bb.position(end);
+		align($bb);
+		return view;
+	}
+
+	private static void align(ByteBuffer $bb)
+	{
+		$bb.position(($bb.position() + 3) & ~3);
+	}
+
+	/**
+	 * Growable native order buffer the cache file is assembled in
+	 */
+	private static class Writer
+	{
+		private ByteBuffer _b = ByteBuffer.allocate(64 * 1024).order(ByteOrder.nativeOrder());
+
+		/**
+		 * Makes room for $bytes more bytes and returns the buffer to put them into
+		 */
+		ByteBuffer reserve(int $bytes)
+		{
+			if (_b.remaining() < $bytes + 4) {
+				int size = _b.capacity() * 2;
+				while (size - _b.position() < $bytes + 4) size *= 2;
+				ByteBuffer b = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+				_b.flip();
+				b.put(_b);
+				_b = b;
+			}
+			return _b;
+		}
+
+		void putInt(int $i)
+		{
+			reserve(4).putInt($i);
+		}
+
+		void putLong(long $l)
+		{
+			reserve(8).putLong($l);
+		}
+
+		void putFloat(float $f)
+		{
+			reserve(4).putFloat($f);
+		}
+
+		void putString(String $s)
+		{
+			byte[] b;
+			try {
+				b = $s.getBytes("UTF-8");
+			}
+			catch (IOException e) {
+				b = new byte[0];
+			}
+			putInt(b.length);
+			reserve(b.length).put(b);
+			align();
+		}
+
+		void putFloats(FloatBuffer $src, int $count)
+		{
+			ByteBuffer b = reserve($count * 4);
+			FloatBuffer src = $src.duplicate();
+			src.position(0);
+			src.limit($count);
+			b.asFloatBuffer().put(src);
+			b.position(b.position() + $count * 4);
+		}
+
+		void putShorts(ShortBuffer $src, int $count)
+		{
+			ByteBuffer b = reserve($count * 2);
+			ShortBuffer src = $src.duplicate();
+			src.position(0);
+			src.limit($count);
+			b.asShortBuffer().put(src);
+			b.position(b.position() + $count * 2);
+			align();
+		}
+
+		void putBytes(ByteBuffer $src, int $count)
+		{
+			ByteBuffer src = $src.duplicate();
+			src.position(0);
+			src.limit($count);
+			reserve($count).put(src);
+			align();
+		}
+
+		void align()
+		{
+			int pad = ((_b.position() + 3) & ~3) - _b.position();
+			for (int i = 0; i < pad; i++) reserve(1).put((byte)0);
+		}
+
+		ByteBuffer finish()
+		{
+			_b.flip();
+			return _b;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package min3d.parser;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import min3d.Min3d;
+import min3d.Shared;
+import min3d.core.GLUploadQueue;
+import min3d.core.Object3d;
+import min3d.core.Object3dContainer;
+import min3d.core.Scene;
+import android.content.res.Resources;
+import android.util.Log;
+
+/**
+ * Loads models on worker threads, so the first frames don't wait for them.
+ *
+ * Each model is parsed (or read from ModelCache) in parallel. Its texture
+ * uploads, its buffer object uploads and adding it to the Scene are posted to
+ * the Renderer's GLUploadQueue, which runs them on the GL thread within a
+ * per-frame budget. Models are added to the Scene in the order load() was
+ * called, whichever finishes first, so child indices stay the same as with
+ * synchronous loading (the Renderer maps marker ids to child indices). A load
+ * that fails adds an empty Object3dContainer in its place for the same reason.
+ *
+ * Call load() from the GL thread, typically in ISceneController.initScene().
+ */
+public class ModelLoader
+{
+	/**
+	 * Called on the GL thread just before a loaded object is added to the Scene
+	 */
+	public interface Callback
+	{
+		public void onLoaded(Object3d $o);
+	}
+
+	private Scene _scene;
+	private GLUploadQueue _uploads;
+	private ThreadPoolExecutor _executor;
+
+	// Loads not added to the Scene yet, in request order. GL thread only.
+	private ArrayList<Pending> _pending = new ArrayList<Pending>();
+
+
+	public ModelLoader(Scene $scene)
+	{
+		this($scene, Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4)));
+	}
+
+	public ModelLoader(Scene $scene, int $numThreads)
+	{
+		_scene = $scene;
+		_uploads = Shared.renderer().uploadQueue();
+
+		_executor = new ThreadPoolExecutor($numThreads, $numThreads, 5, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable $r) {
+						Thread t = new Thread($r, "ModelLoader");
+						t.setDaemon(true);
+						t.setPriority(Thread.NORM_PRIORITY - 1);
+						return t;
+					}
+				});
+		_executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Starts loading a model. Animated models (MD2) give an AnimationObject3d,
+	 * the others an Object3dContainer.
+	 *
+	 * @param $callback	may be null
+	 * @return the parsed object, available before it is added to the Scene.
+	 * Never call get() on the GL thread; the object is only added by that thread.
+	 */
+	public Future<Object3d> load(final Parser.Type $type, final Resources $resources, final String $resourceID,
+			final boolean $generateMipMap, final Callback $callback)
+	{
+		final int generation = _uploads.generation();
+		// Loads started for an earlier GL context will never finish
+		if (_pending.size() > 0 && _pending.get(0).generation != generation) {
+			_pending.clear();
+		}
+		final Pending p = new Pending($callback, generation);
+		_pending.add(p);
+
+		FutureTask<Object3d> task = new FutureTask<Object3d>(new Callable<Object3d>() {
+			public Object3d call() throws Exception
+			{
+				Object3d o = null;
+				try
+				{
+					long startTime = System.currentTimeMillis();
+					IParser parser = Parser.createParser($type, $resources, $resourceID, $generateMipMap, _uploads, generation);
+					parser.parse();
+					o = $type == Parser.Type.MD2 ? parser.getParsedAnimationObject() : parser.getParsedObject();
+					Log.d(Min3d.TAG, "Loaded " + $resourceID + " in " + (System.currentTimeMillis() - startTime) + "ms");
+					return o;
+				}
+				finally
+				{
+					// Queued after the parser's texture uploads; with o == null a placeholder is added
+					final Object3d loaded = o;
+					_uploads.post(new Runnable() {
+						public void run() {
+							p.object = loaded;
+							p.done = true;
+							addFinished();
+						}
+					}, generation);
+				}
+			}
+		});
+		_executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Number of loads not yet added to the Scene
+	 */
+	public int pending()
+	{
+		return _pending.size();
+	}
+
+	/**
+	 * Stops the worker threads once the queued loads are done
+	 */
+	public void shutdown()
+	{
+		_executor.shutdown();
+	}
+
+	//
+
+	/**
+	 * Adds finished loads to the Scene, stopping at the first one still running
+	 */
+	private void addFinished()
+	{
+		while (_pending.size() > 0 && _pending.get(0).done)
+		{
+			final Pending p = _pending.remove(0);
+			if (p.object == null) {
+				// Keeps the later models at their marker's child index. Has no
+				// geometry, so it draws nothing when its marker is found.
+				_scene.addChild(new Object3dContainer());
+				continue;
+			}
+
+			if (p.callback != null) p.callback.onLoaded(p.object);
+			Shared.renderer().uploadBufferObjects(p.object);
+			_scene.addChild(p.object);
+		}
+	}
+
+	private static class Pending
+	{
+		final Callback callback;
+		final int generation;
+		Object3d object;
+		boolean done;
+
+		Pending(Callback $callback, int $generation)
+		{
+			callback = $callback;
+			generation = $generation;
+		}
+	}
+}
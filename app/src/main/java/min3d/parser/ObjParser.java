@@ -4,25 +4,31 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.Calendar;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.StringTokenizer;
 
 import min3d.Min3d;
-import min3d.Shared;
-import min3d.Utils;
+import min3d.core.Object3d;
 import min3d.core.Object3dContainer;
+import min3d.core.TextureList;
 import min3d.vos.Color4;
-import min3d.vos.Number3d;
-import min3d.vos.Uv;
+import min3d.vos.TextureVo;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.util.Log;
 
 /**
  * Parses Wavefront OBJ files. Basic version, this is still a work in progress!
  * 
- * TODO: proper error handling TODO: handle multiple objects TODO: handle groups
+ * The file is read as a byte stream, without building a String per line or
+ * an object per value: positions, texture coordinates and normals go into
+ * growable float arrays, and each distinct (v, vt, vn, material) corner becomes
+ * one shared vertex, found through a primitive hash map, so the objects get
+ * indexed geometry instead of one vertex per face corner, which MeshOptimizer
+ * then reorders for the vertex cache. Polygons with more than three corners
+ * are triangulated. An object that needs more than 65535 vertices (the limit
+ * of the short index buffer) is split into several.
+ * 
+ * TODO: proper error handling TODO: handle groups
  * TODO: a lot more :-) *
  * 
  * @author dennis.ippel
@@ -42,6 +48,40 @@ public class ObjParser extends AParser implements IParser {
 	private final String DIFFUSE_COLOR = "Kd";
 	private final String DIFFUSE_TEX_MAP = "map_Kd";
 
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_VERTICES_PER_OBJECT = 65535;
+	private static final int NONE = -1;
+	private static final int INVALID = Integer.MIN_VALUE;
+
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	// Input and the current character (-1 at the end)
+	private InputStream in;
+	private byte[] buf;
+	private int pos;
+	private int len;
+	private int ch;
+	private byte[] word = new byte[64];
+	// Bytes of the name readString() is collecting; grows as needed
+	private byte[] name = new byte[64];
+
+	// All attributes of the file; objects index into them
+	private FloatArray positions;
+	private FloatArray uvs;
+	private FloatArray normals;
+
+	private ArrayList<ObjObject> objects;
+	private ObjObject current;
+	private ArrayList<String> materialKeys;
+	private HashMap<String, Integer> materialIndices;
+	private int currentMaterial;
+
+	// Corners of the face being read: v, vt, vn and the resulting vertex index
+	private int[] faceCorners = new int[4 * 3];
+	private int[] faceVertices = new int[4];
+
 	/**
 	 * Creates a new OBJ parser instance
 	 * 
@@ -54,106 +94,130 @@ public class ObjParser extends AParser implements IParser {
 
 	@Override
 	public void parse() {
-		long startTime = Calendar.getInstance().getTimeInMillis();
+		long startTime = System.currentTimeMillis();
 
-		InputStream fileIn = resources.openRawResource(resources.getIdentifier(
+		in = resources.openRawResource(resources.getIdentifier(
 				resourceID, null, null));
-		BufferedReader buffer = new BufferedReader(
-				new InputStreamReader(fileIn));
-		String line;
-		co = new ParseObjectData(vertices, texCoords, normals);
-		parseObjects.add(co);
+		buf = new byte[BUFFER_SIZE];
+		pos = len = 0;
+
+		positions = new FloatArray(3 * 1024);
+		uvs = new FloatArray(2 * 1024);
+		normals = new FloatArray(3 * 1024);
+		objects = new ArrayList<ObjObject>();
+		materialKeys = new ArrayList<String>();
+		materialIndices = new HashMap<String, Integer>();
+		currentMaterial = NONE;
+		current = new ObjObject("");
+		objects.add(current);
 
 		Log.d(Min3d.TAG, "Start parsing object " + resourceID);
-		Log.d(Min3d.TAG, "Start time " + startTime);
 
 		try {
-			while ((line = buffer.readLine()) != null) {
-				// remove duplicate whitespace
-				// line = line.replaceAll("\\s+", " ");
-				// String[] parts = line.split(" ");
-				StringTokenizer parts = new StringTokenizer(line, " ");
-				int numTokens = parts.countTokens();
-				if (numTokens == 0)
-					continue;
-				String type = parts.nextToken();
-
-				if (type.equals(VERTEX)) {
-					Number3d vertex = new Number3d();
-					vertex.x = Float.parseFloat(parts.nextToken());
-					vertex.y = Float.parseFloat(parts.nextToken());
-					vertex.z = Float.parseFloat(parts.nextToken());
-					vertices.add(vertex);
-				} else if (type.equals(FACE)) {
-					if (numTokens == 4) {
-						co.numFaces++;
-						co.faces.add(new ObjFace(line, currentMaterialKey, 3));
-					} else if (numTokens == 5) {
-						co.numFaces += 2;
-						co.faces.add(new ObjFace(line, currentMaterialKey, 4));
-					}
-				} else if (type.equals(TEXCOORD)) {
-					Uv texCoord = new Uv();
-					texCoord.u = Float.parseFloat(parts.nextToken());
-					texCoord.v = Float.parseFloat(parts.nextToken()) * -1f;
-					texCoords.add(texCoord);
-				} else if (type.equals(NORMAL)) {
-					Number3d normal = new Number3d();
-					normal.x = Float.parseFloat(parts.nextToken());
-					normal.y = Float.parseFloat(parts.nextToken());
-					normal.z = Float.parseFloat(parts.nextToken());
-					normals.add(normal);
-				} else if (type.equals(MATERIAL_LIB)) {
-					readMaterialLib(parts.nextToken());
-				} else if (type.equals(USE_MATERIAL)) {
-					currentMaterialKey = parts.nextToken();
-				} else if (type.equals(OBJECT)) {
-					String objName = parts.hasMoreTokens() ? parts.nextToken() : ""; 
-					if(firstObject)
-					{
-						Log.d(Min3d.TAG, "Create object " + objName);
-						co.name = objName;
+			next();
+			while (ch != -1) {
+				int wordLength = readWord();
+
+				if (wordLength == 0) {
+					// empty line or comment
+				} else if (isWord(wordLength, VERTEX)) {
+					positions.add(readFloat());
+					positions.add(readFloat());
+					positions.add(readFloat());
+				} else if (isWord(wordLength, FACE)) {
+					readFace();
+				} else if (isWord(wordLength, TEXCOORD)) {
+					uvs.add(readFloat());
+					uvs.add(readFloat() * -1f);
+				} else if (isWord(wordLength, NORMAL)) {
+					normals.add(readFloat());
+					normals.add(readFloat());
+					normals.add(readFloat());
+				} else if (isWord(wordLength, MATERIAL_LIB)) {
+					readMaterialLib(readString(false));
+				} else if (isWord(wordLength, USE_MATERIAL)) {
+					useMaterial(readString(false));
+				} else if (isWord(wordLength, OBJECT)) {
+					String objName = readString(false);
+					Log.d(Min3d.TAG, "Create object " + objName);
+					if (firstObject) {
+						current.name = objName;
 						firstObject = false;
-					}
-					else
-					{
-						Log.d(Min3d.TAG, "Create object " + objName);
-						co = new ParseObjectData(vertices, texCoords, normals);
-						co.name = objName;
-						parseObjects.add(co);
+					} else {
+						current = new ObjObject(objName);
+						objects.add(current);
 					}
 				}
+				skipLine();
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+			in = null;
+			buf = null;
 		}
 
-		long endTime = Calendar.getInstance().getTimeInMillis();
-		Log.d(Min3d.TAG, "End time " + (endTime - startTime));
+		Log.d(Min3d.TAG, "End time " + (System.currentTimeMillis() - startTime));
 	}
 
 	public Object3dContainer getParsedObject() {
 		Log.d(Min3d.TAG, "Start object creation");
 		Object3dContainer obj = new Object3dContainer(0, 0);
-		int numObjects = parseObjects.size();
-		Bitmap texture = null;
+		boolean hasBitmaps = textureAtlas.hasBitmaps();
 
-		if(textureAtlas.hasBitmaps())
+		if(hasBitmaps)
 		{
-			textureAtlas.generate();
-			texture = textureAtlas.getBitmap();
-			Shared.textureManager().addTextureId(texture, textureAtlas.getId(), generateMipMap);
+			uploadTextureAtlas();
 		}
-		
+
+		// Vertex color and atlas placement per material; the last entry is for no material
+		int numMaterials = materialKeys.size();
+		byte[] colors = new byte[(numMaterials + 1) * 4];
+		float[] uvTransforms = new float[(numMaterials + 1) * 4];
+		boolean[] inAtlas = new boolean[numMaterials + 1];
+		int[] pages = new int[numMaterials + 1];
+
+		for (int m = 0; m <= numMaterials; m++) {
+			String key = m < numMaterials ? materialKeys.get(m) : null;
+			Material material = key != null ? materialMap.get(key) : null;
+			Color4 color = material != null && material.diffuseColor != null
+					? material.diffuseColor : new Color4(255, 255, 0, 255);
+			colors[m * 4] = (byte) color.r;
+			colors[m * 4 + 1] = (byte) color.g;
+			colors[m * 4 + 2] = (byte) color.b;
+			colors[m * 4 + 3] = (byte) color.a;
+
+			BitmapAsset ba = hasBitmaps && key != null ? textureAtlas.getBitmapAssetByName(key) : null;
+			pages[m] = -1;
+			if (ba != null) {
+				inAtlas[m] = true;
+				pages[m] = ba.page;
+				uvTransforms[m * 4] = ba.uOffset;
+				uvTransforms[m * 4 + 1] = ba.uScale;
+				uvTransforms[m * 4 + 2] = ba.vOffset;
+				uvTransforms[m * 4 + 3] = ba.vScale;
+			}
+		}
+
+		int numObjects = objects.size();
 		for (int i = 0; i < numObjects; i++) {
-			ParseObjectData o = parseObjects.get(i);
+			ObjObject o = objects.get(i);
 			Log.d(Min3d.TAG, "Creating object " + o.name);
-			obj.addChild(o.getParsedObject(materialMap, textureAtlas));
-		}
-		
-		if(textureAtlas.hasBitmaps())
-		{
-			if(texture != null) texture.recycle();
+			Object3d[] parts = o.build(positions, uvs, normals, colors, uvTransforms, inAtlas,
+					pages, textureAtlas.getNumPages());
+			for (int page = 0; page < parts.length; page++) {
+				if (parts[page] == null)
+					continue;
+				if (hasBitmaps) {
+					// Not addById(); the atlas may still be waiting in an upload queue
+					parts[page].textures().add(new TextureVo(textureAtlas.getId(page)));
+				}
+				obj.addChild(parts[page]);
+			}
 		}
 		Log.d(Min3d.TAG, "Object creation finished");
 		
@@ -162,6 +226,252 @@ public class ObjParser extends AParser implements IParser {
 		return obj;
 	}
 
+	private void useMaterial(String key) {
+		currentMaterialKey = key;
+		Integer index = materialIndices.get(key);
+		if (index == null) {
+			index = materialKeys.size();
+			materialKeys.add(key);
+			materialIndices.put(key, index);
+		}
+		currentMaterial = index;
+	}
+
+	/**
+	 * Reads the corners of an "f" line and adds the face, split into triangles
+	 */
+	private void readFace() throws IOException {
+		int numCorners = 0;
+		int numPositions = positions.size() / 3;
+		int numUvs = uvs.size() / 2;
+		int numNormals = normals.size() / 3;
+		boolean valid = true;
+
+		skipBlanks();
+		while (ch != -1 && ch != '\n' && ch != '#') {
+			int v = resolveIndex(readInt(), numPositions);
+			int vt = NONE;
+			int vn = NONE;
+			if (ch == '/') {
+				next();
+				if (ch != '/')
+					vt = resolveIndex(readInt(), numUvs);
+				if (ch == '/') {
+					next();
+					vn = resolveIndex(readInt(), numNormals);
+				}
+			}
+			if (v == NONE || v == INVALID || vt == INVALID || vn == INVALID)
+				valid = false;
+
+			if (numCorners * 3 == faceCorners.length) {
+				int[] grown = new int[faceCorners.length * 2];
+				System.arraycopy(faceCorners, 0, grown, 0, faceCorners.length);
+				faceCorners = grown;
+				faceVertices = new int[faceCorners.length / 3];
+			}
+			faceCorners[numCorners * 3] = v;
+			faceCorners[numCorners * 3 + 1] = vt;
+			faceCorners[numCorners * 3 + 2] = vn;
+			numCorners++;
+
+			while (ch != -1 && ch > ' ' && ch != '#')
+				next();
+			skipBlanks();
+		}
+
+		if (!valid || numCorners < 3)
+			return;
+
+		if (current.numVertices() + numCorners > MAX_VERTICES_PER_OBJECT) {
+			current = new ObjObject(current.name);
+			objects.add(current);
+		}
+		for (int i = 0; i < numCorners; i++) {
+			faceVertices[i] = current.vertex(faceCorners[i * 3], faceCorners[i * 3 + 1],
+					faceCorners[i * 3 + 2], currentMaterial);
+		}
+
+		if (numCorners == 4) {
+			current.triangle(faceVertices[0], faceVertices[1], faceVertices[3]);
+			current.triangle(faceVertices[1], faceVertices[2], faceVertices[3]);
+		} else {
+			for (int i = 1; i < numCorners - 1; i++)
+				current.triangle(faceVertices[0], faceVertices[i], faceVertices[i + 1]);
+		}
+	}
+
+	/**
+	 * OBJ indices start at 1; negative ones count back from the last element read
+	 */
+	private static int resolveIndex(int index, int count) {
+		if (index == INVALID)
+			return INVALID;
+		int i = index > 0 ? index - 1 : count + index;
+		return i >= 0 && i < count && index != 0 ? i : INVALID;
+	}
+
+	//
+
+	private void next() throws IOException {
+		if (pos == len) {
+			len = in.read(buf, 0, buf.length);
+			pos = 0;
+			if (len <= 0) {
+				len = 0;
+				ch = -1;
+				return;
+			}
+		}
+		ch = buf[pos++] & 0xff;
+	}
+
+	private void skipBlanks() throws IOException {
+		while (ch == ' ' || ch == '\t' || ch == '\r')
+			next();
+	}
+
+	private void skipLine() throws IOException {
+		while (ch != -1 && ch != '\n')
+			next();
+		next();
+	}
+
+	/**
+	 * Reads the next word of the line into word; 0 at the end of the line or at a comment
+	 */
+	private int readWord() throws IOException {
+		skipBlanks();
+		int n = 0;
+		while (ch > ' ' && ch != '#') {
+			if (n < word.length)
+				word[n++] = (byte) ch;
+			next();
+		}
+		return n;
+	}
+
+	private boolean isWord(int length, String s) {
+		if (length != s.length())
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (word[i] != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the next word, or with wholeLine the rest of the line (trimmed)
+	 */
+	private String readString(boolean wholeLine) throws IOException {
+		skipBlanks();
+		int n = 0;
+		while (ch != -1 && ch != '\n' && (wholeLine || ch > ' ')) {
+			if (n == name.length) {
+				byte[] b = new byte[n * 2];
+				System.arraycopy(name, 0, b, 0, n);
+				name = b;
+			}
+			name[n++] = (byte) ch;
+			next();
+		}
+		// Decoded like the InputStreamReader the material libraries are read with
+		return new String(name, 0, n).trim();
+	}
+
+	/**
+	 * Reads an optionally signed integer; INVALID if there are no digits
+	 */
+	private int readInt() throws IOException {
+		boolean negative = false;
+		if (ch == '-') {
+			negative = true;
+			next();
+		} else if (ch == '+') {
+			next();
+		}
+		if (ch < '0' || ch > '9')
+			return INVALID;
+		int value = 0;
+		while (ch >= '0' && ch <= '9') {
+			value = value * 10 + (ch - '0');
+			next();
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Reads a decimal number like Float.parseFloat() would, without going
+	 * through a String. Up to 18 significant digits are used, then it is scaled
+	 * by an exact power of ten in double precision, so the result can differ
+	 * from Float.parseFloat() by at most one unit in the last place.
+	 * Anything else ("nan", "inf", ...) falls back to Float.parseFloat().
+	 */
+	private float readFloat() throws IOException {
+		skipBlanks();
+		boolean negative = false;
+		if (ch == '-') {
+			negative = true;
+			next();
+		} else if (ch == '+') {
+			next();
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+
+		while (ch >= '0' && ch <= '9') {
+			any = true;
+			if (digits < 18) {
+				mantissa = mantissa * 10 + (ch - '0');
+				if (mantissa != 0)
+					digits++;
+			} else {
+				exponent++;
+			}
+			next();
+		}
+		if (ch == '.') {
+			next();
+			while (ch >= '0' && ch <= '9') {
+				any = true;
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (ch - '0');
+					if (mantissa != 0)
+						digits++;
+					exponent--;
+				}
+				next();
+			}
+		}
+		if (!any) {
+			String s = readString(false);
+			try {
+				float f = Float.parseFloat(s);
+				return negative ? -f : f;
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+		if (ch == 'e' || ch == 'E') {
+			next();
+			int e = readInt();
+			if (e != INVALID)
+				exponent += e;
+		}
+
+		double d = mantissa;
+		if (exponent < 0)
+			d = exponent >= -22 ? d / POW10[-exponent] : d / Math.pow(10, -exponent);
+		else if (exponent > 0)
+			d = exponent <= 22 ? d * POW10[exponent] : d * Math.pow(10, exponent);
+		float f = (float) d;
+		return negative ? -f : f;
+	}
+
 	private void readMaterialLib(String libID) {
 		StringBuffer resourceID = new StringBuffer(packageID);
 		StringBuffer libIDSbuf = new StringBuffer(libID);
@@ -172,6 +482,7 @@ public class ObjParser extends AParser implements IParser {
 		resourceID.append(":raw/");
 		resourceID.append(libIDSbuf.toString());
 
+		dependencyIDs.add(resourceID.toString());
 		InputStream fileIn = resources.openRawResource(resources.getIdentifier(
 				resourceID.toString(), null, null));
 		BufferedReader buffer = new BufferedReader(
@@ -208,9 +519,6 @@ public class ObjParser extends AParser implements IParser {
 						else
 							texture.append(textureName);
 						
-						int bmResourceID = resources.getIdentifier(texture
-								.toString(), null, null);
-						Bitmap b = Utils.makeBitmapFromResourceId(bmResourceID);
 						textureAtlas.addBitmapAsset(new BitmapAsset(currentMaterial, texture.toString()));
 					}
 				}
@@ -220,43 +528,219 @@ public class ObjParser extends AParser implements IParser {
 		}
 	}
 
+
 	@Override
 	protected void cleanup() {
 		super.cleanup();
 		materialMap.clear();
+		positions = uvs = normals = null;
+		objects = null;
+		current = null;
+		materialKeys = null;
+		materialIndices = null;
 	}
 
-	private class ObjFace extends ParseObjectFace {
-		public ObjFace(String line, String materialKey, int faceLength) {
-			super();
-			this.materialKey = materialKey;
-			this.faceLength = faceLength;
-			boolean emptyVt = line.indexOf("//") > -1;
-			if(emptyVt) line = line.replace("//", "/");
-			StringTokenizer parts = new StringTokenizer(line);
-			parts.nextToken();
-			StringTokenizer subParts = new StringTokenizer(parts.nextToken(), "/");
-			int partLength = subParts.countTokens();
-			hasuv = partLength >= 2 && !emptyVt;
-			hasn = partLength == 3 || (partLength == 2 && emptyVt);
-
-			v = new int[faceLength];
-			if (hasuv)
-				uv = new int[faceLength];
-			if (hasn)
-				n = new int[faceLength];
-
-			for (int i = 1; i < faceLength + 1; i++) {
-				if (i > 1)
-					subParts = new StringTokenizer(parts.nextToken(), "/");
-
-				int index = i - 1;
-				v[index] = (short) (Short.parseShort(subParts.nextToken()) - 1);
-				if (hasuv)
-					uv[index] = (short) (Short.parseShort(subParts.nextToken()) - 1);
-				if (hasn)
-					n[index] = (short) (Short.parseShort(subParts.nextToken()) - 1);
+	/**
+	 * One object of the file: its distinct vertices and its triangles
+	 */
+	private static class ObjObject {
+		String name;
+		// v, vt, vn and material index per vertex; vt and vn are NONE when missing
+		IntArray vertices = new IntArray(4 * 256);
+		IntArray indices = new IntArray(3 * 256);
+		// Open addressing, vertex index + 1 per slot, 0 when empty
+		int[] table = new int[512];
+
+		ObjObject(String name) {
+			this.name = name;
+		}
+
+		int numVertices() {
+			return vertices.size() / 4;
+		}
+
+		void triangle(int a, int b, int c) {
+			indices.add(a);
+			indices.add(b);
+			indices.add(c);
+		}
+
+		/**
+		 * Index of the vertex for this corner, added if it's new
+		 */
+		int vertex(int v, int vt, int vn, int material) {
+			int mask = table.length - 1;
+			int[] data = vertices.data;
+			int slot = hash(v, vt, vn, material) & mask;
+			int e;
+			while ((e = table[slot]) != 0) {
+				int o = (e - 1) * 4;
+				if (data[o] == v && data[o + 1] == vt && data[o + 2] == vn && data[o + 3] == material)
+					return e - 1;
+				slot = (slot + 1) & mask;
 			}
+
+			int index = numVertices();
+			vertices.add(v);
+			vertices.add(vt);
+			vertices.add(vn);
+			vertices.add(material);
+			table[slot] = index + 1;
+			if ((index + 1) * 2 > table.length)
+				rehash();
+			return index;
+		}
+
+		private void rehash() {
+			table = new int[table.length * 2];
+			int mask = table.length - 1;
+			int[] data = vertices.data;
+			int n = numVertices();
+			for (int i = 0; i < n; i++) {
+				int o = i * 4;
+				int slot = hash(data[o], data[o + 1], data[o + 2], data[o + 3]) & mask;
+				while (table[slot] != 0)
+					slot = (slot + 1) & mask;
+				table[slot] = i + 1;
+			}
+		}
+
+		private static int hash(int v, int vt, int vn, int material) {
+			int h = v * 0x9E3779B1 + vt * 0x85EBCA6B + vn * 0xC2B2AE35 + material * 0x27D4EB2F;
+			return h ^ (h >>> 15);
+		}
+
+		/**
+		 * Creates the Object3d, with the vertex color and atlas placement of each vertex's material,
+		 * through MeshOptimizer. When the materials are on several atlas pages there is one
+		 * Object3d per page, at that page's index in the returned array (null for pages not used).
+		 */
+		Object3d[] build(FloatArray positions, FloatArray uvs, FloatArray normals,
+				byte[] colors, float[] uvTransforms, boolean[] inAtlas, int[] pages, int numPages) {
+			int n = numVertices();
+			int numFaces = indices.size() / 3;
+			float[] p = new float[n * 3];
+			float[] t = new float[n * 2];
+			float[] nn = new float[n * 3];
+			byte[] c = new byte[n * 4];
+
+			int[] data = vertices.data;
+			float[] pd = positions.data;
+			float[] td = uvs.data;
+			float[] nd = normals.data;
+			int noMaterial = inAtlas.length - 1;
+
+			for (int i = 0; i < n; i++) {
+				int v = data[i * 4];
+				int vt = data[i * 4 + 1];
+				int vn = data[i * 4 + 2];
+				int m = data[i * 4 + 3];
+				if (m == NONE)
+					m = noMaterial;
+
+				p[i * 3] = pd[v * 3];
+				p[i * 3 + 1] = pd[v * 3 + 1];
+				p[i * 3 + 2] = pd[v * 3 + 2];
+
+				float u = vt != NONE ? td[vt * 2] : 0;
+				float w = vt != NONE ? td[vt * 2 + 1] : 0;
+				if (inAtlas[m]) {
+					u = uvTransforms[m * 4] + u * uvTransforms[m * 4 + 1];
+					w = uvTransforms[m * 4 + 2] + ((w + 1) * uvTransforms[m * 4 + 3]) - 1;
+				}
+				t[i * 2] = u;
+				t[i * 2 + 1] = w;
+
+				if (vn != NONE) {
+					nn[i * 3] = nd[vn * 3];
+					nn[i * 3 + 1] = nd[vn * 3 + 1];
+					nn[i * 3 + 2] = nd[vn * 3 + 2];
+				}
+
+				System.arraycopy(colors, m * 4, c, i * 4, 4);
+			}
+
+			int[] triangles = new int[numFaces * 3];
+			System.arraycopy(indices.data, 0, triangles, 0, triangles.length);
+
+			if (numPages <= 1)
+				return new Object3d[] { build(n, p, t, nn, c, triangles) };
+
+			// Page of each triangle; those without an atlas texture go with the first page used
+			int[] trianglePages = new int[numFaces];
+			int defaultPage = -1;
+			for (int i = 0; i < numFaces; i++) {
+				int m = data[triangles[i * 3] * 4 + 3];
+				trianglePages[i] = pages[m == NONE ? noMaterial : m];
+				if (defaultPage == -1)
+					defaultPage = trianglePages[i];
+			}
+			for (int i = 0; i < numFaces; i++) {
+				if (trianglePages[i] == -1)
+					trianglePages[i] = Math.max(defaultPage, 0);
+			}
+
+			int[][] split = MeshOptimizer.split(triangles, trianglePages, numPages);
+			Object3d[] parts = new Object3d[numPages];
+			for (int page = 0; page < numPages; page++) {
+				if (split[page] != null)
+					parts[page] = build(n, p, t, nn, c, split[page]);
+			}
+			return parts;
+		}
+
+		private Object3d build(int n, float[] p, float[] t, float[] nn, byte[] c, int[] triangles) {
+			// Corners are already shared; this catches identical values under different indices
+			MeshOptimizer optimizer = new MeshOptimizer(n, p, t, nn, c, triangles);
+			optimizer.optimize();
+			Log.d(Min3d.TAG, "Optimized " + name + ": " + optimizer);
+			Object3d obj = new Object3d(optimizer.createVertices(), optimizer.createFaces(), new TextureList());
+			obj.name(name);
+			return obj;
+		}
+	}
+
+	private static class FloatArray {
+		float[] data;
+		private int size;
+
+		FloatArray(int capacity) {
+			data = new float[capacity];
+		}
+
+		void add(float f) {
+			if (size == data.length) {
+				float[] grown = new float[size * 2];
+				System.arraycopy(data, 0, grown, 0, size);
+				data = grown;
+			}
+			data[size++] = f;
+		}
+
+		int size() {
+			return size;
+		}
+	}
+
+	private static class IntArray {
+		int[] data;
+		private int size;
+
+		IntArray(int capacity) {
+			data = new int[capacity];
+		}
+
+		void add(int i) {
+			if (size == data.length) {
+				int[] grown = new int[size * 2];
+				System.arraycopy(data, 0, grown, 0, size);
+				data = grown;
+			}
+			data[size++] = i;
+		}
+
+		int size() {
+			return size;
 		}
 	}
 }
@@ -10,12 +10,14 @@ import min3d.Shared;
 import min3d.animation.AnimationObject3d;
 import min3d.animation.KeyFrame;
 import min3d.core.Object3d;
+import min3d.core.Object3dContainer;
+import min3d.core.TextureList;
 import min3d.parser.AParser.BitmapAsset;
 import min3d.parser.AParser.Material;
 import min3d.parser.AParser.TextureAtlas;
 import min3d.vos.Color4;
-import min3d.vos.Face;
 import min3d.vos.Number3d;
+import min3d.vos.TextureVo;
 import min3d.vos.Uv;
 
 public class ParseObjectData {
@@ -47,79 +49,190 @@ public class ParseObjectData {
 	
 	public AnimationObject3d getParsedObject(TextureAtlas textureAtlas, HashMap<String, Material> materialMap, KeyFrame[] frames)
 	{
-		AnimationObject3d obj = new AnimationObject3d(numFaces * 3, numFaces, frames.length);
-		obj.name(name);
-		obj.setFrames(frames);
-		
-		parseObject(obj, materialMap, textureAtlas);
-
-		return obj;
+		return (AnimationObject3d) parseObject(materialMap, textureAtlas, frames)[0];
 	}
 	
+	/**
+	 * When the object's textures are on several texture atlas pages, this is
+	 * an Object3dContainer with a child per page; see getParsedObjects().
+	 */
 	public Object3d getParsedObject(HashMap<String, Material> materialMap, TextureAtlas textureAtlas) {
-		Object3d obj = new Object3d(numFaces * 3, numFaces);
-		obj.name(name);
-		
-		parseObject(obj, materialMap, textureAtlas);
+		Object3d[] parts = getParsedObjects(materialMap, textureAtlas);
+		if (parts.length == 1)
+			return parts[0];
 		
+		Object3dContainer obj = new Object3dContainer(0, 0);
+		obj.name(name);
+		for (int i = 0; i < parts.length; i++)
+			obj.addChild(parts[i]);
 		return obj;
 	}
 	
-	private void parseObject(Object3d obj, HashMap<String, Material> materialMap, TextureAtlas textureAtlas)
+	/**
+	 * One Object3d per texture atlas page the object's faces use; just one
+	 * when the atlas has a single page.
+	 */
+	public Object3d[] getParsedObjects(HashMap<String, Material> materialMap, TextureAtlas textureAtlas) {
+		return parseObject(materialMap, textureAtlas, null);
+	}
+	
+	/**
+	 * Expands the faces into one vertex per corner, then lets MeshOptimizer weld
+	 * and reorder them. With frames, an AnimationObject3d is created whose
+	 * keyframes index the welded vertices.
+	 */
+	private Object3d[] parseObject(HashMap<String, Material> materialMap, TextureAtlas textureAtlas, KeyFrame[] frames)
 	{
 		int numFaces = faces.size();
+		int numCorners = 0;
+		for (int i = 0; i < numFaces; i++)
+			numCorners += faces.get(i).faceLength;
+
+		float[] vertexPoints = new float[numCorners * 3];
+		float[] vertexUvs = new float[numCorners * 2];
+		float[] vertexNormals = new float[numCorners * 3];
+		byte[] vertexColors = new byte[numCorners * 4];
+		int[] sourceVertices = new int[numCorners];
+		int[] indices = new int[this.numFaces * 3];
+		int[] trianglePages = new int[this.numFaces];
 		int faceIndex = 0;
+		int c = 0;
+		int t = 0;
 		boolean hasBitmaps = textureAtlas.hasBitmaps();
 
 		for (int i = 0; i < numFaces; i++) {
 			ParseObjectFace face = faces.get(i);
 			BitmapAsset ba = textureAtlas
 					.getBitmapAssetByName(face.materialKey);
+			Material material = materialMap.get(face.materialKey);
+			
+			Color4 newColor = new Color4(255, 255, 0, 255);
+			if(material != null && material.diffuseColor != null)
+			{
+				newColor.r = material.diffuseColor.r;
+				newColor.g = material.diffuseColor.g;
+				newColor.b = material.diffuseColor.b;
+				newColor.a = material.diffuseColor.a;
+			}
 
-			for (int j = 0; j < face.faceLength; j++) {
+			for (int j = 0; j < face.faceLength; j++, c++) {
 				Number3d newVertex = vertices.get(face.v[j]);
+				vertexPoints[c * 3] = newVertex.x;
+				vertexPoints[c * 3 + 1] = newVertex.y;
+				vertexPoints[c * 3 + 2] = newVertex.z;
+				sourceVertices[c] = face.v[j];
 				
 				Uv newUv = face.hasuv ? texCoords.get(face.uv[j]).clone()
 						: new Uv();
-				Number3d newNormal = face.hasn ? normals.get(face.n[j])
-						: new Number3d();
-				Material material = materialMap.get(face.materialKey);
-				
-				Color4 newColor = new Color4(255, 255, 0, 255);
-				if(material != null && material.diffuseColor != null)
-				{
-					newColor.r = material.diffuseColor.r;
-					newColor.g = material.diffuseColor.g;
-					newColor.b = material.diffuseColor.b;
-					newColor.a = material.diffuseColor.a;
-				}
-
 				if(hasBitmaps && (ba != null))
 				{
 					newUv.u = ba.uOffset + newUv.u * ba.uScale;
 					newUv.v = ba.vOffset + ((newUv.v + 1) * ba.vScale) - 1;
 				}
-				obj.vertices().addVertex(newVertex, newUv, newNormal, newColor);
+				vertexUvs[c * 2] = newUv.u;
+				vertexUvs[c * 2 + 1] = newUv.v;
+
+				if (face.hasn) {
+					Number3d newNormal = normals.get(face.n[j]);
+					vertexNormals[c * 3] = newNormal.x;
+					vertexNormals[c * 3 + 1] = newNormal.y;
+					vertexNormals[c * 3 + 2] = newNormal.z;
+				}
+
+				vertexColors[c * 4] = (byte) newColor.r;
+				vertexColors[c * 4 + 1] = (byte) newColor.g;
+				vertexColors[c * 4 + 2] = (byte) newColor.b;
+				vertexColors[c * 4 + 3] = (byte) newColor.a;
 			}
 
+			int page = hasBitmaps && ba != null ? ba.page : -1;
+			trianglePages[t / 3] = page;
+			if (face.faceLength == 4)
+				trianglePages[t / 3 + 1] = page;
+
 			if (face.faceLength == 3) {
-				obj.faces().add(
-						new Face(faceIndex, faceIndex + 1, faceIndex + 2));
+				indices[t++] = faceIndex;
+				indices[t++] = faceIndex + 1;
+				indices[t++] = faceIndex + 2;
 			} else if (face.faceLength == 4) {
-				obj.faces().add(
-						new Face(faceIndex, faceIndex + 1, faceIndex + 3));
-				obj.faces().add(
-						new Face(faceIndex + 1, faceIndex + 2, faceIndex + 3));
+				indices[t++] = faceIndex;
+				indices[t++] = faceIndex + 1;
+				indices[t++] = faceIndex + 3;
+				indices[t++] = faceIndex + 1;
+				indices[t++] = faceIndex + 2;
+				indices[t++] = faceIndex + 3;
 			}
 
 			faceIndex += face.faceLength;
 		}
 
-		if (hasBitmaps) {
-			obj.textures().addById(textureAtlas.getId());
+		// Faces without an atlas texture go with the first page used
+		int numPages = hasBitmaps ? textureAtlas.getNumPages() : 0;
+		int defaultPage = 0;
+		for (int i = 0; i < trianglePages.length; i++) {
+			if (trianglePages[i] != -1) {
+				defaultPage = trianglePages[i];
+				break;
+			}
+		}
+		for (int i = 0; i < trianglePages.length; i++) {
+			if (trianglePages[i] == -1)
+				trianglePages[i] = defaultPage;
+		}
+
+		Object3d[] parts;
+		if (frames == null) {
+			int[][] split = numPages > 1 ? MeshOptimizer.split(indices, trianglePages, numPages) : null;
+			ArrayList<Object3d> objects = new ArrayList<Object3d>();
+			for (int page = 0; page < (split != null ? numPages : 1); page++) {
+				if (split != null && split[page] == null)
+					continue;
+				MeshOptimizer m = new MeshOptimizer(numCorners, vertexPoints, vertexUvs, vertexNormals, vertexColors,
+						split != null ? split[page] : indices);
+				m.optimize();
+				Log.d(Min3d.TAG, "Optimized " + name + ": " + m);
+				Object3d obj = new Object3d(m.createVertices(), m.createFaces(), new TextureList());
+				if (hasBitmaps) {
+					// Not addById(); the atlas may still be waiting in an upload queue
+					obj.textures().add(new TextureVo(textureAtlas.getId(split != null ? page : defaultPage)));
+				}
+				objects.add(obj);
+			}
+			parts = objects.toArray(new Object3d[objects.size()]);
+		}
+		else {
+			MeshOptimizer m;
+			KeyFrame[] welded = frames;
+			if (frames.length > 0 && frames[0].isQuantized()) {
+				// Positions and normals come from the keyframes, so corners sharing a keyframe
+				// vertex and a uv are the same vertex in every frame
+				KeyFrame.interpolate(frames[0], frames[0], 0, null, vertexNormals);
+				m = new MeshOptimizer(numCorners, vertexPoints, vertexUvs, vertexNormals, vertexColors, indices);
+				m.optimize(sourceVertices);
+				int[] frameIndices = m.gather(sourceVertices);
+				welded = new KeyFrame[frames.length];
+				for (int i = 0; i < frames.length; i++) {
+					welded[i] = frames[i].clone();
+					welded[i].setIndices(frameIndices);
+				}
+			} else {
+				// Float keyframes hold one vertex per corner, in this order
+				m = new MeshOptimizer(numCorners, vertexPoints, vertexUvs, vertexNormals, vertexColors, indices);
+			}
+			Log.d(Min3d.TAG, "Optimized " + name + ": " + m);
+			AnimationObject3d a = new AnimationObject3d(m.createVertices(), m.createFaces(), new TextureList(), welded);
+			a.animationEnabled(true);
+			if (hasBitmaps) {
+				// Keyframes can't be split by page; the skin is expected to fit on one
+				a.textures().add(new TextureVo(textureAtlas.getId(defaultPage)));
+			}
+			parts = new Object3d[] { a };
 		}
+		for (int i = 0; i < parts.length; i++)
+			parts[i].name(name);
 
 		cleanup();
+		return parts;
 	}
 	
 	public void calculateFaceNormal(ParseObjectFace face)
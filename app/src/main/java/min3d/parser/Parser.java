@@ -1,5 +1,6 @@
 package min3d.parser;
 
+import min3d.core.GLUploadQueue;
 import android.content.res.Resources;
 
 /**
@@ -16,8 +17,28 @@ public class Parser {
 	 */
 	public static enum Type { OBJ, MAX_3DS, MD2 };
 	
+	private static int atlasPadding = 2;
+	
+	/**
+	 * Pixels kept free around each texture in a model's texture atlas. They
+	 * are filled with the texture's edge pixels so that filtering and mipmaps
+	 * don't mix in its neighbors. Default is 2.
+	 * @param padding
+	 */
+	public static void setAtlasPadding(int padding)
+	{
+		atlasPadding = padding;
+	}
+	
+	public static int getAtlasPadding()
+	{
+		return atlasPadding;
+	}
+	
 	/**
 	 * Create a parser of the specified type.
+	 * When ModelCache has a cache directory, the returned parser loads the
+	 * model from the cache if it is up to date, and saves it there otherwise.
 	 * @param type
 	 * @param resources
 	 * @param resourceID
@@ -25,16 +46,38 @@ public class Parser {
 	 */
 	public static IParser createParser(Type type, Resources resources, String resourceID, boolean generateMipMap)
 	{
+		return createParser(type, resources, resourceID, generateMipMap, null, 0);
+	}
+	
+	/**
+	 * Same as above, for parsing off the GL thread: texture uploads are posted to
+	 * uploadQueue, for the GL context identified by uploadGeneration.
+	 */
+	static IParser createParser(Type type, Resources resources, String resourceID, boolean generateMipMap,
+			GLUploadQueue uploadQueue, int uploadGeneration)
+	{
+		AParser parser = null;
+
 		switch(type)
 		{
 			case OBJ:
-				return new ObjParser(resources, resourceID, generateMipMap);
+				parser = new ObjParser(resources, resourceID, generateMipMap);
+				break;
 			case MAX_3DS:
-				return new Max3DSParser(resources, resourceID, generateMipMap);
+				parser = new Max3DSParser(resources, resourceID, generateMipMap);
+				break;
 			case MD2:
-				return new MD2Parser(resources, resourceID, generateMipMap);
+				parser = new MD2Parser(resources, resourceID, generateMipMap);
+				break;
+		}
+
+		if (parser != null) {
+			parser.uploadQueue = uploadQueue;
+			parser.uploadGeneration = uploadGeneration;
 		}
-		
-		return null;
+		if (parser != null && ModelCache.getCacheDirectory() != null)
+			return new CachedParser(parser, type, resources, resourceID);
+
+		return parser;
 	}
 }
@@ -0,0 +1,201 @@
+/*
+ * PROJECT: NyARToolkit for Android SDK
+ * --------------------------------------------------------------------------------
+ * This work is based on the original ARToolKit developed by
+ *   Hirokazu Kato
+ *   Mark Billinghurst
+ *   HITLab, University of Washington, Seattle
+ * http://www.hitl.washington.edu/artoolkit/
+ *
+ * NyARToolkit for Android SDK
+ *   Copyright (C)2010 NyARToolkit for Android team
+ *   Copyright (C)2010 R.Iizuka(nyatla)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For further information please contact.
+ *  http://sourceforge.jp/projects/nyartoolkit-and/
+ *
+ * This work is based on the NyARToolKit developed by
+ *  R.Iizuka (nyatla)
+ *    http://nyatla.jp/nyatoolkit/
+ *
+ * contributor(s)
+ *  Atsuo Igarashi
+ */
+
+
+package jp.androidgroup.nyartoolkit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.param.NyARParam;
+import jp.nyatla.nyartoolkit.core.transmat.NyARTransMatResult;
+import jp.nyatla.nyartoolkit.jogl.utils.NyARGLUtil;
+
+import org.junit.Test;
+
+/**
+ * {@link ARFrameContext}を使ったフレーム処理(prepare、射影行列、検出結果の書き込み、swap)が、
+ * プレビューサイズが変わらない間は1バイトも確保しないことを、HotSpotのThreadMXBeanが持つ
+ * スレッド毎の確保量カウンタで確認します。
+ */
+public class ARFrameContextTest
+{
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 480;
+	private static final int MARKER_MAX = 8;
+	private static final int WARMUP = 2000;
+	private static final int FRAMES = 1000;
+
+	/**
+	 * テストはモジュールのディレクトリで実行される
+	 */
+	private static NyARParam loadParam() throws Exception
+	{
+		NyARParam param = new NyARParam();
+		InputStream is = new FileInputStream("src/main/res/raw/camera_para.dat");
+		try {
+			param.loadARParam(is);
+		} finally {
+			is.close();
+		}
+		param.changeScreenSize(WIDTH, HEIGHT);
+		return param;
+	}
+
+	private static com.sun.management.ThreadMXBean allocationCounter()
+	{
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) mx;
+		assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+		return bean;
+	}
+
+	/**
+	 * ARToolkitDrawer.drawprivate()の検出以外の部分と同じ順に、1フレーム分を処理する。
+	 * i_frame番目のフレームでは、(i_frame % (MARKER_MAX + 1))個のマーカーが見つかったことにする。
+	 */
+	private static void frame(ARFrameContext i_context, byte[] i_yuv, NyARParam i_param,
+			NyARTransMatResult i_transmat, int i_frame) throws NyARException
+	{
+		i_context.prepare(i_yuv, WIDTH, HEIGHT);
+		final int found = i_frame % (MARKER_MAX + 1);
+		if (found > 0) {
+			i_context.computeProjection(i_param);
+			for (int i = 0; i < found; i++) {
+				i_transmat.m03 = i_frame;
+				i_transmat.m13 = i;
+				i_context.setResult(i, i, i_transmat);
+			}
+			i_context.swap();
+		}
+	}
+
+	@Test
+	public void steadyStateAllocatesNothing() throws Exception
+	{
+		final ARFrameContext context = new ARFrameContext(MARKER_MAX);
+		final byte[] yuv = new byte[WIDTH * HEIGHT * 3 / 2];
+		final NyARParam param = loadParam();
+		final NyARTransMatResult transmat = new NyARTransMatResult();
+		transmat.m00 = transmat.m11 = transmat.m22 = 1;
+		transmat.m23 = 500;
+
+		for (int f = 0; f < WARMUP; f++) {
+			frame(context, yuv, param, transmat, f);
+		}
+
+		com.sun.management.ThreadMXBean bean = allocationCounter();
+		long id = Thread.currentThread().getId();
+		// 計測そのものの確保量を差し引く
+		long e0 = bean.getThreadAllocatedBytes(id);
+		long e1 = bean.getThreadAllocatedBytes(id);
+		long b0 = bean.getThreadAllocatedBytes(id);
+		for (int f = 0; f < FRAMES; f++) {
+			frame(context, yuv, param, transmat, f);
+		}
+		long b1 = bean.getThreadAllocatedBytes(id);
+		assertEquals("bytes allocated by " + FRAMES + " frames", 0, (b1 - b0) - (e1 - e0));
+	}
+
+	/**
+	 * 最初の射影行列の計算も確保しない。プレビューサイズが変わると、ラスタの作り直しだけが確保する。
+	 */
+	@Test
+	public void firstProjectionAllocatesNothing() throws Exception
+	{
+		final ARFrameContext context = new ARFrameContext(MARKER_MAX);
+		final byte[] yuv = new byte[WIDTH * HEIGHT * 3 / 2];
+		final NyARParam param = loadParam();
+		context.prepare(yuv, WIDTH, HEIGHT);
+		// 一度呼んでクラスのロードを済ませてから、サイズ変更で計算済みを解除する
+		context.computeProjection(param);
+		context.prepare(new byte[4 * 4 * 3 / 2], 4, 4);
+		context.prepare(yuv, WIDTH, HEIGHT);
+		assertEquals(false, context.hasProjection());
+
+		com.sun.management.ThreadMXBean bean = allocationCounter();
+		long id = Thread.currentThread().getId();
+		long e0 = bean.getThreadAllocatedBytes(id);
+		long e1 = bean.getThreadAllocatedBytes(id);
+		long b0 = bean.getThreadAllocatedBytes(id);
+		context.computeProjection(param);
+		long b1 = bean.getThreadAllocatedBytes(id);
+		assertEquals("bytes allocated by computeProjection()", 0, (b1 - b0) - (e1 - e0));
+	}
+
+	/**
+	 * 書き込まれる値は、NyARGLUtilで求めた行列をfloatにしたものと同じ
+	 */
+	@Test
+	public void resultsMatchNyARGLUtil() throws Exception
+	{
+		final ARFrameContext context = new ARFrameContext(MARKER_MAX);
+		final NyARParam param = loadParam();
+		context.prepare(new byte[WIDTH * HEIGHT * 3 / 2], WIDTH, HEIGHT);
+
+		double[] d = new double[16];
+		float[] expected = new float[16];
+		NyARGLUtil.toCameraFrustumRH(param, NyARGLUtil.SCALE_FACTOR_toCameraFrustumRH_NYAR2, 10, 10000, d);
+		for (int i = 0; i < 16; i++) expected[i] = (float) d[i];
+		context.computeProjection(param);
+		assertArrayEquals(expected, context.projection(), 0f);
+		final float[] projection = expected.clone();
+
+		NyARTransMatResult transmat = new NyARTransMatResult();
+		transmat.m00 = 0.8; transmat.m01 = -0.6; transmat.m03 = 12.5;
+		transmat.m10 = 0.6; transmat.m11 = 0.8; transmat.m13 = -40;
+		transmat.m22 = 1; transmat.m23 = 350;
+		NyARGLUtil.toCameraViewRH(transmat, NyARGLUtil.SCALE_FACTOR_toCameraViewRH_NYAR2, d);
+		for (int i = 0; i < 16; i++) expected[i] = (float) d[i];
+		context.setResult(3, 7, transmat);
+		assertArrayEquals(expected, context.results()[3], 0f);
+		assertEquals(7, context.codeIndexes()[3]);
+
+		// 裏面は変わらず、射影行列は両面に入っている
+		context.swap();
+		assertEquals(0, context.codeIndexes()[3]);
+		assertArrayEquals(new float[16], context.results()[3], 0f);
+		assertArrayEquals(projection, context.projection(), 0f);
+	}
+}
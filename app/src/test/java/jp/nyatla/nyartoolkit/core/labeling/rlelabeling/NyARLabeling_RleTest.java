@@ -0,0 +1,371 @@
+/*
+ * PROJECT: NyARToolkit(Extension)
+ * --------------------------------------------------------------------------------
+ * The NyARToolkit is Java edition ARToolKit class library.
+ * Copyright (C)2008-2009 Ryo Iizuka
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp> or <nyatla(at)nyatla.jp>
+ *
+ */
+package jp.nyatla.nyartoolkit.core.labeling.rlelabeling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.raster.*;
+import jp.nyatla.nyartoolkit.core.types.*;
+
+import org.junit.Test;
+
+/**
+ * union-findで統合する{@link NyARLabeling_Rle}が、統合前の実装{@link NyARLabeling_RleReference}と
+ * 同じラベルを同じ順序で通知することを、ランダムな画像で確認します。
+ * 入力形式はINT1D_GRAY_8、INT1D_BIN_8、LONG1D_BIN_1の3種類、範囲指定の有無の両方を比較します。
+ * {@link NyARLabeling_Rle#setParallelMode}で帯に分けた並列処理が逐次処理と同じラベルを通知すること
+ * （並列処理では通知の順番が変わるので、並べ替えて比較する）、{@link NyARRleLabelFragmentInfoPtrStack#sortByArea}
+ * の順序が追加順に依らないこと、その結果、並列処理の矩形検出が逐次処理と同じ順番で同じ矩形を通知することも確認します。
+ */
+public class NyARLabeling_RleTest
+{
+	private static final int ITERATIONS = 200;
+	private static final int PARALLEL_ITERATIONS = 60;
+	private static final int MAX_STRIPES = 8;
+
+	/**
+	 * 通知されたラベルを文字列に記録する{@link NyARLabeling_Rle}
+	 */
+	private static class Labeling extends NyARLabeling_Rle
+	{
+		final StringBuilder log = new StringBuilder();
+		Labeling(int i_width, int i_height) throws NyARException
+		{
+			super(i_width, i_height);
+			this.setAreaRange(100000, 1);
+		}
+		protected void onLabelFound(NyARRleLabelFragmentInfo i_label)
+		{
+			append(this.log, i_label);
+		}
+	}
+
+	/**
+	 * 通知されたラベルを文字列に記録する{@link NyARLabeling_RleReference}
+	 */
+	private static class Reference extends NyARLabeling_RleReference
+	{
+		final StringBuilder log = new StringBuilder();
+		Reference(int i_width, int i_height) throws NyARException
+		{
+			super(i_width, i_height);
+			this.setAreaRange(100000, 1);
+		}
+		protected void onLabelFound(NyARRleLabelFragmentInfo i_label)
+		{
+			append(this.log, i_label);
+		}
+	}
+
+	private static void append(StringBuilder o_log, NyARRleLabelFragmentInfo i_label)
+	{
+		o_log.append(i_label.area).append(',').append(i_label.clip_l).append(',').append(i_label.clip_r).append(',')
+			.append(i_label.clip_t).append(',').append(i_label.clip_b).append(',').append(i_label.entry_x).append(',')
+			.append(i_label.pos_x).append(',').append(i_label.pos_y).append(';');
+	}
+
+	/**
+	 * 暗点(true)のパターンを作る。
+	 * ブロック単位のランダム、市松模様、櫛形（歯の下端を段違いの横棒でつなぎ、ラベルが多重に結合する）の3種類。
+	 * どれもRLEスタック（画像サイズから決まる）があふれない範囲に収まる。
+	 */
+	private static boolean[] makePattern(Random i_rand, int i_width, int i_height, int i_seed)
+	{
+		final int bs = 5 + i_rand.nextInt(12);
+		final double p = i_rand.nextDouble();
+		final int mode = i_rand.nextInt(3);
+		boolean[] dark = new boolean[i_width * i_height];
+		for (int y = 0; y < i_height; y++) {
+			for (int x = 0; x < i_width; x++) {
+				boolean d;
+				switch (mode) {
+				case 0:
+					d = new Random((x / bs) * 7919 + (y / bs) * 104729 + i_seed).nextDouble() < p;
+					break;
+				case 1:
+					d = (((x / bs) + (y / bs)) & 1) == 0;
+					break;
+				default:
+					d = (x % bs) < bs / 2 || ((y + (x / bs) * 7) % (bs * 4)) >= bs * 3;
+					break;
+				}
+				dark[y * i_width + x] = d;
+			}
+		}
+		return dark;
+	}
+
+	private static NyARIntRect randomRect(Random i_rand, int i_width, int i_height)
+	{
+		NyARIntRect rect = new NyARIntRect();
+		rect.x = i_rand.nextInt(i_width / 2);
+		rect.y = i_rand.nextInt(i_height / 2);
+		rect.w = 1 + i_rand.nextInt(i_width - rect.x);
+		rect.h = 1 + i_rand.nextInt(i_height - rect.y);
+		return rect;
+	}
+
+	@Test
+	public void grayscaleMatchesReference() throws NyARException
+	{
+		Random rand = new Random(4);
+		for (int it = 0; it < ITERATIONS; it++) {
+			final int w = 640 + rand.nextInt(60);
+			final int h = 480 + rand.nextInt(20);
+			boolean[] dark = makePattern(rand, w, h, it);
+			NyARGrayscaleRaster gs = new NyARGrayscaleRaster(w, h);
+			int[] buf = (int[]) gs.getBuffer();
+			for (int i = 0; i < buf.length; i++) {
+				// 暗点<=th<明点。閾値付近の値も混ぜる
+				buf[i] = dark[i] ? rand.nextInt(101) : 101 + rand.nextInt(155);
+			}
+			Labeling labeling = new Labeling(w, h);
+			Reference reference = new Reference(w, h);
+			labeling.labeling(gs, 100);
+			reference.labeling(gs, 100);
+			assertEquals("iteration " + it, reference.log.toString(), labeling.log.toString());
+
+			NyARIntRect rect = randomRect(rand, w, h);
+			labeling.log.setLength(0);
+			reference.log.setLength(0);
+			labeling.labeling(gs, rect, 100);
+			reference.labeling(gs, rect, 100);
+			assertEquals("iteration " + it + " (area)", reference.log.toString(), labeling.log.toString());
+		}
+	}
+
+	@Test
+	public void binaryMatchesReference() throws NyARException
+	{
+		Random rand = new Random(5);
+		for (int it = 0; it < ITERATIONS; it++) {
+			final int w = 640 + rand.nextInt(60);
+			final int h = 480 + rand.nextInt(20);
+			boolean[] dark = makePattern(rand, w, h, it);
+			NyARBinRaster bin8 = new NyARBinRaster(w, h, NyARBufferType.INT1D_BIN_8, true);
+			NyARBinRaster bin1 = new NyARBinRaster(w, h, NyARBufferType.LONG1D_BIN_1, true);
+			int[] buf8 = (int[]) bin8.getBuffer();
+			long[] buf1 = (long[]) bin1.getBuffer();
+			final int stride = NyARBinRaster.getRowStride(w);
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					if (!dark[y * w + x]) {
+						buf8[y * w + x] = 1;
+						buf1[y * stride + (x >> 6)] |= 1L << (x & 63);
+					}
+				}
+			}
+			Labeling labeling = new Labeling(w, h);
+			Reference reference = new Reference(w, h);
+			NyARIntRect rect = randomRect(rand, w, h);
+
+			reference.labeling(bin8);
+			final String expected = reference.log.toString();
+			labeling.labeling(bin8);
+			assertEquals("iteration " + it + " (BIN_8)", expected, labeling.log.toString());
+			labeling.log.setLength(0);
+			labeling.labeling(bin1);
+			assertEquals("iteration " + it + " (BIN_1)", expected, labeling.log.toString());
+
+			reference.log.setLength(0);
+			reference.labeling(bin8, rect);
+			final String expected_area = reference.log.toString();
+			labeling.log.setLength(0);
+			labeling.labeling(bin8, rect);
+			assertEquals("iteration " + it + " (BIN_8 area)", expected_area, labeling.log.toString());
+			labeling.log.setLength(0);
+			labeling.labeling(bin1, rect);
+			assertEquals("iteration " + it + " (BIN_1 area)", expected_area, labeling.log.toString());
+		}
+	}
+
+	/**
+	 * ログのラベルを並べ替える。並列処理では{@link NyARLabeling_Rle#onLabelFound}の順番が変わるため。
+	 */
+	private static String sorted(StringBuilder i_log)
+	{
+		ArrayList<String> labels = new ArrayList<String>();
+		for (String label : i_log.toString().split(";")) {
+			if (label.length() > 0) {
+				labels.add(label);
+			}
+		}
+		Collections.sort(labels);
+		StringBuilder sb = new StringBuilder();
+		for (String label : labels) {
+			sb.append(label).append(';');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * ログの各ラベルのうち、帯の継ぎ目をまたぐものの数を数える。
+	 */
+	private static int countSeamCrossings(String i_log, int i_top, int i_height, int i_stripes)
+	{
+		int n = 0;
+		for (String label : i_log.split(";")) {
+			if (label.length() == 0) {
+				continue;
+			}
+			String[] v = label.split(",");
+			final int t = Integer.parseInt(v[3]);
+			final int b = Integer.parseInt(v[4]);
+			for (int i = 1; i < i_stripes; i++) {
+				final int seam = i_top + i_height * i / i_stripes;
+				if (t < seam && seam <= b) {
+					n++;
+					break;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * 帯の数1..{@link #MAX_STRIPES}の並列処理と逐次処理を、320x240以上のランダムな画像で比較する。
+	 * 櫛形のパターンは、帯の継ぎ目をまたいで何度も結合するラベルを作る。
+	 */
+	@Test
+	public void parallelMatchesSequential() throws NyARException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Random rand = new Random(6);
+			int crossings = 0;
+			for (int it = 0; it < PARALLEL_ITERATIONS; it++) {
+				final int w = 320 + rand.nextInt(380);
+				final int h = 240 + rand.nextInt(260);
+				final int stripes = 1 + it % MAX_STRIPES;
+				boolean[] dark = makePattern(rand, w, h, it);
+				NyARGrayscaleRaster gs = new NyARGrayscaleRaster(w, h);
+				NyARBinRaster bin8 = new NyARBinRaster(w, h, NyARBufferType.INT1D_BIN_8, true);
+				NyARBinRaster bin1 = new NyARBinRaster(w, h, NyARBufferType.LONG1D_BIN_1, true);
+				int[] gbuf = (int[]) gs.getBuffer();
+				int[] buf8 = (int[]) bin8.getBuffer();
+				long[] buf1 = (long[]) bin1.getBuffer();
+				final int stride = NyARBinRaster.getRowStride(w);
+				for (int y = 0; y < h; y++) {
+					for (int x = 0; x < w; x++) {
+						final int i = y * w + x;
+						gbuf[i] = dark[i] ? rand.nextInt(101) : 101 + rand.nextInt(155);
+						if (!dark[i]) {
+							buf8[i] = 1;
+							buf1[y * stride + (x >> 6)] |= 1L << (x & 63);
+						}
+					}
+				}
+				Labeling sequential = new Labeling(w, h);
+				Labeling parallel = new Labeling(w, h);
+				parallel.setParallelMode(executor, stripes);
+				NyARIntRect rect = randomRect(rand, w, h);
+				final String tag = "iteration " + it + " (" + w + "x" + h + ", " + stripes + " stripes)";
+
+				sequential.labeling(gs, 100);
+				parallel.labeling(gs, 100);
+				assertEquals(tag + " GS", sorted(sequential.log), sorted(parallel.log));
+				crossings += countSeamCrossings(sequential.log.toString(), 0, h, stripes);
+
+				sequential.log.setLength(0);
+				parallel.log.setLength(0);
+				sequential.labeling(gs, rect, 100);
+				parallel.labeling(gs, rect, 100);
+				assertEquals(tag + " GS area", sorted(sequential.log), sorted(parallel.log));
+
+				sequential.log.setLength(0);
+				parallel.log.setLength(0);
+				sequential.labeling(bin8);
+				parallel.labeling(bin8);
+				assertEquals(tag + " BIN_8", sorted(sequential.log), sorted(parallel.log));
+				parallel.log.setLength(0);
+				parallel.labeling(bin1);
+				assertEquals(tag + " BIN_1", sorted(sequential.log), sorted(parallel.log));
+
+				sequential.log.setLength(0);
+				parallel.log.setLength(0);
+				sequential.labeling(bin8, rect);
+				parallel.labeling(bin1, rect);
+				assertEquals(tag + " BIN area", sorted(sequential.log), sorted(parallel.log));
+			}
+			// 継ぎ目をまたぐラベルの結合を実際に通っていること
+			assertTrue("labels crossing a seam: " + crossings, crossings > PARALLEL_ITERATIONS);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * 面積が同じラベルは、追加した順番に関係なく、エントリポイント(clip_t,entry_x)の順に並ぶ。
+	 */
+	@Test
+	public void sortByAreaIgnoresPushOrder() throws NyARException
+	{
+		Random rand = new Random(7);
+		for (int it = 0; it < ITERATIONS; it++) {
+			final int n = 1 + rand.nextInt(40);
+			ArrayList<NyARRleLabelFragmentInfo> labels = new ArrayList<NyARRleLabelFragmentInfo>();
+			for (int i = 0; i < n; i++) {
+				NyARRleLabelFragmentInfo l = new NyARRleLabelFragmentInfo();
+				// 面積とエントリポイントが重ならないよう、小さな範囲から選ぶ
+				l.area = 1 + rand.nextInt(4);
+				l.clip_t = rand.nextInt(4);
+				l.entry_x = i;
+				labels.add(l);
+			}
+			String expected = null;
+			for (int k = 0; k < 5; k++) {
+				Collections.shuffle(labels, rand);
+				NyARRleLabelFragmentInfoPtrStack stack = new NyARRleLabelFragmentInfoPtrStack(n);
+				for (NyARRleLabelFragmentInfo l : labels) {
+					stack.push(l);
+				}
+				stack.sortByArea();
+				StringBuilder order = new StringBuilder();
+				NyARRleLabelFragmentInfo[] a = stack.getArray();
+				for (int i = 0; i < n; i++) {
+					if (i > 0) {
+						NyARRleLabelFragmentInfo p = a[i - 1];
+						assertTrue("iteration " + it, p.area > a[i].area
+							|| (p.area == a[i].area && (p.clip_t < a[i].clip_t
+								|| (p.clip_t == a[i].clip_t && p.entry_x < a[i].entry_x))));
+					}
+					append(order, a[i]);
+				}
+				if (expected == null) {
+					expected = order.toString();
+				}
+				assertEquals("iteration " + it, expected, order.toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * PROJECT: NyARToolkit(Extension)
+ * --------------------------------------------------------------------------------
+ * The NyARToolkit is Java edition ARToolKit class library.
+ * Copyright (C)2008-2009 Ryo Iizuka
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp> or <nyatla(at)nyatla.jp>
+ *
+ */
+package jp.nyatla.nyartoolkit.core.match;
+
+import java.util.Random;
+
+/**
+ * {@link NyARMatchPatt_Color_WITHOUT_PCATest}と同じパターンで、登録パターン数が1/10/100/1000個のときの
+ * 候補1個あたりの評価時間を、打ち切り無しと打ち切り付きで比べるベンチマークです。
+ * JUnitのテストではないので、テストクラスをコンパイルした後に、次のように実行します。
+ * <pre>java -cp &lt;classes&gt; jp.nyatla.nyartoolkit.core.match.NyARMatchPatt_Color_WITHOUT_PCABenchmark</pre>
+ */
+public class NyARMatchPatt_Color_WITHOUT_PCABenchmark
+{
+	/** 計測前に実行する回数*/
+	private static final int WARMUP = 2;
+
+	public static void main(String[] args) throws Exception
+	{
+		final int[] number_of_codes = { 1, 10, 100, 1000 };
+		final int nc = NyARMatchPatt_Color_WITHOUT_PCATest.CANDIDATES;
+		for (int n : number_of_codes) {
+			NyARMatchPatt_Color_WITHOUT_PCATest.Fixture f = new NyARMatchPatt_Color_WITHOUT_PCATest.Fixture(new Random(11), n, nc);
+			final int reps = Math.max(1, 2000 / n);
+			long t_full = 0, t_pruned = 0;
+			for (int rep = 0; rep < reps + WARMUP; rep++) {
+				final long t0 = System.nanoTime();
+				f.selectFull();
+				final long t1 = System.nanoTime();
+				f.selectPruned();
+				final long t2 = System.nanoTime();
+				if (rep >= WARMUP) {
+					t_full += t1 - t0;
+					t_pruned += t2 - t1;
+				}
+			}
+			System.out.printf("codes=%4d  full=%8.1fus/candidate  pruned=%8.1fus/candidate  speedup=%.2f%n",
+				n, t_full / 1e3 / reps / nc, t_pruned / 1e3 / reps / nc, t_full / (double) t_pruned);
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * PROJECT: NyARToolkit(Extension)
+ * --------------------------------------------------------------------------------
+ * The NyARToolkit is Java edition ARToolKit class library.
+ * Copyright (C)2008-2009 Ryo Iizuka
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp> or <nyatla(at)nyatla.jp>
+ *
+ */
+package jp.nyatla.nyartoolkit.core.match;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.NyARCode;
+import jp.nyatla.nyartoolkit.core.raster.rgb.NyARRgbRaster;
+import jp.nyatla.nyartoolkit.core.types.NyARBufferType;
+
+import org.junit.Test;
+
+/**
+ * 打ち切り付きの{@link NyARMatchPatt_Color_WITHOUT_PCA#evaluate(NyARMatchPattDeviationColorData, double, NyARMatchPattResult)}で
+ * 最良のパターンを選んだ結果が、全て計算する{@link NyARMatchPatt_Color_WITHOUT_PCA#evaluate(NyARMatchPattDeviationColorData, NyARMatchPattResult)}
+ * で選んだ結果と、インデクス、方位、一致度のビット列まで同じになることを確認します。
+ * 選び方は{@link jp.nyatla.nyartoolkit.detector.NyARDetectMarker}と同じです。
+ * 処理時間は{@link NyARMatchPatt_Color_WITHOUT_PCABenchmark}で計ります。
+ */
+public class NyARMatchPatt_Color_WITHOUT_PCATest
+{
+	/** 候補のパターン数*/
+	static final int CANDIDATES = 200;
+
+	/**
+	 * 登録するパターンと、評価する候補をまとめたクラス
+	 */
+	static class Fixture
+	{
+		final NyARMatchPatt_Color_WITHOUT_PCA[] codes;
+		final NyARMatchPattDeviationColorData[] candidates;
+		/** 候補毎に選んだパターンのインデクス、方位、一致度*/
+		final int[] index;
+		final int[] direction;
+		final double[] confidence;
+		private final NyARMatchPattResult _mr = new NyARMatchPattResult();
+
+		/**
+		 * i_number_of_code個のランダムな16x16パターンと、候補を作ります。
+		 * 候補の半分は登録したパターンを回転してノイズを加えたもの、残りは無関係なブロック模様です。
+		 */
+		Fixture(Random i_rand, int i_number_of_code, int i_number_of_candidate) throws NyARException
+		{
+			this.codes = new NyARMatchPatt_Color_WITHOUT_PCA[i_number_of_code];
+			NyARRgbRaster[] src = new NyARRgbRaster[i_number_of_code];
+			for (int i = 0; i < i_number_of_code; i++) {
+				NyARCode code = new NyARCode(16, 16);
+				src[i] = blocky(i_rand, 4);
+				code.setRaster(src[i]);
+				this.codes[i] = new NyARMatchPatt_Color_WITHOUT_PCA(code);
+			}
+			this.candidates = new NyARMatchPattDeviationColorData[i_number_of_candidate];
+			for (int c = 0; c < i_number_of_candidate; c++) {
+				NyARRgbRaster ras = new NyARRgbRaster(16, 16, NyARBufferType.INT1D_X8R8G8B8_32);
+				int[] b = (int[]) ras.getBuffer();
+				if (c % 2 == 0) {
+					int[] s = (int[]) src[i_rand.nextInt(i_number_of_code)].getBuffer();
+					int rot = i_rand.nextInt(4);
+					for (int y = 0; y < 16; y++) {
+						for (int x = 0; x < 16; x++) {
+							int sx = x, sy = y;
+							for (int k = 0; k < rot; k++) {
+								int t = sx;
+								sx = 15 - sy;
+								sy = t;
+							}
+							b[y * 16 + x] = gray((s[sy * 16 + sx] & 0xff) + i_rand.nextInt(41) - 20);
+						}
+					}
+				} else {
+					int[] q = (int[]) blocky(i_rand, 2 + i_rand.nextInt(6)).getBuffer();
+					for (int i = 0; i < 256; i++) {
+						b[i] = gray((q[i] & 0xff) + i_rand.nextInt(61) - 30);
+					}
+				}
+				this.candidates[c] = new NyARMatchPattDeviationColorData(16, 16);
+				this.candidates[c].setRaster(ras);
+			}
+			this.index = new int[i_number_of_candidate];
+			this.direction = new int[i_number_of_candidate];
+			this.confidence = new double[i_number_of_candidate];
+		}
+
+		/**
+		 * 全てのパターンを最後まで評価して、候補毎に最良のパターンを選びます。
+		 */
+		void selectFull() throws NyARException
+		{
+			final NyARMatchPattResult mr = this._mr;
+			for (int c = 0; c < this.candidates.length; c++) {
+				this.codes[0].evaluate(this.candidates[c], mr);
+				int si = 0, d = mr.direction;
+				double cf = mr.confidence;
+				for (int i = 1; i < this.codes.length; i++) {
+					this.codes[i].evaluate(this.candidates[c], mr);
+					if (cf > mr.confidence) {
+						continue;
+					}
+					si = i;
+					d = mr.direction;
+					cf = mr.confidence;
+				}
+				this.index[c] = si;
+				this.direction[c] = d;
+				this.confidence[c] = cf;
+			}
+		}
+
+		/**
+		 * それまでの最良の一致度に届かないパターンを打ち切りながら、候補毎に最良のパターンを選びます。
+		 */
+		void selectPruned() throws NyARException
+		{
+			final NyARMatchPattResult mr = this._mr;
+			for (int c = 0; c < this.candidates.length; c++) {
+				this.codes[0].evaluate(this.candidates[c], mr);
+				int si = 0, d = mr.direction;
+				double cf = mr.confidence;
+				for (int i = 1; i < this.codes.length; i++) {
+					final double min_confidence = (d == NyARMatchPattResult.DIRECTION_UNKNOWN) ? Double.NEGATIVE_INFINITY : cf;
+					if (!this.codes[i].evaluate(this.candidates[c], min_confidence, mr)) {
+						continue;
+					}
+					if (cf > mr.confidence) {
+						continue;
+					}
+					si = i;
+					d = mr.direction;
+					cf = mr.confidence;
+				}
+				this.index[c] = si;
+				this.direction[c] = d;
+				this.confidence[c] = cf;
+			}
+		}
+	}
+
+	private static int gray(int v)
+	{
+		v = v < 0 ? 0 : (v > 255 ? 255 : v);
+		return (v << 16) | (v << 8) | v;
+	}
+
+	/**
+	 * i_cells x i_cells のブロックを、ランダムに黒か白で塗った16x16のラスタを作ります。
+	 */
+	static NyARRgbRaster blocky(Random i_rand, int i_cells) throws NyARException
+	{
+		NyARRgbRaster ras = new NyARRgbRaster(16, 16, NyARBufferType.INT1D_X8R8G8B8_32);
+		int[] b = (int[]) ras.getBuffer();
+		int[] c = new int[i_cells * i_cells];
+		for (int i = 0; i < c.length; i++) {
+			c[i] = i_rand.nextBoolean() ? 0x101010 : 0xe0e0e0;
+		}
+		for (int y = 0; y < 16; y++) {
+			for (int x = 0; x < 16; x++) {
+				b[y * 16 + x] = c[(y * i_cells / 16) * i_cells + x * i_cells / 16];
+			}
+		}
+		return ras;
+	}
+
+	private static void assertSameSelection(int i_number_of_code) throws NyARException
+	{
+		Fixture f = new Fixture(new Random(11 + i_number_of_code), i_number_of_code, CANDIDATES);
+		f.selectFull();
+		final int[] index = f.index.clone();
+		final int[] direction = f.direction.clone();
+		final double[] confidence = f.confidence.clone();
+		f.selectPruned();
+		for (int c = 0; c < CANDIDATES; c++) {
+			final String msg = "codes " + i_number_of_code + ", candidate " + c;
+			assertEquals(msg, index[c], f.index[c]);
+			assertEquals(msg, direction[c], f.direction[c]);
+			assertEquals(msg, Double.doubleToLongBits(confidence[c]), Double.doubleToLongBits(f.confidence[c]));
+		}
+	}
+
+	@Test
+	public void prunedSelectionMatchesFullEvaluation1() throws NyARException
+	{
+		assertSameSelection(1);
+	}
+
+	@Test
+	public void prunedSelectionMatchesFullEvaluation10() throws NyARException
+	{
+		assertSameSelection(10);
+	}
+
+	@Test
+	public void prunedSelectionMatchesFullEvaluation100() throws NyARException
+	{
+		assertSameSelection(100);
+	}
+
+	@Test
+	public void prunedSelectionMatchesFullEvaluation1000() throws NyARException
+	{
+		assertSameSelection(1000);
+	}
+}
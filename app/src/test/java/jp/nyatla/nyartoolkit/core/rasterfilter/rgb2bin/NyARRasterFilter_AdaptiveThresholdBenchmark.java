@@ -0,0 +1,96 @@
+/*
+ * PROJECT: NyARToolkit(Extension)
+ * --------------------------------------------------------------------------------
+ * The NyARToolkit is Java edition ARToolKit class library.
+ * Copyright (C)2008-2009 Ryo Iizuka
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp> or <nyatla(at)nyatla.jp>
+ *
+ */
+package jp.nyatla.nyartoolkit.core.rasterfilter.rgb2bin;
+
+import java.util.Random;
+
+import jp.nyatla.nyartoolkit.core.raster.NyARBinRaster;
+import jp.nyatla.nyartoolkit.core.raster.rgb.NyARRgbRaster;
+import jp.nyatla.nyartoolkit.core.types.NyARBufferType;
+
+/**
+ * 640x480の画像で、{@link NyARRasterFilter_AdaptiveThreshold}の処理時間を
+ * {@link NyARRasterFilter_ARToolkitThreshold}と比べるベンチマークです。
+ * 入力の画素形式ごとに、{@link NyARBufferType#LONG1D_BIN_1}と{@link NyARBufferType#INT1D_BIN_8}の出力それぞれについて、
+ * 固定敷居値のフィルタに対する時間の比を表示します。置き換えの目安は1.5倍以内です。
+ * JUnitのテストではないので、テストクラスをコンパイルした後に、次のように実行します。
+ * <pre>java -cp &lt;classes&gt; jp.nyatla.nyartoolkit.core.rasterfilter.rgb2bin.NyARRasterFilter_AdaptiveThresholdBenchmark</pre>
+ * JITコンパイラの状態が画素形式の順に影響されるので、比を厳密に見るときは画素形式ごとにJVMを分けてください。
+ */
+public class NyARRasterFilter_AdaptiveThresholdBenchmark
+{
+	/** 計測前に実行する回数*/
+	private static final int WARMUP = 200;
+	/** 1回の計測で実行する回数*/
+	private static final int BATCH = 50;
+	/** 計測の回数。最小値を採ります*/
+	private static final int ROUNDS = 40;
+
+	public static void main(String[] args) throws Exception
+	{
+		final int w = 640, h = 480;
+		int[] lum = NyARRasterFilter_AdaptiveThresholdTest.halfShadowMarker(new Random(7), w, h);
+		for (int type : NyARRasterFilter_AdaptiveThresholdTest.IN_TYPES) {
+			NyARRgbRaster src = NyARRasterFilter_AdaptiveThresholdTest.toRaster(lum, w, h, type);
+			NyARRasterFilter_AdaptiveThreshold adaptive = new NyARRasterFilter_AdaptiveThreshold(w, h, type);
+			NyARRasterFilter_ARToolkitThreshold global1 = new NyARRasterFilter_ARToolkitThreshold(100, type, NyARBufferType.LONG1D_BIN_1);
+			NyARRasterFilter_ARToolkitThreshold global8 = new NyARRasterFilter_ARToolkitThreshold(100, type);
+			NyARBinRaster b1 = new NyARBinRaster(w, h, NyARBufferType.LONG1D_BIN_1, true);
+			NyARBinRaster b8 = new NyARBinRaster(w, h, NyARBufferType.INT1D_BIN_8, true);
+			for (int i = 0; i < WARMUP; i++) {
+				adaptive.doFilter(src, b1);
+				global1.doFilter(src, b1);
+				adaptive.doFilter(src, b8);
+				global8.doFilter(src, b8);
+			}
+			long a1 = Long.MAX_VALUE, g1 = Long.MAX_VALUE, a8 = Long.MAX_VALUE, g8 = Long.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				final long t0 = System.nanoTime();
+				for (int i = 0; i < BATCH; i++) {
+					adaptive.doFilter(src, b1);
+				}
+				final long t1 = System.nanoTime();
+				for (int i = 0; i < BATCH; i++) {
+					global1.doFilter(src, b1);
+				}
+				final long t2 = System.nanoTime();
+				for (int i = 0; i < BATCH; i++) {
+					adaptive.doFilter(src, b8);
+				}
+				final long t3 = System.nanoTime();
+				for (int i = 0; i < BATCH; i++) {
+					global8.doFilter(src, b8);
+				}
+				final long t4 = System.nanoTime();
+				a1 = Math.min(a1, t1 - t0);
+				g1 = Math.min(g1, t2 - t1);
+				a8 = Math.min(a8, t3 - t2);
+				g8 = Math.min(g8, t4 - t3);
+			}
+			System.out.printf("type=%08x  packed=%.3fms/%.3fms (%.2fx)  int=%.3fms/%.3fms (%.2fx)%n",
+				type, a1 / 1e6 / BATCH, g1 / 1e6 / BATCH, a1 / (double) g1, a8 / 1e6 / BATCH, g8 / 1e6 / BATCH, a8 / (double) g8);
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * PROJECT: NyARToolkit(Extension)
+ * --------------------------------------------------------------------------------
+ * The NyARToolkit is Java edition ARToolKit class library.
+ * Copyright (C)2008-2009 Ryo Iizuka
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp> or <nyatla(at)nyatla.jp>
+ *
+ */
+package jp.nyatla.nyartoolkit.core.rasterfilter.rgb2bin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.raster.NyARBinRaster;
+import jp.nyatla.nyartoolkit.core.raster.rgb.NyARRgbRaster;
+import jp.nyatla.nyartoolkit.core.types.NyARBufferType;
+
+import org.junit.Test;
+
+/**
+ * {@link NyARRasterFilter_AdaptiveThreshold}の2値化の結果を確認します。
+ * 全てのタイルの敷居値が同じ画像では{@link NyARRasterFilter_ARToolkitThreshold}と同じ結果になること、
+ * {@link NyARBufferType#INT1D_BIN_8}と{@link NyARBufferType#LONG1D_BIN_1}の出力が同じになること、
+ * 半分だけ影になったマーカの枠が両側とも暗点になることを、入力可能な全ての画素形式で確認します。
+ * 処理時間は{@link NyARRasterFilter_AdaptiveThresholdBenchmark}で計ります。
+ */
+public class NyARRasterFilter_AdaptiveThresholdTest
+{
+	/** 入力可能な画素形式*/
+	static final int[] IN_TYPES = {
+		NyARBufferType.BYTE1D_B8G8R8_24,
+		NyARBufferType.BYTE1D_R8G8B8_24,
+		NyARBufferType.INT1D_X8R8G8B8_32,
+		NyARBufferType.BYTE1D_YUV420SP_NV21 };
+
+	/**
+	 * 輝度の配列から、i_typeのラスタを作ります。RGB形式はR=G=B、NV21形式はY面だけを書きます。
+	 */
+	static NyARRgbRaster toRaster(int[] i_lum, int i_width, int i_height, int i_type) throws NyARException
+	{
+		NyARRgbRaster ras = new NyARRgbRaster(i_width, i_height, i_type);
+		final int n = i_width * i_height;
+		switch (i_type) {
+		case NyARBufferType.INT1D_X8R8G8B8_32: {
+			int[] b = (int[]) ras.getBuffer();
+			for (int i = 0; i < n; i++) {
+				b[i] = (i_lum[i] << 16) | (i_lum[i] << 8) | i_lum[i];
+			}
+			break;
+		}
+		case NyARBufferType.BYTE1D_YUV420SP_NV21: {
+			byte[] b = (byte[]) ras.getBuffer();
+			for (int i = 0; i < n; i++) {
+				b[i] = (byte) i_lum[i];
+			}
+			break;
+		}
+		default: {
+			byte[] b = (byte[]) ras.getBuffer();
+			for (int i = 0; i < n; i++) {
+				b[i * 3] = b[i * 3 + 1] = b[i * 3 + 2] = (byte) i_lum[i];
+			}
+			break;
+		}
+		}
+		return ras;
+	}
+
+	/**
+	 * 左半分が明るく右半分が暗い背景に、マーカの黒枠を1つ描いた画像を作ります。
+	 * 枠は外側200x200、内側120x120で、影の境界をまたぎます。
+	 */
+	static int[] halfShadowMarker(Random i_rand, int i_width, int i_height)
+	{
+		int[] lum = new int[i_width * i_height];
+		for (int y = 0; y < i_height; y++) {
+			for (int x = 0; x < i_width; x++) {
+				final boolean shadow = x >= i_width / 2;
+				final boolean frame = isFrame(x, y);
+				int v = shadow ? (frame ? 15 : 70) : (frame ? 110 : 210);
+				v += i_rand.nextInt(7) - 3;
+				lum[y * i_width + x] = Math.max(0, Math.min(255, v));
+			}
+		}
+		return lum;
+	}
+
+	static boolean isFrame(int x, int y)
+	{
+		return x >= 220 && x < 420 && y >= 140 && y < 340 && !(x >= 260 && x < 380 && y >= 180 && y < 300);
+	}
+
+	private static int[] unpack(NyARBinRaster i_bin, int i_width, int i_height)
+	{
+		long[] b = (long[]) i_bin.getBuffer();
+		final int stride = NyARBinRaster.getRowStride(i_width);
+		int[] r = new int[i_width * i_height];
+		for (int y = 0; y < i_height; y++) {
+			for (int x = 0; x < i_width; x++) {
+				r[y * i_width + x] = (int) ((b[y * stride + (x >> 6)] >>> (x & 63)) & 1);
+			}
+		}
+		return r;
+	}
+
+	@Test
+	public void equalTilesMatchGlobalThreshold() throws NyARException
+	{
+		final int w = 640, h = 480;
+		//8x8画素の市松模様。どのタイルも平均値は(50+200)/2=125になる
+		int[] lum = new int[w * h];
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				lum[y * w + x] = ((x / 8 + y / 8) % 2 == 0) ? 50 : 200;
+			}
+		}
+		//敷居値ちょうどの画素も混ぜる
+		for (int i = 0; i < lum.length; i += 7) {
+			if ((i % w) % 8 != 0 && (i / w) % 8 != 0) {
+				lum[i] = 125 + (i % 3) - 1;
+			}
+		}
+		for (int type : IN_TYPES) {
+			NyARRgbRaster src = toRaster(lum, w, h, type);
+			NyARBinRaster expected = new NyARBinRaster(w, h, NyARBufferType.INT1D_BIN_8, true);
+			NyARBinRaster actual = new NyARBinRaster(w, h, NyARBufferType.INT1D_BIN_8, true);
+			new NyARRasterFilter_ARToolkitThreshold(125, type).doFilter(src, expected);
+			new NyARRasterFilter_AdaptiveThreshold(w, h, type).doFilter(src, actual);
+			assertArrayEquals("type " + Integer.toHexString(type), (int[]) expected.getBuffer(), (int[]) actual.getBuffer());
+		}
+	}
+
+	@Test
+	public void packedMatchesInt() throws NyARException
+	{
+		Random rand = new Random(3);
+		//64と8の倍数でない大きさや、タイルより小さい大きさも含める
+		final int[][] sizes = { { 640, 480 }, { 333, 250 }, { 100, 37 }, { 17, 16 }, { 70, 130 } };
+		for (int[] s : sizes) {
+			final int w = s[0], h = s[1];
+			int[] lum = new int[w * h];
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					//横方向の影と、ランダムな四角形
+					lum[y * w + x] = 40 + x * 180 / w + rand.nextInt(9);
+				}
+			}
+			for (int k = 0; k < 10; k++) {
+				final int x0 = rand.nextInt(w), y0 = rand.nextInt(h);
+				final int x1 = Math.min(w, x0 + 1 + rand.nextInt(60)), y1 = Math.min(h, y0 + 1 + rand.nextInt(60));
+				for (int y = y0; y < y1; y++) {
+					for (int x = x0; x < x1; x++) {
+						lum[y * w + x] /= 4;
+					}
+				}
+			}
+			for (int type : IN_TYPES) {
+				for (int tile : new int[] { 16, 32, 48 }) {
+					NyARRgbRaster src = toRaster(lum, w, h, type);
+					NyARRasterFilter_AdaptiveThreshold f = new NyARRasterFilter_AdaptiveThreshold(w, h, tile, type);
+					NyARBinRaster b8 = new NyARBinRaster(w, h, NyARBufferType.INT1D_BIN_8, true);
+					NyARBinRaster b1 = new NyARBinRaster(w, h, NyARBufferType.LONG1D_BIN_1, true);
+					f.doFilter(src, b8);
+					f.doFilter(src, b1);
+					final String tag = w + "x" + h + " tile " + tile + " type " + Integer.toHexString(type);
+					assertArrayEquals(tag, (int[]) b8.getBuffer(), unpack(b1, w, h));
+				}
+			}
+		}
+	}
+
+	/**
+	 * 影の境界は段差なので、境界から1タイル以内は補間された敷居値が両側の中間になり、
+	 * 枠と背景の一部が反転する。境界から1タイル以上離れた画素だけを厳密に検査する。
+	 */
+	@Test
+	public void halfShadowedMarkerFrameIsDark() throws NyARException
+	{
+		final int w = 640, h = 480;
+		final int margin = NyARRasterFilter_AdaptiveThreshold.DEFAULT_TILE_SIZE;
+		int[] lum = halfShadowMarker(new Random(5), w, h);
+		for (int type : IN_TYPES) {
+			NyARRgbRaster src = toRaster(lum, w, h, type);
+			NyARBinRaster bin = new NyARBinRaster(w, h, NyARBufferType.INT1D_BIN_8, true);
+			new NyARRasterFilter_AdaptiveThreshold(w, h, type).doFilter(src, bin);
+			int[] b = (int[]) bin.getBuffer();
+			int frame = 0, frame_dark = 0, far_frame = 0, far_frame_dark = 0, other = 0, other_bright = 0;
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					final boolean far = Math.abs(x - w / 2) >= margin;
+					if (isFrame(x, y)) {
+						frame++;
+						frame_dark += 1 - b[y * w + x];
+						if (far) {
+							far_frame++;
+							far_frame_dark += 1 - b[y * w + x];
+						}
+					} else if (far) {
+						other++;
+						other_bright += b[y * w + x];
+					}
+				}
+			}
+			final String tag = "type " + Integer.toHexString(type);
+			//境界から離れた枠は影の側も含めて全て暗点
+			assertEquals(tag, far_frame, far_frame_dark);
+			assertTrue(tag + " bright " + other_bright + "/" + other, other_bright > other * 0.99);
+			//境界付近を含めても、枠の大部分は暗点のまま
+			assertTrue(tag + " dark " + frame_dark + "/" + frame, frame_dark > frame * 0.98);
+		}
+		//1つの敷居値では、どちらかの側の枠か背景が崩れる
+		NyARRgbRaster src = toRaster(lum, w, h, NyARBufferType.BYTE1D_YUV420SP_NV21);
+		NyARBinRaster bin = new NyARBinRaster(w, h, NyARBufferType.INT1D_BIN_8, true);
+		new NyARRasterFilter_ARToolkitThreshold(100, NyARBufferType.BYTE1D_YUV420SP_NV21).doFilter(src, bin);
+		int[] b = (int[]) bin.getBuffer();
+		int bright_frame = 0;
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				if (isFrame(x, y)) {
+					bright_frame += b[y * w + x];
+				}
+			}
+		}
+		assertTrue(bright_frame > 0);
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * PROJECT: NyARToolkit(Extension)
+ * --------------------------------------------------------------------------------
+ * The NyARToolkit is Java edition ARToolKit class library.
+ * Copyright (C)2008-2009 Ryo Iizuka
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For further information please contact.
+ *	http://nyatla.jp/nyatoolkit/
+ *	<airmail(at)ebony.plala.or.jp> or <nyatla(at)nyatla.jp>
+ *
+ */
+package jp.nyatla.nyartoolkit.core.squaredetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jp.nyatla.nyartoolkit.NyARException;
+import jp.nyatla.nyartoolkit.core.raster.*;
+import jp.nyatla.nyartoolkit.core.types.*;
+
+import org.junit.Test;
+
+/**
+ * {@link NyARSquareContourDetector_Rle#setParallelMode}の並列処理が、逐次処理と同じ矩形を同じ順番で
+ * {@link NyARSquareContourDetector_Rle#onSquareDetect}へ通知することを、マーカー状の四角形を
+ * 並べたランダムな画像で確認します。四角形は帯の継ぎ目をまたぐ位置にも置きます。
+ */
+public class NyARSquareContourDetector_RleTest
+{
+	private static final int ITERATIONS = 40;
+	private static final int MAX_THREADS = 8;
+
+	/**
+	 * 通知された矩形の頂点を文字列に記録する検出器
+	 */
+	private static class Detector extends NyARSquareContourDetector_Rle
+	{
+		final StringBuilder log = new StringBuilder();
+		int count = 0;
+		Detector(int i_width, int i_height) throws NyARException
+		{
+			super(new NyARIntSize(i_width, i_height));
+		}
+		protected void onSquareDetect(NyARIntCoordinates i_coord, int[] i_vertex_index) throws NyARException
+		{
+			this.log.append(i_coord.length).append(':');
+			for (int i = 0; i < 4; i++) {
+				NyARIntPoint2d p = i_coord.items[i_vertex_index[i]];
+				this.log.append(p.x).append(',').append(p.y).append(' ');
+			}
+			this.log.append(';');
+			this.count++;
+		}
+	}
+
+	/**
+	 * 明るい背景に、回転した黒枠（中は白、中央に黒い点）を描く。
+	 * 輝度は0..255で、黒は100以下、白は101以上になる。
+	 */
+	private static int[] makeImage(Random i_rand, int i_width, int i_height)
+	{
+		int[] img = new int[i_width * i_height];
+		for (int i = 0; i < img.length; i++) {
+			img[i] = 150 + i_rand.nextInt(100);
+		}
+		final int n = 3 + i_rand.nextInt(10);
+		for (int k = 0; k < n; k++) {
+			final double size = 30 + i_rand.nextInt(90);
+			final double cx = size + i_rand.nextDouble() * (i_width - 2 * size);
+			final double cy = size + i_rand.nextDouble() * (i_height - 2 * size);
+			final double a = i_rand.nextDouble() * Math.PI / 2;
+			final double cos = Math.cos(a), sin = Math.sin(a);
+			final int r = (int) (size * 0.75) + 1;
+			for (int y = (int) cy - r; y <= cy + r; y++) {
+				for (int x = (int) cx - r; x <= cx + r; x++) {
+					if (x < 0 || y < 0 || x >= i_width || y >= i_height) {
+						continue;
+					}
+					// 四角形のローカル座標
+					final double u = Math.abs((x - cx) * cos + (y - cy) * sin);
+					final double v = Math.abs(-(x - cx) * sin + (y - cy) * cos);
+					final double m = Math.max(u, v);
+					if (m < size / 2) {
+						final boolean dark = m >= size / 4 || m < size / 16;
+						img[y * i_width + x] = dark ? i_rand.nextInt(80) : 200 + i_rand.nextInt(56);
+					}
+				}
+			}
+		}
+		return img;
+	}
+
+	@Test
+	public void parallelMatchesSequential() throws NyARException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Random rand = new Random(8);
+			int squares = 0;
+			for (int it = 0; it < ITERATIONS; it++) {
+				final int w = 320 + rand.nextInt(340);
+				final int h = 240 + rand.nextInt(260);
+				final int threads = 2 + it % (MAX_THREADS - 1);
+				int[] img = makeImage(rand, w, h);
+				NyARGrayscaleRaster gs = new NyARGrayscaleRaster(w, h);
+				NyARBinRaster bin = new NyARBinRaster(w, h, NyARBufferType.INT1D_BIN_8, true);
+				System.arraycopy(img, 0, (int[]) gs.getBuffer(), 0, img.length);
+				int[] bbuf = (int[]) bin.getBuffer();
+				for (int i = 0; i < img.length; i++) {
+					bbuf[i] = img[i] > 100 ? 1 : 0;
+				}
+				Detector sequential = new Detector(w, h);
+				Detector parallel = new Detector(w, h);
+				parallel.setParallelMode(executor, threads);
+				final String tag = "iteration " + it + " (" + w + "x" + h + ", " + threads + " threads)";
+
+				sequential.detectMarker(bin);
+				parallel.detectMarker(bin);
+				assertEquals(tag + " BIN", sequential.log.toString(), parallel.log.toString());
+				squares += sequential.count;
+
+				NyARIntRect rect = new NyARIntRect();
+				rect.x = 0;
+				rect.y = 0;
+				rect.w = w;
+				rect.h = h;
+				sequential.log.setLength(0);
+				parallel.log.setLength(0);
+				sequential.detectMarker(gs, rect, 100);
+				parallel.detectMarker(gs, rect, 100);
+				assertEquals(tag + " GS", sequential.log.toString(), parallel.log.toString());
+			}
+			assertTrue("squares detected: " + squares, squares > ITERATIONS * 2);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
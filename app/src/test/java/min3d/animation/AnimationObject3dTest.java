@@ -0,0 +1,105 @@
+package min3d.animation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * AnimationObject3d.update() runs once per object per frame on the GL thread,
+ * so after the first call it must not allocate. Measured with the per-thread
+ * allocation counter of the HotSpot ThreadMXBean.
+ */
+public class AnimationObject3dTest
+{
+	private static final int WARMUP = 20000;
+	private static final int UPDATES = 10000;
+
+	private static long allocatedBytes(Runnable $r)
+	{
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) mx;
+		assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+		long id = Thread.currentThread().getId();
+
+		// Measure the measurement itself, so only update() is left
+		long e0 = bean.getThreadAllocatedBytes(id);
+		long e1 = bean.getThreadAllocatedBytes(id);
+
+		long b0 = bean.getThreadAllocatedBytes(id);
+		$r.run();
+		long b1 = bean.getThreadAllocatedBytes(id);
+		return (b1 - b0) - (e1 - e0);
+	}
+
+	private static AnimationObject3d newObject(int $numVerts, KeyFrame[] $frames)
+	{
+		AnimationObject3d o = new AnimationObject3d($numVerts, $numVerts / 3, $frames.length);
+		o.setFrames($frames);
+		for (int i = 0; i < $numVerts; i++) {
+			o.vertices().addVertex(0, 0, 0, 0, 0, 0, 0, 0, (short) 0, (short) 0, (short) 0, (short) 0);
+		}
+		// Fast enough that the frame index advances during the run
+		o.setFps(1000);
+		return o;
+	}
+
+	private static void assertNoAllocation(final AnimationObject3d $o)
+	{
+		for (int i = 0; i < WARMUP; i++) $o.update();
+		long bytes = allocatedBytes(new Runnable()
+		{
+			public void run()
+			{
+				for (int i = 0; i < UPDATES; i++) $o.update();
+			}
+		});
+		assertEquals("bytes allocated by " + UPDATES + " update() calls", 0, bytes);
+	}
+
+	@Test
+	public void floatFramesUpdateWithoutAllocation()
+	{
+		int numVerts = 3000;
+		Random r = new Random(1);
+		KeyFrame[] frames = new KeyFrame[8];
+		for (int f = 0; f < frames.length; f++) {
+			float[] v = new float[numVerts * 3];
+			float[] n = new float[numVerts * 3];
+			for (int i = 0; i < v.length; i++) {
+				v[i] = r.nextFloat();
+				n[i] = r.nextFloat();
+			}
+			frames[f] = new KeyFrame("run" + f, v, n);
+		}
+		AnimationObject3d o = newObject(numVerts, frames);
+		o.play();
+		assertNoAllocation(o);
+	}
+
+	@Test
+	public void quantizedFramesUpdateWithoutAllocation()
+	{
+		int numIndexed = 500;
+		int numVerts = 3000;
+		Random r = new Random(2);
+		int[] indices = new int[numVerts];
+		for (int i = 0; i < indices.length; i++) indices[i] = r.nextInt(numIndexed);
+		KeyFrame[] frames = new KeyFrame[8];
+		for (int f = 0; f < frames.length; f++) {
+			byte[] positions = new byte[numIndexed * 3];
+			byte[] normalIndices = new byte[numIndexed];
+			r.nextBytes(positions);
+			for (int i = 0; i < normalIndices.length; i++) normalIndices[i] = (byte) r.nextInt(MD2Normals.NORMALS.length / 3);
+			frames[f] = new KeyFrame("run", positions, normalIndices, new float[] { 0.1f, 0.1f, 0.1f }, new float[] { -12, -12, -12 });
+			frames[f].setIndices(indices);
+		}
+		AnimationObject3d o = newObject(numVerts, frames);
+		o.play("run", true);
+		assertNoAllocation(o);
+	}
+}
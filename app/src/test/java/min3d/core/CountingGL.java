@@ -0,0 +1,173 @@
+package min3d.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+/**
+ * GL10/GL11 mock for unit tests. Counts every call by method name and models the
+ * enable/client-state/texture-unit state that GLState shadows, so tests can compare
+ * what GL actually received with what Renderer and GLState think it has.
+ *
+ * Names from glGen*() count up from 1; glGetIntegerv() reports 2 texture units and 8 lights.
+ */
+public class CountingGL implements InvocationHandler
+{
+	public static final int TEXTURE_UNITS = 2;
+
+	private final GL10 _gl;
+	private final Map<String, Integer> _counts = new HashMap<String, Integer>();
+	private Listener _listener;
+
+	// Modelled GL state
+	private final Set<Integer> _caps = new HashSet<Integer>();
+	private final Set<Integer> _arrays = new HashSet<Integer>();
+	private final boolean[] _texture2d = new boolean[TEXTURE_UNITS];
+	private final boolean[] _texCoordArray = new boolean[TEXTURE_UNITS];
+	private final int[] _boundTexture = new int[TEXTURE_UNITS];
+	private int _activeTexture = GL10.GL_TEXTURE0;
+	private int _clientActiveTexture = GL10.GL_TEXTURE0;
+	private int _shadeModel = GL10.GL_SMOOTH;
+	private int _nextName = 1;
+
+	/**
+	 * Called on every glDrawArrays()/glDrawElements(), before it is counted
+	 */
+	public interface Listener
+	{
+		void onDraw(CountingGL $gl);
+	}
+
+	public CountingGL()
+	{
+		_gl = (GL10) Proxy.newProxyInstance(CountingGL.class.getClassLoader(),
+				new Class<?>[] { GL10.class, GL11.class }, this);
+	}
+
+	public GL10 gl()
+	{
+		return _gl;
+	}
+
+	public void setListener(Listener $listener)
+	{
+		_listener = $listener;
+	}
+
+	public int count(String $method)
+	{
+		Integer n = _counts.get($method);
+		return n != null ? n : 0;
+	}
+
+	public int total()
+	{
+		int n = 0;
+		for (int c : _counts.values()) n += c;
+		return n;
+	}
+
+	public Map<String, Integer> counts()
+	{
+		return new HashMap<String, Integer>(_counts);
+	}
+
+	public void resetCounts()
+	{
+		_counts.clear();
+	}
+
+	public boolean isEnabled(int $cap)
+	{
+		if ($cap == GL10.GL_TEXTURE_2D) return _texture2d[_activeTexture - GL10.GL_TEXTURE0];
+		return _caps.contains($cap);
+	}
+
+	public boolean isClientStateEnabled(int $array)
+	{
+		if ($array == GL10.GL_TEXTURE_COORD_ARRAY) return _texCoordArray[_clientActiveTexture - GL10.GL_TEXTURE0];
+		return _arrays.contains($array);
+	}
+
+	public boolean isTexture2dEnabled(int $unit)
+	{
+		return _texture2d[$unit];
+	}
+
+	public boolean isTexCoordArrayEnabled(int $unit)
+	{
+		return _texCoordArray[$unit];
+	}
+
+	public int boundTexture(int $unit)
+	{
+		return _boundTexture[$unit];
+	}
+
+	public Object invoke(Object $proxy, Method $method, Object[] $args)
+	{
+		String name = $method.getName();
+		if (name.equals("glDrawArrays") || name.equals("glDrawElements")) {
+			if (_listener != null) _listener.onDraw(this);
+		}
+		Integer n = _counts.get(name);
+		_counts.put(name, n != null ? n + 1 : 1);
+
+		if (name.equals("glEnable") || name.equals("glDisable")) {
+			int cap = (Integer) $args[0];
+			boolean on = name.equals("glEnable");
+			if (cap == GL10.GL_TEXTURE_2D) _texture2d[_activeTexture - GL10.GL_TEXTURE0] = on;
+			else if (on) _caps.add(cap);
+			else _caps.remove(cap);
+		}
+		else if (name.equals("glEnableClientState") || name.equals("glDisableClientState")) {
+			int array = (Integer) $args[0];
+			boolean on = name.equals("glEnableClientState");
+			if (array == GL10.GL_TEXTURE_COORD_ARRAY) _texCoordArray[_clientActiveTexture - GL10.GL_TEXTURE0] = on;
+			else if (on) _arrays.add(array);
+			else _arrays.remove(array);
+		}
+		else if (name.equals("glActiveTexture")) {
+			_activeTexture = (Integer) $args[0];
+		}
+		else if (name.equals("glClientActiveTexture")) {
+			_clientActiveTexture = (Integer) $args[0];
+		}
+		else if (name.equals("glBindTexture")) {
+			_boundTexture[_activeTexture - GL10.GL_TEXTURE0] = (Integer) $args[1];
+		}
+		else if (name.equals("glShadeModel")) {
+			_shadeModel = (Integer) $args[0];
+		}
+		else if (name.equals("glGenTextures") || name.equals("glGenBuffers")) {
+			int count = (Integer) $args[0];
+			int[] names = (int[]) $args[1];
+			int offset = (Integer) $args[2];
+			for (int i = 0; i < count; i++) names[offset + i] = _nextName++;
+		}
+		else if (name.equals("glGetIntegerv") && $args[1] instanceof IntBuffer) {
+			int pname = (Integer) $args[0];
+			int value;
+			if (pname == GL10.GL_MAX_TEXTURE_UNITS) value = TEXTURE_UNITS;
+			else if (pname == GL10.GL_MAX_LIGHTS) value = 8;
+			else if (pname == GL11.GL_SHADE_MODEL) value = _shadeModel;
+			else if (pname == GL10.GL_COLOR_MATERIAL) value = _caps.contains(GL10.GL_COLOR_MATERIAL) ? 1 : 0;
+			else value = 64;
+			((IntBuffer) $args[1]).put(0, value);
+		}
+
+		Class<?> r = $method.getReturnType();
+		if (r == boolean.class) return false;
+		if (r == int.class) return 0;
+		if (r == String.class) return "";
+		return null;
+	}
+}
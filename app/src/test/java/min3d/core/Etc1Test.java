@@ -0,0 +1,169 @@
+package min3d.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Encodes images with Etc1 and decodes them again: gradients must come back
+ * above a PSNR floor, flat blocks close to their color, and images of any
+ * size must encode as if their last row and column were repeated up to the
+ * next multiple of 4.
+ */
+public class Etc1Test
+{
+	private static int[] gradient(int $width, int $height)
+	{
+		int[] argb = new int[$width * $height];
+		for (int y = 0; y < $height; y++) {
+			for (int x = 0; x < $width; x++) {
+				int r = x * 255 / Math.max(1, $width - 1);
+				int g = y * 255 / Math.max(1, $height - 1);
+				int b = (x + y) * 255 / Math.max(1, $width + $height - 2);
+				argb[y * $width + x] = 0xff000000 | r << 16 | g << 8 | b;
+			}
+		}
+		return argb;
+	}
+
+	private static double psnr(int[] $a, int[] $b)
+	{
+		double se = 0;
+		for (int i = 0; i < $a.length; i++) {
+			for (int s = 0; s < 24; s += 8) {
+				int d = (($a[i] >> s) & 0xff) - (($b[i] >> s) & 0xff);
+				se += d * d;
+			}
+		}
+		se /= $a.length * 3;
+		return 10 * Math.log10(255.0 * 255.0 / se);
+	}
+
+	/**
+	 * The high word of block $block, where the mode and orientation bits are
+	 */
+	private static int high(byte[] $data, int $block)
+	{
+		int o = $block * 8;
+		return ($data[o] & 0xff) << 24 | ($data[o + 1] & 0xff) << 16 | ($data[o + 2] & 0xff) << 8 | ($data[o + 3] & 0xff);
+	}
+
+	@Test
+	public void encodedSizeRoundsUpToBlocks()
+	{
+		assertEquals(0, Etc1.encodedSize(0, 0));
+		assertEquals(8, Etc1.encodedSize(1, 1));
+		assertEquals(8, Etc1.encodedSize(4, 4));
+		assertEquals(16, Etc1.encodedSize(5, 4));
+		assertEquals(16, Etc1.encodedSize(4, 5));
+		assertEquals(64, Etc1.encodedSize(13, 7));
+		assertEquals(256 * 256 / 2, Etc1.encodedSize(256, 256));
+		assertEquals(Etc1.encodedSize(13, 7), Etc1.encode(new int[13 * 7], 13, 7).length);
+	}
+
+	@Test
+	public void gradientsRoundTripAboveThePsnrFloor()
+	{
+		int[][] sizes = { { 64, 64 }, { 256, 32 }, { 30, 50 } };
+		for (int[] s : sizes)
+		{
+			int[] argb = gradient(s[0], s[1]);
+			int[] decoded = Etc1.decode(Etc1.encode(argb, s[0], s[1]), 0, s[0], s[1]);
+			double p = psnr(argb, decoded);
+			assertTrue(s[0] + "x" + s[1] + ": " + p + " dB", p > 35);
+			for (int c : decoded) assertEquals(0xff, c >>> 24);
+		}
+	}
+
+	@Test
+	public void constantBlocksStayClose()
+	{
+		Random rand = new Random(1);
+		int[] block = new int[16];
+		for (int n = 0; n < 1000; n++)
+		{
+			int color = n == 0 ? 0 : (n == 1 ? 0xffffff : rand.nextInt(0x1000000));
+			Arrays.fill(block, 0xff000000 | color);
+			int[] decoded = Etc1.decode(Etc1.encode(block, 4, 4), 0, 4, 4);
+			for (int i = 0; i < 16; i++)
+			{
+				assertEquals(decoded[0], decoded[i]);
+				// 5-bit base colors are at most 4 off, the smallest offset is 2
+				for (int s = 0; s < 24; s += 8) {
+					int d = Math.abs(((decoded[i] >> s) & 0xff) - ((color >> s) & 0xff));
+					assertTrue(Integer.toHexString(color) + " -> " + Integer.toHexString(decoded[i]), d <= 6);
+				}
+			}
+		}
+		// Black and white are reached exactly, the offsets clamp
+		Arrays.fill(block, 0xff000000);
+		assertEquals(0xff000000, Etc1.decode(Etc1.encode(block, 4, 4), 0, 4, 4)[5]);
+		Arrays.fill(block, 0xffffffff);
+		assertEquals(0xffffffff, Etc1.decode(Etc1.encode(block, 4, 4), 0, 4, 4)[5]);
+	}
+
+	@Test
+	public void oddSizesRepeatTheLastRowAndColumn()
+	{
+		Random rand = new Random(2);
+		int[][] sizes = { { 1, 1 }, { 3, 2 }, { 5, 4 }, { 4, 5 }, { 7, 9 }, { 13, 6 } };
+		for (int[] s : sizes)
+		{
+			int w = s[0], h = s[1];
+			int[] argb = new int[w * h];
+			for (int i = 0; i < argb.length; i++) argb[i] = 0xff000000 | rand.nextInt(0x1000000);
+
+			int pw = (w + 3) & ~3, ph = (h + 3) & ~3;
+			int[] padded = new int[pw * ph];
+			for (int y = 0; y < ph; y++) {
+				for (int x = 0; x < pw; x++) {
+					padded[y * pw + x] = argb[Math.min(y, h - 1) * w + Math.min(x, w - 1)];
+				}
+			}
+			byte[] data = Etc1.encode(argb, w, h);
+			String tag = w + "x" + h;
+			assertArrayEquals(tag, Etc1.encode(padded, pw, ph), data);
+
+			int[] decoded = Etc1.decode(data, 0, w, h);
+			int[] decodedPadded = Etc1.decode(data, 0, pw, ph);
+			assertEquals(tag, w * h, decoded.length);
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					assertEquals(tag, decodedPadded[y * pw + x], decoded[y * w + x]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void picksDifferentialOrIndividualMode()
+	{
+		int[] block = new int[16];
+		// Halves 16 apart, which 5-bit base colors and offsets hit exactly and 4-bit ones don't
+		for (int i = 0; i < 16; i++) block[i] = (i % 4) < 2 ? 0xff292929 : 0xff393939;
+		byte[] data = Etc1.encode(block, 4, 4);
+		assertEquals(2, high(data, 0) & 2);
+		assertArrayEquals(block, Etc1.decode(data, 0, 4, 4));
+
+		// Black left, white right: too far apart for a 3-bit difference
+		for (int i = 0; i < 16; i++) block[i] = (i % 4) < 2 ? 0xff000000 : 0xffffffff;
+		data = Etc1.encode(block, 4, 4);
+		assertEquals(0, high(data, 0) & 2);
+		// The halves are left and right, not top and bottom
+		assertEquals(0, high(data, 0) & 1);
+		assertArrayEquals(block, Etc1.decode(data, 0, 4, 4));
+
+		// Black top, light gray bottom flips the block. (Black and white would
+		// not: the largest offsets reach both from a mid gray base.)
+		for (int i = 0; i < 16; i++) block[i] = i < 8 ? 0xff000000 : 0xffb6b6b6;
+		data = Etc1.encode(block, 4, 4);
+		assertEquals(0, high(data, 0) & 2);
+		assertEquals(1, high(data, 0) & 1);
+		assertArrayEquals(block, Etc1.decode(data, 0, 4, 4));
+	}
+}
@@ -0,0 +1,117 @@
+package min3d.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Several producers publish to one MarkerResultBuffer while the consumer
+ * acquires as fast as it can. Every publish must land, the consumer must never
+ * see a torn set, and the set published last must be the one left in front.
+ */
+public class MarkerResultBufferTest
+{
+	private static final int PRODUCERS = 4;
+	private static final int PUBLISHES = 20000;
+
+	// Every value written for one set is derived from $value, so a torn set shows up as a mismatch
+	private static void publish(MarkerResultBuffer $buffer, int $value, int[] $ids, float[][] $poses, float[] $projection)
+	{
+		int count = 1 + $value % MarkerResultBuffer.MARKER_MAX;
+		for (int i = 0; i < count; i++) {
+			$ids[i] = $value + i;
+			for (int j = 0; j < 16; j++) $poses[i][j] = $value + i;
+		}
+		for (int j = 0; j < 16; j++) $projection[j] = $value;
+		$buffer.publish(count, $ids, $poses, $projection, $value);
+	}
+
+	private static void checkConsistent(MarkerResultBuffer.Frame $f)
+	{
+		int value = (int) $f.timestamp();
+		assertEquals(1 + value % MarkerResultBuffer.MARKER_MAX, $f.count());
+		float[] poses = $f.poses();
+		for (int i = 0; i < $f.count(); i++) {
+			assertEquals(value + i, $f.id(i));
+			for (int j = 0; j < 16; j++) assertEquals(value + i, poses[i * 16 + j], 0f);
+		}
+		assertTrue($f.hasProjection());
+		for (int j = 0; j < 16; j++) assertEquals(value, $f.projection()[j], 0f);
+	}
+
+	@Test
+	public void concurrentPublishersNeverDropOrTear() throws Exception
+	{
+		final MarkerResultBuffer buffer = new MarkerResultBuffer();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(PRODUCERS);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Thread[] producers = new Thread[PRODUCERS];
+		for (int p = 0; p < PRODUCERS; p++) {
+			final int base = p * 1000000;
+			producers[p] = new Thread()
+			{
+				public void run()
+				{
+					int[] ids = new int[MarkerResultBuffer.MARKER_MAX];
+					float[][] poses = new float[MarkerResultBuffer.MARKER_MAX][16];
+					float[] projection = new float[16];
+					try {
+						start.await();
+						for (int k = 0; k < PUBLISHES; k++) {
+							publish(buffer, base + k, ids, poses, projection);
+						}
+					}
+					catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+					finally {
+						done.countDown();
+					}
+				}
+			};
+			producers[p].start();
+		}
+
+		// Consumer: sequences only increase, and each producer's values arrive in order
+		int[] lastSeen = new int[PRODUCERS];
+		for (int p = 0; p < PRODUCERS; p++) lastSeen[p] = -1;
+		long lastSequence = 0;
+		int acquired = 0;
+		start.countDown();
+		while (true) {
+			boolean finished = done.getCount() == 0;
+			if (! buffer.acquire()) {
+				if (finished) break;
+				continue;
+			}
+			MarkerResultBuffer.Frame f = buffer.front();
+			checkConsistent(f);
+			assertTrue(f.sequence() > lastSequence);
+			lastSequence = f.sequence();
+			int value = (int) f.timestamp();
+			int p = value / 1000000;
+			assertTrue(value % 1000000 > lastSeen[p]);
+			lastSeen[p] = value % 1000000;
+			acquired++;
+		}
+		for (Thread t : producers) t.join();
+		if (failure.get() != null) throw new AssertionError(failure.get());
+
+		// Every publish got a sequence number
+		buffer.acquire();
+		assertEquals((long) PRODUCERS * PUBLISHES, buffer.front().sequence());
+		assertTrue(acquired > 0);
+
+		// A clear published after the others is what the consumer ends up with
+		buffer.publish(0, null, null, null, 0);
+		assertTrue(buffer.acquire());
+		assertEquals(0, buffer.front().count());
+		assertEquals((long) PRODUCERS * PUBLISHES + 1, buffer.front().sequence());
+	}
+}
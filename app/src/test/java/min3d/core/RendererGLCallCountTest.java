@@ -0,0 +1,163 @@
+package min3d.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import min3d.Shared;
+import min3d.interfaces.ISceneController;
+import min3d.objectPrimitives.Box;
+import min3d.vos.Light;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+
+/**
+ * Per-frame GL call counts of Renderer with GLState, against a CountingGL.
+ * The scene mixes textured (two textures), vertex-colored, plain and double-sided boxes.
+ */
+public class RendererGLCallCountTest
+{
+	private static final int OBJECTS = 20;
+	private static final int FRAMES = 10;
+
+	// GL calls per frame for this scene when GLState was introduced (655 before it)
+	private static final int MAX_CALLS_PER_FRAME = 314;
+
+	// State calls that Renderer sends through GLState while drawing
+	private static final String[] STATE_CALLS = {
+		"glEnable", "glDisable", "glEnableClientState", "glDisableClientState",
+		"glBindBuffer", "glActiveTexture", "glClientActiveTexture", "glBindTexture",
+		"glTexParameterf", "glTexParameterx", "glMatrixMode", "glShadeModel",
+		"glColor4f", "glPointSize", "glLineWidth"
+	};
+
+	private static final int[] CAPS = {
+		GL10.GL_LIGHTING, GL10.GL_CULL_FACE, GL10.GL_COLOR_MATERIAL, GL10.GL_FOG,
+		GL10.GL_POINT_SMOOTH, GL10.GL_LINE_SMOOTH, GL10.GL_DEPTH_TEST, GL10.GL_BLEND
+	};
+
+	private static final int[] ARRAYS = {
+		GL10.GL_VERTEX_ARRAY, GL10.GL_NORMAL_ARRAY, GL10.GL_COLOR_ARRAY
+	};
+
+	private CountingGL _counting;
+	private Renderer _renderer;
+
+	@Before
+	public void setUp()
+	{
+		Shared.context(mock(Context.class));
+		final Handler handler = mock(Handler.class);
+		ISceneController controller = new ISceneController()
+		{
+			public void initScene() {}
+			public void updateScene() {}
+			public Handler getInitSceneHandler() { return handler; }
+			public Runnable getInitSceneRunnable() { return null; }
+			public Handler getUpdateSceneHandler() { return handler; }
+			public Runnable getUpdateSceneRunnable() { return null; }
+		};
+		Scene scene = new Scene(controller);
+		_renderer = new Renderer(scene);
+		Shared.renderer(_renderer);
+
+		_counting = new CountingGL();
+		GL10 gl = _counting.gl();
+		_renderer.onSurfaceCreated(gl, null);
+		_renderer.onSurfaceChanged(gl, 640, 480);
+
+		scene.lights().add(new Light());
+		String t1 = Shared.textureManager().addTextureId(Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888), "t1", false);
+		String t2 = Shared.textureManager().addTextureId(Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888), "t2", false);
+		for (int i = 0; i < OBJECTS; i++) {
+			Box b = new Box(1, 1, 1);
+			if (i % 4 == 1) b.textures().addById(t1);
+			if (i % 4 == 2) b.textures().addById(t2);
+			if (i % 5 == 4) b.vertexColorsEnabled(false);
+			if (i % 7 == 6) b.doubleSidedEnabled(true);
+			scene.addChild(b);
+		}
+
+		// First frames set everything up; steady state after that
+		for (int f = 0; f < 3; f++) _renderer.onDrawFrame(gl);
+	}
+
+	private int stateCalls()
+	{
+		int n = 0;
+		for (String s : STATE_CALLS) n += _counting.count(s);
+		return n;
+	}
+
+	@Test
+	public void steadyFrameSkipsQueriesAndRedundantStateChanges()
+	{
+		GLState state = _renderer.glState();
+		long issued0 = state.issuedCount();
+		long skipped0 = state.skippedCount();
+		_counting.resetCounts();
+
+		for (int f = 0; f < FRAMES; f++) _renderer.onDrawFrame(_counting.gl());
+
+		long issued = state.issuedCount() - issued0;
+		long skipped = state.skippedCount() - skipped0;
+
+		// No pipeline-stalling queries, and nothing GLState already knows is re-sent
+		assertEquals(0, _counting.count("glGetIntegerv"));
+		assertEquals(0, _counting.count("glGetFloatv"));
+		assertEquals(0, _counting.count("glGetBooleanv"));
+		assertEquals(0, _counting.count("glActiveTexture"));
+		assertEquals(0, _counting.count("glClientActiveTexture"));
+		assertEquals(0, _counting.count("glTexParameterf") + _counting.count("glTexParameterx"));
+
+		// Every state call GL saw came through GLState
+		assertEquals(issued, stateCalls());
+
+		// Without the shadow, Renderer would also have sent the skipped state calls
+		int perFrame = _counting.total() / FRAMES;
+		int skippedPerFrame = (int) (skipped / FRAMES);
+		assertTrue("nothing skipped", skippedPerFrame > 0);
+		assertTrue("GL calls per frame: " + perFrame + " (" + skippedPerFrame + " skipped by GLState)",
+				perFrame <= MAX_CALLS_PER_FRAME);
+
+		// One draw per object per frame
+		assertEquals(OBJECTS * FRAMES, _counting.count("glDrawElements") + _counting.count("glDrawArrays"));
+	}
+
+	@Test
+	public void shadowMatchesGlStateAtEveryDraw()
+	{
+		final GLState state = _renderer.glState();
+		final int[] draws = new int[1];
+		_counting.setListener(new CountingGL.Listener()
+		{
+			public void onDraw(CountingGL $gl)
+			{
+				draws[0]++;
+				for (int cap : CAPS) {
+					assertEquals("cap 0x" + Integer.toHexString(cap), $gl.isEnabled(cap), state.isEnabled(cap));
+				}
+				for (int array : ARRAYS) {
+					assertEquals("array 0x" + Integer.toHexString(array), $gl.isClientStateEnabled(array), state.isClientStateEnabled(array));
+				}
+				for (int unit = 0; unit < CountingGL.TEXTURE_UNITS; unit++) {
+					if (! state.isTextureUnitOff(unit)) continue;
+					assertFalse("texture unit " + unit, $gl.isTexture2dEnabled(unit));
+					assertFalse("texture unit " + unit, $gl.isTexCoordArrayEnabled(unit));
+					assertEquals("texture unit " + unit, 0, $gl.boundTexture(unit));
+				}
+			}
+		});
+
+		for (int f = 0; f < FRAMES; f++) _renderer.onDrawFrame(_counting.gl());
+		assertEquals(OBJECTS * FRAMES, draws[0]);
+	}
+}
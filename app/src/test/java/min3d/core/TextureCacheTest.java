@@ -0,0 +1,157 @@
+package min3d.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Puts textures into a TextureCache in a temporary directory and reads them
+ * back: the levels and alpha plane must come back byte for byte, and a file
+ * written for another key or by another format version must be ignored.
+ */
+public class TextureCacheTest
+{
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private File _dir;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		_dir = _folder.newFolder("textures");
+		TextureCache.setCacheDirectory(_dir);
+	}
+
+	@After
+	public void tearDown()
+	{
+		TextureCache.setCacheDirectory(null);
+	}
+
+	private static int[] randomPixels(int $length, Random $rand)
+	{
+		int[] argb = new int[$length];
+		for (int i = 0; i < $length; i++) argb[i] = $rand.nextInt();
+		return argb;
+	}
+
+	private static byte[] bytes(ByteBuffer $b)
+	{
+		ByteBuffer d = $b.duplicate();
+		d.position(0);
+		byte[] out = new byte[d.capacity()];
+		d.get(out);
+		return out;
+	}
+
+	private File onlyFile()
+	{
+		File[] files = _dir.listFiles();
+		assertEquals(1, files.length);
+		return files[0];
+	}
+
+	/**
+	 * Overwrites the int at $offset of $file
+	 */
+	private static void patchInt(File $file, int $offset, int $value) throws Exception
+	{
+		RandomAccessFile raf = new RandomAccessFile($file, "rw");
+		try {
+			raf.seek($offset);
+			raf.writeInt($value);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void putThenGetRoundTrips()
+	{
+		final int w = 37, h = 20;
+		final long key = 0x123456789abcdefL;
+		int[] argb = randomPixels(w * h, new Random(4));
+
+		assertNull(TextureCache.get(key, true));
+		TextureCache.Etc1Texture put = TextureCache.put(key, argb, w, h, true, true);
+		// 37x20, 18x10, 9x5, 4x2, 2x1, 1x1
+		assertEquals(6, put.numLevels());
+		assertEquals(Etc1.encodedSize(w, h), bytes(put.levelData(0)).length);
+
+		TextureCache.Etc1Texture got = TextureCache.get(key, true);
+		assertNotNull(got);
+		assertEquals(w, got.width());
+		assertEquals(h, got.height());
+		assertEquals(put.numLevels(), got.numLevels());
+		for (int i = 0; i < put.numLevels(); i++) {
+			assertArrayEquals("level " + i, bytes(put.levelData(i)), bytes(got.levelData(i)));
+		}
+		assertTrue(got.hasAlpha());
+		byte[] alpha = bytes(got.alphaData());
+		for (int i = 0; i < argb.length; i++) assertEquals((byte) (argb[i] >>> 24), alpha[i]);
+		assertEquals(put.byteSize(), got.byteSize());
+
+		// Mipmapped and plain textures are kept apart
+		assertNull(TextureCache.get(key, false));
+		TextureCache.put(key, argb, w, h, false, false);
+		got = TextureCache.get(key, false);
+		assertEquals(1, got.numLevels());
+		assertFalse(got.hasAlpha());
+		assertEquals(2, _dir.listFiles().length);
+	}
+
+	@Test
+	public void rejectsAnotherKey() throws Exception
+	{
+		final long key = 42;
+		final long other = 43;
+		TextureCache.put(key, randomPixels(8 * 8, new Random(5)), 8, 8, false, false);
+		File file = onlyFile();
+		assertNotNull(TextureCache.get(key, false));
+
+		// The file name says other, the header still says key
+		File renamed = new File(_dir, file.getName().replace(Long.toHexString(key), Long.toHexString(other)));
+		assertTrue(file.renameTo(renamed));
+		assertNull(TextureCache.get(other, false));
+		assertNull(TextureCache.get(key, false));
+	}
+
+	@Test
+	public void rejectsAnotherVersion() throws Exception
+	{
+		final long key = 7;
+		TextureCache.put(key, randomPixels(16 * 4, new Random(6)), 16, 4, false, false);
+		File file = onlyFile();
+		assertNotNull(TextureCache.get(key, false));
+
+		// Magic, then the version
+		patchInt(file, 4, 0x7fffffff);
+		assertNull(TextureCache.get(key, false));
+	}
+
+	@Test
+	public void withoutADirectoryNothingIsSaved()
+	{
+		TextureCache.setCacheDirectory(null);
+		TextureCache.Etc1Texture t = TextureCache.put(1, randomPixels(4 * 4, new Random(7)), 4, 4, false, false);
+		assertEquals(1, t.numLevels());
+		assertNull(TextureCache.get(1, false));
+		assertEquals(0, _dir.listFiles().length);
+	}
+}
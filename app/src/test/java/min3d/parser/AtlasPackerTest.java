@@ -0,0 +1,168 @@
+package min3d.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Packs random sets of rectangles and checks the layout: every page is a
+ * power of two no larger than the maximum size, rectangles stay on their
+ * page, and the padded cells of rectangles sharing a page never overlap.
+ */
+public class AtlasPackerTest
+{
+	private static boolean isPowerOfTwo(int $n)
+	{
+		return $n > 0 && ($n & ($n - 1)) == 0;
+	}
+
+	/**
+	 * Checks the layout of $packer, whose rectangles are $sizes
+	 */
+	private static void checkLayout(AtlasPacker $packer, int[][] $sizes, int $maxSize, int $padding)
+	{
+		int numPages = $packer.numPages();
+		int[] count = new int[numPages];
+		for (int p = 0; p < numPages; p++) {
+			String page = "page " + p + " " + $packer.pageWidth(p) + "x" + $packer.pageHeight(p);
+			assertTrue(page, isPowerOfTwo($packer.pageWidth(p)) && isPowerOfTwo($packer.pageHeight(p)));
+			assertTrue(page, $packer.pageWidth(p) <= $maxSize && $packer.pageHeight(p) <= $maxSize);
+		}
+		for (int i = 0; i < $sizes.length; i++) {
+			count[$packer.page(i)]++;
+		}
+		for (int p = 0; p < numPages; p++) {
+			assertTrue("empty page " + p, count[p] > 0);
+		}
+
+		for (int i = 0; i < $sizes.length; i++)
+		{
+			int p = $packer.page(i);
+			int w = $packer.pageWidth(p);
+			int h = $packer.pageHeight(p);
+			if ($sizes.length == 1 || $sizes[i][0] + $padding > $maxSize || $sizes[i][1] + $padding > $maxSize) {
+				// On its own page, at the corner; too long sides are scaled down to the page
+				assertEquals(1, count[p]);
+				assertEquals(0, $packer.x(i));
+				assertEquals(0, $packer.y(i));
+				assertTrue($sizes[i][0] > $maxSize ? w == $maxSize : $sizes[i][0] <= w && w < $sizes[i][0] * 2);
+				assertTrue($sizes[i][1] > $maxSize ? h == $maxSize : $sizes[i][1] <= h && h < $sizes[i][1] * 2);
+				continue;
+			}
+			// The padded cell lies on the page
+			int cx = $packer.x(i) - $padding / 2;
+			int cy = $packer.y(i) - $padding / 2;
+			assertTrue("rectangle " + i, cx >= 0 && cy >= 0);
+			assertTrue("rectangle " + i, cx + $sizes[i][0] + $padding <= w && cy + $sizes[i][1] + $padding <= h);
+
+			for (int j = i + 1; j < $sizes.length; j++)
+			{
+				if ($packer.page(j) != p) continue;
+				int dx = $packer.x(j) - $padding / 2;
+				int dy = $packer.y(j) - $padding / 2;
+				boolean apart = cx + $sizes[i][0] + $padding <= dx || dx + $sizes[j][0] + $padding <= cx
+						|| cy + $sizes[i][1] + $padding <= dy || dy + $sizes[j][1] + $padding <= cy;
+				assertTrue("rectangles " + i + " and " + j + " overlap", apart);
+			}
+		}
+	}
+
+	private static AtlasPacker pack(int[][] $sizes, int $maxSize, int $padding)
+	{
+		AtlasPacker packer = new AtlasPacker($maxSize, $padding);
+		for (int[] s : $sizes) packer.add(s[0], s[1]);
+		packer.pack();
+		return packer;
+	}
+
+	@Test
+	public void randomSetsDontOverlap()
+	{
+		Random rand = new Random(17);
+		for (int iteration = 0; iteration < 200; iteration++)
+		{
+			int maxSize = 256 << rand.nextInt(3);
+			int padding = rand.nextInt(5);
+			int[][] sizes = new int[1 + rand.nextInt(40)][];
+			for (int i = 0; i < sizes.length; i++) {
+				// Mostly small, some up to the maximum size
+				int limit = rand.nextInt(8) == 0 ? maxSize : maxSize / 4;
+				sizes[i] = new int[] { 1 + rand.nextInt(limit), 1 + rand.nextInt(limit) };
+			}
+			AtlasPacker packer = pack(sizes, maxSize, padding);
+			checkLayout(packer, sizes, maxSize, padding);
+		}
+	}
+
+	@Test
+	public void spillsOntoMorePages()
+	{
+		int[][] sizes = new int[20][];
+		for (int i = 0; i < sizes.length; i++) sizes[i] = new int[] { 200, 200 };
+		AtlasPacker packer = pack(sizes, 512, 2);
+		checkLayout(packer, sizes, 512, 2);
+		// Two 202 pixel cells fit across a 512 page, so four per page
+		assertEquals(5, packer.numPages());
+	}
+
+	@Test
+	public void loneRectangleGetsAPowerOfTwoPage()
+	{
+		int[][] sizes = { { 100, 60 } };
+		AtlasPacker packer = pack(sizes, 1024, 2);
+		checkLayout(packer, sizes, 1024, 2);
+		assertEquals(1, packer.numPages());
+		assertEquals(128, packer.pageWidth(0));
+		assertEquals(64, packer.pageHeight(0));
+	}
+
+	@Test
+	public void oversizedRectangleGetsAPageOfItsOwn()
+	{
+		int[][] sizes = { { 64, 64 }, { 3000, 100 }, { 32, 32 }, { 1500, 1500 } };
+		AtlasPacker packer = pack(sizes, 1024, 2);
+		checkLayout(packer, sizes, 1024, 2);
+		assertEquals(3, packer.numPages());
+		int wide = packer.page(1);
+		assertEquals(1024, packer.pageWidth(wide));
+		assertEquals(128, packer.pageHeight(wide));
+		int large = packer.page(3);
+		assertEquals(1024, packer.pageWidth(large));
+		assertEquals(1024, packer.pageHeight(large));
+		assertEquals(packer.page(0), packer.page(2));
+		assertFalse(packer.page(0) == wide || packer.page(0) == large);
+
+		// Also when it is the only one
+		packer = pack(new int[][] { { 3000, 100 } }, 1024, 2);
+		assertEquals(1024, packer.pageWidth(0));
+		assertEquals(128, packer.pageHeight(0));
+	}
+
+	@Test
+	public void efficiencyIsUsedAreaOverPageArea()
+	{
+		// Four 64x64 squares exactly fill a 128x128 page
+		AtlasPacker packer = pack(new int[][] { { 64, 64 }, { 64, 64 }, { 64, 64 }, { 64, 64 } }, 1024, 0);
+		assertEquals(1, packer.numPages());
+		assertEquals(1f, packer.efficiency(), 0f);
+
+		Random rand = new Random(5);
+		int[][] sizes = new int[30][];
+		long used = 0;
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = new int[] { 1 + rand.nextInt(300), 1 + rand.nextInt(300) };
+			used += sizes[i][0] * sizes[i][1];
+		}
+		packer = pack(sizes, 512, 2);
+		long total = 0;
+		for (int p = 0; p < packer.numPages(); p++) total += packer.pageWidth(p) * packer.pageHeight(p);
+		assertEquals((float) used / total, packer.efficiency(), 1e-6f);
+		assertTrue(packer.efficiency() > 0 && packer.efficiency() <= 1);
+
+		assertEquals(0f, new AtlasPacker(1024, 2).efficiency(), 0f);
+	}
+}
@@ -0,0 +1,223 @@
+package min3d.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Welds and reorders generated meshes and checks that the optimizer only
+ * changes how the triangles are indexed: the same triangles (with their
+ * winding) come out, identical vertices are shared, and a grid drawn in
+ * shuffled order is transformed fewer times per triangle afterwards.
+ */
+public class MeshOptimizerTest
+{
+	/**
+	 * A $size x $size quad grid in the xy plane, as triangle soup: every
+	 * triangle has its own three vertices, with uvs and normals.
+	 */
+	private static class Soup
+	{
+		final int numVertices;
+		final float[] points;
+		final float[] uvs;
+		final float[] normals;
+		final int[] indices;
+
+		Soup(int $size, int[] $quadOrder)
+		{
+			int quads = $size * $size;
+			numVertices = quads * 6;
+			points = new float[numVertices * 3];
+			uvs = new float[numVertices * 2];
+			normals = new float[numVertices * 3];
+			indices = new int[numVertices];
+
+			int v = 0;
+			for (int q : $quadOrder)
+			{
+				int x = q % $size, y = q / $size;
+				int[] corners = { x, y, x + 1, y, x + 1, y + 1, x, y, x + 1, y + 1, x, y + 1 };
+				for (int k = 0; k < 6; k++)
+				{
+					int cx = corners[k * 2], cy = corners[k * 2 + 1];
+					points[v * 3] = cx;
+					points[v * 3 + 1] = cy;
+					uvs[v * 2] = cx / (float) $size;
+					uvs[v * 2 + 1] = cy / (float) $size;
+					normals[v * 3 + 2] = 1;
+					indices[v] = v;
+					v++;
+				}
+			}
+		}
+
+		MeshOptimizer optimizer()
+		{
+			return new MeshOptimizer(numVertices, points, uvs, normals, null, indices);
+		}
+	}
+
+	private static int[] identity(int $n)
+	{
+		int[] order = new int[$n];
+		for (int i = 0; i < $n; i++) order[i] = i;
+		return order;
+	}
+
+	private static int[] shuffled(int $n, Random $rand)
+	{
+		int[] order = identity($n);
+		for (int i = $n - 1; i > 0; i--) {
+			int j = $rand.nextInt(i + 1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+		return order;
+	}
+
+	/**
+	 * Each triangle as its vertices' attributes, rotated so that the smallest
+	 * vertex comes first (keeping the winding), sorted.
+	 */
+	private static List<String> triangles(int[] $indices, int[] $vertexOrder, float[] $points, float[] $uvs)
+	{
+		List<String> out = new ArrayList<String>();
+		for (int t = 0; t < $indices.length / 3; t++)
+		{
+			String[] v = new String[3];
+			for (int k = 0; k < 3; k++) {
+				int s = $vertexOrder[$indices[t * 3 + k]];
+				v[k] = $points[s * 3] + "," + $points[s * 3 + 1] + "," + $points[s * 3 + 2] + "/" + $uvs[s * 2] + "," + $uvs[s * 2 + 1];
+			}
+			int first = 0;
+			for (int k = 1; k < 3; k++) {
+				if (v[k].compareTo(v[first]) < 0) first = k;
+			}
+			out.add(v[first] + " " + v[(first + 1) % 3] + " " + v[(first + 2) % 3]);
+		}
+		Collections.sort(out);
+		return out;
+	}
+
+	@Test
+	public void weldsSharedGridCorners()
+	{
+		final int size = 10;
+		Soup soup = new Soup(size, identity(size * size));
+		MeshOptimizer opt = soup.optimizer();
+		opt.optimize();
+		assertEquals((size + 1) * (size + 1), opt.numVertices());
+		assertEquals(soup.indices.length, opt.indices().length);
+
+		// A uv seam down the middle keeps the corners on it apart
+		for (int v = 0; v < soup.numVertices; v++) {
+			// The left corners of the quads right of the seam
+			if (soup.points[v * 3] == size / 2 && (v % 6 == 0 || v % 6 == 3 || v % 6 == 5)) {
+				soup.uvs[v * 2] += 1;
+			}
+		}
+		opt = soup.optimizer();
+		opt.optimize();
+		assertEquals((size + 1) * (size + 1) + size + 1, opt.numVertices());
+
+		// With source vertex keys, only the key (plus uv) tells vertices apart
+		int[] keys = new int[soup.numVertices];
+		soup = new Soup(size, identity(size * size));
+		for (int v = 0; v < soup.numVertices; v++) {
+			keys[v] = (int) soup.points[v * 3] % 2;
+			soup.uvs[v * 2] = soup.uvs[v * 2 + 1] = 0;
+		}
+		opt = soup.optimizer();
+		opt.optimize(keys);
+		assertEquals(2, opt.numVertices());
+	}
+
+	@Test
+	public void keepsTheSameTriangles()
+	{
+		Random rand = new Random(3);
+		for (int iteration = 0; iteration < 20; iteration++)
+		{
+			// Random triangles over a small pool of attribute values, so that many vertices weld
+			int numVertices = 30 + rand.nextInt(300);
+			float[] points = new float[numVertices * 3];
+			float[] uvs = new float[numVertices * 2];
+			for (int i = 0; i < points.length; i++) points[i] = rand.nextInt(3);
+			for (int i = 0; i < uvs.length; i++) uvs[i] = rand.nextInt(2) * 0.5f;
+			int[] indices = new int[(10 + rand.nextInt(500)) * 3];
+			for (int i = 0; i < indices.length; i++) indices[i] = rand.nextInt(numVertices);
+
+			MeshOptimizer opt = new MeshOptimizer(numVertices, points, uvs, null, null, indices);
+			opt.optimize();
+
+			assertTrue(opt.numVertices() <= numVertices);
+			int[] order = opt.vertexOrder();
+			assertEquals(opt.numVertices(), order.length);
+			int[] out = opt.indices();
+			// Every output vertex is used, and numbered in order of first use
+			int next = 0;
+			for (int i = 0; i < out.length; i++) {
+				assertTrue(out[i] <= next);
+				if (out[i] == next) next++;
+			}
+			assertEquals(opt.numVertices(), next);
+			assertEquals(triangles(indices, identity(numVertices), points, uvs), triangles(out, order, points, uvs));
+			assertArrayEquals(gatherByHand(points, order), opt.gather(points, 3), 0f);
+		}
+	}
+
+	private static float[] gatherByHand(float[] $points, int[] $order)
+	{
+		float[] out = new float[$order.length * 3];
+		for (int i = 0; i < $order.length; i++) {
+			for (int k = 0; k < 3; k++) out[i * 3 + k] = $points[$order[i] * 3 + k];
+		}
+		return out;
+	}
+
+	@Test
+	public void lowersAcmrOfAShuffledGrid()
+	{
+		final int size = 32;
+		Soup soup = new Soup(size, shuffled(size * size, new Random(9)));
+		MeshOptimizer opt = soup.optimizer();
+		// Triangle soup never reuses a vertex
+		assertEquals(3, opt.acmrBefore(), 0f);
+		opt.optimize();
+
+		float acmr = opt.acmrAfter();
+		assertEquals(MeshOptimizer.acmr(opt.indices(), opt.numVertices(), MeshOptimizer.ACMR_CACHE_SIZE), acmr, 0f);
+		// The welded grid in shuffled order, for comparison
+		int[] welded = new int[soup.indices.length];
+		for (int i = 0; i < welded.length; i++) {
+			welded[i] = (int) soup.points[i * 3 + 1] * (size + 1) + (int) soup.points[i * 3];
+		}
+		float shuffledAcmr = MeshOptimizer.acmr(welded, (size + 1) * (size + 1), MeshOptimizer.ACMR_CACHE_SIZE);
+		assertTrue(acmr + " vs " + shuffledAcmr, acmr < shuffledAcmr * 0.5f);
+		// 0.5 is the limit for a large grid; a FIFO of 16 gets well below 1
+		assertTrue(Float.toString(acmr), acmr < 0.9f);
+	}
+
+	@Test
+	public void splitsTrianglesIntoGroups()
+	{
+		int[] indices = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14 };
+		int[] groups = { 2, 0, 2, 0, 2 };
+		int[][] out = MeshOptimizer.split(indices, groups, 4);
+		assertEquals(4, out.length);
+		assertArrayEquals(new int[] { 3, 4, 5, 9, 10, 11 }, out[0]);
+		assertNull(out[1]);
+		assertArrayEquals(new int[] { 0, 1, 2, 6, 7, 8, 12, 13, 14 }, out[2]);
+		assertNull(out[3]);
+	}
+}